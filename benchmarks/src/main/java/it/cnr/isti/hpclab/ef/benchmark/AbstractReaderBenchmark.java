@@ -0,0 +1,77 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.cnr.isti.hpclab.ef.benchmark.SyntheticPostingList.Shape;
+
+/**
+ * Common state of the reader benchmarks: a synthetic posting list of given shape, length and quantum,
+ * generated with a fixed seed so that runs are comparable across decoder changes and JVM flags.
+ * Every benchmark method traverses the whole list once, so the reported time is per list.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2G", "-Xmx2G"})
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public abstract class AbstractReaderBenchmark
+{
+	private static final long SEED = 42;
+
+	@Param({"DENSE", "SPARSE", "ZIPF"})
+	public Shape shape;
+
+	@Param({"1000000"})
+	public int length;
+
+	@Param({"8"})
+	public int log2Quantum;
+
+	protected SyntheticPostingList list;
+
+	@Setup(Level.Trial)
+	public void generate() throws IOException
+	{
+		list = new SyntheticPostingList(shape, length, log2Quantum, SEED);
+	}
+
+	@TearDown(Level.Trial)
+	public void delete() throws IOException
+	{
+		list.close();
+	}
+}
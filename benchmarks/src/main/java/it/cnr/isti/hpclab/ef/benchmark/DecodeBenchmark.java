@@ -0,0 +1,98 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+
+import it.cnr.isti.hpclab.ef.util.DocidReader;
+import it.cnr.isti.hpclab.ef.util.FreqReader;
+import it.cnr.isti.hpclab.ef.util.PositionReader;
+
+/**
+ * Sequential decoding of a whole posting list, one element at a time or one block of elements at a time.
+ */
+public class DecodeBenchmark extends AbstractReaderBenchmark
+{
+	/** The number of postings decoded by every bulk call. */
+	private static final int BLOCK_SIZE = 128;
+
+	@Benchmark
+	public long docidGetNextPrefixSum()
+	{
+		final DocidReader reader = list.docidReader();
+		long sum = 0;
+		for (int i = 0; i < length; i++)
+			sum += reader.getNextPrefixSum();
+		return sum;
+	}
+
+	@Benchmark
+	public long docidGetNextPrefixSums()
+	{
+		final DocidReader reader = list.docidReader();
+		final int[] buffer = new int[BLOCK_SIZE];
+		long sum = 0;
+		for (int i = 0; i < length; i += BLOCK_SIZE) {
+			final int count = Math.min(BLOCK_SIZE, length - i);
+			reader.getNextPrefixSums(buffer, 0, count);
+			sum += buffer[count - 1];
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public long freqGetLong()
+	{
+		final FreqReader reader = list.freqReader();
+		long sum = 0;
+		for (int i = 0; i < length; i++)
+			sum += reader.getLong(i);
+		return sum;
+	}
+
+	@Benchmark
+	public long freqGetLongs()
+	{
+		final FreqReader reader = list.freqReader();
+		final int[] buffer = new int[BLOCK_SIZE];
+		long sum = 0;
+		for (int i = 0; i < length; i += BLOCK_SIZE) {
+			final int count = Math.min(BLOCK_SIZE, length - i);
+			reader.getLongs(i, buffer, 0, count);
+			sum += buffer[count - 1];
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public long positionGetNextPosition()
+	{
+		final PositionReader reader = list.positionReader();
+		final int[] freqs = list.frequencies();
+		final long[] first = list.firstPositionIndexes();
+		long sum = 0;
+		for (int i = 0; i < length; i++) {
+			sum += reader.getFirstPosition(first[i]);
+			for (int j = 1; j < freqs[i]; j++)
+				sum += reader.getNextPosition();
+		}
+		return sum;
+	}
+}
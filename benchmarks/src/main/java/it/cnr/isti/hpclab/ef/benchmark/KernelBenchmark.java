@@ -0,0 +1,119 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.cnr.isti.hpclab.ef.util.BitKernels;
+import it.cnr.isti.hpclab.ef.util.Broadword;
+
+/**
+ * In-word select and decoding of all the ones of a word, with the portable broadword kernels and with the kernels
+ * in use, i.e., the ones chosen by the <code>ef.bitKernels</code> property when running the multi-release jar on JDK 21 or later.
+ * Every benchmark method processes all the words once, so the reported time is per {@link #WORDS} words.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2G", "-Xmx2G"})
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class KernelBenchmark
+{
+	private static final long SEED = 42;
+	private static final int WORDS = 4096;
+
+	/** The density of ones in the words, in percent: upper bits words are half ones on average. */
+	@Param({"10", "50", "90"})
+	public int density;
+
+	private long[] words;
+	private int[] ranks;
+	private int[] positions;
+
+	@Setup(Level.Trial)
+	public void generate()
+	{
+		final Random random = new Random(SEED);
+		words = new long[WORDS];
+		ranks = new int[WORDS];
+		positions = new int[Long.SIZE];
+		for (int i = 0; i < WORDS; i++) {
+			long word = 0;
+			while (word == 0)
+				for (int p = 0; p < Long.SIZE; p++)
+					if (random.nextInt(100) < density)
+						word |= 1L << p;
+			words[i] = word;
+			ranks[i] = random.nextInt(Long.bitCount(word));
+		}
+		System.err.println("Bit kernels: " + BitKernels.implementation());
+	}
+
+	@Benchmark
+	public long broadwordSelect()
+	{
+		long sum = 0;
+		for (int i = 0; i < WORDS; i++)
+			sum += Broadword.select(words[i], ranks[i]);
+		return sum;
+	}
+
+	@Benchmark
+	public long kernelSelect()
+	{
+		long sum = 0;
+		for (int i = 0; i < WORDS; i++)
+			sum += BitKernels.select(words[i], ranks[i]);
+		return sum;
+	}
+
+	@Benchmark
+	public long broadwordOnes()
+	{
+		long sum = 0;
+		for (int i = 0; i < WORDS; i++)
+			sum += positions[Broadword.ones(words[i], positions) - 1];
+		return sum;
+	}
+
+	@Benchmark
+	public long kernelOnes()
+	{
+		long sum = 0;
+		for (int i = 0; i < WORDS; i++)
+			sum += positions[BitKernels.ones(words[i], positions) - 1];
+		return sum;
+	}
+}
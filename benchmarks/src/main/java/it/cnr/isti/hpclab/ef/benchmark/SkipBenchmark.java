@@ -0,0 +1,83 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.benchmark;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+import it.cnr.isti.hpclab.ef.util.DocidReader;
+import it.cnr.isti.hpclab.ef.util.FreqReader;
+import it.cnr.isti.hpclab.ef.util.PositionReader;
+
+/**
+ * Strided access to a whole posting list, landing on one posting every <code>skip</code> postings.
+ */
+public class SkipBenchmark extends AbstractReaderBenchmark
+{
+	@Param({"1", "16", "256", "4096"})
+	public int skip;
+
+	/** The postings we land on. */
+	private int[] targets;
+
+	@Setup(Level.Trial)
+	public void targets() throws IOException
+	{
+		targets = new int[length / skip];
+		for (int i = 0; i < targets.length; i++)
+			targets[i] = (i + 1) * skip - 1;
+	}
+
+	@Benchmark
+	public long docidSkipTo()
+	{
+		final DocidReader reader = list.docidReader();
+		final int[] docids = list.docids();
+		long sum = 0;
+		for (int target : targets)
+			sum += reader.skipTo(docids[target]);
+		return sum;
+	}
+
+	@Benchmark
+	public long freqGetLong()
+	{
+		final FreqReader reader = list.freqReader();
+		long sum = 0;
+		for (int target : targets)
+			sum += reader.getLong(target);
+		return sum;
+	}
+
+	@Benchmark
+	public long positionGetFirstPosition()
+	{
+		final PositionReader reader = list.positionReader();
+		final long[] first = list.firstPositionIndexes();
+		long sum = 0;
+		for (int target : targets)
+			sum += reader.getFirstPosition(first[target]);
+		return sum;
+	}
+}
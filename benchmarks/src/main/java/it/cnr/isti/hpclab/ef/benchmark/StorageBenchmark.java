@@ -0,0 +1,116 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.cnr.isti.hpclab.ef.EliasFano;
+import it.cnr.isti.hpclab.ef.benchmark.SyntheticPostingList.Shape;
+import it.cnr.isti.hpclab.ef.util.DocidReader;
+import it.cnr.isti.hpclab.ef.util.FreqReader;
+import it.cnr.isti.hpclab.ef.util.LongStorage;
+
+/**
+ * Sequential and strided access to a whole posting list mapped with byte buffers and with a memory segment, i.e., the storages
+ * chosen by the <code>ef.storage</code> property when running the multi-release jar on JDK 21 or later. Forks enable preview features,
+ * required by memory segments on JDK 21, so this benchmark needs JDK 12 or later; the storage in use is printed at setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2G", "-Xmx2G", "--enable-preview"})
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class StorageBenchmark
+{
+	private static final long SEED = 42;
+	private static final int LENGTH = 1000000;
+	private static final int LOG2QUANTUM = 8;
+	private static final int SKIP = 16;
+
+	@Param({"DENSE", "SPARSE", "ZIPF"})
+	public Shape shape;
+
+	@Param({"buffer", "segment"})
+	public String storage;
+
+	private SyntheticPostingList list;
+
+	@Setup(Level.Trial)
+	public void generate() throws IOException
+	{
+		// read once, when the storage is first used
+		System.setProperty(EliasFano.STORAGE, storage);
+		list = new SyntheticPostingList(shape, LENGTH, LOG2QUANTUM, SEED);
+		System.err.println("Storage: " + LongStorage.implementation());
+	}
+
+	@TearDown(Level.Trial)
+	public void delete() throws IOException
+	{
+		list.close();
+	}
+
+	@Benchmark
+	public long docidGetNextPrefixSum()
+	{
+		final DocidReader reader = list.docidReader();
+		long sum = 0;
+		for (int i = 0; i < LENGTH; i++)
+			sum += reader.getNextPrefixSum();
+		return sum;
+	}
+
+	@Benchmark
+	public long docidSkipTo()
+	{
+		final DocidReader reader = list.docidReader();
+		final int[] docids = list.docids();
+		long sum = 0;
+		for (int i = SKIP - 1; i < LENGTH; i += SKIP)
+			sum += reader.skipTo(docids[i]);
+		return sum;
+	}
+
+	@Benchmark
+	public long freqGetLong()
+	{
+		final FreqReader reader = list.freqReader();
+		long sum = 0;
+		for (int i = SKIP - 1; i < LENGTH; i += SKIP)
+			sum += reader.getLong(i);
+		return sum;
+	}
+}
@@ -0,0 +1,276 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.benchmark;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import it.cnr.isti.hpclab.ef.util.DocidReader;
+import it.cnr.isti.hpclab.ef.util.FreqReader;
+import it.cnr.isti.hpclab.ef.util.LongStorage;
+import it.cnr.isti.hpclab.ef.util.LongWordBitReader;
+import it.cnr.isti.hpclab.ef.util.LongWordBitWriter;
+import it.cnr.isti.hpclab.ef.util.PositionReader;
+import it.cnr.isti.hpclab.ef.util.SequenceEncoder;
+import it.cnr.isti.hpclab.ef.util.Utils;
+import it.unimi.dsi.fastutil.longs.LongBigList;
+
+/**
+ * A synthetic posting list (docids, frequencies and positions) encoded with {@link SequenceEncoder} exactly as
+ * {@link it.cnr.isti.hpclab.ef.BlockCompressor} does, dumped to temporary files and memory-mapped back into
+ * {@link LongBigList}s by {@link LongStorage} exactly as {@link it.cnr.isti.hpclab.ef.structures.EFInvertedIndex} does.
+ */
+public final class SyntheticPostingList implements Closeable
+{
+	/** The shape of the generated docid gaps. */
+	public enum Shape
+	{
+		/** Uniform gaps in [1,3], i.e., a density of about 1/2. */
+		DENSE,
+		/** Uniform gaps in [1,2000], i.e., a density of about 1/1000. */
+		SPARSE,
+		/** Power-law gaps, i.e., long runs of consecutive docids separated by a few large jumps. */
+		ZIPF
+	}
+
+	private static final int CACHE_SIZE = 64 * 1024 * 1024;
+	private static final int MAX_ZIPF_GAP = 1 << 16;
+	private static final int MAX_FREQ = 1000;
+
+	private final int length;
+	private final int log2Quantum;
+
+	private final int[] docids;
+	private final int[] freqs;
+	private final long[] firstPositionIndexes;
+
+	private final int numDocs;
+	private final long occurrencies;
+	private final long sumMaxPos;
+
+	private final File docidFile;
+	private final File freqFile;
+	private final File posFile;
+
+	private final LongBigList docidList;
+	private final LongBigList freqList;
+	private final LongBigList posList;
+
+	/**
+	 * Generate and encode a synthetic posting list.
+	 *
+	 * @param shape the shape of the docid gaps
+	 * @param length the number of postings
+	 * @param log2Quantum the base 2 logarithm of the quantum used to compute skip (or forward) pointers
+	 * @param seed the seed of the pseudo-random generator
+	 * @throws IOException if something goes wrong
+	 */
+	public SyntheticPostingList(final Shape shape, final int length, final int log2Quantum, final long seed) throws IOException
+	{
+		this.length = length;
+		this.log2Quantum = log2Quantum;
+
+		final Random rnd = new Random(seed);
+
+		docids = new int[length];
+		freqs = new int[length];
+		firstPositionIndexes = new long[length];
+		final int[][] positions = new int[length][];
+
+		long occ = 0, sum = 0;
+		int docid = -1;
+		for (int i = 0; i < length; i++) {
+			docid += gap(shape, rnd);
+			docids[i] = docid;
+			freqs[i] = Math.min(MAX_FREQ, (int) (1.0 / (1.0 - rnd.nextDouble())));
+
+			positions[i] = new int[freqs[i]];
+			positions[i][0] = rnd.nextInt(4);
+			for (int j = 1; j < freqs[i]; j++)
+				positions[i][j] = positions[i][j - 1] + 1 + rnd.nextInt(8);
+
+			firstPositionIndexes[i] = occ;
+			occ += freqs[i];
+			sum += positions[i][freqs[i] - 1];
+		}
+		this.numDocs = docid + 1;
+		this.occurrencies = occ;
+		this.sumMaxPos = sum;
+
+		docidFile = File.createTempFile(SyntheticPostingList.class.getSimpleName(), ".docids");
+		freqFile  = File.createTempFile(SyntheticPostingList.class.getSimpleName(), ".freqs");
+		posFile   = File.createTempFile(SyntheticPostingList.class.getSimpleName(), ".positions");
+
+		encode(positions);
+
+		docidList = map(docidFile);
+		freqList  = map(freqFile);
+		posList   = map(posFile);
+	}
+
+	private static int gap(final Shape shape, final Random rnd)
+	{
+		switch (shape) {
+			case DENSE:  return 1 + rnd.nextInt(3);
+			case SPARSE: return 1 + rnd.nextInt(2000);
+			case ZIPF:   return (int) Math.min(MAX_ZIPF_GAP, 1.0 / (1.0 - rnd.nextDouble()));
+			default:     throw new IllegalArgumentException(shape.toString());
+		}
+	}
+
+	@SuppressWarnings("resource")
+	private void encode(final int[][] positions) throws IOException
+	{
+		LongWordBitWriter docidWriter = new LongWordBitWriter(new FileOutputStream(docidFile).getChannel(), ByteOrder.nativeOrder());
+		LongWordBitWriter freqWriter  = new LongWordBitWriter(new FileOutputStream(freqFile).getChannel(),  ByteOrder.nativeOrder());
+		LongWordBitWriter posWriter   = new LongWordBitWriter(new FileOutputStream(posFile).getChannel(),   ByteOrder.nativeOrder());
+
+		SequenceEncoder docidsAccumulator = new SequenceEncoder(CACHE_SIZE, log2Quantum);
+		SequenceEncoder freqsAccumulator  = new SequenceEncoder(CACHE_SIZE, log2Quantum);
+		SequenceEncoder posAccumulator    = new SequenceEncoder(CACHE_SIZE, log2Quantum);
+
+		docidsAccumulator.init(length, numDocs, false, true, log2Quantum);
+		freqsAccumulator.init(length, occurrencies, true, false, log2Quantum);
+		posAccumulator.init(occurrencies, length + sumMaxPos, true, false, log2Quantum);
+
+		long lastDocid = 0;
+		for (int i = 0; i < length; i++) {
+			docidsAccumulator.add(docids[i] - lastDocid);
+			lastDocid = docids[i];
+			freqsAccumulator.add(freqs[i]);
+			posAccumulator.add(1 + positions[i][0]);
+			for (int j = 1; j < positions[i].length; j++)
+				posAccumulator.add(positions[i][j] - positions[i][j - 1]);
+		}
+
+		docidsAccumulator.dump(docidWriter);
+		freqsAccumulator.dump(freqWriter);
+		posWriter.writeGamma(posAccumulator.lowerBits());
+		if (posAccumulator.numberOfPointers() != 0)
+			posWriter.writeNonZeroGamma(posAccumulator.pointerSize());
+		posAccumulator.dump(posWriter);
+
+		docidsAccumulator.close();
+		freqsAccumulator.close();
+		posAccumulator.close();
+		docidWriter.close();
+		freqWriter.close();
+		posWriter.close();
+	}
+
+	private static LongBigList map(final File file) throws IOException
+	{
+		return LongStorage.map(file.getPath(), ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Create a new docid reader positioned at the beginning of the list, as {@link it.cnr.isti.hpclab.ef.structures.EFBasicIterablePosting} does.
+	 * @return a new docid reader
+	 */
+	public DocidReader docidReader()
+	{
+		final int l = Utils.lowerBits(length + 1, numDocs, false);
+		final int pointerSize = Utils.pointerSize(length + 1, numDocs, false, true);
+		final long numberOfPointers = Utils.numberOfPointers(length + 1, numDocs, log2Quantum, false, true);
+
+		final LongWordBitReader skipPointers = new LongWordBitReader(docidList, pointerSize);
+		final LongWordBitReader lowerBits = new LongWordBitReader(docidList, l);
+		final long lowerBitsStart = pointerSize * numberOfPointers;
+		lowerBits.position(lowerBitsStart);
+
+		return new DocidReader(docidList, lowerBits, lowerBitsStart, l, skipPointers, 0, numberOfPointers, pointerSize, length, log2Quantum);
+	}
+
+	/**
+	 * Create a new frequency reader positioned at the beginning of the list, as {@link it.cnr.isti.hpclab.ef.structures.EFBasicIterablePosting} does.
+	 * @return a new frequency reader
+	 */
+	public FreqReader freqReader()
+	{
+		return new FreqReader(freqList, 0, length, occurrencies, log2Quantum);
+	}
+
+	/**
+	 * Create a new position reader positioned at the beginning of the list, as {@link it.cnr.isti.hpclab.ef.structures.EFBlockIterablePosting} does.
+	 * @return a new position reader
+	 */
+	public PositionReader positionReader()
+	{
+		final LongWordBitReader posLongWordBitReader = new LongWordBitReader(posList, 0);
+		posLongWordBitReader.position(0);
+		final int l = (int) posLongWordBitReader.readGamma();
+		final long numberOfPointers = Utils.numberOfPointers(occurrencies, -1, log2Quantum, true, false);
+		final int pointerSize = (numberOfPointers == 0 ? -1 : (int) posLongWordBitReader.readNonZeroGamma());
+
+		return new PositionReader(posList, l, posLongWordBitReader.position(), numberOfPointers, pointerSize, occurrencies, log2Quantum);
+	}
+
+	/**
+	 * Return the number of postings in the list.
+	 * @return the number of postings in the list
+	 */
+	public int length()
+	{
+		return length;
+	}
+
+	/**
+	 * Return the (uncompressed) docids of the list.
+	 * @return the docids of the list
+	 */
+	public int[] docids()
+	{
+		return docids;
+	}
+
+	/**
+	 * Return the (uncompressed) frequencies of the list.
+	 * @return the frequencies of the list
+	 */
+	public int[] frequencies()
+	{
+		return freqs;
+	}
+
+	/**
+	 * Return, for every posting, the index of its first position in the position sequence of the list.
+	 * @return the indexes of the first position of every posting
+	 */
+	public long[] firstPositionIndexes()
+	{
+		return firstPositionIndexes;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close() throws IOException
+	{
+		LongStorage.unmap(docidList);
+		LongStorage.unmap(freqList);
+		LongStorage.unmap(posList);
+		docidFile.delete();
+		freqFile.delete();
+		posFile.delete();
+	}
+}
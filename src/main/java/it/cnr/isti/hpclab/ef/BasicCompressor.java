@@ -20,9 +20,7 @@
 package it.cnr.isti.hpclab.ef;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteOrder;
 import java.util.Iterator;
 import java.util.Map.Entry;
 
@@ -38,8 +36,15 @@ import org.terrier.structures.postings.IterablePosting;
 import org.terrier.structures.seralization.FixedSizeTextFactory;
 
 import it.cnr.isti.hpclab.ef.structures.EFLexiconEntry;
+import it.cnr.isti.hpclab.ef.structures.EFReassignedIterablePosting;
+import it.cnr.isti.hpclab.ef.util.BitmapDocidEncoder;
+import it.cnr.isti.hpclab.ef.util.BlockMaxWriter;
+import it.cnr.isti.hpclab.ef.util.ImpactQuantizer;
+import it.cnr.isti.hpclab.ef.util.ImpactWriter;
 import it.cnr.isti.hpclab.ef.util.IndexUtil;
 import it.cnr.isti.hpclab.ef.util.LongWordBitWriter;
+import it.cnr.isti.hpclab.ef.util.PartitionedDocidEncoder;
+import it.cnr.isti.hpclab.ef.util.SelectIndexWriter;
 import it.cnr.isti.hpclab.ef.util.SequenceEncoder;
 
 /**
@@ -59,16 +64,46 @@ public class BasicCompressor implements Compressor
 	
 	protected final Index src_index;
 	protected final int num_docs;
+	
+	protected final boolean with_blockmax;
+	
+	protected final boolean partitioned;
+	
+	/** The new docid of every source docid, or null if docids are not reassigned. */
+	protected final int[] docid_map;
+	
+	/** The quantizer of the impacts, or null if impacts are not written. */
+	protected final ImpactQuantizer quantizer;
+	
+	/** The minimum number of postings of a posting list with a select index, or 0 if select indexes are not written. */
+	protected final int select_threshold;
 
 	public BasicCompressor(final Index src_index, final String dst_index_path, final String dst_index_prefix)
 	{
-		this(src_index, dst_index_path, dst_index_prefix, Integer.parseInt(System.getProperty(EliasFano.LOG2QUANTUM, "8")));
+		this(src_index, dst_index_path, dst_index_prefix, new CompressionOptions());
 	}
 	
 	public BasicCompressor(final Index src_index, final String dst_index_path, final String dst_index_prefix, final int log2quantum)
+	{
+		this(src_index, dst_index_path, dst_index_prefix, new CompressionOptions().setLog2Quantum(log2quantum));
+	}
+	
+	/**
+	 * Constructor.
+	 * @param src_index the index to compress
+	 * @param dst_index_path the path of the compressed index
+	 * @param dst_index_prefix the prefix of the compressed index
+	 * @param options the quantum, the docid encoding and reassignment, and the side structures to write
+	 */
+	public BasicCompressor(final Index src_index, final String dst_index_path, final String dst_index_prefix, final CompressionOptions options)
 	{
 		this.dst_index_path = dst_index_path;
 		this.dst_index_prefix = dst_index_prefix;
+		this.with_blockmax = options.hasBlockMax();
+		this.partitioned = options.isPartitioned();
+		this.docid_map = options.getDocidMap();
+		this.quantizer = options.getQuantizer();
+		this.select_threshold = options.getSelectThreshold();
 		
 		if (Index.existsIndex(dst_index_path, dst_index_prefix)) {
 			LOGGER.error("Cannot compress index while an index already exists at " + dst_index_path + ", " + dst_index_prefix);
@@ -79,7 +114,7 @@ public class BasicCompressor implements Compressor
 		this.src_index = src_index;		
 		this.num_docs = src_index.getCollectionStatistics().getNumberOfDocuments();
 		
-		this.LOG2QUANTUM = log2quantum;
+		this.LOG2QUANTUM = options.getLog2Quantum();
 	}
 	
 	@SuppressWarnings("resource")
@@ -105,11 +140,18 @@ public class BasicCompressor implements Compressor
 
 		// writers
 		LexiconOutputStream<String> los    = new FSOMapFileLexiconOutputStream(         dst_index_path + File.separator + terms.prefix() + ".lexicon" + FSOrderedMapFile.USUAL_EXTENSION, new FixedSizeTextFactory(IndexUtil.DEFAULT_MAX_TERM_LENGTH));
-		LongWordBitWriter           docids = new LongWordBitWriter(new FileOutputStream(dst_index_path + File.separator + terms.prefix() + EliasFano.DOCID_EXTENSION).getChannel(), ByteOrder.nativeOrder());
-		LongWordBitWriter           freqs  = new LongWordBitWriter(new FileOutputStream(dst_index_path + File.separator + terms.prefix() + EliasFano.FREQ_EXTENSION).getChannel(), ByteOrder.nativeOrder());
+		LongWordBitWriter           docids = writer(dst_index_path, terms, EliasFano.DOCID_EXTENSION, terms.docidRegion());
+		LongWordBitWriter           freqs  = writer(dst_index_path, terms, EliasFano.FREQ_EXTENSION, terms.freqRegion());
+		BlockMaxWriter              blockmax = (with_blockmax) ? new BlockMaxWriter(dst_index_path + File.separator + terms.prefix(), LOG2QUANTUM) : null;
+		ImpactWriter                impacts  = (quantizer != null) ? new ImpactWriter(dst_index_path + File.separator + terms.prefix(), LOG2QUANTUM, quantizer, src_index.getCollectionStatistics()) : null;
+		SelectIndexWriter           select   = (select_threshold > 0) ? new SelectIndexWriter(dst_index_path + File.separator + terms.prefix(), select_threshold) : null;
 		
 		// The sequence encoder to generate posting lists (docids)
-		SequenceEncoder docidsAccumulator = new SequenceEncoder( DEFAULT_CACHE_SIZE, LOG2QUANTUM );
+		SequenceEncoder docidsAccumulator = (!partitioned) ? new SequenceEncoder( DEFAULT_CACHE_SIZE, LOG2QUANTUM ) : null;
+		// The partitioned encoder to generate posting lists (docids)
+		PartitionedDocidEncoder partitionedAccumulator = (partitioned) ? new PartitionedDocidEncoder( DEFAULT_CACHE_SIZE, LOG2QUANTUM ) : null;
+		// The bitmap encoder to generate dense posting lists (docids)
+		BitmapDocidEncoder bitmapAccumulator = (!partitioned) ? new BitmapDocidEncoder() : null;
 		// The sequence encoder to generate posting lists (freqs)
 		SequenceEncoder freqsAccumulator = new SequenceEncoder( DEFAULT_CACHE_SIZE, LOG2QUANTUM );
 				
@@ -124,31 +166,79 @@ public class BasicCompressor implements Compressor
 		while (!stop(lee, end_term_id)) {
 			le = lee.getValue();
 			p = src_index.getInvertedIndex().getPostings((BitIndexPointer)lee.getValue());
+			if (docid_map != null)
+				p = new EFReassignedIterablePosting(p, le.getDocumentFrequency(), docid_map);
 			
-			los.writeNextEntry(lee.getKey(), new EFLexiconEntry(local_termid, le.getDocumentFrequency(), le.getFrequency(), le.getMaxFrequencyInDocuments(), docidsOffset, freqsOffset));
-
-			docidsAccumulator.init( le.getDocumentFrequency(), num_docs, false, true, LOG2QUANTUM );
-			freqsAccumulator.init(  le.getDocumentFrequency(), le.getFrequency(), true, false, LOG2QUANTUM );
+			// dense lists are encoded as bitmaps, if smaller (partitioned Elias-Fano chooses bitmaps per chunk) 
+			final boolean bitmap = !partitioned && BitmapDocidEncoder.isSmaller( le.getDocumentFrequency(), num_docs, LOG2QUANTUM );
+			// long lists get a select index, over the upper bits of plain Elias-Fano docids and of frequencies
+			final boolean with_select = select != null && select.accepts( le.getDocumentFrequency() );
+			if (bitmap)
+				bitmapAccumulator.init( le.getDocumentFrequency(), num_docs );
+			else if (!partitioned)
+				docidsAccumulator.init( le.getDocumentFrequency(), num_docs, false, true, LOG2QUANTUM, with_select );
+			else
+				partitionedAccumulator.init( le.getDocumentFrequency(), num_docs );
+			freqsAccumulator.init(  le.getDocumentFrequency(), le.getFrequency(), true, false, LOG2QUANTUM, with_select );
+			
+			EFLexiconEntry entry = new EFLexiconEntry(local_termid, le.getDocumentFrequency(), le.getFrequency(), le.getMaxFrequencyInDocuments(), docidsOffset, freqsOffset);
+			entry.bitmap = bitmap;
+			los.writeNextEntry(lee.getKey(), entry);
+			
+			if (with_blockmax)
+				blockmax.init();
+			if (quantizer != null)
+				impacts.init(le);
 			
 			long lastDocid = 0;
 			while (p.next() != IterablePosting.END_OF_LIST) {
-				docidsAccumulator.add( p.getId() - lastDocid );
+				if (bitmap)
+					bitmapAccumulator.add( p.getId() - lastDocid );
+				else if (!partitioned)
+					docidsAccumulator.add( p.getId() - lastDocid );
+				else
+					partitionedAccumulator.add( p.getId() - lastDocid );
 				lastDocid = p.getId();
 				freqsAccumulator.add(p.getFrequency());
+				if (with_blockmax)
+					blockmax.add(p.getId(), p.getFrequency(), p.getDocumentLength());
+				if (quantizer != null)
+					impacts.add(p.getFrequency(), p.getDocumentLength());
 			}
+			if (with_blockmax)
+				blockmax.finish();
+			if (quantizer != null)
+				impacts.finish();
 						
-			docidsOffset += docidsAccumulator.dump(docids);		
+			if (bitmap)
+				docidsOffset += bitmapAccumulator.dump(docids);
+			else
+				docidsOffset += (!partitioned) ? docidsAccumulator.dump(docids) : partitionedAccumulator.dump(docids);		
 			freqsOffset  += freqsAccumulator.dump(freqs);
+			if (select != null)
+				select.write( (!bitmap && !partitioned) ? docidsAccumulator : null, freqsAccumulator, le.getDocumentFrequency() );
 			local_termid += 1;
 			p.close();
 			
 			lee = lex_iter.hasNext() ? lex_iter.next() : null;
 		} 
 				
-		docidsAccumulator.close();
+		checkRegion(terms, EliasFano.DOCID_EXTENSION, docidsOffset, terms.docidRegionSize());
+		checkRegion(terms, EliasFano.FREQ_EXTENSION,  freqsOffset,  terms.freqRegionSize());
+		
+		if (!partitioned)
+			docidsAccumulator.close();
+		else
+			partitionedAccumulator.close();
 		docids.close();
 		freqsAccumulator.close();
 		freqs.close();
+		if (with_blockmax)
+			blockmax.close();
+		if (quantizer != null)
+			impacts.close();
+		if (select != null)
+			select.close();
 		los.close();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,161 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import it.cnr.isti.hpclab.ef.util.ImpactQuantizer;
+import it.cnr.isti.hpclab.ef.util.SelectIndexWriter;
+
+/**
+ * The options of the compression of an index, shared by the {@link CompressorMapper}, the {@link BasicCompressor} or {@link BlockCompressor} of every 
+ * term partition and the {@link PartitionMerger}: the side structures written with the posting lists, the docid encoding and the docid reassignment.
+ * The setters return this object, so that the options can be chained, e.g., <code>new CompressionOptions().setPositions(true).setBlockMax(true)</code>.
+ */
+public class CompressionOptions
+{
+	private int log2quantum = Integer.parseInt(System.getProperty(EliasFano.LOG2QUANTUM, "8"));
+	private boolean with_pos = false;
+	private boolean with_blockmax = false;
+	private boolean partitioned = false;
+	private int[] docid_map = null;
+	private ImpactQuantizer quantizer = null;
+	private int select_threshold = 0;
+	
+	/**
+	 * Set the base 2 logarithm of the quantum used to compute skip (or forward) pointers, by default the {@link EliasFano#LOG2QUANTUM} system property, or 8.
+	 * @param log2quantum the base 2 logarithm of the quantum
+	 * @return this object
+	 */
+	public CompressionOptions setLog2Quantum(final int log2quantum)
+	{
+		this.log2quantum = log2quantum;
+		return this;
+	}
+	
+	/**
+	 * Write the positions of the postings.
+	 * @param with_pos true if positions must be written
+	 * @return this object
+	 */
+	public CompressionOptions setPositions(final boolean with_pos)
+	{
+		this.with_pos = with_pos;
+		return this;
+	}
+	
+	/**
+	 * Write the block-max side structure.
+	 * @param with_blockmax true if the block maxima must be written
+	 * @return this object
+	 */
+	public CompressionOptions setBlockMax(final boolean with_blockmax)
+	{
+		this.with_blockmax = with_blockmax;
+		return this;
+	}
+	
+	/**
+	 * Encode docids with partitioned Elias-Fano.
+	 * @param partitioned true if docids must be encoded with partitioned Elias-Fano
+	 * @return this object
+	 */
+	public CompressionOptions setPartitioned(final boolean partitioned)
+	{
+		this.partitioned = partitioned;
+		return this;
+	}
+	
+	/**
+	 * Reassign the docids of the compressed posting lists, e.g., to cluster similar documents.
+	 * @param docid_map the new docid of every docid of the index to compress, or null if docids are not reassigned
+	 * @return this object
+	 */
+	public CompressionOptions setDocidMap(final int[] docid_map)
+	{
+		this.docid_map = docid_map;
+		return this;
+	}
+	
+	/**
+	 * Write the impacts of the compressed posting lists, i.e., the quantized scores of their postings.
+	 * @param quantizer the quantizer of the scores, or null if impacts are not written
+	 * @return this object
+	 */
+	public CompressionOptions setQuantizer(final ImpactQuantizer quantizer)
+	{
+		this.quantizer = quantizer;
+		return this;
+	}
+	
+	/**
+	 * Write the select indexes of the compressed posting lists with at least the given number of postings, see {@link SelectIndexWriter}.
+	 * @param select_threshold the minimum number of postings of a posting list with a select index, or 0 if select indexes are not written
+	 * @return this object
+	 */
+	public CompressionOptions setSelectThreshold(final int select_threshold)
+	{
+		this.select_threshold = select_threshold;
+		return this;
+	}
+	
+	public int getLog2Quantum()
+	{
+		return this.log2quantum;
+	}
+	
+	public boolean hasPositions()
+	{
+		return this.with_pos;
+	}
+	
+	public boolean hasBlockMax()
+	{
+		return this.with_blockmax;
+	}
+	
+	public boolean isPartitioned()
+	{
+		return this.partitioned;
+	}
+	
+	public int[] getDocidMap()
+	{
+		return this.docid_map;
+	}
+	
+	public ImpactQuantizer getQuantizer()
+	{
+		return this.quantizer;
+	}
+	
+	public boolean hasImpacts()
+	{
+		return this.quantizer != null;
+	}
+	
+	public int getSelectThreshold()
+	{
+		return this.select_threshold;
+	}
+	
+	public boolean hasSelectIndex()
+	{
+		return this.select_threshold > 0;
+	}
+}
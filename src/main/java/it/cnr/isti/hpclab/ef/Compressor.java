@@ -1,10 +1,18 @@
 package it.cnr.isti.hpclab.ef;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.Map.Entry;
 
 import org.terrier.structures.LexiconEntry;
 
+import it.cnr.isti.hpclab.ef.util.LongWordBitWriter;
+
 public interface Compressor 
 {
 	void compress(final TermPartition terms) throws IOException;
@@ -13,4 +21,27 @@ public interface Compressor
 	{
 		return (lee == null || lee.getValue().getTermId() >= end);
 	}
+	
+	/**
+	 * Open a bit writer on the partition file with the given extension or, if the partition has regions,
+	 * on the file shared by all partitions, positioned at the given region, if not negative.
+	 */
+	@SuppressWarnings("resource")
+	default LongWordBitWriter writer(final String path, final TermPartition terms, final String extension, final long region) throws IOException
+	{
+		if (!terms.hasRegions() || region < 0)
+			return new LongWordBitWriter(new FileOutputStream(path + File.separator + terms.prefix() + extension).getChannel(), ByteOrder.nativeOrder());
+		FileChannel channel = FileChannel.open(Paths.get(path, terms.regionPrefix() + extension), StandardOpenOption.WRITE);
+		channel.position(region);
+		return new LongWordBitWriter(channel, ByteOrder.nativeOrder());
+	}
+	
+	/**
+	 * Check, before closing its writer, that the bits written by a partition fill exactly its region, if any.
+	 */
+	default void checkRegion(final TermPartition terms, final String extension, final long bits, final long regionSize)
+	{
+		if (terms.hasRegions() && regionSize >= 0 && (bits / Long.SIZE + 1) * Long.BYTES != regionSize)
+			throw new IllegalStateException("Partition " + terms + " wrote " + bits + " bits in its " + extension + " region of " + regionSize + " bytes");
+	}
 }
@@ -25,18 +25,24 @@ import java.util.function.Function;
 import org.terrier.structures.Index;
 
 
+
 class CompressorMapper implements Function<TermPartition,TermPartition>
 {
 	private final String src_index_path, src_index_prefix, dst_index_path, dst_index_prefix;
-	private final boolean with_pos;
+	private final CompressionOptions options;
 	
 	public CompressorMapper(final String src_index_path, final String src_index_prefix, final String dst_index_path, final String dst_index_prefix, final boolean with_pos) 
+	{
+		this(src_index_path, src_index_prefix, dst_index_path, dst_index_prefix, new CompressionOptions().setPositions(with_pos));
+	}
+
+	public CompressorMapper(final String src_index_path, final String src_index_prefix, final String dst_index_path, final String dst_index_prefix, final CompressionOptions options) 
 	{
 		this.src_index_path = src_index_path;
 		this.src_index_prefix = src_index_prefix;
 		this.dst_index_path = dst_index_path;
 		this.dst_index_prefix = dst_index_prefix;
-		this.with_pos = with_pos;
+		this.options = options;
 	}
 
 	@Override
@@ -44,9 +50,9 @@ class CompressorMapper implements Function<TermPartition,TermPartition>
 	{
 		String this_prefix = dst_index_prefix + "_partition_" + terms.id();
 		terms.setPrefix(this_prefix);
-		Compressor bc = (!with_pos) 
-			? new BasicCompressor(Index.createIndex(src_index_path, src_index_prefix), dst_index_path, dst_index_prefix)
-			: new BlockCompressor(Index.createIndex(src_index_path, src_index_prefix), dst_index_path, dst_index_prefix);
+		final Compressor bc = (!options.hasPositions()) 
+								? new BasicCompressor(Index.createIndex(src_index_path, src_index_prefix), dst_index_path, dst_index_prefix, options)
+								: new BlockCompressor(Index.createIndex(src_index_path, src_index_prefix), dst_index_path, dst_index_prefix, options);
 		try {
 			bc.compress(terms);
 		} catch (IOException e) {
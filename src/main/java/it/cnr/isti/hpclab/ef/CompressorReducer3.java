@@ -19,8 +19,12 @@
  */
 package it.cnr.isti.hpclab.ef;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -41,17 +45,29 @@ import it.cnr.isti.hpclab.ef.structures.EFBlockLexiconEntry;
 import it.cnr.isti.hpclab.ef.structures.EFLexiconEntry;
 import it.cnr.isti.hpclab.ef.structures.FSOMapFileAppendLexiconOutputStream;
 
+/**
+ * @deprecated replaced by {@link PartitionMerger}, which merges all the partitions in one pass. This class is no longer maintained:
+ * it does not merge impacts, select indexes, partitioned docids, nor partitions written in place, so the merged index may be incomplete.
+ */
+@Deprecated
 public class CompressorReducer3 implements BinaryOperator<TermPartition> 
 {
 	private final String dst_index_path;
 	private final String dst_index_prefix;
 	private final boolean with_pos;
+	private final boolean with_blockmax;
 	
 	public CompressorReducer3(final String dst_index_path, final String dst_index_prefix, final boolean with_pos)
+	{
+		this(dst_index_path, dst_index_prefix, with_pos, false);
+	}
+
+	public CompressorReducer3(final String dst_index_path, final String dst_index_prefix, final boolean with_pos, final boolean with_blockmax)
 	{
 		this.dst_index_path = dst_index_path;
 		this.dst_index_prefix = dst_index_prefix;
 		this.with_pos = with_pos;
+		this.with_blockmax = with_blockmax;
 	}
 
 	@Override
@@ -83,6 +99,17 @@ public class CompressorReducer3 implements BinaryOperator<TermPartition>
 											  							   			   		   (!with_pos) ? new EFLexiconEntry.Factory() : new EFBlockLexiconEntry.Factory());
 			final int num_terms_1 = (int) (Files.size(Paths.get(dst_index_path + File.separator + t1.prefix() + ".lexicon" + FSOrderedMapFile.USUAL_EXTENSION)) / los1.getEntrySize());
 			
+			if (with_blockmax) {
+				// Merge block maxima (low level) and their offsets, recomputing them
+				long blockmax_offset = merge(t1.prefix() + EliasFano.BLOCKMAX_EXTENSION,
+											 t2.prefix() + EliasFano.BLOCKMAX_EXTENSION, 
+											 out_prefix  + EliasFano.BLOCKMAX_EXTENSION);
+				mergeOffsets(t1.prefix() + EliasFano.BLOCKMAX_OFFSETS_EXTENSION,
+							 t2.prefix() + EliasFano.BLOCKMAX_OFFSETS_EXTENSION, 
+							 out_prefix  + EliasFano.BLOCKMAX_OFFSETS_EXTENSION,
+							 num_terms_1, blockmax_offset / Long.BYTES);
+			}
+			
 			Iterator<Entry<String, LexiconEntry>> lex_iter = null; 
 			Entry<String, LexiconEntry> lee = null;
 			FSOMapFileLexicon lex = null;
@@ -147,4 +174,45 @@ public class CompressorReducer3 implements BinaryOperator<TermPartition>
 	    Files.delete(in_file_2);
 	    return offset;
 	}
+	
+	/**
+	 * Merge two files of offsets, one long per term followed by a closing long, adding a displacement to the offsets of the second file.
+	 */
+	private void mergeOffsets(final String prefix_in1, final String prefix_in2, final String out_prefix, final int num_terms_1, final long delta) throws IOException 
+	{
+		Path in_file_1 = Paths.get(this.dst_index_path + File.separator + prefix_in1);
+		Path in_file_2 = Paths.get(this.dst_index_path + File.separator + prefix_in2);
+		Path out_file  = Paths.get(this.dst_index_path + File.separator + out_prefix);
+
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024).order(ByteOrder.nativeOrder());
+	    try (FileChannel out = FileChannel.open(in_file_1, StandardOpenOption.WRITE)) {
+	    	// we drop the closing long of the first file
+	    	out.truncate((long) num_terms_1 * Long.BYTES);
+	    	out.position(out.size());
+	        try (FileChannel in = FileChannel.open(in_file_2, StandardOpenOption.READ)) {
+	        	final long num_terms_2 = in.size() / Long.BYTES - 1;
+	        	for (long i = 0; i < num_terms_2; ) {
+	        		((Buffer) buffer).clear();
+	        		((Buffer) buffer).limit((int) Math.min(buffer.capacity(), (num_terms_2 - i) * Long.BYTES));
+	        		while (buffer.hasRemaining())
+	        			if (in.read(buffer) == -1)
+	        				throw new EOFException("Truncated offsets file " + in_file_2);
+	        		((Buffer) buffer).flip();
+	        		for (int p = 0; p < buffer.limit(); p += Long.BYTES, i++)
+	        			buffer.putLong(p, buffer.getLong(p) + delta);
+	        		while (buffer.hasRemaining())
+	        			out.write(buffer);
+	        	}
+	        }
+	        // and we close the merged file as the second one
+	        ((Buffer) buffer).clear();
+	        buffer.putLong(0);
+	        ((Buffer) buffer).flip();
+	        while (buffer.hasRemaining())
+	        	out.write(buffer);
+	    }
+	    
+		Files.move(in_file_1, out_file);
+	    Files.delete(in_file_2);
+	}
 };
\ No newline at end of file
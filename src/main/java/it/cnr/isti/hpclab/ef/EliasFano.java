@@ -30,9 +30,41 @@ public interface EliasFano
 	
 	static final String USUAL_EXTENSION = ".ef";
 	static final String SIZE_EXTENSION  = ".sizes";
+	static final String LENGTHS_EXTENSION = ".lengths";
+	
+	static final String BLOCKMAX_EXTENSION         = ".blockmax";
+	static final String BLOCKMAX_OFFSETS_EXTENSION = ".blockmax-offsets";
+	
+	static final String IMPACTS_EXTENSION         = ".impacts";
+	static final String IMPACTS_OFFSETS_EXTENSION = ".impacts-offsets";
+	
+	static final String SELECT_EXTENSION         = ".select";
+	static final String SELECT_OFFSETS_EXTENSION = ".select-offsets";
+	
+	static final String LEXICON_HASH_EXTENSION    = ".lexicon-hash";
+	static final String LEXICON_TERMS_EXTENSION   = ".lexicon-terms";
+	static final String LEXICON_ENTRIES_EXTENSION = ".lexicon-entries";
 	
 	static final String LOG2QUANTUM  = "log2Quantum";
 	static final String BYTEORDER    = "ByteOrder";
+	static final String CACHE_BUDGET = "ef.cacheBudget";
+	static final String BIT_KERNELS  = "ef.bitKernels";
+	static final String STORAGE      = "ef.storage";
+	
+	static final String REORDER_MAX_POSTINGS    = "ef.reorder.maxPostings";
+	static final String REORDER_BUFFER_POSTINGS = "ef.reorder.bufferPostings";
+	
+	static final String DOCID_CODEC = "docidCodec";
+	static final String EF_CODEC    = "EF";
+	static final String PEF_CODEC   = "PEF";
 	
 	static final String HAS_POSITIONS = "hasPostions";
+	static final String HAS_BLOCKMAX  = "hasBlockMax";
+	static final String HAS_IMPACTS   = "hasImpacts";
+	
+	static final String IMPACT_MODEL     = "impactModel";
+	static final String IMPACT_BITS      = "impactBits";
+	static final String IMPACT_MAX_SCORE = "impactMaxScore";
+	
+	static final String SELECT_THRESHOLD = "selectThreshold";
 }
@@ -20,14 +20,24 @@
 package it.cnr.isti.hpclab.ef;
 
 import it.cnr.isti.hpclab.ef.structures.EFDocumentIndex;
+import it.cnr.isti.hpclab.ef.structures.EFHashLexicon;
+import it.cnr.isti.hpclab.ef.structures.EFMappedDocumentIndex;
+import it.cnr.isti.hpclab.ef.util.BitmapDocidEncoder;
+import it.cnr.isti.hpclab.ef.util.CacheBudget;
+import it.cnr.isti.hpclab.ef.util.DocidReassignment;
+import it.cnr.isti.hpclab.ef.util.ImpactQuantizer;
+import it.cnr.isti.hpclab.ef.util.Utils;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteOrder;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ForkJoinPool;
 
@@ -41,9 +51,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.terrier.Version;
 import org.terrier.applications.CLITool.CLIParsedCLITool;
+import org.terrier.structures.CollectionStatistics;
+import org.terrier.structures.DocumentIndex;
+import org.terrier.structures.DocumentIndexEntry;
 import org.terrier.structures.Index;
 import org.terrier.structures.IndexOnDisk;
 import org.terrier.structures.IndexUtil;
+import org.terrier.structures.LexiconEntry;
+import org.terrier.structures.MetaIndex;
+import org.terrier.structures.indexing.CompressingMetaIndexBuilder;
 import org.terrier.structures.indexing.LexiconBuilder;
 import org.terrier.utility.ApplicationSetup;
 
@@ -58,6 +74,15 @@ public class Generator
 			Options opts = super.getOptions();
 			opts.addOption("p", "parallelism", true, "parallelism degree (number of threads)");
 			opts.addOption("b", "blocks", false, "use positions in new index");
+			opts.addOption("m", "blockmax", false, "write per-block maxima in new index");
+			opts.addOption("l", "mapped-lengths", false, "use a memory-mapped document index in new index");
+			opts.addOption("c", "cache-budget", true, "direct memory budget of the compression caches (MB)");
+			opts.addOption("e", "partitioned", false, "encode docids with partitioned Elias-Fano in new index");
+			opts.addOption("r", "reorder", true, "reassign docids in new index, by graph bisection (bp) on docid ranges of at most 2^31 - 9 postings or sorting by a meta key");
+			opts.addOption("s", "impacts", true, "write the quantized scores of the given weighting model in new index");
+			opts.addOption("q", "impact-bits", true, "number of bits of the quantized scores");
+			opts.addOption("k", "select-index", true, "write select indexes for posting lists with at least the given number of postings in new index");
+			opts.addOption("t", "hash-lexicon", false, "use a lexicon resolving terms with a minimal perfect hash function in new index");
 			return opts;
 		}
 
@@ -67,6 +92,20 @@ public class Generator
 			if (line.hasOption("p"))
 				args.parallelism = line.getOptionValue("p");
 			args.with_pos = line.hasOption("b");
+			args.with_blockmax = line.hasOption("m");
+			args.mapped_lengths = line.hasOption("l");
+			args.partitioned = line.hasOption("e");
+			if (line.hasOption("c"))
+				args.budget = line.getOptionValue("c");
+			if (line.hasOption("r"))
+				args.reorder = line.getOptionValue("r");
+			if (line.hasOption("s"))
+				args.impacts = line.getOptionValue("s");
+			if (line.hasOption("q"))
+				args.impact_bits = line.getOptionValue("q");
+			if (line.hasOption("k"))
+				args.select = line.getOptionValue("k");
+			args.hash_lexicon = line.hasOption("t");
 			
 			args.index = ApplicationSetup.TERRIER_INDEX_PATH + "/" + ApplicationSetup.TERRIER_INDEX_PREFIX + ".properties";
 			
@@ -122,6 +161,33 @@ public class Generator
 	    @Option(name = "-b", required = false, usage = "Compress positions with Elias-Fano")
 	    public boolean with_pos = false;
 
+	    @Option(name = "-blockmax", required = false, usage = "Write per-block maxima for Block-Max WAND")
+	    public boolean with_blockmax = false;
+
+	    @Option(name = "-mapped", required = false, usage = "Use a memory-mapped document index in new index")
+	    public boolean mapped_lengths = false;
+
+	    @Option(name = "-pef", required = false, usage = "Encode docids with partitioned Elias-Fano")
+	    public boolean partitioned = false;
+
+	    @Option(name = "-budget", metaVar = "[Number]", required = false, usage = "Direct memory budget of the compression caches, in MB")
+	    public String budget;
+
+	    @Option(name = "-reorder", metaVar = "[String]", required = false, usage = "Reassign docids by recursive graph bisection (bp), on docid ranges of at most 2^31 - 9 postings (ef.reorder.maxPostings), or by sorting on the given meta key")
+	    public String reorder;
+
+	    @Option(name = "-impacts", metaVar = "[String]", required = false, usage = "Write the quantized scores of the given weighting model, e.g., BM25")
+	    public String impacts;
+
+	    @Option(name = "-impactbits", metaVar = "[Number]", required = false, usage = "Number of bits of the quantized scores")
+	    public String impact_bits;
+
+	    @Option(name = "-select", metaVar = "[Number]", required = false, usage = "Write select indexes for the posting lists with at least the given number of postings")
+	    public String select;
+
+	    @Option(name = "-hashlexicon", required = false, usage = "Use a lexicon resolving terms with a minimal perfect hash function")
+	    public boolean hash_lexicon = false;
+
 	}
 	
 	
@@ -155,16 +221,39 @@ public class Generator
 										: 1) ;
 				
 		LOGGER.info("Started " + Generator.class.getSimpleName() + " with parallelism " + num_threads + " (out of " + ForkJoinPool.commonPool().getParallelism() + " max parallelism available)");
-		LOGGER.warn("Multi-threaded Elias-Fano compression is experimental - caution advised due to threads competing for available memory! YMMV.");
+		if (args.budget != null)
+			CacheBudget.set(Long.parseLong(args.budget) << 20);
+		LOGGER.info("Compression caches share a direct memory budget of " + (CacheBudget.get() >> 20) + " MB, spilling to disk when exhausted");
 
 		long starttime = System.currentTimeMillis();
 		
 		try {
 			Generator generator = new Generator(src_index_path, src_index_prefix, dst_index_path, dst_index_prefix);
 			
-			TermPartition[] partitions = generator.partition(num_threads);
-			CompressorMapper mapper = new CompressorMapper(src_index_path, src_index_prefix, dst_index_path, dst_index_prefix, args.with_pos);
-			CompressorReducer3 merger = new CompressorReducer3(dst_index_path, dst_index_prefix, args.with_pos);
+			// The new docid of every docid, if docids are reassigned
+			final int[] docid_map = (args.reorder != null) ? generator.reassignment(args.reorder, num_threads) : null;
+			
+			// The quantizer of the scores, if impacts are written
+			final ImpactQuantizer quantizer = (args.impacts != null) 
+												? generator.quantizer(args.impacts, (args.impact_bits != null) ? Integer.parseInt(args.impact_bits) : ImpactQuantizer.DEFAULT_BITS) 
+												: null;
+			
+			// The minimum number of postings of the posting lists with a select index, if any
+			final int select_threshold = (args.select != null) ? Integer.parseInt(args.select) : 0;
+			
+			final CompressionOptions options = new CompressionOptions()
+													.setPositions(args.with_pos)
+													.setBlockMax(args.with_blockmax)
+													.setPartitioned(args.partitioned)
+													.setDocidMap(docid_map)
+													.setQuantizer(quantizer)
+													.setSelectThreshold(select_threshold);
+			
+			TermPartition[] partitions = generator.partition(num_threads, args.with_pos);
+			CompressorMapper mapper = new CompressorMapper(src_index_path, src_index_prefix, dst_index_path, dst_index_prefix, options);
+			PartitionMerger merger = new PartitionMerger(dst_index_path, dst_index_prefix, options);
+			// Docids and frequencies are written directly in their final regions of the merged files
+			generator.layout(partitions, dst_index_path, merger.prefix(), args.partitioned);
 
 			// Arrays.stream(partitions).parallel().map(mapper).sorted().reduce(merger);
 			// First we perform reassignment in parallel
@@ -174,12 +263,12 @@ public class Generator
 			long compresstime = System.currentTimeMillis();
 			LOGGER.info("Parallel bitfile compression completed after " + (compresstime - starttime)/1000 + " seconds");
 			
-			// Then we perform merging sequentially in a PRECISE order (if the order is wrong, everything is wrong)
-			TermPartition last_partition = Arrays.stream(tmp_partitions).reduce(merger).get();
+			// Then we merge all partitions in one pass, in a PRECISE order (if the order is wrong, everything is wrong)
+			TermPartition last_partition = merger.apply(tmp_partitions);
 			// System.err.println(last_partition.prefix());
 			
 			long mergetime = System.currentTimeMillis();
-			LOGGER.info("Sequential merging completed after " + (mergetime - compresstime)/1000 + " seconds");
+			LOGGER.info("Parallel merging completed after " + (mergetime - compresstime)/1000 + " seconds");
 			
 			// Eventually, we rename the last merge
 			IndexUtil.renameIndex(args.path, last_partition.prefix(), dst_index_path, dst_index_prefix);
@@ -196,15 +285,34 @@ public class Generator
 				throw new RuntimeException("Error loading index: " + Index.getLastIndexLoadError());
 			}
 			
-			EFDocumentIndex.write((org.terrier.structures.DocumentIndex) src_index.getDocumentIndex(), dst_index_path + File.separator + dst_index_prefix + ".sizes");
+			final int[] inverse_map = (docid_map != null) ? DocidReassignment.inverse(docid_map) : null;
+			final DocumentIndex doi = (docid_map == null) 
+										? src_index.getDocumentIndex() 
+										: reassigned(src_index.getDocumentIndex(), inverse_map);
+			EFDocumentIndex.write(doi, dst_index_path + File.separator + dst_index_prefix + ".sizes");
+			EFMappedDocumentIndex.write(doi, dst_index_path + File.separator + dst_index_prefix + EliasFano.LENGTHS_EXTENSION);
 			// IndexUtil.copyStructure(src_index, dst_index, "document", "document");
-			IndexUtil.copyStructure(src_index, dst_index, "meta", "meta");
+			if (docid_map == null)
+				IndexUtil.copyStructure(src_index, dst_index, "meta", "meta");
+			else
+				writeMeta(src_index, dst_index, inverse_map);
 
 			long copytime = System.currentTimeMillis();
 			LOGGER.info("Copying other index structures completed after " + (copytime - mergetime)/1000 + " seconds");
 			
-			writeProperties(src_index, dst_index, args.with_pos);
+			if (docid_map == null)
+				writeProperties(src_index, dst_index, args.with_pos, args.with_blockmax, args.mapped_lengths, args.partitioned);
+			else
+				writeProperties(src_index.getCollectionStatistics(), dst_index, Integer.parseInt(System.getProperty(EliasFano.LOG2QUANTUM, "8")), args.with_pos, args.with_blockmax, args.mapped_lengths, args.partitioned);
+			if (quantizer != null)
+				quantizer.writeProperties(dst_index);
+			if (select_threshold > 0) {
+				dst_index.setIndexProperty(EliasFano.SELECT_THRESHOLD, Integer.toString(select_threshold));
+				dst_index.flush();
+			}
 			LexiconBuilder.optimise(dst_index, "lexicon");
+			if (args.hash_lexicon)
+				EFHashLexicon.write(dst_index);
 
 			long opttime = System.currentTimeMillis();
 			LOGGER.info("Lexicon optimization completed after " + (opttime - copytime)/1000 + " seconds");
@@ -222,7 +330,61 @@ public class Generator
 		}
 	}
 	
-	private static void writeProperties(IndexOnDisk src_index, IndexOnDisk dst_index, boolean with_pos) throws IOException 
+	/**
+	 * Return a view of a document index with reassigned docids.
+	 */
+	private static DocumentIndex reassigned(final DocumentIndex doi, final int[] inverse_map)
+	{
+		return new DocumentIndex() 
+		{
+			@Override
+			public DocumentIndexEntry getDocumentEntry(final int docid) throws IOException 
+			{
+				return doi.getDocumentEntry(inverse_map[docid]);
+			}
+
+			@Override
+			public int getDocumentLength(final int docid) throws IOException 
+			{
+				return doi.getDocumentLength(inverse_map[docid]);
+			}
+
+			@Override
+			public int getNumberOfDocuments() 
+			{
+				return doi.getNumberOfDocuments();
+			}
+		};
+	}
+	
+	/**
+	 * Write the meta index of the new index, with the meta data of the source index in the order of the reassigned docids.
+	 */
+	private static void writeMeta(final IndexOnDisk src_index, final IndexOnDisk dst_index, final int[] inverse_map) throws IOException
+	{
+		final String[] keys = split(src_index.getIndexProperty("index.meta.key-names", ""));
+		if (keys.length == 0)
+			return;
+		final String[] lengths = split(src_index.getIndexProperty("index.meta.value-lengths", ""));
+		final int[] valueLengths = new int[lengths.length];
+		for (int i = 0; i < lengths.length; i++)
+			valueLengths[i] = Integer.parseInt(lengths[i]);
+		final String[] reverseKeys = split(src_index.getIndexProperty("index.meta.reverse-key-names", ""));
+		
+		final MetaIndex meta = src_index.getMetaIndex();
+		try (CompressingMetaIndexBuilder builder = new CompressingMetaIndexBuilder(dst_index, keys, valueLengths, reverseKeys)) {
+			for (int docid = 0; docid < inverse_map.length; docid++)
+				builder.writeDocumentEntry(meta.getAllItems(inverse_map[docid]));
+		}
+		dst_index.flush();
+	}
+	
+	private static String[] split(final String value)
+	{
+		return value.trim().isEmpty() ? new String[0] : value.trim().split("\\s*,\\s*");
+	}
+	
+	private static void writeProperties(IndexOnDisk src_index, IndexOnDisk dst_index, boolean with_pos, boolean with_blockmax, boolean mapped_lengths, boolean partitioned) throws IOException 
 	{	
 		for (String property : new String[] {
 				"index.meta-inputstream.class",
@@ -242,15 +404,33 @@ public class Generator
 		{
 			dst_index.setIndexProperty(property, src_index.getIndexProperty(property, null));
 		}
-
+		
+		writeProperties(src_index.getCollectionStatistics(), dst_index, Integer.parseInt(System.getProperty(EliasFano.LOG2QUANTUM, "8")), with_pos, with_blockmax, mapped_lengths, partitioned);
+	}
+	
+	/**
+	 * Write the properties of an Elias-Fano index, except the ones of the meta index.
+	 * 
+	 * @param cs the collection statistics of the index
+	 * @param dst_index the index
+	 * @param log2quantum the base 2 logarithm of the quantum used to compute skip (or forward) pointers
+	 * @param with_pos true if the index has positions
+	 * @param with_blockmax true if the index has block maxima
+	 * @param mapped_lengths true if the index uses the memory-mapped document index
+	 * @param partitioned true if docids are encoded with partitioned Elias-Fano
+	 * @throws IOException if something goes wrong while writing the properties
+	 */
+	static void writeProperties(CollectionStatistics cs, IndexOnDisk dst_index, int log2quantum, boolean with_pos, boolean with_blockmax, boolean mapped_lengths, boolean partitioned) throws IOException 
+	{
 		dst_index.setIndexProperty("index.terrier.version", Version.VERSION);
 		
-		dst_index.setIndexProperty("num.Documents", Integer.toString(src_index.getCollectionStatistics().getNumberOfDocuments()));
-		dst_index.setIndexProperty("num.Terms",     Integer.toString(src_index.getCollectionStatistics().getNumberOfUniqueTerms()));
-		dst_index.setIndexProperty("num.Pointers",  Long.toString(src_index.getCollectionStatistics().getNumberOfPointers()));
-		dst_index.setIndexProperty("num.Tokens",    Long.toString(src_index.getCollectionStatistics().getNumberOfTokens()));
+		dst_index.setIndexProperty("num.Documents", Integer.toString(cs.getNumberOfDocuments()));
+		dst_index.setIndexProperty("num.Terms",     Integer.toString(cs.getNumberOfUniqueTerms()));
+		dst_index.setIndexProperty("num.Pointers",  Long.toString(cs.getNumberOfPointers()));
+		dst_index.setIndexProperty("num.Tokens",    Long.toString(cs.getNumberOfTokens()));
 		
-		dst_index.setIndexProperty(EliasFano.LOG2QUANTUM, Integer.toString( Integer.parseInt(System.getProperty(EliasFano.LOG2QUANTUM, "8"))));
+		dst_index.setIndexProperty(EliasFano.DOCID_CODEC, (partitioned) ? EliasFano.PEF_CODEC : EliasFano.EF_CODEC);
+		dst_index.setIndexProperty(EliasFano.LOG2QUANTUM, Integer.toString(log2quantum));
 		dst_index.setIndexProperty(EliasFano.BYTEORDER,   ByteOrder.nativeOrder().toString());
 		
 		dst_index.setIndexProperty("max.term.length",Integer.toString(ApplicationSetup.MAX_TERM_LENGTH));
@@ -273,7 +453,10 @@ public class Generator
 		dst_index.setIndexProperty("index.lexicon-valuefactory.parameter_values", "");
 		dst_index.setIndexProperty("index.lexicon-valuefactory.parameter_types",  "");
 
-		dst_index.setIndexProperty("index.document.class",            "it.cnr.isti.hpclab.ef.structures.EFDocumentIndex");
+		if (!mapped_lengths)
+			dst_index.setIndexProperty("index.document.class",            "it.cnr.isti.hpclab.ef.structures.EFDocumentIndex");
+		else
+			dst_index.setIndexProperty("index.document.class",            "it.cnr.isti.hpclab.ef.structures.EFMappedDocumentIndex");
 		dst_index.setIndexProperty("index.document.parameter_types",  "org.terrier.structures.IndexOnDisk");
 		dst_index.setIndexProperty("index.document.parameter_values", "index");
 
@@ -284,15 +467,27 @@ public class Generator
 		if (with_pos) {
 			dst_index.setIndexProperty(EliasFano.HAS_POSITIONS, "true");
 		}
+		
+		if (with_blockmax) {
+			dst_index.setIndexProperty(EliasFano.HAS_BLOCKMAX, "true");
+			dst_index.setIndexProperty("index.blockmax.class",            "it.cnr.isti.hpclab.ef.structures.EFBlockMaxIndex");
+			dst_index.setIndexProperty("index.blockmax.parameter_types",  "org.terrier.structures.IndexOnDisk");
+			dst_index.setIndexProperty("index.blockmax.parameter_values", "index");
+		}
 		dst_index.flush();
 		
 		
 	}
 	
+	private final String src_index_path;
+	private final String src_index_prefix;
 	private final int num_terms;
 
 	public Generator(final String src_index_path, final String src_index_prefix, final String dst_index_path, final String dst_index_prefix) throws Exception 
 	{	
+		this.src_index_path = src_index_path;
+		this.src_index_prefix = src_index_prefix;
+		
 		// Load input index
 		IndexOnDisk src_index = Index.createIndex(src_index_path, src_index_prefix);
 		if (Index.getLastIndexLoadError() != null) {
@@ -311,8 +506,147 @@ public class Generator
 		}		
 	}
 
+	/**
+	 * Compute the docid reassignment of the input index.
+	 * 
+	 * @param strategy {@link DocidReassignment#BISECTION} for recursive graph bisection, or the meta index key to sort the documents by
+	 * @param num_threads the number of threads
+	 * @return the new docid of every docid of the input index
+	 * @throws IOException if something goes wrong while reading the input index
+	 */
+	public int[] reassignment(final String strategy, final int num_threads) throws IOException
+	{
+		IndexOnDisk src_index = Index.createIndex(src_index_path, src_index_prefix);
+		if (Index.getLastIndexLoadError() != null) {
+			throw new RuntimeException("Error loading index: " + Index.getLastIndexLoadError());
+		}
+		final int[] docid_map = DocidReassignment.compute(src_index, strategy, num_threads);
+		src_index.close();
+		LOGGER.info("Docids reassigned by " + (DocidReassignment.BISECTION.equals(strategy) ? "recursive graph bisection" : "meta index key " + strategy));
+		return docid_map;
+	}
+
+	/**
+	 * Compute the quantizer of the scores of a weighting model on the input index.
+	 * 
+	 * @param model the name of the weighting model
+	 * @param bits the number of bits of the quantized scores
+	 * @return the quantizer
+	 * @throws IOException if something goes wrong while reading the input index
+	 */
+	public ImpactQuantizer quantizer(final String model, final int bits) throws IOException
+	{
+		IndexOnDisk src_index = Index.createIndex(src_index_path, src_index_prefix);
+		if (Index.getLastIndexLoadError() != null) {
+			throw new RuntimeException("Error loading index: " + Index.getLastIndexLoadError());
+		}
+		final ImpactQuantizer quantizer = ImpactQuantizer.create(src_index, model, bits);
+		src_index.close();
+		LOGGER.info("Impacts quantize the scores of " + quantizer);
+		return quantizer;
+	}
+
 	public TermPartition[] partition(final int num_threads)
 	{
 		return TermPartition.split(num_terms, num_threads);
 	}
+
+	/**
+	 * Split the input lexicon in partitions with (roughly) the same number of postings, and positions if they are compressed too,
+	 * so that the compression threads get the same amount of work. 
+	 * 
+	 * @param num_threads the number of partitions
+	 * @param with_pos whether the positions are compressed
+	 * @return the partitions
+	 * @throws IOException if something goes wrong while scanning the input lexicon
+	 */
+	public TermPartition[] partition(final int num_threads, final boolean with_pos) throws IOException
+	{
+		if (num_threads == 1)
+			return TermPartition.split(num_terms, num_threads);
+
+		IndexOnDisk src_index = Index.createIndex(src_index_path, src_index_prefix);
+		if (Index.getLastIndexLoadError() != null) {
+			throw new RuntimeException("Error loading index: " + Index.getLastIndexLoadError());
+		}
+		
+		final long total = src_index.getCollectionStatistics().getNumberOfPointers() + (with_pos ? src_index.getCollectionStatistics().getNumberOfTokens() : 0);
+		final TermPartition[] partitions = TermPartition.split(src_index.getLexicon().iterator(), num_terms, total, num_threads, 
+															   le -> le.getDocumentFrequency() + (with_pos ? (long) le.getFrequency() : 0));
+		src_index.close();
+		LOGGER.info("Input lexicon split in " + Arrays.toString(partitions));
+		return partitions;
+	}
+	
+	/**
+	 * Compute, from the input lexicon statistics, the exact size of the docids and frequencies of every partition, 
+	 * and assign to every partition its regions in the docids and frequencies files with the given prefix, creating them.
+	 * 
+	 * @param partitions the partitions, sorted by termid range
+	 * @param dst_index_path the path of the files 
+	 * @param region_prefix the prefix of the files
+	 * @throws IOException if something goes wrong while scanning the input lexicon or creating the files
+	 */
+	public void layout(final TermPartition[] partitions, final String dst_index_path, final String region_prefix) throws IOException
+	{
+		layout(partitions, dst_index_path, region_prefix, false);
+	}
+
+	/**
+	 * Compute, from the input lexicon statistics, the exact size of the docids and frequencies of every partition, 
+	 * and assign to every partition its regions in the docids and frequencies files with the given prefix, creating them.
+	 * The size of partitioned Elias-Fano docids depends on the docids themselves, so in this case only frequencies regions are assigned. 
+	 * 
+	 * @param partitions the partitions, sorted by termid range
+	 * @param dst_index_path the path of the files 
+	 * @param region_prefix the prefix of the files
+	 * @param partitioned true if docids are encoded with partitioned Elias-Fano
+	 * @throws IOException if something goes wrong while scanning the input lexicon or creating the files
+	 */
+	public void layout(final TermPartition[] partitions, final String dst_index_path, final String region_prefix, final boolean partitioned) throws IOException
+	{
+		IndexOnDisk src_index = Index.createIndex(src_index_path, src_index_prefix);
+		if (Index.getLastIndexLoadError() != null) {
+			throw new RuntimeException("Error loading index: " + Index.getLastIndexLoadError());
+		}
+		
+		final int log2quantum = Integer.parseInt(System.getProperty(EliasFano.LOG2QUANTUM, "8"));
+		final int num_docs = src_index.getCollectionStatistics().getNumberOfDocuments();
+		final long[] docid_bits = new long[partitions.length];
+		final long[] freq_bits  = new long[partitions.length];
+		
+		int i = 0;
+		Iterator<Entry<String, LexiconEntry>> lex_iter = src_index.getLexicon().iterator();
+		while (lex_iter.hasNext()) {
+			final LexiconEntry le = lex_iter.next().getValue();
+			while (le.getTermId() >= partitions[i].end)
+				i++;
+			if (!partitioned)
+				docid_bits[i] += Math.min(Utils.docidsBits(le.getDocumentFrequency(), num_docs, log2quantum), BitmapDocidEncoder.docidsBits(le.getDocumentFrequency(), num_docs));
+			freq_bits[i]  += Utils.freqsBits(le.getDocumentFrequency(), le.getFrequency(), log2quantum);
+		}
+		src_index.close();
+		
+		// every partition region is closed by a long, as written by LongWordBitWriter
+		long docid_offset = 0, freq_offset = 0;
+		for (i = 0; i < partitions.length; i++) {
+			final long docid_size = (docid_bits[i] / Long.SIZE + 1) * Long.BYTES;
+			final long freq_size  = (freq_bits[i]  / Long.SIZE + 1) * Long.BYTES;
+			if (!partitioned)
+				partitions[i].setRegions(region_prefix, docid_offset, docid_size, freq_offset, freq_size);
+			else
+				partitions[i].setRegions(region_prefix, -1, -1, freq_offset, freq_size);
+			docid_offset += docid_size;
+			freq_offset  += freq_size;
+		}
+		
+		if (!partitioned) {
+			try (RandomAccessFile docids = new RandomAccessFile(dst_index_path + File.separator + region_prefix + EliasFano.DOCID_EXTENSION, "rw")) {
+				docids.setLength(docid_offset);
+			}
+		}
+		try (RandomAccessFile freqs  = new RandomAccessFile(dst_index_path + File.separator + region_prefix + EliasFano.FREQ_EXTENSION, "rw")) {
+			freqs.setLength(freq_offset);
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,267 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import java.util.stream.IntStream;
+
+import org.apache.hadoop.io.Text;
+import org.terrier.structures.FSOMapFileLexicon;
+import org.terrier.structures.Index;
+import org.terrier.structures.LexiconEntry;
+import org.terrier.structures.collections.FSOrderedMapFile;
+import org.terrier.structures.seralization.FixedSizeTextFactory;
+import org.terrier.structures.seralization.FixedSizeWriteableFactory;
+
+import it.cnr.isti.hpclab.ef.structures.EFBlockLexiconEntry;
+import it.cnr.isti.hpclab.ef.structures.EFLexiconEntry;
+import it.cnr.isti.hpclab.ef.util.IndexUtil;
+
+/**
+ * This class merges all the partitions produced by the {@link CompressorMapper} in a single pass, replacing the deprecated pairwise 
+ * folding of the {@link CompressorReducer3}. 
+ * The sizes of the partition files and lexicons are known in advance, hence every partition file is copied in parallel with
+ * positional writes at its precomputed offset in the merged file, and every partition lexicon is rebased in parallel and
+ * written at its precomputed entry in the merged lexicon.
+ * If the partitions have written their docids and frequencies directly in their regions of the merged files, 
+ * see {@link TermPartition#setRegions}, only the positions, the block maxima, the impacts, the select indexes and the lexicons are copied.
+ * The partitions MUST be sorted by termid range.
+ */
+public class PartitionMerger implements Function<TermPartition[], TermPartition> 
+{
+	private static final String LEXICON_EXTENSION = ".lexicon" + FSOrderedMapFile.USUAL_EXTENSION;
+	
+	private final String dst_index_path;
+	private final String dst_index_prefix;
+	private final boolean with_pos;
+	private final boolean with_blockmax;
+	private final boolean with_impacts;
+	private final boolean with_select;
+	
+	public PartitionMerger(final String dst_index_path, final String dst_index_prefix, final CompressionOptions options)
+	{
+		this.dst_index_path = dst_index_path;
+		this.dst_index_prefix = dst_index_prefix;
+		this.with_pos = options.hasPositions();
+		this.with_blockmax = options.hasBlockMax();
+		this.with_impacts = options.hasImpacts();
+		this.with_select = options.hasSelectIndex();
+	}
+
+	/**
+	 * Return the prefix of the merged files.
+	 * @return the prefix of the merged files
+	 */
+	public String prefix()
+	{
+		return this.dst_index_prefix + "_merge";
+	}
+	
+	@Override
+	public TermPartition apply(final TermPartition[] partitions) 
+	{
+		Index.setIndexLoadingProfileAsRetrieval(false);
+		final TermPartition last = partitions[partitions.length - 1];
+		final String out_prefix = prefix();
+		
+		final FixedSizeTextFactory keyFactory = new FixedSizeTextFactory(IndexUtil.DEFAULT_MAX_TERM_LENGTH);
+		final FixedSizeWriteableFactory<LexiconEntry> valueFactory = (!with_pos) ? new EFLexiconEntry.Factory() : new EFBlockLexiconEntry.Factory();
+		final int entry_size = keyFactory.getSize() + valueFactory.getSize();
+
+		try {
+			// Byte offsets of every partition in the merged files, and termid offsets of every partition in the merged lexicon
+			final boolean docids_in_place = partitions[0].hasRegions() && partitions[0].docidRegion() >= 0;
+			final boolean freqs_in_place  = partitions[0].hasRegions() && partitions[0].freqRegion() >= 0;
+			final long[] docid_offsets = (docids_in_place) ? regions(partitions, TermPartition::docidRegion) : offsets(partitions, EliasFano.DOCID_EXTENSION, 1);
+			final long[] freq_offsets  = (freqs_in_place)  ? regions(partitions, TermPartition::freqRegion)  : offsets(partitions, EliasFano.FREQ_EXTENSION, 1);
+			final long[] pos_offsets   = (with_pos) ? offsets(partitions, EliasFano.POS_EXTENSION, 1) : new long[partitions.length + 1];
+			final long[] term_offsets  = offsets(partitions, LEXICON_EXTENSION, entry_size);
+
+			if (!docids_in_place)
+				concat(partitions, EliasFano.DOCID_EXTENSION, out_prefix, docid_offsets);
+			if (!freqs_in_place)
+				concat(partitions, EliasFano.FREQ_EXTENSION,  out_prefix, freq_offsets);
+			if (with_pos)
+				concat(partitions, EliasFano.POS_EXTENSION, out_prefix, pos_offsets);
+			
+			if (with_blockmax) {
+				final long[] blockmax_offsets = offsets(partitions, EliasFano.BLOCKMAX_EXTENSION, 1);
+				concat(partitions, EliasFano.BLOCKMAX_EXTENSION, out_prefix, blockmax_offsets);
+				concatOffsets(partitions, EliasFano.BLOCKMAX_OFFSETS_EXTENSION, out_prefix, term_offsets, blockmax_offsets, Long.SIZE);
+			}
+			
+			if (with_impacts) {
+				final long[] impacts_offsets = offsets(partitions, EliasFano.IMPACTS_EXTENSION, 1);
+				concat(partitions, EliasFano.IMPACTS_EXTENSION, out_prefix, impacts_offsets);
+				concatOffsets(partitions, EliasFano.IMPACTS_OFFSETS_EXTENSION, out_prefix, term_offsets, impacts_offsets, 1);
+			}
+			
+			if (with_select) {
+				final long[] select_offsets = offsets(partitions, EliasFano.SELECT_EXTENSION, 1);
+				concat(partitions, EliasFano.SELECT_EXTENSION, out_prefix, select_offsets);
+				concatOffsets(partitions, EliasFano.SELECT_OFFSETS_EXTENSION, out_prefix, term_offsets, select_offsets, 1);
+			}
+
+			// Rebase and write the lexicons
+			final Path out_lexicon = Paths.get(dst_index_path, out_prefix + LEXICON_EXTENSION);
+			allocate(out_lexicon, term_offsets[partitions.length] * entry_size);
+			IntStream.range(0, partitions.length).parallel().forEach(i -> {
+				try {
+					FSOMapFileLexicon lex = new FSOMapFileLexicon("lexicon", dst_index_path, partitions[i].prefix(), keyFactory, valueFactory, "aligned", "default", "file");
+					try (FileChannel out = FileChannel.open(out_lexicon, StandardOpenOption.WRITE)) {
+						out.position(term_offsets[i] * entry_size);
+						DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(out)));
+						Text key = keyFactory.newInstance();
+						Iterator<Entry<String, LexiconEntry>> lex_iter = lex.iterator();
+						while (lex_iter.hasNext()) {
+							Entry<String, LexiconEntry> lee = lex_iter.next();
+							EFLexiconEntry le = (EFLexiconEntry) lee.getValue();
+							le.docidOffset += Byte.SIZE * docid_offsets[i];
+							le.freqOffset  += Byte.SIZE * freq_offsets[i];
+							if (with_pos)
+								((EFBlockLexiconEntry) le).posOffset += Byte.SIZE * pos_offsets[i];
+							le.termId += (int) term_offsets[i];
+							key.set(lee.getKey());
+							key.write(dos);
+							le.write(dos);
+						}
+						dos.flush();
+					}
+					lex.close();
+					Files.delete(Paths.get(dst_index_path, partitions[i].prefix() + LEXICON_EXTENSION));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		
+		last.setPrefix(out_prefix);
+		return last;
+	}
+	
+	/**
+	 * Compute the prefix sums of the sizes of the partition files with the given extension, in units of the given size.
+	 */
+	private long[] offsets(final TermPartition[] partitions, final String extension, final int unit) throws IOException
+	{
+		long[] offsets = new long[partitions.length + 1];
+		for (int i = 0; i < partitions.length; i++)
+			offsets[i + 1] = offsets[i] + Files.size(Paths.get(dst_index_path, partitions[i].prefix() + extension)) / unit;
+		return offsets;
+	}
+
+	/**
+	 * Collect the byte offsets of the regions where the partitions have already written their data.
+	 */
+	private static long[] regions(final TermPartition[] partitions, final ToLongFunction<TermPartition> region)
+	{
+		long[] offsets = new long[partitions.length + 1];
+		for (int i = 0; i < partitions.length; i++)
+			offsets[i] = region.applyAsLong(partitions[i]);
+		return offsets;
+	}
+
+	/**
+	 * Create a file of the given size, so that it can be written in any order.
+	 */
+	private static void allocate(final Path file, final long size) throws IOException
+	{
+		try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+			raf.setLength(size);
+		}
+	}
+	
+	/**
+	 * Copy, in parallel, every partition file with the given extension at its offset in the merged file, deleting it.
+	 */
+	private void concat(final TermPartition[] partitions, final String extension, final String out_prefix, final long[] offsets) throws IOException 
+	{
+		final Path out_file = Paths.get(dst_index_path, out_prefix + extension);
+		allocate(out_file, offsets[partitions.length]);
+		IntStream.range(0, partitions.length).parallel().forEach(i -> {
+			final Path in_file = Paths.get(dst_index_path, partitions[i].prefix() + extension);
+			try (FileChannel out = FileChannel.open(out_file, StandardOpenOption.WRITE);
+				 FileChannel in  = FileChannel.open(in_file, StandardOpenOption.READ)) {
+				for (long p = 0, l = in.size(); p < l; )
+					p += out.transferFrom(in, offsets[i] + p, l - p);
+				Files.delete(in_file);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+
+	/**
+	 * Copy, in parallel, every partition file of offsets, one long per term followed by a closing long, at its termid offset in the merged file, 
+	 * adding the offset of the partition in the file the offsets refer to, in units of the given number of bits, and deleting it. 
+	 * The merged file is closed by a single long.
+	 */
+	private void concatOffsets(final TermPartition[] partitions, final String extension, final String out_prefix, final long[] term_offsets, final long[] byte_offsets, final int unit) throws IOException 
+	{
+		final Path out_file = Paths.get(dst_index_path, out_prefix + extension);
+		allocate(out_file, (term_offsets[partitions.length] + 1) * Long.BYTES);
+		IntStream.range(0, partitions.length).parallel().forEach(i -> {
+			final Path in_file = Paths.get(dst_index_path, partitions[i].prefix() + extension);
+			final long delta = byte_offsets[i] * Byte.SIZE / unit;
+			final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024).order(ByteOrder.nativeOrder());
+			try (FileChannel out = FileChannel.open(out_file, StandardOpenOption.WRITE);
+				 FileChannel in  = FileChannel.open(in_file, StandardOpenOption.READ)) {
+				final long num_terms = term_offsets[i + 1] - term_offsets[i];
+				long position = term_offsets[i] * Long.BYTES;
+				for (long t = 0; t < num_terms; ) {
+					((Buffer) buffer).clear();
+					((Buffer) buffer).limit((int) Math.min(buffer.capacity(), (num_terms - t) * Long.BYTES));
+					while (buffer.hasRemaining())
+						if (in.read(buffer) == -1)
+							throw new EOFException("Truncated offsets file " + in_file + ": expected " + num_terms + " offsets");
+					((Buffer) buffer).flip();
+					for (int p = 0; p < buffer.limit(); p += Long.BYTES, t++)
+						buffer.putLong(p, buffer.getLong(p) + delta);
+					while (buffer.hasRemaining())
+						position += out.write(buffer, position);
+				}
+				Files.delete(in_file);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+}
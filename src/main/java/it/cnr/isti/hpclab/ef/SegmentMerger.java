@@ -0,0 +1,333 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.io.Text;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terrier.structures.CollectionStatistics;
+import org.terrier.structures.DocumentIndex;
+import org.terrier.structures.DocumentIndexEntry;
+import org.terrier.structures.FSOMapFileLexiconOutputStream;
+import org.terrier.structures.Index;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.LexiconEntry;
+import org.terrier.structures.LexiconOutputStream;
+import org.terrier.structures.MetaIndex;
+import org.terrier.structures.collections.FSOrderedMapFile;
+import org.terrier.structures.indexing.CompressingMetaIndexBuilder;
+import org.terrier.structures.indexing.LexiconBuilder;
+import org.terrier.structures.postings.IterablePosting;
+import org.terrier.structures.seralization.FixedSizeTextFactory;
+
+import it.cnr.isti.hpclab.ef.structures.EFDocumentIndex;
+import it.cnr.isti.hpclab.ef.structures.EFLexiconEntry;
+import it.cnr.isti.hpclab.ef.structures.EFMappedDocumentIndex;
+import it.cnr.isti.hpclab.ef.structures.EFSegmentedIterablePosting;
+import it.cnr.isti.hpclab.ef.util.BitmapDocidEncoder;
+import it.cnr.isti.hpclab.ef.util.BlockMaxWriter;
+import it.cnr.isti.hpclab.ef.util.IndexUtil;
+import it.cnr.isti.hpclab.ef.util.LongWordBitWriter;
+import it.cnr.isti.hpclab.ef.util.PartitionedDocidEncoder;
+import it.cnr.isti.hpclab.ef.util.SequenceEncoder;
+
+/**
+ * This class merges several Elias-Fano indexes without positions (segments), holding consecutive ranges of documents, into a single Elias-Fano index.
+ * The docids of every segment are rebased by the number of documents in the previous segments, the lexicons are merged by term, and
+ * the posting lists of every term are concatenated and re-encoded, since the Elias-Fano encoding of a list depends on the number of documents. 
+ * Document lengths and meta data are concatenated too. The merged index uses the codec, quantum, block maxima and document index of the first segment.
+ */
+public class SegmentMerger 
+{
+	protected static final Logger LOGGER = LoggerFactory.getLogger(SegmentMerger.class);
+	protected static final int DEFAULT_CACHE_SIZE = 64 * 1024 * 1024;
+	
+	private final IndexOnDisk[] segments;
+	private final int[] offsets;
+	
+	/**
+	 * Constructor.
+	 * @param segments the segments to merge, in docid order
+	 */
+	public SegmentMerger(final IndexOnDisk... segments)
+	{
+		if (segments.length == 0)
+			throw new IllegalArgumentException("At least one segment is required");
+		for (IndexOnDisk segment : segments)
+			if ("true".equals(segment.getIndexProperty(EliasFano.HAS_POSITIONS, "false")))
+				throw new IllegalArgumentException("Cannot merge segments with positions");
+		
+		this.segments = segments;
+		this.offsets = new int[segments.length + 1];
+		for (int s = 0; s < segments.length; s++)
+			offsets[s + 1] = offsets[s] + segments[s].getCollectionStatistics().getNumberOfDocuments();
+	}
+	
+	/** 
+	 * The lexicon iterator of a segment, ordered by its current term.
+	 */
+	private static final class LexiconCursor implements Comparable<LexiconCursor>
+	{
+		final int segment;
+		final Iterator<Entry<String, LexiconEntry>> iterator;
+		final Text term = new Text();
+		Entry<String, LexiconEntry> entry;
+		
+		LexiconCursor(final int segment, final Iterator<Entry<String, LexiconEntry>> iterator)
+		{
+			this.segment = segment;
+			this.iterator = iterator;
+		}
+		
+		boolean advance()
+		{
+			if (!iterator.hasNext())
+				return false;
+			entry = iterator.next();
+			term.set(entry.getKey());
+			return true;
+		}
+
+		@Override
+		public int compareTo(final LexiconCursor o) 
+		{
+			// lexicons are sorted by the bytes of their keys
+			final int c = term.compareTo(o.term);
+			return (c != 0) ? c : Integer.compare(segment, o.segment);
+		}
+	}
+	
+	/**
+	 * Merge the segments into a new index.
+	 * 
+	 * @param dst_index_path the path of the merged index
+	 * @param dst_index_prefix the prefix of the merged index
+	 * @throws IOException if something goes wrong while reading the segments or writing the merged index
+	 */
+	@SuppressWarnings("resource")
+	public void merge(final String dst_index_path, final String dst_index_prefix) throws IOException
+	{
+		if (Index.existsIndex(dst_index_path, dst_index_prefix))
+			throw new IllegalArgumentException("Index directory " + dst_index_path + " already contains an index with prefix " + dst_index_prefix);
+		
+		final IndexOnDisk first = segments[0];
+		final int log2Quantum = first.getIntIndexProperty(EliasFano.LOG2QUANTUM, 8);
+		final boolean with_blockmax = "true".equals(first.getIndexProperty(EliasFano.HAS_BLOCKMAX, "false"));
+		final boolean partitioned = EliasFano.PEF_CODEC.equals(first.getIndexProperty(EliasFano.DOCID_CODEC, EliasFano.EF_CODEC));
+		final boolean mapped_lengths = EFMappedDocumentIndex.class.getName().equals(first.getIndexProperty("index.document.class", ""));
+		final int num_docs = offsets[segments.length];
+		final String dst = dst_index_path + File.separator + dst_index_prefix;
+		
+		LexiconOutputStream<String> los = new FSOMapFileLexiconOutputStream(dst + ".lexicon" + FSOrderedMapFile.USUAL_EXTENSION, new FixedSizeTextFactory(IndexUtil.DEFAULT_MAX_TERM_LENGTH));
+		LongWordBitWriter docids = new LongWordBitWriter(new FileOutputStream(dst + EliasFano.DOCID_EXTENSION).getChannel(), ByteOrder.nativeOrder());
+		LongWordBitWriter freqs  = new LongWordBitWriter(new FileOutputStream(dst + EliasFano.FREQ_EXTENSION).getChannel(), ByteOrder.nativeOrder());
+		BlockMaxWriter blockmax  = (with_blockmax) ? new BlockMaxWriter(dst, log2Quantum) : null;
+		
+		SequenceEncoder docidsAccumulator = (!partitioned) ? new SequenceEncoder( DEFAULT_CACHE_SIZE, log2Quantum ) : null;
+		PartitionedDocidEncoder partitionedAccumulator = (partitioned) ? new PartitionedDocidEncoder( DEFAULT_CACHE_SIZE, log2Quantum ) : null;
+		BitmapDocidEncoder bitmapAccumulator = (!partitioned) ? new BitmapDocidEncoder() : null;
+		SequenceEncoder freqsAccumulator = new SequenceEncoder( DEFAULT_CACHE_SIZE, log2Quantum );
+		
+		PriorityQueue<LexiconCursor> cursors = new PriorityQueue<LexiconCursor>();
+		for (int s = 0; s < segments.length; s++) {
+			LexiconCursor cursor = new LexiconCursor(s, segments[s].getLexicon().iterator());
+			if (cursor.advance())
+				cursors.add(cursor);
+		}
+		
+		long docidsOffset = 0;
+		long freqsOffset = 0;
+		long num_pointers = 0;
+		long num_tokens = 0;
+		int termid = 0;
+		
+		final LexiconEntry[] entries = new LexiconEntry[segments.length];
+		final IterablePosting[] postings = new IterablePosting[segments.length];
+		while (!cursors.isEmpty()) {
+			// collect the entries of the smallest term in all segments
+			final String term = cursors.peek().entry.getKey();
+			Arrays.fill(entries, null);
+			Arrays.fill(postings, null);
+			int df = 0, F = 0, maxtf = 0;
+			while (!cursors.isEmpty() && cursors.peek().entry.getKey().equals(term)) {
+				final LexiconCursor cursor = cursors.poll();
+				final LexiconEntry le = cursor.entry.getValue();
+				entries[cursor.segment] = le;
+				postings[cursor.segment] = segments[cursor.segment].getInvertedIndex().getPostings(le);
+				df += le.getDocumentFrequency();
+				F  += le.getFrequency();
+				maxtf = Math.max(maxtf, le.getMaxFrequencyInDocuments());
+				if (cursor.advance())
+					cursors.add(cursor);
+			}
+			
+			final boolean bitmap = !partitioned && BitmapDocidEncoder.isSmaller( df, num_docs, log2Quantum );
+			if (bitmap)
+				bitmapAccumulator.init( df, num_docs );
+			else if (!partitioned)
+				docidsAccumulator.init( df, num_docs, false, true, log2Quantum );
+			else
+				partitionedAccumulator.init( df, num_docs );
+			freqsAccumulator.init( df, F, true, false, log2Quantum );
+			
+			EFLexiconEntry entry = new EFLexiconEntry(termid, df, F, maxtf, docidsOffset, freqsOffset);
+			entry.bitmap = bitmap;
+			los.writeNextEntry(term, entry);
+			
+			if (with_blockmax)
+				blockmax.init();
+			
+			IterablePosting p = new EFSegmentedIterablePosting(postings, offsets);
+			long lastDocid = 0;
+			while (p.next() != IterablePosting.END_OF_LIST) {
+				if (bitmap)
+					bitmapAccumulator.add( p.getId() - lastDocid );
+				else if (!partitioned)
+					docidsAccumulator.add( p.getId() - lastDocid );
+				else
+					partitionedAccumulator.add( p.getId() - lastDocid );
+				lastDocid = p.getId();
+				freqsAccumulator.add(p.getFrequency());
+				if (with_blockmax)
+					blockmax.add(p.getId(), p.getFrequency(), p.getDocumentLength());
+			}
+			p.close();
+			if (with_blockmax)
+				blockmax.finish();
+			
+			if (bitmap)
+				docidsOffset += bitmapAccumulator.dump(docids);
+			else
+				docidsOffset += (!partitioned) ? docidsAccumulator.dump(docids) : partitionedAccumulator.dump(docids);
+			freqsOffset += freqsAccumulator.dump(freqs);
+			num_pointers += df;
+			num_tokens += F;
+			termid++;
+		}
+		
+		if (!partitioned)
+			docidsAccumulator.close();
+		else
+			partitionedAccumulator.close();
+		docids.close();
+		freqsAccumulator.close();
+		freqs.close();
+		if (with_blockmax)
+			blockmax.close();
+		los.close();
+		
+		IndexOnDisk dst_index = Index.createNewIndex(dst_index_path, dst_index_prefix);
+		
+		final DocumentIndex doi = documentIndex();
+		EFDocumentIndex.write(doi, dst + ".sizes");
+		EFMappedDocumentIndex.write(doi, dst + EliasFano.LENGTHS_EXTENSION);
+		writeMeta(dst_index);
+		
+		final CollectionStatistics cs = new CollectionStatistics(num_docs, termid, num_tokens, num_pointers, new long[0]);
+		Generator.writeProperties(cs, dst_index, log2Quantum, false, with_blockmax, mapped_lengths, partitioned);
+		dst_index.close();
+		
+		dst_index = Index.createIndex(dst_index_path, dst_index_prefix);
+		if (Index.getLastIndexLoadError() != null)
+			throw new IOException("Error loading index: " + Index.getLastIndexLoadError());
+		LexiconBuilder.optimise(dst_index, "lexicon");
+		dst_index.close();
+		
+		LOGGER.info("Merged " + segments.length + " segments with " + num_docs + " documents and " + termid + " terms in " + dst_index_path + " with prefix " + dst_index_prefix);
+	}
+	
+	/**
+	 * Return a document index concatenating the document indexes of the segments.
+	 */
+	private DocumentIndex documentIndex()
+	{
+		return new DocumentIndex() 
+		{
+			@Override
+			public DocumentIndexEntry getDocumentEntry(final int docid) throws IOException 
+			{
+				final int s = segment(docid);
+				return segments[s].getDocumentIndex().getDocumentEntry(docid - offsets[s]);
+			}
+
+			@Override
+			public int getDocumentLength(final int docid) throws IOException 
+			{
+				final int s = segment(docid);
+				return segments[s].getDocumentIndex().getDocumentLength(docid - offsets[s]);
+			}
+
+			@Override
+			public int getNumberOfDocuments() 
+			{
+				return offsets[segments.length];
+			}
+		};
+	}
+	
+	private int segment(final int docid)
+	{
+		int s = Arrays.binarySearch(offsets, docid);
+		if (s < 0)
+			s = -s - 2;
+		while (s < segments.length - 1 && offsets[s + 1] == docid)
+			s++;
+		return s;
+	}
+	
+	/**
+	 * Write the meta index of the merged index, concatenating the meta data of the segments, with the keys and value lengths of the first segment.
+	 */
+	private void writeMeta(final IndexOnDisk dst_index) throws IOException
+	{
+		final IndexOnDisk first = segments[0];
+		final String[] keys = split(first.getIndexProperty("index.meta.key-names", ""));
+		if (keys.length == 0)
+			return;
+		final String[] lengths = split(first.getIndexProperty("index.meta.value-lengths", ""));
+		final int[] valueLengths = new int[lengths.length];
+		for (int i = 0; i < lengths.length; i++)
+			valueLengths[i] = Integer.parseInt(lengths[i]);
+		final String[] reverseKeys = split(first.getIndexProperty("index.meta.reverse-key-names", ""));
+		
+		try (CompressingMetaIndexBuilder builder = new CompressingMetaIndexBuilder(dst_index, keys, valueLengths, reverseKeys)) {
+			for (IndexOnDisk segment : segments) {
+				final MetaIndex meta = segment.getMetaIndex();
+				for (int docid = 0; docid < segment.getCollectionStatistics().getNumberOfDocuments(); docid++)
+					builder.writeDocumentEntry(meta.getAllItems(docid));
+			}
+		}
+		dst_index.flush();
+	}
+	
+	private static String[] split(final String value)
+	{
+		return value.trim().isEmpty() ? new String[0] : value.trim().split("\\s*,\\s*");
+	}
+}
@@ -0,0 +1,511 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terrier.structures.Index;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.LexiconEntry;
+import org.terrier.structures.postings.IterablePosting;
+
+import it.cnr.isti.hpclab.ef.matching.ShardedMatching;
+import it.cnr.isti.hpclab.ef.structures.EFSegmentedIterablePosting;
+
+/**
+ * An index made of immutable Elias-Fano segments, stored in a directory, that grows incrementally.
+ * Every batch of new documents, indexed by Terrier, is compressed into a new segment with {@link #addSegment(String)}, 
+ * and its docids follow the ones of the previous segments. Searches run on a {@link Snapshot} of the segments, i.e., 
+ * the union of their posting lists or a {@link ShardedMatching} over them.
+ * <p>
+ * Segments are merged in the background by a tiered policy: the tier of a segment is the logarithm, in base the merge factor, 
+ * of its number of documents, and every run of <i>merge factor</i> adjacent segments in the same tier is merged into a single segment 
+ * with {@link SegmentMerger}. Since only adjacent segments are merged, the docids never change. 
+ * The merged segments are deleted as soon as no snapshot uses them.
+ * The list of segments is stored in the <code>{@value #MANIFEST}</code> file of the directory, replaced atomically at every change.
+ * Segments do not store positions.
+ */
+public class SegmentedIndex implements Closeable
+{
+	protected static final Logger LOGGER = LoggerFactory.getLogger(SegmentedIndex.class);
+	
+	/** The name of the file listing the segments. */
+	public static final String MANIFEST = "segments.manifest";
+	/** The prefix of the segments. */
+	public static final String SEGMENT_PREFIX = "segment_";
+	/** The default number of segments of the same tier merged together. */
+	public static final int DEFAULT_MERGE_FACTOR = 4;
+	
+	/**
+	 * A segment, closed and deleted when retired and no longer used by any snapshot.
+	 */
+	private static final class Segment
+	{
+		final String prefix;
+		final IndexOnDisk index;
+		int references = 0;
+		boolean retired = false;
+		
+		Segment(final String prefix, final IndexOnDisk index)
+		{
+			this.prefix = prefix;
+			this.index = index;
+		}
+		
+		int numberOfDocuments()
+		{
+			return index.getCollectionStatistics().getNumberOfDocuments();
+		}
+	}
+	
+	/**
+	 * An immutable view of the segments of the index at a given time. Snapshots must be closed when no longer used.
+	 */
+	public final class Snapshot implements Closeable
+	{
+		private final List<Segment> segments;
+		private final IndexOnDisk[] indexes;
+		private final int[] offsets;
+		private int references = 1;
+		private ShardedMatching matching = null;
+		
+		private Snapshot(final List<Segment> segments)
+		{
+			this.segments = segments;
+			this.indexes = new IndexOnDisk[segments.size()];
+			this.offsets = new int[segments.size() + 1];
+			for (int s = 0; s < segments.size(); s++) {
+				indexes[s] = segments.get(s).index;
+				offsets[s + 1] = offsets[s] + segments.get(s).numberOfDocuments();
+				segments.get(s).references++;
+			}
+		}
+		
+		/**
+		 * Return the segments, in docid order.
+		 * @return the segments, in docid order
+		 */
+		public IndexOnDisk[] getSegments()
+		{
+			return indexes.clone();
+		}
+		
+		/**
+		 * Return the number of documents in all the segments.
+		 * @return the number of documents in all the segments
+		 */
+		public int getNumberOfDocuments()
+		{
+			return offsets[indexes.length];
+		}
+		
+		/**
+		 * Return the union of the posting lists of a term in all the segments, with global docids.
+		 * @param term the term
+		 * @return the posting list of the term, or null if the term does not appear in any segment
+		 * @throws IOException if something goes wrong in opening the posting lists
+		 */
+		public IterablePosting getPostings(final String term) throws IOException
+		{
+			final IterablePosting[] postings = new IterablePosting[indexes.length];
+			boolean found = false;
+			for (int s = 0; s < indexes.length; s++) {
+				final LexiconEntry le = indexes[s].getLexicon().getLexiconEntry(term);
+				if (le != null) {
+					postings[s] = indexes[s].getInvertedIndex().getPostings(le);
+					found = true;
+				}
+			}
+			return (found) ? new EFSegmentedIterablePosting(postings, offsets) : null;
+		}
+		
+		/**
+		 * Return a matching strategy over the segments, with global docids and statistics. 
+		 * It is created the first time and closed with the snapshot.
+		 * @return a matching strategy over the segments
+		 */
+		public synchronized ShardedMatching getMatching()
+		{
+			if (indexes.length == 0)
+				throw new IllegalStateException("The index has no segments");
+			if (matching == null)
+				matching = new ShardedMatching(indexes);
+			return matching;
+		}
+		
+		/** Release the snapshot. */
+		@Override
+		public void close() throws IOException
+		{
+			release(this);
+		}
+	}
+	
+	private final String path;
+	private final boolean with_blockmax;
+	private final boolean partitioned;
+	private final ExecutorService merger;
+	
+	private int mergeFactor = DEFAULT_MERGE_FACTOR;
+	private int nextSegment = 0;
+	private List<Segment> segments = Collections.emptyList();
+	private Snapshot current;
+	private boolean closed = false;
+	
+	/**
+	 * Open the segmented index in the given directory, creating it if it does not exist. 
+	 * New segments are encoded with the options of the existing ones.
+	 * @param path the directory of the index
+	 * @throws IOException if the index cannot be opened
+	 */
+	public SegmentedIndex(final String path) throws IOException
+	{
+		this(path, false, false);
+	}
+	
+	/**
+	 * Open the segmented index in the given directory, creating it if it does not exist. 
+	 * @param path the directory of the index
+	 * @param with_blockmax true if the block maxima must be written in new segments (ignored if the index exists)
+	 * @param partitioned true if docids must be encoded with partitioned Elias-Fano in new segments (ignored if the index exists)
+	 * @throws IOException if the index cannot be opened
+	 */
+	public SegmentedIndex(final String path, final boolean with_blockmax, final boolean partitioned) throws IOException
+	{
+		this.path = path;
+		Files.createDirectories(Paths.get(path));
+		
+		final Properties manifest = new Properties();
+		final File manifestFile = new File(path, MANIFEST);
+		if (manifestFile.exists()) {
+			try (InputStream is = new FileInputStream(manifestFile)) {
+				manifest.load(is);
+			}
+		}
+		this.with_blockmax = Boolean.parseBoolean(manifest.getProperty("blockmax", Boolean.toString(with_blockmax)));
+		this.partitioned = Boolean.parseBoolean(manifest.getProperty("partitioned", Boolean.toString(partitioned)));
+		this.nextSegment = Integer.parseInt(manifest.getProperty("next", "0"));
+		
+		final List<Segment> opened = new ArrayList<Segment>();
+		for (String prefix : manifest.getProperty("segments", "").split(",")) {
+			if (prefix.isEmpty())
+				continue;
+			IndexOnDisk index = Index.createIndex(path, prefix);
+			if (index == null)
+				throw new IOException("Cannot open the segment " + prefix + ": " + Index.getLastIndexLoadError());
+			opened.add(new Segment(prefix, index));
+		}
+		this.segments = Collections.unmodifiableList(opened);
+		this.current = new Snapshot(segments);
+		writeManifest();
+		
+		this.merger = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "SegmentMerger");
+			t.setDaemon(true);
+			return t;
+		});
+		scheduleMerges();
+	}
+	
+	/**
+	 * Set the number of segments of the same tier merged together.
+	 * @param mergeFactor the merge factor, at least 2
+	 */
+	public synchronized void setMergeFactor(final int mergeFactor)
+	{
+		if (mergeFactor < 2)
+			throw new IllegalArgumentException("The merge factor must be at least 2");
+		this.mergeFactor = mergeFactor;
+	}
+	
+	/**
+	 * Return the number of segments.
+	 * @return the number of segments
+	 */
+	public synchronized int getNumberOfSegments()
+	{
+		return segments.size();
+	}
+	
+	/**
+	 * Compress a Terrier index of new documents into a new segment, following the existing ones. 
+	 * Merges are scheduled in the background if needed.
+	 * @param index the properties file of the Terrier index of the new documents, e.g., <code>/path/to/batch/data.properties</code>
+	 * @throws IOException if the segment cannot be created
+	 */
+	public void addSegment(final String index) throws IOException
+	{
+		final String prefix = newPrefix();
+		Generator.Args args = new Generator.Args();
+		args.index = index;
+		args.path = path;
+		args.prefix = prefix;
+		args.with_blockmax = with_blockmax;
+		args.partitioned = partitioned;
+		if (Generator.process(args) != 0) {
+			delete(prefix);
+			throw new IOException("Cannot compress " + index + " into a new segment");
+		}
+		
+		IndexOnDisk segment = Index.createIndex(path, prefix);
+		if (segment == null)
+			throw new IOException("Cannot open the segment " + prefix + ": " + Index.getLastIndexLoadError());
+		synchronized (this) {
+			final List<Segment> updated = new ArrayList<Segment>(segments);
+			updated.add(new Segment(prefix, segment));
+			publish(updated);
+		}
+		scheduleMerges();
+	}
+	
+	/**
+	 * Return a snapshot of the current segments, to be closed when no longer used.
+	 * @return a snapshot of the current segments
+	 */
+	public synchronized Snapshot acquire()
+	{
+		if (closed)
+			throw new IllegalStateException("The index is closed");
+		current.references++;
+		return current;
+	}
+	
+	/**
+	 * Wait for the completion of the merges scheduled so far.
+	 * @throws IOException if a merge failed
+	 */
+	public void waitForMerges() throws IOException
+	{
+		try {
+			merger.submit(() -> {}).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+	}
+	
+	/**
+	 * Merge all the segments into a single one, after the merges scheduled so far, and wait for its completion.
+	 * @throws IOException if the merge failed
+	 */
+	public void mergeAll() throws IOException
+	{
+		try {
+			merger.submit(() -> {
+				final List<Segment> all;
+				synchronized (this) {
+					all = segments;
+				}
+				if (all.size() > 1)
+					merge(all);
+				return null;
+			}).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+	
+	/**
+	 * Wait for the running merge, if any, and release the segments. Snapshots still in use keep their segments open until closed.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+		}
+		merger.shutdown();
+		try {
+			while (!merger.awaitTermination(1, TimeUnit.MINUTES))
+				LOGGER.info("Waiting for the running segment merge");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		release(current);
+	}
+	
+	private void scheduleMerges()
+	{
+		synchronized (this) {
+			if (closed)
+				return;
+		}
+		merger.execute(() -> {
+			try {
+				List<Segment> run;
+				while ((run = findMerge()) != null)
+					merge(run);
+			} catch (IOException e) {
+				LOGGER.error("Segment merge failed", e);
+			}
+		});
+	}
+	
+	/**
+	 * Find the first run of adjacent segments of the same tier, as many as the merge factor.
+	 */
+	private synchronized List<Segment> findMerge()
+	{
+		if (closed)
+			return null;
+		int start = 0;
+		for (int s = 1; s <= segments.size(); s++) {
+			if (s == segments.size() || tier(segments.get(s)) != tier(segments.get(start)))
+				start = s;
+			else if (s - start + 1 == mergeFactor)
+				return new ArrayList<Segment>(segments.subList(start, s + 1));
+		}
+		return null;
+	}
+	
+	private int tier(final Segment segment)
+	{
+		return (int) Math.floor(Math.log(Math.max(1, segment.numberOfDocuments())) / Math.log(mergeFactor) + 1e-9);
+	}
+	
+	/**
+	 * Merge a run of adjacent segments and replace them with the merged segment.
+	 */
+	private void merge(final List<Segment> run) throws IOException
+	{
+		final String prefix = newPrefix();
+		final IndexOnDisk[] indexes = new IndexOnDisk[run.size()];
+		for (int s = 0; s < indexes.length; s++)
+			indexes[s] = run.get(s).index;
+		
+		try {
+			new SegmentMerger(indexes).merge(path, prefix);
+		} catch (IOException | RuntimeException e) {
+			delete(prefix);
+			throw e;
+		}
+		
+		IndexOnDisk merged = Index.createIndex(path, prefix);
+		if (merged == null)
+			throw new IOException("Cannot open the segment " + prefix + ": " + Index.getLastIndexLoadError());
+		synchronized (this) {
+			// only the merger removes segments, so the run is still contiguous
+			final int start = segments.indexOf(run.get(0));
+			final List<Segment> updated = new ArrayList<Segment>(segments);
+			updated.subList(start, start + run.size()).clear();
+			updated.add(start, new Segment(prefix, merged));
+			for (Segment segment : run)
+				segment.retired = true;
+			publish(updated);
+		}
+	}
+	
+	/**
+	 * Replace the current list of segments, writing the manifest and releasing the previous snapshot.
+	 */
+	private void publish(final List<Segment> updated) throws IOException
+	{
+		segments = Collections.unmodifiableList(updated);
+		writeManifest();
+		final Snapshot previous = current;
+		current = new Snapshot(segments);
+		release(previous);
+	}
+	
+	private synchronized String newPrefix()
+	{
+		return SEGMENT_PREFIX + (nextSegment++);
+	}
+	
+	private synchronized void release(final Snapshot snapshot) throws IOException
+	{
+		if (--snapshot.references > 0)
+			return;
+		if (snapshot.matching != null)
+			snapshot.matching.close();
+		for (Segment segment : snapshot.segments) {
+			if (--segment.references == 0 && (segment.retired || closed)) {
+				segment.index.close();
+				if (segment.retired)
+					delete(segment.prefix);
+			}
+		}
+	}
+	
+	private synchronized void writeManifest() throws IOException
+	{
+		final Properties manifest = new Properties();
+		final StringBuilder prefixes = new StringBuilder();
+		for (Segment segment : segments)
+			prefixes.append(prefixes.length() == 0 ? "" : ",").append(segment.prefix);
+		manifest.setProperty("segments", prefixes.toString());
+		manifest.setProperty("next", Integer.toString(nextSegment));
+		manifest.setProperty("blockmax", Boolean.toString(with_blockmax));
+		manifest.setProperty("partitioned", Boolean.toString(partitioned));
+		
+		final Path tmp = Paths.get(path, MANIFEST + ".tmp");
+		try (OutputStream os = new FileOutputStream(tmp.toFile())) {
+			manifest.store(os, "segments of " + SegmentedIndex.class.getName());
+		}
+		Files.move(tmp, Paths.get(path, MANIFEST), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	/**
+	 * Delete all the files of a segment.
+	 */
+	private void delete(final String prefix)
+	{
+		final File[] files = new File(path).listFiles((dir, name) -> name.startsWith(prefix + ".") || name.startsWith(prefix + "_"));
+		if (files == null)
+			return;
+		for (File file : files) {
+			try {
+				Files.deleteIfExists(file.toPath());
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+}
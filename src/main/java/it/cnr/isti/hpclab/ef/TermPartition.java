@@ -19,6 +19,12 @@
  */
 package it.cnr.isti.hpclab.ef;
 
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.function.ToLongFunction;
+
+import org.terrier.structures.LexiconEntry;
+
 public class TermPartition implements Comparable<TermPartition>
 {
 	private int id;
@@ -26,6 +32,11 @@ public class TermPartition implements Comparable<TermPartition>
 	public final int begin;
 	public final int end;
 	
+	/** The prefix of the files shared by all partitions, if the partition writes its docids and frequencies directly in its final region. */
+	private String regionPrefix = null;
+	/** The byte offsets and sizes of the docids and frequencies regions in the shared files, negative if the partition writes its own file. */
+	private long docidRegion, docidRegionSize, freqRegion, freqRegionSize;
+	
 	private TermPartition(final int begin, final int end, final int id)
 	{
 		this.begin = begin;
@@ -48,6 +59,54 @@ public class TermPartition implements Comparable<TermPartition>
 		return this.prefix;
 	}
 
+	/**
+	 * Make the partition write its docids and frequencies in the given byte regions of the files with the given prefix.
+	 * 
+	 * @param regionPrefix the prefix of the files shared by all partitions
+	 * @param docidRegion the byte offset of the docids region
+	 * @param docidRegionSize the byte size of the docids region
+	 * @param freqRegion the byte offset of the frequencies region
+	 * @param freqRegionSize the byte size of the frequencies region
+	 */
+	public void setRegions(final String regionPrefix, final long docidRegion, final long docidRegionSize, final long freqRegion, final long freqRegionSize)
+	{
+		this.regionPrefix = regionPrefix;
+		this.docidRegion = docidRegion;
+		this.docidRegionSize = docidRegionSize;
+		this.freqRegion = freqRegion;
+		this.freqRegionSize = freqRegionSize;
+	}
+	
+	public boolean hasRegions()
+	{
+		return this.regionPrefix != null;
+	}
+	
+	public String regionPrefix()
+	{
+		return this.regionPrefix;
+	}
+	
+	public long docidRegion()
+	{
+		return this.docidRegion;
+	}
+
+	public long docidRegionSize()
+	{
+		return this.docidRegionSize;
+	}
+
+	public long freqRegion()
+	{
+		return this.freqRegion;
+	}
+
+	public long freqRegionSize()
+	{
+		return this.freqRegionSize;
+	}
+	
 	public void setId(final int id)
 	{
 		this.id = id;
@@ -66,6 +125,42 @@ public class TermPartition implements Comparable<TermPartition>
 		return res;
 	}
 
+	/**
+	 * Split the termid range <code>[0, max)</code> in <code>bins</code> contiguous partitions of (roughly) the same weight,
+	 * scanning the lexicon once in termid order. A partition is closed as soon as the cumulative weight of the scanned terms
+	 * reaches its share of <code>total</code>, so the head terms of a Zipfian lexicon end up in smaller partitions.
+	 * No partition is empty, and if <code>max &lt; bins</code> only <code>max</code> partitions are returned.
+	 * 
+	 * @param lexicon the lexicon iterator, returning terms in termid order
+	 * @param max the number of terms in the lexicon
+	 * @param total the total weight of the lexicon terms, used to compute the partition shares 
+	 * @param bins the number of partitions
+	 * @param weight the weight of a lexicon entry, e.g., its number of postings
+	 * @return the partitions
+	 */
+	public static TermPartition[] split(final Iterator<Entry<String, LexiconEntry>> lexicon, final int max, final long total, final int bins, final ToLongFunction<LexiconEntry> weight)
+	{
+		final int n = Math.max(1, Math.min(max, bins));
+		TermPartition[] res = new TermPartition[n];
+		
+		int id = 0;
+		int begin = 0;
+		int end = 0;
+		long cumulative = 0;
+		while (id < n - 1 && lexicon.hasNext()) {
+			cumulative += weight.applyAsLong(lexicon.next().getValue());
+			end++;
+			// close the partition when it has its share, or when the remaining terms are just enough for the remaining partitions 
+			if ((double) cumulative * n >= (double) total * (id + 1) || max - end == n - id - 1) {
+				res[id] = new TermPartition(begin, end, id);
+				begin = end;
+				id++;
+			}
+		}
+		res[id] = new TermPartition(begin, max, id);
+		return res;
+	}
+
 	@Override
 	public int hashCode() 
 	{
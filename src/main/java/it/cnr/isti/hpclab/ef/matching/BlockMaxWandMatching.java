@@ -0,0 +1,167 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.matching;
+
+import java.io.IOException;
+
+import org.terrier.matching.daat.CandidateResult;
+import org.terrier.structures.Index;
+import org.terrier.structures.LexiconEntry;
+import org.terrier.structures.postings.IterablePosting;
+
+import it.cnr.isti.hpclab.ef.structures.EFBlockMaxIndex;
+import it.cnr.isti.hpclab.ef.structures.EFBlockMaxIterator;
+
+/**
+ * Block-Max WAND dynamic pruning (S. Ding and T. Suel, Faster top-k document retrieval using block-max indexes, SIGIR 2011).
+ * Once WAND finds a pivot, the block-max iterators of the lists up to the pivot are moved shallowly to the pivot docid: if the sum
+ * of the upper bounds of their current blocks does not exceed the threshold, no document up to the end of the first of such blocks
+ * can enter the top-k results, and it is skipped altogether.
+ * <p>
+ * It requires an index generated with block maxima (see the <code>-blockmax</code> option of {@link it.cnr.isti.hpclab.ef.Generator}), 
+ * and behaves as {@link WandMatching} otherwise.
+ */
+public class BlockMaxWandMatching extends WandMatching
+{
+	/** The block-max iterators of the current query, in upper bound order (null for lists without blocks). */
+	protected EFBlockMaxIterator[] blocks;
+	/** The score upper bound of the current block of every list. */
+	protected double[] blockUpperBounds;
+	/** The current block of every list for which {@link #blockUpperBounds} has been computed. */
+	protected int[] boundedBlocks;
+	
+	/**
+	 * Constructor.
+	 * @param index the index to match on
+	 */
+	public BlockMaxWandMatching(final Index index) 
+	{
+		super(index);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void retrieve() throws IOException 
+	{
+		final EFBlockMaxIndex blockMaxIndex = (EFBlockMaxIndex) index.getIndexStructure("blockmax");
+		if (blockMaxIndex == null) {
+			logger.warn("Index has no block maxima, falling back to WAND");
+			super.retrieve();
+			return;
+		}
+		
+		final int n = postings.length;
+		blocks = new EFBlockMaxIterator[n];
+		blockUpperBounds = new double[n];
+		boundedBlocks = new int[n];
+		for (int j = 0; j < n; j++) {
+			// the statistics of the query terms might not be the ones of this index, e.g., with ShardedMatching
+			final LexiconEntry le = index.getLexicon().getLexiconEntry(manager.getTerm(terms[j]));
+			blocks[j] = blockMaxIndex.getBlocks(le != null ? le : manager.getStatistics(terms[j]));
+			boundedBlocks[j] = -1;
+		}
+		
+		// the lists, by increasing current docid
+		final int[] order = new int[n];
+		for (int j = 0; j < n; j++)
+			order[j] = j;
+		sortByDocid(order, n);
+		
+		while (true) {
+			// find the pivot
+			double bound = 0.0;
+			int pivot = -1;
+			for (int k = 0; k < n; k++) {
+				if (postings[order[k]].getId() == IterablePosting.EOL)
+					break;
+				bound += upperBounds[order[k]];
+				if (bound > threshold) {
+					pivot = k;
+					break;
+				}
+			}
+			if (pivot == -1)
+				break;
+			
+			final int pivotDocid = postings[order[pivot]].getId();
+			while (pivot + 1 < n && postings[order[pivot + 1]].getId() == pivotDocid)
+				pivot++;
+			
+			// shallow move of the blocks up to the pivot
+			double blockBound = 0.0;
+			for (int k = 0; k <= pivot; k++)
+				blockBound += blockUpperBound(order[k], pivotDocid);
+			
+			if (blockBound > threshold) {
+				if (postings[order[0]].getId() == pivotDocid) {
+					final CandidateResult cr = makeCandidateResult(pivotDocid);
+					for (int k = 0; k <= pivot; k++) {
+						score(order[k], cr);
+						postings[order[k]].next();
+					}
+					offer(cr);
+				} else {
+					// skip the last list before the pivot that is not on the pivot docid yet
+					int k = pivot;
+					while (postings[order[k]].getId() == pivotDocid)
+						k--;
+					postings[order[k]].next(pivotDocid);
+				}
+			} else {
+				// no document can enter the results before the end of the current blocks, or before the next list
+				long nextDocid = (pivot + 1 < n) ? postings[order[pivot + 1]].getId() : IterablePosting.EOL;
+				int best = order[0];
+				for (int k = 0; k <= pivot; k++) {
+					nextDocid = Math.min(nextDocid, (long) blocks[order[k]].getLastDocid() + 1);
+					if (upperBounds[order[k]] > upperBounds[best])
+						best = order[k];
+				}
+				if (nextDocid <= pivotDocid)
+					nextDocid = pivotDocid + 1;
+				postings[best].next((int) Math.min(nextDocid, IterablePosting.EOL));
+			}
+			sortByDocid(order, n);
+		}
+		
+		blocks = null;
+	}
+
+	/**
+	 * Move the block-max iterator of the j-th list to a docid, and return the score upper bound of its new current block.
+	 */
+	private double blockUpperBound(final int j, final int docid)
+	{
+		final EFBlockMaxIterator it = blocks[j];
+		if (it.move(docid) == IterablePosting.END_OF_LIST)
+			return 0.0;
+		if (it.getBlock() != boundedBlocks[j]) {
+			boundedBlocks[j] = it.getBlock();
+			blockUpperBounds[j] = Math.max(0.0, manager.upperBound(terms[j], it.getMaxFrequency(), it.getMinDocumentLength(), it.getMaxDocumentLength()));
+		}
+		return blockUpperBounds[j];
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String getInfo() 
+	{
+		return "BlockMaxWAND";
+	}
+}
@@ -0,0 +1,329 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.matching;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.DoubleAccumulator;
+
+import org.terrier.matching.MatchingQueryTerms;
+import org.terrier.matching.ResultSet;
+import org.terrier.matching.daat.CandidateResult;
+import org.terrier.matching.daat.Full;
+import org.terrier.structures.DocumentIndex;
+import org.terrier.structures.EntryStatistics;
+import org.terrier.structures.Index;
+import org.terrier.structures.postings.IterablePosting;
+import org.terrier.utility.ApplicationSetup;
+
+import it.cnr.isti.hpclab.ef.structures.EFDocumentIndex;
+import it.cnr.isti.hpclab.ef.structures.EFMappedDocumentIndex;
+
+/**
+ * Base class of the document-at-a-time, top-k matching strategies exploiting dynamic pruning.
+ * Posting lists are traversed with <code>next(int)</code>, i.e., with the Elias-Fano skipping of {@link it.cnr.isti.hpclab.ef.structures.EFBasicIterablePosting},
+ * and a posting is scored (and its frequency decoded) only if it can still enter the current top-k results.
+ * The per-term score upper bounds are derived from the <code>maxtf</code> statistic of the lexicon and from the minimum and maximum document lengths.
+ * <p>
+ * The retrieved documents and their scores are the same as the ones returned by {@link Full}, i.e., exhaustive DAAT, 
+ * with the same <code>matching.retrieved_set_size</code> and the same weighting model(s), that are taken from the query terms as usual.
+ * Queries with required terms or with terms not used for matching fall back to exhaustive DAAT.
+ * <p>
+ * If more than one docid range is set, with {@link #setNumberOfRanges(int)} or with the <code>{@value #RANGES_PROPERTY}</code> property, 
+ * the docid space is split into ranges of equal size, each one traversed on the common fork-join pool by a copy of the matching strategy
+ * with its own posting lists, skipped to the beginning of the range. The ranges share the largest of their thresholds, 
+ * and their top-k results are merged at the end. The weighting models are shared among the ranges, so they must be stateless when scoring.
+ */
+public abstract class DynamicPruningMatching extends Full
+{
+	/** The property setting the default number of docid ranges traversed in parallel. */
+	public static final String RANGES_PROPERTY = "ef.matching.ranges";
+	
+	/** The posting list manager of the current query. */
+	protected PruningPostingListManager manager;
+	
+	/** The posting lists of the current query, sorted by increasing score upper bound. */
+	protected IterablePosting[] postings;
+	/** The index of every posting list in the posting list manager. */
+	protected int[] terms;
+	/** The score upper bound of every posting list, sorted in increasing order. */
+	protected double[] upperBounds;
+	/** The current top-k results, as a min-heap on scores. */
+	protected PriorityQueue<CandidateResult> heap;
+	/** The score a document has to beat to enter the current top-k results. */
+	protected double threshold;
+	
+	private int minDocLength = -1;
+	private int maxDocLength = -1;
+	
+	/** The number of docid ranges traversed in parallel. */
+	private int numRanges = Integer.parseInt(ApplicationSetup.getProperty(RANGES_PROPERTY, "1"));
+	/** The largest threshold among the ranges of the current query, if traversed in parallel. */
+	private DoubleAccumulator sharedThreshold = null;
+	
+	/**
+	 * Constructor.
+	 * @param index the index to match on
+	 */
+	public DynamicPruningMatching(final Index index) 
+	{
+		super(index);
+	}
+	
+	/**
+	 * Set the number of docid ranges traversed in parallel by every query.
+	 * @param numRanges the number of ranges, 1 to disable parallel traversal
+	 */
+	public void setNumberOfRanges(final int numRanges)
+	{
+		if (numRanges < 1)
+			throw new IllegalArgumentException("The number of ranges must be positive");
+		this.numRanges = numRanges;
+	}
+	
+	/**
+	 * Traverse the posting lists, offering to the top-k heap every document that might belong to the results.
+	 * @throws IOException if something goes wrong in accessing the posting lists
+	 */
+	protected abstract void retrieve() throws IOException;
+	
+	/** {@inheritDoc} */
+	@Override
+	public ResultSet match(final String queryNumber, final MatchingQueryTerms queryTerms) throws IOException 
+	{
+		initialise(queryTerms);
+		manager = new PruningPostingListManager(index, collectionStatistics, queryTerms);
+		manager.prepare(true);
+		
+		if (MATCH_EMPTY_QUERY && manager.size() == 0) {
+			resultSet.setExactResultSize(collectionStatistics.getNumberOfDocuments());
+			resultSet.setResultSize(collectionStatistics.getNumberOfDocuments());
+			manager.close();
+			return resultSet;
+		}
+		
+		if (manager.getRequiredBitMask() != 0 || manager.getNonMatchingTerms().length > 0) {
+			logger.debug("Falling back to exhaustive matching");
+			manager.close();
+			return super.match(queryNumber, queryTerms);
+		}
+		
+		initialisePostings(manager);
+		numberOfRetrievedDocuments = 0;
+		
+		heap = new PriorityQueue<CandidateResult>();
+		threshold = Double.NEGATIVE_INFINITY;
+		
+		if (numRanges > 1 && index.getCollectionStatistics().getNumberOfDocuments() >= numRanges) {
+			retrieveRanges(queryTerms);
+		} else {
+			prepareBounds();
+			retrieve();
+		}
+		
+		manager.close();
+		resultSet = makeResultSet(heap);
+		numberOfRetrievedDocuments = resultSet.getScores().length;
+		
+		postings = null;
+		heap = null;
+		manager = null;
+		
+		finalise(queryTerms);
+		return resultSet;
+	}
+	
+	/**
+	 * Traverse the docid ranges in parallel, each one with a copy of this matching strategy, and merge their results.
+	 * The first range uses the posting list manager of the query.
+	 * @param queryTerms the query terms
+	 * @throws IOException if something goes wrong in accessing the posting lists
+	 */
+	private void retrieveRanges(final MatchingQueryTerms queryTerms) throws IOException
+	{
+		// the ranges span the docids of this index, even if scoring uses the statistics of a larger collection
+		final int numDocs = index.getCollectionStatistics().getNumberOfDocuments();
+		final DoubleAccumulator shared = new DoubleAccumulator(Math::max, Double.NEGATIVE_INFINITY);
+		final DynamicPruningMatching[] ranges = new DynamicPruningMatching[numRanges];
+		computeDocumentLengths();
+		try {
+			// posting lists are opened sequentially, as the weighting models are prepared by the posting list managers 
+			for (int r = 0; r < numRanges; r++) {
+				final DynamicPruningMatching range = getClass().getConstructor(Index.class).newInstance(index);
+				range.minDocLength = minDocLength;
+				range.maxDocLength = maxDocLength;
+				range.manager = (r == 0) ? manager : new PruningPostingListManager(index, collectionStatistics, queryTerms);
+				if (r > 0)
+					range.manager.prepare(true);
+				range.prepareBounds();
+				range.restrict((int) ((long) numDocs * r / numRanges), (int) ((long) numDocs * (r + 1) / numRanges));
+				range.heap = new PriorityQueue<CandidateResult>();
+				range.threshold = Double.NEGATIVE_INFINITY;
+				range.sharedThreshold = shared;
+				ranges[r] = range;
+			}
+			
+			List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(numRanges);
+			for (DynamicPruningMatching range : ranges)
+				tasks.add(() -> { range.retrieve(); return null; });
+			for (Future<Void> result : ForkJoinPool.commonPool().invokeAll(tasks))
+				result.get();
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Cannot create a copy of " + getClass().getName() + " for a docid range", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			if (e.getCause() instanceof UncheckedIOException)
+				throw ((UncheckedIOException) e.getCause()).getCause();
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			for (int r = 1; r < numRanges; r++)
+				if (ranges[r] != null && ranges[r].manager != null)
+					ranges[r].manager.close();
+		}
+		
+		// the results of the ranges are offered in docid order, as in a sequential traversal
+		List<CandidateResult> results = new ArrayList<CandidateResult>();
+		for (DynamicPruningMatching range : ranges)
+			results.addAll(range.heap);
+		results.sort((a, b) -> Integer.compare(a.getDocId(), b.getDocId()));
+		for (CandidateResult cr : results)
+			offer(cr);
+	}
+	
+	/**
+	 * Restrict the posting lists of the current query to the docids in <code>[start, end)</code>.
+	 * @param start the first docid of the range
+	 * @param end the docid following the range
+	 * @throws IOException if something goes wrong in accessing the posting lists
+	 */
+	private void restrict(final int start, final int end) throws IOException
+	{
+		for (int j = 0; j < postings.length; j++)
+			postings[j] = new RangeIterablePosting(postings[j], start, end);
+	}
+	
+	/**
+	 * Sort the matching posting lists by increasing upper bound. Negative upper bounds are clipped to zero, 
+	 * so that the sum of the upper bounds of a subset of lists is an upper bound of the score of any document in them.
+	 * @throws IOException if something goes wrong in accessing the document index
+	 */
+	private void prepareBounds() throws IOException
+	{
+		computeDocumentLengths();
+		
+		final int[] matching = manager.getMatchingTerms();
+		final int n = matching.length;
+		final double[] bounds = new double[n];
+		for (int j = 0; j < n; j++) {
+			final EntryStatistics es = manager.getStatistics(matching[j]);
+			final int maxtf = es.getMaxFrequencyInDocuments() > 0 ? es.getMaxFrequencyInDocuments() : es.getFrequency();
+			bounds[j] = Math.max(0.0, manager.upperBound(matching[j], maxtf, minDocLength, maxDocLength));
+		}
+		
+		// insertion sort, queries are short
+		terms = new int[n];
+		upperBounds = new double[n];
+		for (int j = 0; j < n; j++) {
+			int k = j;
+			while (k > 0 && upperBounds[k - 1] > bounds[j]) {
+				upperBounds[k] = upperBounds[k - 1];
+				terms[k] = terms[k - 1];
+				k--;
+			}
+			upperBounds[k] = bounds[j];
+			terms[k] = matching[j];
+		}
+		
+		postings = new IterablePosting[n];
+		for (int j = 0; j < n; j++)
+			postings[j] = manager.getPosting(terms[j]);
+	}
+
+	private void computeDocumentLengths() throws IOException
+	{
+		if (minDocLength >= 0)
+			return;
+		
+		final DocumentIndex doi = index.getDocumentIndex();
+		if (doi instanceof EFDocumentIndex) {
+			minDocLength = ((EFDocumentIndex) doi).getMinimumDocumentLength();
+			maxDocLength = ((EFDocumentIndex) doi).getMaximumDocumentLength();
+		} else if (doi instanceof EFMappedDocumentIndex) {
+			minDocLength = ((EFMappedDocumentIndex) doi).getMinimumDocumentLength();
+			maxDocLength = ((EFMappedDocumentIndex) doi).getMaximumDocumentLength();
+		} else {
+			int min = Integer.MAX_VALUE, max = 0;
+			for (int docid = 0; docid < doi.getNumberOfDocuments(); docid++) {
+				final int length = doi.getDocumentLength(docid);
+				min = Math.min(min, length);
+				max = Math.max(max, length);
+			}
+			minDocLength = min == Integer.MAX_VALUE ? 0 : min;
+			maxDocLength = max;
+		}
+	}
+	
+	/**
+	 * Add the score of the j-th posting list, at its current posting, to a candidate result.
+	 * @param j the posting list, in upper bound order
+	 * @param cr the candidate result
+	 */
+	protected final void score(final int j, final CandidateResult cr)
+	{
+		final int term = terms[j];
+		cr.updateScore(manager.score(term));
+		cr.updateOccurrence((term < 16) ? (short) (1 << term) : 0);
+	}
+	
+	/**
+	 * Offer a fully scored candidate result to the top-k heap.
+	 * @param cr the candidate result
+	 * @return true if the candidate result entered the heap, possibly raising the threshold
+	 */
+	protected final boolean offer(final CandidateResult cr)
+	{
+		if (sharedThreshold != null)
+			threshold = Math.max(threshold, sharedThreshold.get());
+		if (cr.getScore() <= threshold)
+			return false;
+		heap.add(cr);
+		if (RETRIEVED_SET_SIZE != 0) {
+			if (heap.size() > RETRIEVED_SET_SIZE)
+				heap.poll();
+			if (heap.size() == RETRIEVED_SET_SIZE) {
+				threshold = Math.max(threshold, heap.peek().getScore());
+				if (sharedThreshold != null)
+					sharedThreshold.accumulate(threshold);
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.matching;
+
+import java.io.IOException;
+
+import org.terrier.matching.daat.CandidateResult;
+import org.terrier.structures.Index;
+import org.terrier.structures.postings.IterablePosting;
+
+/**
+ * MaxScore dynamic pruning (H. Turtle and J. Flood, Query evaluation: strategies and optimizations, IP&amp;M 1995).
+ * The posting lists, sorted by increasing upper bound, are split into non-essential lists, whose upper bounds sum up 
+ * to no more than the current threshold, and essential lists. Only documents appearing in the essential lists are candidates,
+ * and the non-essential lists are skipped to a candidate only as long as it can still enter the top-k results.
+ */
+public class MaxScoreMatching extends DynamicPruningMatching
+{
+	/**
+	 * Constructor.
+	 * @param index the index to match on
+	 */
+	public MaxScoreMatching(final Index index) 
+	{
+		super(index);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void retrieve() throws IOException 
+	{
+		final int n = postings.length;
+		
+		// prefix sums of the upper bounds
+		final double[] cumulativeBounds = new double[n];
+		for (int j = 0; j < n; j++)
+			cumulativeBounds[j] = upperBounds[j] + (j == 0 ? 0.0 : cumulativeBounds[j - 1]);
+		
+		int firstEssential = 0;
+		int currentDocid = IterablePosting.EOL;
+		for (IterablePosting p: postings)
+			currentDocid = Math.min(currentDocid, p.getId());
+		
+		while (firstEssential < n && currentDocid != IterablePosting.EOL) {
+			final CandidateResult cr = makeCandidateResult(currentDocid);
+			int nextDocid = IterablePosting.EOL;
+			
+			// essential lists
+			for (int j = firstEssential; j < n; j++) {
+				if (postings[j].getId() == currentDocid) {
+					score(j, cr);
+					postings[j].next();
+				}
+				nextDocid = Math.min(nextDocid, postings[j].getId());
+			}
+			
+			// non-essential lists, by decreasing upper bound
+			boolean complete = true;
+			for (int j = firstEssential - 1; j >= 0; j--) {
+				if (cr.getScore() + cumulativeBounds[j] <= threshold) {
+					complete = false;
+					break;
+				}
+				if (postings[j].next(currentDocid) == currentDocid)
+					score(j, cr);
+			}
+			
+			if (complete && offer(cr)) {
+				while (firstEssential < n && cumulativeBounds[firstEssential] <= threshold)
+					firstEssential++;
+			}
+			currentDocid = nextDocid;
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String getInfo() 
+	{
+		return "MaxScore";
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.matching;
+
+import java.io.IOException;
+
+import org.terrier.matching.MatchingQueryTerms;
+import org.terrier.matching.PostingListManager;
+import org.terrier.matching.models.WeightingModel;
+import org.terrier.structures.CollectionStatistics;
+import org.terrier.structures.Index;
+
+/**
+ * A posting list manager that can also compute, for each of its terms, an upper bound on the score
+ * any posting in the term's posting list can receive from the term's weighting model(s).
+ */
+public class PruningPostingListManager extends PostingListManager
+{
+	/**
+	 * Constructor.
+	 * @param index the index to match on
+	 * @param cs the collection statistics
+	 * @param mqt the query terms
+	 * @throws IOException if something goes wrong in opening the posting lists
+	 */
+	public PruningPostingListManager(final Index index, final CollectionStatistics cs, final MatchingQueryTerms mqt) throws IOException 
+	{
+		super(index, cs, mqt);
+	}
+
+	/**
+	 * Compute an upper bound on the score of the i-th term in any document.
+	 * The weighting model is assumed to be monotone (in any direction) both in the term frequency and in the document length, 
+	 * as BM25, TF_IDF and most of the DFR models are, so that its maximum lies on a corner of the domain 
+	 * <code>[1, maxtf] x [minLength, maxLength]</code>. Since a document containing <code>maxtf</code> occurrences 
+	 * of a term is at least <code>maxtf</code> long, the domain is clipped accordingly.
+	 * 
+	 * @param i the term index
+	 * @param maxtf the largest in-document frequency of the term
+	 * @param minLength the length of the shortest document in the collection
+	 * @param maxLength the length of the longest document in the collection
+	 * @return an upper bound on the score of the term
+	 */
+	public double upperBound(final int i, final int maxtf, final int minLength, final int maxLength)
+	{
+		final WeightingModel model = termModels.get(i);
+		final double minTf = 1.0;
+		final double maxTf = Math.max(1, maxtf);
+		final double maxLen = Math.max(maxTf, maxLength);
+		
+		double max = model.score(minTf, Math.max(minTf, minLength));
+		max = Math.max(max, model.score(minTf, maxLen));
+		max = Math.max(max, model.score(maxTf, Math.max(maxTf, minLength)));
+		max = Math.max(max, model.score(maxTf, maxLen));
+		return max;
+	}
+}
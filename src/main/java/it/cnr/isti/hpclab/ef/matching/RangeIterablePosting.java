@@ -0,0 +1,121 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.matching;
+
+import java.io.IOException;
+
+import org.terrier.structures.postings.IterablePosting;
+import org.terrier.structures.postings.WritablePosting;
+
+/**
+ * A view of a posting list restricted to the docids in a range: the underlying posting list is skipped to the beginning of the range,
+ * and the end of the list is reported as soon as a docid beyond the range is reached.
+ */
+final class RangeIterablePosting implements IterablePosting
+{
+	private final IterablePosting posting;
+	/** The docid following the range. */
+	private final int end;
+	
+	/**
+	 * Constructor.
+	 * @param posting the underlying posting list, already positioned on its first posting
+	 * @param start the first docid of the range
+	 * @param end the docid following the range
+	 * @throws IOException if something goes wrong in skipping the posting list
+	 */
+	RangeIterablePosting(final IterablePosting posting, final int start, final int end) throws IOException
+	{
+		this.posting = posting;
+		this.end = end;
+		if (posting.getId() < start)
+			posting.next(start);
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public int getId() 
+	{
+		final int id = posting.getId();
+		return (id >= end) ? END_OF_LIST : id;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int next() throws IOException 
+	{
+		if (posting.getId() >= end)
+			return END_OF_LIST;
+		final int id = posting.next();
+		return (id >= end) ? END_OF_LIST : id;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int next(final int targetId) throws IOException 
+	{
+		if (targetId >= end || posting.getId() >= end)
+			return END_OF_LIST;
+		final int id = posting.next(targetId);
+		return (id >= end) ? END_OF_LIST : id;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean endOfPostings() 
+	{
+		return posting.endOfPostings() || posting.getId() >= end;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getFrequency() 
+	{
+		return posting.getFrequency();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getDocumentLength() 
+	{
+		return posting.getDocumentLength();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setId(final int id) 
+	{
+		posting.setId(id);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public WritablePosting asWritablePosting() 
+	{
+		return posting.asWritablePosting();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close() throws IOException 
+	{
+		posting.close();
+	}
+}
@@ -0,0 +1,349 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.matching;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FilenameUtils;
+import org.terrier.matching.BaseMatching;
+import org.terrier.matching.Matching;
+import org.terrier.matching.MatchingQueryTerms;
+import org.terrier.matching.MatchingQueryTerms.MatchingTerm;
+import org.terrier.matching.QueryResultSet;
+import org.terrier.matching.ResultSet;
+import org.terrier.matching.daat.CandidateResult;
+import org.terrier.matching.matchops.SingleTermOp;
+import org.terrier.structures.BasicTermStatsLexiconEntry;
+import org.terrier.structures.CollectionStatistics;
+import org.terrier.structures.Index;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.LexiconEntry;
+import org.terrier.utility.ApplicationSetup;
+
+/**
+ * A matching strategy over several indexes (shards) of disjoint sets of documents, e.g., Elias-Fano indexes generated separately from parts of a collection.
+ * The shards are scored with the statistics of the whole collection, i.e., the collection statistics summed once over the shards and, 
+ * for every query term, its statistics summed over the shards, so that the scores are the same as the ones computed on a single index of the collection.
+ * <p>
+ * Every query is evaluated on every shard, in parallel on a fixed-size thread pool, with a new instance of the matching strategy given by 
+ * the <code>{@value #MATCHING_PROPERTY}</code> property (MaxScore by default) and a copy of the query terms, and the top-k results of the shards are merged.
+ * The docids of the results are global, i.e., the docids of a shard follow the ones of the previous shards, and their <code>docno</code>s are 
+ * added to the results if available in the meta indexes of the shards.
+ */
+public class ShardedMatching extends BaseMatching implements Closeable
+{
+	/** The property setting the matching strategy used on every shard. */
+	public static final String MATCHING_PROPERTY = "ef.sharded.matching";
+	/** The property setting the number of threads evaluating the shards, by default one per shard. */
+	public static final String THREADS_PROPERTY = "ef.sharded.threads";
+	
+	private final IndexOnDisk[] shards;
+	private final int[] offsets;
+	private final String matchingClass;
+	private final ExecutorService executor;
+	private final boolean closeShards;
+	
+	/**
+	 * Constructor. The matching strategy and the number of threads are taken from the properties.
+	 * @param shards the shards, whose docids are numbered in the given order
+	 */
+	public ShardedMatching(final IndexOnDisk... shards)
+	{
+		this(shards, ApplicationSetup.getProperty(MATCHING_PROPERTY, MaxScoreMatching.class.getName()), 
+				Integer.parseInt(ApplicationSetup.getProperty(THREADS_PROPERTY, Integer.toString(shards.length))));
+	}
+	
+	/**
+	 * Constructor.
+	 * @param shards the shards, whose docids are numbered in the given order
+	 * @param matchingClass the name of the matching strategy used on every shard, with a constructor taking an {@link Index}
+	 * @param numThreads the number of threads evaluating the shards
+	 */
+	public ShardedMatching(final IndexOnDisk[] shards, final String matchingClass, final int numThreads)
+	{
+		this(shards, matchingClass, numThreads, false);
+	}
+	
+	private ShardedMatching(final IndexOnDisk[] shards, final String matchingClass, final int numThreads, final boolean closeShards)
+	{
+		super();
+		if (shards.length == 0)
+			throw new IllegalArgumentException("At least one shard is required");
+		if (numThreads < 1)
+			throw new IllegalArgumentException("The number of threads must be positive");
+		
+		this.shards = shards;
+		this.matchingClass = matchingClass;
+		this.closeShards = closeShards;
+		this.offsets = new int[shards.length + 1];
+		
+		collectionStatistics = new CollectionStatistics(0, 0, 0, 0, new long[0]);
+		for (int s = 0; s < shards.length; s++) {
+			final CollectionStatistics cs = shards[s].getCollectionStatistics();
+			collectionStatistics.addStatistics(cs);
+			offsets[s + 1] = offsets[s] + cs.getNumberOfDocuments();
+		}
+		
+		this.executor = Executors.newFixedThreadPool(Math.min(numThreads, shards.length), r -> {
+			Thread t = new Thread(r, "ShardedMatching");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+	
+	/**
+	 * Open the shards with the given properties files, e.g., <code>/path/to/index/data.ef.properties</code>, that are closed with this matching strategy.
+	 * The matching strategy and the number of threads are taken from the properties.
+	 * @param indexes the properties files of the shards, whose docids are numbered in the given order
+	 * @return the matching strategy over the shards
+	 * @throws IOException if a shard cannot be opened
+	 */
+	public static ShardedMatching open(final String... indexes) throws IOException
+	{
+		final IndexOnDisk[] shards = new IndexOnDisk[indexes.length];
+		for (int s = 0; s < indexes.length; s++) {
+			shards[s] = Index.createIndex(FilenameUtils.getFullPath(indexes[s]), FilenameUtils.getBaseName(indexes[s]));
+			if (shards[s] == null) {
+				for (int t = 0; t < s; t++)
+					shards[t].close();
+				throw new IOException("Cannot open the index " + indexes[s] + ": " + Index.getLastIndexLoadError());
+			}
+		}
+		return new ShardedMatching(shards, ApplicationSetup.getProperty(MATCHING_PROPERTY, MaxScoreMatching.class.getName()), 
+				Integer.parseInt(ApplicationSetup.getProperty(THREADS_PROPERTY, Integer.toString(shards.length))), true);
+	}
+	
+	/**
+	 * Return the number of shards.
+	 * @return the number of shards
+	 */
+	public int getNumberOfShards()
+	{
+		return shards.length;
+	}
+	
+	/**
+	 * Return the i-th shard.
+	 * @param s the shard index
+	 * @return the i-th shard
+	 */
+	public IndexOnDisk getShard(final int s)
+	{
+		return shards[s];
+	}
+	
+	/**
+	 * Return the shard containing a document.
+	 * @param docid the global docid of the document
+	 * @return the index of the shard containing the document
+	 */
+	public int getShardOf(final int docid)
+	{
+		int s = Arrays.binarySearch(offsets, docid);
+		if (s < 0)
+			s = -s - 2;
+		// skip empty shards
+		while (s < shards.length - 1 && offsets[s + 1] == docid)
+			s++;
+		return s;
+	}
+	
+	/**
+	 * Return the docid of a document in its shard.
+	 * @param docid the global docid of the document
+	 * @return the docid of the document in its shard
+	 */
+	public int getLocalDocid(final int docid)
+	{
+		return docid - offsets[getShardOf(docid)];
+	}
+	
+	/**
+	 * Return the collection statistics of all the shards.
+	 * @return the collection statistics of all the shards
+	 */
+	public CollectionStatistics getCollectionStatistics()
+	{
+		return collectionStatistics;
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public String getInfo() 
+	{
+		return "ShardedMatching(" + shards.length + " shards, " + matchingClass + ")";
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public ResultSet match(final String queryNumber, final MatchingQueryTerms queryTerms) throws IOException 
+	{
+		// every shard prepares its own copy of the weighting models
+		final MatchingQueryTerms[] queries = globalStatistics(queryTerms);
+		
+		final List<Future<ResultSet>> results = new ArrayList<Future<ResultSet>>(shards.length);
+		for (int s = 0; s < shards.length; s++) {
+			final Matching matching = newMatching(shards[s]);
+			final MatchingQueryTerms shardQuery = queries[s];
+			results.add(executor.submit(() -> matching.match(queryNumber, shardQuery)));
+		}
+		
+		final List<CandidateResult> merged = new ArrayList<CandidateResult>();
+		int exactResultSize = 0;
+		try {
+			for (int s = 0; s < shards.length; s++) {
+				final ResultSet rs = results.get(s).get();
+				final int[] docids = rs.getDocids();
+				final double[] scores = rs.getScores();
+				final short[] occurrences = rs.getOccurrences();
+				for (int i = 0; i < rs.getResultSize(); i++) {
+					final CandidateResult cr = new CandidateResult(offsets[s] + docids[i]);
+					cr.updateScore(scores[i]);
+					cr.updateOccurrence(occurrences[i]);
+					merged.add(cr);
+				}
+				exactResultSize += rs.getExactResultSize();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			if (e.getCause() instanceof UncheckedIOException)
+				throw ((UncheckedIOException) e.getCause()).getCause();
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			for (Future<ResultSet> result : results)
+				result.cancel(true);
+		}
+		
+		// decreasing scores, ties broken by increasing docids
+		merged.sort((a, b) -> (a.getScore() != b.getScore()) ? Double.compare(b.getScore(), a.getScore()) : Integer.compare(a.getDocId(), b.getDocId()));
+		final List<CandidateResult> top = (RETRIEVED_SET_SIZE != 0 && merged.size() > RETRIEVED_SET_SIZE) ? merged.subList(0, RETRIEVED_SET_SIZE) : merged;
+		
+		final int[] docids = new int[top.size()];
+		final double[] scores = new double[top.size()];
+		final short[] occurrences = new short[top.size()];
+		for (int i = 0; i < docids.length; i++) {
+			docids[i] = top.get(i).getDocId();
+			scores[i] = top.get(i).getScore();
+			occurrences[i] = top.get(i).getOccurrence();
+		}
+		resultSet = new QueryResultSet(docids, scores, occurrences);
+		resultSet.setExactResultSize(exactResultSize);
+		addDocnos(resultSet);
+		numberOfRetrievedDocuments = resultSet.getResultSize();
+		return resultSet;
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public void close() throws IOException
+	{
+		executor.shutdownNow();
+		if (closeShards)
+			for (IndexOnDisk shard : shards)
+				shard.close();
+	}
+	
+	/**
+	 * Copy the query terms for every shard, setting the statistics of every single term, if not already set, to the sum of its statistics in the shards.
+	 * Only the statistics used for scoring are global: the term id is the one of the term in the lexicon of the shard, or -1 if the term is not in the shard,
+	 * and the structures of a shard, e.g., its block maxima, must be accessed through its own lexicon entry.
+	 */
+	private MatchingQueryTerms[] globalStatistics(final MatchingQueryTerms queryTerms) throws IOException
+	{
+		// the lexicon entries of every term in the shards
+		final Map<String, LexiconEntry[]> entries = new HashMap<String, LexiconEntry[]>();
+		for (MatchingTerm term : queryTerms) {
+			if (!(term.getKey() instanceof SingleTermOp) || term.getValue().stats != null)
+				continue;
+			final String t = ((SingleTermOp) term.getKey()).getTerm();
+			if (entries.containsKey(t))
+				continue;
+			final LexiconEntry[] les = new LexiconEntry[shards.length];
+			for (int s = 0; s < shards.length; s++)
+				les[s] = shards[s].getLexicon().getLexiconEntry(t);
+			entries.put(t, les);
+		}
+		
+		final MatchingQueryTerms[] queries = new MatchingQueryTerms[shards.length];
+		for (int s = 0; s < shards.length; s++) {
+			queries[s] = (MatchingQueryTerms) queryTerms.clone();
+			for (MatchingTerm term : queries[s]) {
+				if (!(term.getKey() instanceof SingleTermOp) || term.getValue().stats != null)
+					continue;
+				final LexiconEntry[] les = entries.get(((SingleTermOp) term.getKey()).getTerm());
+				BasicTermStatsLexiconEntry stats = null;
+				for (LexiconEntry le : les) {
+					if (le == null)
+						continue;
+					if (stats == null) {
+						stats = new BasicTermStatsLexiconEntry();
+						stats.setTermId(les[s] != null ? les[s].getTermId() : -1);
+					}
+					stats.setFrequency(stats.getFrequency() + le.getFrequency());
+					stats.setDocumentFrequency(stats.getDocumentFrequency() + le.getDocumentFrequency());
+					stats.setMaxFrequencyInDocuments(Math.max(stats.getMaxFrequencyInDocuments(), le.getMaxFrequencyInDocuments()));
+				}
+				term.getValue().stats = stats;
+			}
+		}
+		return queries;
+	}
+	
+	private Matching newMatching(final IndexOnDisk shard)
+	{
+		try {
+			final Matching matching = Class.forName(matchingClass).asSubclass(Matching.class).getConstructor(Index.class).newInstance(shard);
+			matching.setCollectionStatistics(collectionStatistics);
+			return matching;
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Cannot create the matching strategy " + matchingClass, e);
+		}
+	}
+	
+	private void addDocnos(final ResultSet rs) throws IOException
+	{
+		for (IndexOnDisk shard : shards)
+			if (shard.getMetaIndex() == null || !Arrays.asList(shard.getMetaIndex().getKeys()).contains("docno"))
+				return;
+		
+		final int[] docids = rs.getDocids();
+		final String[] docnos = new String[rs.getResultSize()];
+		for (int i = 0; i < docnos.length; i++) {
+			final int s = getShardOf(docids[i]);
+			docnos[i] = shards[s].getMetaIndex().getItem("docno", docids[i] - offsets[s]);
+		}
+		rs.addMetaItems("docno", docnos);
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.matching;
+
+import java.io.IOException;
+
+import org.terrier.matching.daat.CandidateResult;
+import org.terrier.structures.Index;
+import org.terrier.structures.postings.IterablePosting;
+
+/**
+ * WAND dynamic pruning (A. Broder et al., Efficient query evaluation using a two-level retrieval process, CIKM 2003).
+ * The posting lists are kept sorted by current docid. The pivot is the first list where the sum of the upper bounds 
+ * of the lists up to it exceeds the current threshold: no document before the pivot docid can enter the top-k results,
+ * so the lists before the pivot are skipped to the pivot docid, and the pivot docid is scored only when all of them land on it.
+ */
+public class WandMatching extends DynamicPruningMatching
+{
+	/**
+	 * Constructor.
+	 * @param index the index to match on
+	 */
+	public WandMatching(final Index index) 
+	{
+		super(index);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void retrieve() throws IOException 
+	{
+		final int n = postings.length;
+		
+		// the lists, by increasing current docid
+		final int[] order = new int[n];
+		for (int j = 0; j < n; j++)
+			order[j] = j;
+		sortByDocid(order, n);
+		
+		while (true) {
+			// find the pivot
+			double bound = 0.0;
+			int pivot = -1;
+			for (int k = 0; k < n; k++) {
+				if (postings[order[k]].getId() == IterablePosting.EOL)
+					break;
+				bound += upperBounds[order[k]];
+				if (bound > threshold) {
+					pivot = k;
+					break;
+				}
+			}
+			if (pivot == -1)
+				break;
+			
+			final int pivotDocid = postings[order[pivot]].getId();
+			
+			if (postings[order[0]].getId() == pivotDocid) {
+				// all the lists up to the pivot are on the pivot docid, as well as possibly some lists after it
+				final CandidateResult cr = makeCandidateResult(pivotDocid);
+				for (int k = 0; k < n && postings[order[k]].getId() == pivotDocid; k++) {
+					score(order[k], cr);
+					postings[order[k]].next();
+				}
+				offer(cr);
+			} else {
+				// skip the last list before the pivot that is not on the pivot docid yet
+				while (postings[order[pivot]].getId() == pivotDocid)
+					pivot--;
+				postings[order[pivot]].next(pivotDocid);
+			}
+			sortByDocid(order, n);
+		}
+	}
+
+	/** Insertion sort of the lists by current docid, as only a few of them move at every step. */
+	protected final void sortByDocid(final int[] order, final int n)
+	{
+		for (int j = 1; j < n; j++) {
+			final int list = order[j];
+			final int docid = postings[list].getId();
+			int k = j;
+			while (k > 0 && postings[order[k - 1]].getId() > docid) {
+				order[k] = order[k - 1];
+				k--;
+			}
+			order[k] = list;
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public String getInfo() 
+	{
+		return "WAND";
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.structures;
+
+import java.io.IOException;
+
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.LexiconEntry;
+import org.terrier.structures.postings.BasicPostingImpl;
+import org.terrier.structures.postings.IterablePosting;
+import org.terrier.structures.postings.WritablePosting;
+
+/**
+ * Base class of the positional operators over several {@link EFBlockIterablePosting} cursors.
+ * Docids are intersected first, skipping with {@link EFBlockIterablePosting#next(int)}, and only the positions of the documents 
+ * containing all the terms are decoded, in reusable buffers, to count the operator matches. Documents without matches are skipped,
+ * and the frequency of a returned posting is its number of matches.
+ */
+public abstract class EFANDIterablePosting implements IterablePosting
+{
+	/** The term cursors, in query order. */
+	protected final EFBlockIterablePosting[] postings;
+	/** The positions of the current document, one buffer per term, and their number. */
+	protected final int[][] positions;
+	protected final int[] counts;
+	
+	protected int currentDocument = -1;
+	protected int currentFrequency;
+	
+	/**
+	 * Constructor.
+	 * @param postings the term cursors, in query order, not yet advanced 
+	 */
+	protected EFANDIterablePosting(final EFBlockIterablePosting[] postings)
+	{
+		if (postings.length == 0)
+			throw new IllegalArgumentException("At least one posting list is required");
+		this.postings = postings;
+		this.positions = new int[postings.length][16];
+		this.counts = new int[postings.length];
+	}
+	
+	/**
+	 * Open a cursor for every term, in query order. A term repeated in the query gets its own cursor.
+	 * 
+	 * @param index the index, with positions
+	 * @param terms the terms
+	 * @return the term cursors, or null if a term is not in the lexicon
+	 * @throws IOException if something goes wrong
+	 */
+	public static EFBlockIterablePosting[] postings(final IndexOnDisk index, final String... terms) throws IOException
+	{
+		EFBlockIterablePosting[] postings = new EFBlockIterablePosting[terms.length];
+		for (int i = 0; i < terms.length; i++) {
+			LexiconEntry le = index.getLexicon().getLexiconEntry(terms[i]);
+			if (le == null)
+				return null;
+			postings[i] = (EFBlockIterablePosting) index.getInvertedIndex().getPostings(le);
+		}
+		return postings;
+	}
+	
+	/**
+	 * Count the matches of the operator in the current document, whose positions are in {@link #positions} and {@link #counts}.
+	 * @return the number of matches
+	 */
+	protected abstract int countMatches();
+	
+	/** {@inheritDoc} */
+	@Override
+	public int next() throws IOException 
+	{
+		if (currentDocument == END_OF_LIST)
+			return END_OF_LIST;
+		return next(currentDocument + 1);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int next(final int targetId) throws IOException 
+	{
+		if (currentDocument == END_OF_LIST || currentDocument >= targetId)
+			return currentDocument;
+		
+		int candidate = targetId;
+		for (;;) {
+			// intersection: every cursor is moved to the candidate, which is raised whenever a cursor lands beyond it
+			int i = 0;
+			while (i < postings.length) {
+				final int docid = postings[i].next(candidate);
+				if (docid == END_OF_LIST)
+					return currentDocument = END_OF_LIST;
+				if (docid > candidate) {
+					candidate = docid;
+					i = 0;
+				} else {
+					i++;
+				}
+			}
+			// positions are decoded only for the documents containing all the terms
+			for (i = 0; i < postings.length; i++) {
+				counts[i] = postings[i].positionCount();
+				if (positions[i].length < counts[i])
+					positions[i] = new int[Math.max(counts[i], positions[i].length * 2)];
+				postings[i].getPositions(positions[i]);
+			}
+			if ((currentFrequency = countMatches()) > 0)
+				return currentDocument = candidate;
+			candidate++;
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean endOfPostings() 
+	{
+		return currentDocument == END_OF_LIST;
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public int getId() 
+	{
+		return currentDocument;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getFrequency() 
+	{
+		return currentFrequency;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getDocumentLength() 
+	{
+		return postings[0].getDocumentLength();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setId(int id) 
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public WritablePosting asWritablePosting() 
+	{
+		return new BasicPostingImpl(currentDocument, currentFrequency);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close() throws IOException 
+	{
+		for (EFBlockIterablePosting posting : postings)
+			posting.close();
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.structures;
+
+import java.io.IOException;
+
+import org.terrier.structures.DocumentIndex;
+import org.terrier.structures.postings.IterablePosting;
+
+/**
+ * An iterable posting over a posting list already decoded in arrays, e.g., by {@link EFPostingCache}.
+ * Skips are resolved by galloping from the current posting, followed by a binary search.
+ * The arrays are shared, and never modified.
+ */
+public class EFArrayIterablePosting extends EFBasicIterablePosting
+{
+	private final int[] docids;
+	private final int[] freqs;
+	private final DocumentIndex doi;
+	/** The position of the current posting in the arrays. */
+	private int index = -1;
+	
+	/**
+	 * Create an iterable posting over decoded docids and frequencies.
+	 * 
+	 * @param docids the increasing docids of the posting list
+	 * @param freqs the frequencies of the posting list
+	 * @param doi the document index
+	 */
+	public EFArrayIterablePosting(final int[] docids, final int[] freqs, final DocumentIndex doi)
+	{
+		super();
+		this.docids = docids;
+		this.freqs = freqs;
+		this.doi = doi;
+		this.numEntries = docids.length;
+		this.currentDocument = -1;
+		this.frequencyDecoded = true;
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public int getDocumentLength() 
+	{
+		try {
+			return doi.getDocumentLength((int) currentDocument);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int next() throws IOException 
+	{
+		if ( currentDocument == IterablePosting.END_OF_LIST ) 
+			return IterablePosting.END_OF_LIST;
+		
+		return moveTo(index + 1);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int next(int targetId) throws IOException 
+	{
+		if ( currentDocument >= targetId ) 
+			return (int) currentDocument;
+		
+		// gallop to the first range [lo, hi] ending with a docid not less than the target
+		int lo = index + 1;
+		int hi = lo;
+		int step = 1;
+		while (hi < numEntries && docids[hi] < targetId) {
+			lo = hi + 1;
+			hi += step;
+			step <<= 1;
+		}
+		hi = Math.min(hi, numEntries);
+		
+		// binary search of the first docid not less than the target in [lo, hi)
+		while (lo < hi) {
+			final int mid = (lo + hi) >>> 1;
+			if (docids[mid] < targetId)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return moveTo(lo);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int nextBlock(final int[] docids, final int[] freqs) throws IOException
+	{
+		if ( currentDocument == IterablePosting.END_OF_LIST ) 
+			return 0;
+		
+		if (index + 1 == numEntries) {
+			moveTo(numEntries);
+			return 0;
+		}
+		if (docids.length == 0)
+			return 0;
+		
+		final int count = Math.min(docids.length, numEntries - index - 1);
+		System.arraycopy(this.docids, index + 1, docids, 0, count);
+		if (freqs != null)
+			System.arraycopy(this.freqs, index + 1, freqs, 0, count);
+		moveTo(index + count);
+		return count;
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public long getCurrentDocidPosition()
+	{
+		return index;
+	}
+	
+	private int moveTo(final int i)
+	{
+		if (i >= numEntries) {
+			index = numEntries;
+			currentDocument = IterablePosting.END_OF_LIST;
+		} else {
+			index = i;
+			currentDocument = docids[i];
+			currentFrequency = freqs[i];
+		}
+		return (int) currentDocument;
+	}
+}
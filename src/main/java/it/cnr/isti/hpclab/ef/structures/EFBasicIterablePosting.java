@@ -19,9 +19,13 @@
  */
 package it.cnr.isti.hpclab.ef.structures;
 
+import it.cnr.isti.hpclab.ef.util.BitmapDocidReader;
+import it.cnr.isti.hpclab.ef.util.DocidCursor;
 import it.cnr.isti.hpclab.ef.util.DocidReader;
 import it.cnr.isti.hpclab.ef.util.FreqReader;
 import it.cnr.isti.hpclab.ef.util.LongWordBitReader;
+import it.cnr.isti.hpclab.ef.util.PartitionedDocidReader;
+import it.cnr.isti.hpclab.ef.util.SelectIndexReader;
 import it.cnr.isti.hpclab.ef.util.Utils;
 import it.unimi.dsi.fastutil.longs.LongBigList;
 
@@ -42,11 +46,13 @@ public class EFBasicIterablePosting implements IterablePosting
 	private LongWordBitReader docidsLongWordBitReader;
 	private DocumentIndex doi;
 	
-	protected DocidReader docidReader = null;
+	protected DocidCursor docidReader = null;
 	protected FreqReader freqReader = null;
 	protected long currentDocument;
 	protected long currentFrequency;
+	protected boolean frequencyDecoded;
 	protected long N;
+	protected int numEntries;
 	
 	/** 
 	 * Create an empty EFBasicIterablePosting.
@@ -71,12 +77,85 @@ public class EFBasicIterablePosting implements IterablePosting
 	public EFBasicIterablePosting(final LongBigList _docidList, final LongBigList _freqList, final DocumentIndex doi,
 								  final int numEntries, final int upperBoundDocid, final int upperBoundFreq, final int log2Quantum,
 								  final long docidsPosition, final long freqsPosition)
+	{
+		this(_docidList, _freqList, doi, numEntries, upperBoundDocid, upperBoundFreq, log2Quantum, docidsPosition, freqsPosition, false);
+	}
+	
+	/**
+	 * Create a EFBasicIterablePosting object.
+	 * 
+	 * @param _docidList the Elias-Fano compressed list view to access to read docids
+	 * @param _freqList the Elias-Fano compressed list view to access to read frequencies
+	 * @param doi the document index to use to read document lengths
+	 * @param numEntries number of postings in the posting list
+	 * @param upperBoundDocid upper bound on the docids
+	 * @param upperBoundFreq upper bound on the frequency
+	 * @param log2Quantum the quantum used to encode forward (skip) pointers
+	 * @param docidsPosition the initial bit offset in the docids file of this posting list
+	 * @param freqsPosition the initial bit offset in the freq file of this posting list
+	 * @param partitioned true if docids are encoded with partitioned Elias-Fano
+	 */
+	public EFBasicIterablePosting(final LongBigList _docidList, final LongBigList _freqList, final DocumentIndex doi,
+								  final int numEntries, final int upperBoundDocid, final int upperBoundFreq, final int log2Quantum,
+								  final long docidsPosition, final long freqsPosition, final boolean partitioned)
+	{
+		this(_docidList, _freqList, doi, numEntries, upperBoundDocid, upperBoundFreq, log2Quantum, docidsPosition, freqsPosition, partitioned, false);
+	}
+	
+	/**
+	 * Create a EFBasicIterablePosting object.
+	 * 
+	 * @param _docidList the Elias-Fano compressed list view to access to read docids
+	 * @param _freqList the Elias-Fano compressed list view to access to read frequencies
+	 * @param doi the document index to use to read document lengths
+	 * @param numEntries number of postings in the posting list
+	 * @param upperBoundDocid upper bound on the docids
+	 * @param upperBoundFreq upper bound on the frequency
+	 * @param log2Quantum the quantum used to encode forward (skip) pointers
+	 * @param docidsPosition the initial bit offset in the docids file of this posting list
+	 * @param freqsPosition the initial bit offset in the freq file of this posting list
+	 * @param partitioned true if docids are encoded with partitioned Elias-Fano
+	 * @param bitmap true if docids are encoded as a bitmap
+	 */
+	public EFBasicIterablePosting(final LongBigList _docidList, final LongBigList _freqList, final DocumentIndex doi,
+								  final int numEntries, final int upperBoundDocid, final int upperBoundFreq, final int log2Quantum,
+								  final long docidsPosition, final long freqsPosition, final boolean partitioned, final boolean bitmap)
 	{
 		this.docidList = _docidList;
 		this.freqList = _freqList;
 		this.doi = doi;
 		this.N = upperBoundDocid;
+		this.numEntries = numEntries;
 		
+		if (bitmap)
+			this.docidReader = new BitmapDocidReader( docidList, docidsPosition, numEntries, upperBoundDocid );
+		else if (partitioned)
+			this.docidReader = new PartitionedDocidReader( docidList, docidsPosition, numEntries, upperBoundDocid, log2Quantum );
+		else
+			this.docidReader = plainDocidReader( docidsPosition, numEntries, upperBoundDocid, log2Quantum );
+		currentDocument = -2;
+		
+		this.freqReader = new FreqReader( freqList, freqsPosition, numEntries, upperBoundFreq, log2Quantum );
+		currentFrequency = 0;
+		frequencyDecoded = true;
+	}
+	
+	/**
+	 * Use the select index of this posting list, written by {@link it.cnr.isti.hpclab.ef.util.SelectIndexWriter}, for long skips
+	 * on plain Elias-Fano docids and on frequencies.
+	 * 
+	 * @param selectList the Elias-Fano compressed list view to access to read select indexes
+	 * @param selectPosition the initial bit offset in the select file of this posting list
+	 */
+	public void useSelectIndex(final LongBigList selectList, final long selectPosition)
+	{
+		if (docidReader instanceof DocidReader)
+			((DocidReader) docidReader).useSelectIndex(selectList, selectPosition);
+		freqReader.useSelectIndex(selectList, SelectIndexReader.end(selectList, selectPosition));
+	}
+	
+	private DocidReader plainDocidReader(final long docidsPosition, final int numEntries, final int upperBoundDocid, final int log2Quantum)
+	{
 		this.docidsLongWordBitReader = new LongWordBitReader( docidList, 0 );
 		this.docidsLongWordBitReader.position(docidsPosition);
 		
@@ -98,11 +177,7 @@ public class EFBasicIterablePosting implements IterablePosting
 		long lowerBitsStart = skipPointersStart + pointerSize * numberOfPointers;
 		lowerBits.position( lowerBitsStart ); 						
 				
-		this.docidReader = new DocidReader( docidList, lowerBits, lowerBitsStart, l, skipPointers, skipPointersStart, numberOfPointers, pointerSize, numEntries, log2Quantum );
-		currentDocument = -2;
-		
-		this.freqReader = new FreqReader( freqList, freqsPosition, numEntries, upperBoundFreq, log2Quantum );
-		currentFrequency = 0;
+		return new DocidReader( docidList, lowerBits, lowerBitsStart, l, skipPointers, skipPointersStart, numberOfPointers, pointerSize, numEntries, log2Quantum );
 	}
 	
 	/** {@inheritDoc} */
@@ -112,10 +187,17 @@ public class EFBasicIterablePosting implements IterablePosting
 		return (int) currentDocument;
 	}
 
-	/** {@inheritDoc} */
+	/** 
+	 * {@inheritDoc} 
+	 * The frequency is decoded only the first time this method is called on the current posting.
+	 */
 	@Override
 	public int getFrequency() 
 	{
+		if (!frequencyDecoded) {
+			currentFrequency = freqReader.getLong( docidReader.getCurrentPos() - 1 );
+			frequencyDecoded = true;
+		}
 		return (int) currentFrequency;
 	}
 
@@ -142,7 +224,7 @@ public class EFBasicIterablePosting implements IterablePosting
 	@Override
 	public WritablePosting asWritablePosting() 
 	{
-		return new BasicPostingImpl((int) currentDocument, (int) currentFrequency);
+		return new BasicPostingImpl((int) currentDocument, getFrequency());
 	}
 
 	/** {@inheritDoc} */
@@ -160,8 +242,9 @@ public class EFBasicIterablePosting implements IterablePosting
 
 		if ( ( currentDocument = docidReader.getNextPrefixSum() ) >= N ) {
 			currentDocument = IterablePosting.END_OF_LIST;
+			frequencyDecoded = true;
 		} else {
-			currentFrequency = freqReader.getLong( docidReader.currentIndex - 1 );
+			frequencyDecoded = false;
 		}
 		
 		return (int) currentDocument;	
@@ -179,13 +262,51 @@ public class EFBasicIterablePosting implements IterablePosting
 
 		if ( ( currentDocument = docidReader.skipTo( targetId ) ) >= N ) {
 			currentDocument = IterablePosting.END_OF_LIST;
+			frequencyDecoded = true;
 		}  else {
-			currentFrequency = freqReader.getLong( docidReader.currentIndex - 1 );
+			frequencyDecoded = false;
 		}
 		
 		return (int) currentDocument;
 	}
 
+	/**
+	 * Decodes the next block of postings, i.e., up to <code>docids.length</code> docids and, if <code>freqs</code> is not null, their frequencies.
+	 * Postings are decoded straight from the Elias-Fano upper and lower bits, without moving the cursor posting by posting.
+	 * After the call, the cursor is positioned on the last decoded posting, and {@link #next()} or {@link #next(int)} can be used as usual.
+	 * 
+	 * @param docids the array where to store the decoded docids
+	 * @param freqs the array where to store the decoded frequencies, at least as long as <code>docids</code>, or null if frequencies are not needed
+	 * @return the number of decoded postings, 0 if the posting list is exhausted or <code>docids</code> is empty, in which case the cursor does not move
+	 * @throws IOException if something goes wrong
+	 */
+	public int nextBlock(final int[] docids, final int[] freqs) throws IOException
+	{
+		if ( currentDocument == IterablePosting.END_OF_LIST ) 
+			return 0;
+		
+		final long index = docidReader.getCurrentPos();
+		if (index == numEntries) {
+			currentDocument = IterablePosting.END_OF_LIST;
+			return 0;
+		}
+		if (docids.length == 0)
+			return 0;
+		
+		final int count = (int) Math.min(docids.length, numEntries - index);
+		
+		docidReader.getNextPrefixSums(docids, 0, count);
+		currentDocument = docids[count - 1];
+		if (freqs != null) {
+			freqReader.getLongs(index, freqs, 0, count);
+			currentFrequency = freqs[count - 1];
+			frequencyDecoded = true;
+		} else {
+			frequencyDecoded = false;
+		}
+		return count;
+	}
+	
 	/** {@inheritDoc} */
 	@Override
 	public boolean endOfPostings() 
@@ -197,7 +318,7 @@ public class EFBasicIterablePosting implements IterablePosting
 	@Override
 	public String toString()
 	{
-		return "(" + currentDocument + "," + currentFrequency + ")";
+		return "(" + currentDocument + "," + getFrequency() + ")";
 	}
 	
 	/**
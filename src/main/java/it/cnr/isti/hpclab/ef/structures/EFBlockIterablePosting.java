@@ -39,6 +39,9 @@ import it.unimi.dsi.fastutil.longs.LongBigList;
 
 public class EFBlockIterablePosting extends EFBasicIterablePosting implements BlockPosting
 {
+	/** The value returned by {@link #nextPosition()} when all the positions of the current posting have been returned. */
+	public static final int END_OF_POSITIONS = -1;
+	
 	private LongBigList posList;
 
 	private LongWordBitReader posLongWordBitReader;
@@ -46,6 +49,8 @@ public class EFBlockIterablePosting extends EFBasicIterablePosting implements Bl
 	
 	private int[] currentPositions;
 	private boolean positionsDecoded;
+	/** The number of positions of the current posting returned by {@link #nextPosition()}. */
+	private int positionIndex;
 
 	/** 
 	 * Create an empty EFBlockIterablePosting.
@@ -77,7 +82,60 @@ public class EFBlockIterablePosting extends EFBasicIterablePosting implements Bl
 								  final int log2Quantum, 
 								  final long docidsPosition, final long freqsPosition, final long posPosition)
 	{
-		super(_docidList, _freqList, doi, numEntries, upperBoundDocid, upperBoundFreq, log2Quantum, docidsPosition, freqsPosition);
+		this(_docidList, _freqList, _posList, doi, numEntries, upperBoundDocid, upperBoundFreq, upperBoundPos, log2Quantum, docidsPosition, freqsPosition, posPosition, false);
+	}
+	
+	/**
+	 * Create a EFBlockIterablePosting object.
+	 * 
+	 * @param _docidList the Elias-Fano compressed list view to access to read docids
+	 * @param _freqList the Elias-Fano compressed list view to access to read frequencies
+	 * @param _posList the Elias-Fano compressed list view to access to read positional information
+	 * @param doi the document index to use to read document lengths
+	 * @param numEntries number of postings in the posting list
+	 * @param upperBoundDocid upper bound on the docids
+	 * @param upperBoundFreq upper bound on the frequency
+	 * @param upperBoundFreq upper bound on the positional information
+	 * @param log2Quantum the quantum used to encode forward (skip) pointers
+	 * @param docidsPosition the initial bit offset in the docids file of this posting list
+	 * @param freqsPosition the initial bit offset in the freq file of this posting list
+	 * @param posPosition the initial bit offset in the position file of this posting list
+	 * @param partitioned true if docids are encoded with partitioned Elias-Fano
+	 */
+	public EFBlockIterablePosting(final LongBigList _docidList, final LongBigList _freqList, final LongBigList _posList, 
+								  final DocumentIndex doi, final int numEntries, 
+								  final int upperBoundDocid, final int upperBoundFreq, final long upperBoundPos,
+								  final int log2Quantum, 
+								  final long docidsPosition, final long freqsPosition, final long posPosition, final boolean partitioned)
+	{
+		this(_docidList, _freqList, _posList, doi, numEntries, upperBoundDocid, upperBoundFreq, upperBoundPos, log2Quantum, docidsPosition, freqsPosition, posPosition, partitioned, false);
+	}
+	
+	/**
+	 * Create a EFBlockIterablePosting object.
+	 * 
+	 * @param _docidList the Elias-Fano compressed list view to access to read docids
+	 * @param _freqList the Elias-Fano compressed list view to access to read frequencies
+	 * @param _posList the Elias-Fano compressed list view to access to read positional information
+	 * @param doi the document index to use to read document lengths
+	 * @param numEntries number of postings in the posting list
+	 * @param upperBoundDocid upper bound on the docids
+	 * @param upperBoundFreq upper bound on the frequency
+	 * @param upperBoundFreq upper bound on the positional information
+	 * @param log2Quantum the quantum used to encode forward (skip) pointers
+	 * @param docidsPosition the initial bit offset in the docids file of this posting list
+	 * @param freqsPosition the initial bit offset in the freq file of this posting list
+	 * @param posPosition the initial bit offset in the position file of this posting list
+	 * @param partitioned true if docids are encoded with partitioned Elias-Fano
+	 * @param bitmap true if docids are encoded as a bitmap
+	 */
+	public EFBlockIterablePosting(final LongBigList _docidList, final LongBigList _freqList, final LongBigList _posList, 
+								  final DocumentIndex doi, final int numEntries, 
+								  final int upperBoundDocid, final int upperBoundFreq, final long upperBoundPos,
+								  final int log2Quantum, 
+								  final long docidsPosition, final long freqsPosition, final long posPosition, final boolean partitioned, final boolean bitmap)
+	{
+		super(_docidList, _freqList, doi, numEntries, upperBoundDocid, upperBoundFreq, log2Quantum, docidsPosition, freqsPosition, partitioned, bitmap);
 		this.posList = _posList;
 		
 		posLongWordBitReader = new LongWordBitReader( posList, 0 );
@@ -95,22 +153,72 @@ public class EFBlockIterablePosting extends EFBasicIterablePosting implements Bl
 		currentPositions = null;
 	}
 	
-	/** {@inheritDoc} */
+	/** 
+	 * {@inheritDoc}
+	 * A new array is allocated for every posting, use {@link #nextPosition()} or {@link #getPositions(int[])} to avoid it. 
+	 */
 	@Override
 	public int[] getPositions()
 	{
 		if (!positionsDecoded) {
-			int numPositions = super.getFrequency();
-			currentPositions = new int[numPositions];
-		
-			currentPositions[0] = posReader.getFirstPosition(super.freqReader.prevPrefixSum() + super.freqReader.currentIndex() - 1);
-			for (int i = 1; i < numPositions; i++)
-				currentPositions[i] = posReader.getNextPosition();
+			currentPositions = new int[super.getFrequency()];
+			getPositions(currentPositions);
 			positionsDecoded = true;
 		}
 		return currentPositions;
 	}
 	
+	/**
+	 * Decode the positions of the current posting, starting from the first one, into a caller-supplied buffer, 
+	 * which must hold at least {@link #positionCount()} elements.
+	 * 
+	 * @param buffer the array where to store the positions
+	 * @return the number of positions of the current posting
+	 */
+	public int getPositions(final int[] buffer)
+	{
+		final int numPositions = positionCount();
+		buffer[0] = posReader.getFirstPosition(firstPositionIndex());
+		for (int i = 1; i < numPositions; i++)
+			buffer[i] = posReader.getNextPosition();
+		positionIndex = numPositions;
+		return numPositions;
+	}
+	
+	/**
+	 * Return the number of positions of the current posting, i.e., its frequency.
+	 * @return the number of positions of the current posting
+	 */
+	public int positionCount()
+	{
+		return super.getFrequency();
+	}
+	
+	/**
+	 * Return the next position of the current posting, decoding it directly from the positions list. 
+	 * 
+	 * @return the next position of the current posting, or {@link #END_OF_POSITIONS} if all of them have been returned
+	 */
+	public int nextPosition()
+	{
+		if (positionIndex == 0) {
+			positionIndex = 1;
+			return posReader.getFirstPosition(firstPositionIndex());
+		}
+		if (positionIndex == positionCount())
+			return END_OF_POSITIONS;
+		positionIndex++;
+		return posReader.getNextPosition();
+	}
+	
+	/** The index, in the positions list, of the first position of the current posting. */
+	private long firstPositionIndex()
+	{
+		final int frequency = super.getFrequency(); // decodes the frequency, if needed 
+		assert frequency > 0;
+		return super.freqReader.prevPrefixSum() + super.freqReader.currentIndex() - 1;
+	}
+	
 	/** {@inheritDoc} */
 	@Override
 	public int next() throws IOException 
@@ -120,9 +228,11 @@ public class EFBlockIterablePosting extends EFBasicIterablePosting implements Bl
 
 		if ( ( currentDocument = docidReader.getNextPrefixSum() ) >= N ) {
 			currentDocument = IterablePosting.END_OF_LIST;
+			frequencyDecoded = true;
 		} else {
-			currentFrequency = freqReader.getLong( docidReader.currentIndex - 1 );
+			frequencyDecoded = false;
 			positionsDecoded = false;
+			positionIndex = 0;
 		}
 		
 		return (int) currentDocument;	
@@ -140,14 +250,28 @@ public class EFBlockIterablePosting extends EFBasicIterablePosting implements Bl
 
 		if ( ( currentDocument = docidReader.skipTo( targetId ) ) >= N ) {
 			currentDocument = IterablePosting.END_OF_LIST;
+			frequencyDecoded = true;
 		}  else {
-			currentFrequency = freqReader.getLong( docidReader.currentIndex - 1 );
+			frequencyDecoded = false;
 			positionsDecoded = false;
+			positionIndex = 0;
 		}
 		
 		return (int) currentDocument;
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public int nextBlock(final int[] docids, final int[] freqs) throws IOException
+	{
+		final int count = super.nextBlock(docids, freqs);
+		if (count > 0) {
+			positionsDecoded = false;
+			positionIndex = 0;
+		}
+		return count;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public String toString()
@@ -0,0 +1,83 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.structures;
+
+import it.cnr.isti.hpclab.ef.EliasFano;
+import it.cnr.isti.hpclab.ef.util.IndexUtil;
+import it.cnr.isti.hpclab.ef.util.LongStorage;
+import it.unimi.dsi.fastutil.longs.LongBigList;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+
+import org.terrier.structures.EntryStatistics;
+import org.terrier.structures.IndexOnDisk;
+
+/**
+ * Class to access the block-max side structure of an Elias-Fano index, written by {@link it.cnr.isti.hpclab.ef.util.BlockMaxWriter}.
+ * It is available as the <code>blockmax</code> index structure of indexes generated with block maxima.
+ * The blocks of a posting list are found through the termid of its lexicon entry.
+ */
+public class EFBlockMaxIndex implements Closeable
+{
+	protected final LongBigList blocksList;
+	protected final LongBigList offsetsList;
+	protected final int log2Quantum;
+	
+	/**
+	 * Constructor.
+	 * @param index the index containing the block-max structure
+	 * @throws IOException if something goes wrong in opening the files
+	 */
+	public EFBlockMaxIndex(final IndexOnDisk index) throws IOException
+	{
+		final ByteOrder byteOrder = IndexUtil.byteOrder(index);
+		
+		log2Quantum = index.getIntIndexProperty(EliasFano.LOG2QUANTUM, 0);
+		
+		// Sanity check
+		if (log2Quantum == 0)
+			throw new RuntimeException();
+
+		blocksList  = LongStorage.map( index.getPath() + File.separator + index.getPrefix() + EliasFano.BLOCKMAX_EXTENSION, byteOrder );
+		offsetsList = LongStorage.map( index.getPath() + File.separator + index.getPrefix() + EliasFano.BLOCKMAX_OFFSETS_EXTENSION, byteOrder );
+	}
+	
+	/**
+	 * Return an iterator over the blocks of the posting list of a term.
+	 * @param le the lexicon entry of the term
+	 * @return an iterator over the blocks of the posting list, positioned on the first block
+	 */
+	public EFBlockMaxIterator getBlocks(final EntryStatistics le)
+	{
+		final int numBlocks = ((le.getDocumentFrequency() - 1) >>> log2Quantum) + 1;
+		return new EFBlockMaxIterator(blocksList, offsetsList.getLong(le.getTermId()), numBlocks);
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public void close()
+	{
+		LongStorage.unmap(blocksList);
+		LongStorage.unmap(offsetsList);
+	}
+}
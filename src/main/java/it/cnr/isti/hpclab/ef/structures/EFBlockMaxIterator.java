@@ -0,0 +1,125 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.structures;
+
+import it.unimi.dsi.fastutil.longs.LongBigList;
+
+import org.terrier.structures.postings.IterablePosting;
+
+/**
+ * An iterator over the blocks of a posting list, used to move shallowly, i.e., without decoding any posting, 
+ * to the block possibly containing a docid.
+ */
+public class EFBlockMaxIterator 
+{
+	private static final long LOW_MASK = 0xFFFFFFFFL;
+	
+	private final LongBigList blocksList;
+	private final long start;
+	private final int numBlocks;
+	
+	private int block;
+	private int lastDocid;
+	
+	/**
+	 * Constructor.
+	 * @param blocksList the list of blocks of all posting lists
+	 * @param start the index of the first long of the first block of this posting list
+	 * @param numBlocks the number of blocks of this posting list
+	 */
+	public EFBlockMaxIterator(final LongBigList blocksList, final long start, final int numBlocks)
+	{
+		this.blocksList = blocksList;
+		this.start = start;
+		this.numBlocks = numBlocks;
+		this.block = 0;
+		this.lastDocid = (int) (blocksList.getLong(start) & LOW_MASK);
+	}
+	
+	/**
+	 * Move to the first block whose last docid is greater than or equal to a target docid.
+	 * Blocks are traversed forward only.
+	 * @param targetId the target docid
+	 * @return the last docid of the new current block, or {@link IterablePosting#END_OF_LIST} if all blocks end before the target docid
+	 */
+	public int move(final int targetId)
+	{
+		while (lastDocid < targetId) {
+			if (++block == numBlocks)
+				return lastDocid = IterablePosting.END_OF_LIST;
+			lastDocid = (int) (blocksList.getLong(start + 2L * block) & LOW_MASK);
+		}
+		return lastDocid;
+	}
+	
+	/**
+	 * Return the index of the current block.
+	 * @return the index of the current block
+	 */
+	public int getBlock()
+	{
+		return block;
+	}
+	
+	/**
+	 * Return the number of blocks.
+	 * @return the number of blocks
+	 */
+	public int numberOfBlocks()
+	{
+		return numBlocks;
+	}
+	
+	/**
+	 * Return the last docid of the current block.
+	 * @return the last docid of the current block
+	 */
+	public int getLastDocid()
+	{
+		return lastDocid;
+	}
+	
+	/**
+	 * Return the maximum term frequency in the current block.
+	 * @return the maximum term frequency in the current block
+	 */
+	public int getMaxFrequency()
+	{
+		return (int) (blocksList.getLong(start + 2L * block) >>> Integer.SIZE);
+	}
+
+	/**
+	 * Return the minimum document length in the current block.
+	 * @return the minimum document length in the current block
+	 */
+	public int getMinDocumentLength()
+	{
+		return (int) (blocksList.getLong(start + 2L * block + 1) & LOW_MASK);
+	}
+
+	/**
+	 * Return the maximum document length in the current block.
+	 * @return the maximum document length in the current block
+	 */
+	public int getMaxDocumentLength()
+	{
+		return (int) (blocksList.getLong(start + 2L * block + 1) >>> Integer.SIZE);
+	}
+}
@@ -46,6 +46,8 @@ public class EFDocumentIndex implements DocumentIndex
 	private static Logger LOGGER = Logger.getLogger( EFDocumentIndex.class );
 	
 	private final int[] docLengths;
+	private int minDocLength;
+	private int maxDocLength;
 	
 	/**
 	 * Constructor.
@@ -71,6 +73,15 @@ public class EFDocumentIndex implements DocumentIndex
 		in.readGammas( docLengths, docLengths.length );		  
 		LOGGER.debug( "Completed." );
 		in.close();
+		
+		minDocLength = docLengths.length == 0 ? 0 : Integer.MAX_VALUE;
+		maxDocLength = 0;
+		for (int length: docLengths) {
+			if (length < minDocLength)
+				minDocLength = length;
+			if (length > maxDocLength)
+				maxDocLength = length;
+		}
 	}
 	
 	@Override
@@ -93,6 +104,24 @@ public class EFDocumentIndex implements DocumentIndex
 		return docLengths.length;
 	}
 
+	/**
+	 * Return the length of the shortest document in the index.
+	 * @return the minimum document length
+	 */
+	public int getMinimumDocumentLength()
+	{
+		return minDocLength;
+	}
+
+	/**
+	 * Return the length of the longest document in the index.
+	 * @return the maximum document length
+	 */
+	public int getMaximumDocumentLength()
+	{
+		return maxDocLength;
+	}
+
 	/**
 	 * Static methods to store an int array in a gamma-encoded sequence on file
 	 * @param index the document index containing the integer to encode and write to file.
@@ -0,0 +1,292 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.structures;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.Lexicon;
+import org.terrier.structures.LexiconEntry;
+
+import it.cnr.isti.hpclab.ef.EliasFano;
+import it.cnr.isti.hpclab.ef.util.IndexUtil;
+import it.cnr.isti.hpclab.ef.util.LongStorage;
+import it.cnr.isti.hpclab.ef.util.LongWordBitWriter;
+import it.cnr.isti.hpclab.ef.util.MinimalPerfectHash;
+import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.longs.LongBigList;
+import it.unimi.dsi.fastutil.objects.ObjectListIterator;
+import it.unimi.dsi.lang.MutableString;
+import it.unimi.dsi.util.FrontCodedStringList;
+
+/**
+ * A lexicon resolving terms in constant time with a {@link MinimalPerfectHash} function, instead of a binary search over fixed-size keys.
+ * <p>
+ * The function maps every term to a slot, and the slot to the term id through a bit-packed permutation, in the <code>.lexicon-hash</code> file.
+ * Since terms out of the lexicon are mapped to arbitrary term ids, the term of the id is checked against a front-coded list of the terms, 
+ * in lexicographical order, in the <code>.lexicon-terms</code> file. The entries are stored in the <code>.lexicon-entries</code> file as
+ * Elias-Fano sequences by an {@link EFLexiconValueStore}. The hash function and the entries are memory-mapped, 
+ * and {@link #getTermId(CharSequence)} does not allocate anything.
+ * <p>
+ * This lexicon is written by {@link #write(IndexOnDisk)} from the lexicon of an Elias-Fano index, whose term ids must be aligned, 
+ * and used instead of <code>FSOMapFileLexicon</code> if the index property <code>index.lexicon.class</code> is set to this class.
+ */
+public class EFHashLexicon extends Lexicon<String>
+{
+	/** The number of terms of a block of the front-coded list. */
+	private static final int RATIO = 8;
+	
+	/** The number of terms. */
+	protected final int numEntries;
+	
+	/** The list containing the hash function and the permutation. */
+	protected final LongBigList hashList;
+	/** The hash function. */
+	protected final MinimalPerfectHash hash;
+	/** The bit position of the permutation. */
+	protected final long permutationStart;
+	/** The width of the term ids of the permutation. */
+	protected final int width;
+	
+	/** The terms. */
+	protected final FrontCodedStringList terms;
+	/** The entries. */
+	protected final EFLexiconValueStore entries;
+	
+	/** The buffer of the term checked by the current thread. */
+	private final ThreadLocal<MutableString> term = ThreadLocal.withInitial(MutableString::new);
+	
+	/**
+	 * Constructor.
+	 * @param structureName the name of the structure
+	 * @param index the index containing the lexicon
+	 * @throws IOException if something goes wrong in opening the lexicon files
+	 */
+	public EFHashLexicon(final String structureName, final IndexOnDisk index) throws IOException
+	{
+		final String prefix = index.getPath() + File.separator + index.getPrefix();
+		final ByteOrder byteOrder = IndexUtil.byteOrder(index);
+		
+		hashList = LongStorage.map(prefix + EliasFano.LEXICON_HASH_EXTENSION, byteOrder);
+		hash = new MinimalPerfectHash(hashList, 0);
+		numEntries = (int) hash.size();
+		permutationStart = hash.end() * Long.SIZE;
+		width = width(numEntries);
+		
+		try {
+			terms = (FrontCodedStringList) BinIO.loadObject(prefix + EliasFano.LEXICON_TERMS_EXTENSION);
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		}
+		entries = new EFLexiconValueStore(prefix + EliasFano.LEXICON_ENTRIES_EXTENSION, byteOrder);
+	}
+	
+	private static int width(final int n)
+	{
+		return Math.max(1, Integer.SIZE - Integer.numberOfLeadingZeros(n - 1));
+	}
+	
+	/**
+	 * Return the term id of a term.
+	 * 
+	 * @param key the term
+	 * @return the term id of the term, or -1 if the term is not in the lexicon
+	 */
+	public int getTermId(final CharSequence key)
+	{
+		final long slot = hash.getLong(key);
+		if (slot < 0 || slot >= numEntries)
+			return -1;
+		
+		final long position = permutationStart + slot * width;
+		final int bitPosition = (int) (position % Long.SIZE);
+		final long word = position / Long.SIZE;
+		long termId = hashList.getLong(word) >>> bitPosition;
+		if (bitPosition + width > Long.SIZE)
+			termId |= hashList.getLong(word + 1) << -bitPosition;
+		termId &= (1L << width) - 1;
+		
+		final MutableString t = term.get();
+		terms.get((int) termId, t);
+		return t.equals(key) ? (int) termId : -1;
+	}
+	
+	/**
+	 * Return the entry of a term id.
+	 * 
+	 * @param termId the term id
+	 * @return the entry of the term id
+	 */
+	protected EFLexiconEntry entry(final int termId)
+	{
+		return entries.get(termId);
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public int numberOfEntries() 
+	{
+		return numEntries;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public LexiconEntry getLexiconEntry(final String key) 
+	{
+		final int termId = getTermId(key);
+		return termId < 0 ? null : entry(termId);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Map.Entry<String, LexiconEntry> getLexiconEntry(final int termId) 
+	{
+		return getIthLexiconEntry(termId);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Map.Entry<String, LexiconEntry> getIthLexiconEntry(final int index) 
+	{
+		if (index < 0 || index >= numEntries)
+			return null;
+		return new AbstractMap.SimpleImmutableEntry<String, LexiconEntry>(terms.get(index).toString(), entry(index));
+	}
+
+	/**
+	 * Return the entries of the terms from <code>from</code>, inclusive, to <code>to</code>, exclusive, in lexicographical order. 
+	 */
+	@Override
+	public Iterator<Map.Entry<String, LexiconEntry>> getLexiconEntryRange(final String from, final String to) 
+	{
+		return iterator(rank(from), rank(to));
+	}
+	
+	/** Return the number of terms smaller than a key. */
+	private int rank(final String key)
+	{
+		final MutableString t = term.get();
+		int low = 0, high = numEntries;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			terms.get(mid, t);
+			if (t.compareTo(key) < 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Iterator<Map.Entry<String, LexiconEntry>> iterator() 
+	{
+		return iterator(0, numEntries);
+	}
+	
+	private Iterator<Map.Entry<String, LexiconEntry>> iterator(final int from, final int to)
+	{
+		return new Iterator<Map.Entry<String, LexiconEntry>>() 
+		{
+			private final ObjectListIterator<MutableString> i = terms.listIterator(Math.min(from, to));
+			private int termId = Math.min(from, to);
+			
+			@Override
+			public boolean hasNext() 
+			{
+				return termId < to;
+			}
+
+			@Override
+			public Map.Entry<String, LexiconEntry> next() 
+			{
+				if (!hasNext())
+					throw new NoSuchElementException();
+				final String key = i.next().toString();
+				return new AbstractMap.SimpleImmutableEntry<String, LexiconEntry>(key, entry(termId++));
+			}
+		};
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close() 
+	{
+		LongStorage.unmap(hashList);
+		entries.close();
+	}
+	
+	/**
+	 * Write the hash lexicon of an Elias-Fano index from its lexicon, in the byte order of the index, and set it as the lexicon of the index.
+	 * 
+	 * @param index the index
+	 * @throws IOException if something goes wrong while reading the lexicon or writing the hash lexicon
+	 * @throws IllegalStateException if the term ids of the lexicon are not aligned, or its offsets are not monotone
+	 */
+	@SuppressWarnings("resource")
+	public static void write(final IndexOnDisk index) throws IOException
+	{
+		final String prefix = index.getPath() + File.separator + index.getPrefix();
+		final Lexicon<String> lexicon = index.getLexicon();
+		final int n = lexicon.numberOfEntries();
+		final boolean blocks = "true".equals(index.getIndexProperty(EliasFano.HAS_POSITIONS, "false"));
+		final ByteOrder byteOrder = IndexUtil.byteOrder(index);
+		
+		final Iterator<Map.Entry<String, LexiconEntry>> entries = lexicon.iterator();
+		final FrontCodedStringList terms = new FrontCodedStringList(new Iterator<String>()
+		{
+			@Override
+			public boolean hasNext() 
+			{
+				return entries.hasNext();
+			}
+
+			@Override
+			public String next() 
+			{
+				return entries.next().getKey();
+			}
+		}, RATIO, true);
+		BinIO.storeObject(terms, prefix + EliasFano.LEXICON_TERMS_EXTENSION);
+		
+		final LongWordBitWriter hashWriter = new LongWordBitWriter(new FileOutputStream(prefix + EliasFano.LEXICON_HASH_EXTENSION).getChannel(), byteOrder);
+		final int[] slots = MinimalPerfectHash.write(terms.iterator(), n, hashWriter);
+		final long[] permutation = new long[n];
+		for (int termId = 0; termId < n; termId++)
+			permutation[slots[termId]] = termId;
+		final int width = width(n);
+		for (long termId : permutation)
+			hashWriter.append(termId, width);
+		hashWriter.close();
+		
+		EFLexiconValueStore.write(lexicon, blocks, prefix + EliasFano.LEXICON_ENTRIES_EXTENSION, byteOrder);
+		
+		index.setIndexProperty("index.lexicon.class", EFHashLexicon.class.getName());
+		index.flush();
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.structures;
+
+import it.cnr.isti.hpclab.ef.EliasFano;
+import it.cnr.isti.hpclab.ef.util.FreqReader;
+import it.cnr.isti.hpclab.ef.util.ImpactQuantizer;
+import it.cnr.isti.hpclab.ef.util.IndexUtil;
+import it.cnr.isti.hpclab.ef.util.LongStorage;
+import it.cnr.isti.hpclab.ef.util.LongWordBitReader;
+import it.unimi.dsi.fastutil.longs.LongBigList;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+
+import org.terrier.structures.EntryStatistics;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.Pointer;
+
+/**
+ * Class to access the impacts of an Elias-Fano index, written by {@link it.cnr.isti.hpclab.ef.util.ImpactWriter}.
+ * It is available as the <code>impacts</code> index structure of indexes generated with impacts.
+ * The impacts of a posting list are found through the termid of its lexicon entry.
+ */
+public class EFImpactIndex implements Closeable
+{
+	protected final IndexOnDisk index;
+	protected final LongBigList impactsList;
+	protected final LongBigList offsetsList;
+	protected final int log2Quantum;
+	protected final ImpactQuantizer quantizer;
+	
+	/**
+	 * Constructor.
+	 * @param index the index containing the impacts
+	 * @throws IOException if something goes wrong in opening the files
+	 */
+	public EFImpactIndex(final IndexOnDisk index) throws IOException
+	{
+		final ByteOrder byteOrder = IndexUtil.byteOrder(index);
+		
+		log2Quantum = index.getIntIndexProperty(EliasFano.LOG2QUANTUM, 0);
+		quantizer = ImpactQuantizer.load(index);
+		
+		// Sanity check
+		if (log2Quantum == 0 || quantizer == null)
+			throw new RuntimeException();
+
+		this.index = index;
+		impactsList = LongStorage.map( index.getPath() + File.separator + index.getPrefix() + EliasFano.IMPACTS_EXTENSION, byteOrder );
+		offsetsList = LongStorage.map( index.getPath() + File.separator + index.getPrefix() + EliasFano.IMPACTS_OFFSETS_EXTENSION, byteOrder );
+	}
+	
+	/**
+	 * Return the quantizer of the impacts.
+	 * @return the quantizer of the impacts
+	 */
+	public ImpactQuantizer getQuantizer()
+	{
+		return quantizer;
+	}
+	
+	/**
+	 * Return the largest impact of the posting list of a term.
+	 * @param le the lexicon entry of the term
+	 * @return the largest impact of the posting list
+	 */
+	public int getMaxImpact(final EntryStatistics le)
+	{
+		return (int) new LongWordBitReader(impactsList, 0).position(offsetsList.getLong(le.getTermId())).readGamma() + 1;
+	}
+	
+	/**
+	 * Return the largest (dequantized) score of the posting list of a term, an upper bound on the scores of its postings.
+	 * @param le the lexicon entry of the term
+	 * @return the largest score of the posting list
+	 */
+	public double getMaxScore(final EntryStatistics le)
+	{
+		return quantizer.dequantize(getMaxImpact(le));
+	}
+	
+	/**
+	 * Return a reader of the impacts of the posting list of a term, by posting index.
+	 * @param le the lexicon entry of the term
+	 * @return a reader of the impacts of the posting list
+	 */
+	public FreqReader getImpacts(final EntryStatistics le)
+	{
+		final LongWordBitReader reader = new LongWordBitReader(impactsList, 0).position(offsetsList.getLong(le.getTermId()));
+		reader.readGamma();
+		final long sum = reader.readGamma() + le.getDocumentFrequency();
+		return new FreqReader(impactsList, reader.position(), le.getDocumentFrequency(), sum, log2Quantum);
+	}
+	
+	/**
+	 * Return the posting list of a term, with the impacts of its postings.
+	 * @param le the lexicon entry of the term
+	 * @return the posting list with impacts
+	 * @throws IOException if something goes wrong in opening the posting list
+	 */
+	public EFImpactIterablePosting getPostings(final EntryStatistics le) throws IOException
+	{
+		return new EFImpactIterablePosting((EFBasicIterablePosting) index.getInvertedIndex().getPostings((Pointer) le), getImpacts(le), quantizer);
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public void close()
+	{
+		LongStorage.unmap(impactsList);
+		LongStorage.unmap(offsetsList);
+	}
+}
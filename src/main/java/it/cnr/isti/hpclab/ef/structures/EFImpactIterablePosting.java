@@ -0,0 +1,152 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.structures;
+
+import java.io.IOException;
+
+import org.terrier.structures.postings.IterablePosting;
+import org.terrier.structures.postings.WritablePosting;
+
+import it.cnr.isti.hpclab.ef.util.FreqReader;
+import it.cnr.isti.hpclab.ef.util.ImpactQuantizer;
+
+/**
+ * An iterable posting over an Elias-Fano posting list that also returns the impact, i.e., the quantized score, of the current posting,
+ * so that documents can be scored without their frequency and length. The impact is decoded only the first time it is requested on a posting.
+ */
+public class EFImpactIterablePosting implements IterablePosting
+{
+	private final EFBasicIterablePosting postings;
+	private final FreqReader impactReader;
+	private final ImpactQuantizer quantizer;
+	
+	private int currentImpact;
+	private boolean impactDecoded;
+	
+	/**
+	 * Constructor.
+	 * @param postings the posting list
+	 * @param impactReader the reader of the impacts of the posting list
+	 * @param quantizer the quantizer of the impacts
+	 */
+	public EFImpactIterablePosting(final EFBasicIterablePosting postings, final FreqReader impactReader, final ImpactQuantizer quantizer)
+	{
+		this.postings = postings;
+		this.impactReader = impactReader;
+		this.quantizer = quantizer;
+	}
+	
+	/**
+	 * Return the impact of the current posting.
+	 * @return the impact of the current posting
+	 */
+	public int getImpact()
+	{
+		if (!impactDecoded) {
+			currentImpact = (int) impactReader.getLong(postings.getCurrentDocidPosition());
+			impactDecoded = true;
+		}
+		return currentImpact;
+	}
+	
+	/**
+	 * Return the (dequantized) score of the current posting.
+	 * @return the score of the current posting
+	 */
+	public double getScore()
+	{
+		return quantizer.dequantize(getImpact());
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public int next() throws IOException 
+	{
+		impactDecoded = false;
+		return postings.next();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int next(final int targetId) throws IOException 
+	{
+		final int current = postings.getId();
+		final int docid = postings.next(targetId);
+		if (docid != current)
+			impactDecoded = false;
+		return docid;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean endOfPostings() 
+	{
+		return postings.endOfPostings();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getId() 
+	{
+		return postings.getId();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getFrequency() 
+	{
+		return postings.getFrequency();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getDocumentLength() 
+	{
+		return postings.getDocumentLength();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setId(final int id) 
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public WritablePosting asWritablePosting() 
+	{
+		return postings.asWritablePosting();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close() throws IOException 
+	{
+		postings.close();
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public String toString()
+	{
+		return "(" + getId() + "," + getImpact() + ")";
+	}
+}
@@ -20,14 +20,13 @@
 package it.cnr.isti.hpclab.ef.structures;
 
 import it.cnr.isti.hpclab.ef.EliasFano;
+import it.cnr.isti.hpclab.ef.util.IndexUtil;
+import it.cnr.isti.hpclab.ef.util.LongStorage;
 import it.unimi.dsi.fastutil.longs.LongBigList;
-import it.unimi.dsi.util.ByteBufferLongBigList;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteOrder;
-import java.nio.channels.FileChannel.MapMode;
-import java.io.FileInputStream;
 
 import org.terrier.structures.BitIndexPointer;
 import org.terrier.structures.DocumentIndex;
@@ -35,12 +34,19 @@ import org.terrier.structures.IndexOnDisk;
 import org.terrier.structures.Pointer;
 import org.terrier.structures.PostingIndex;
 import org.terrier.structures.postings.IterablePosting;
+import org.terrier.utility.ApplicationSetup;
 
 /**
  * Class to access an Elias-Fano encoded inverted index in Terrier.
+ * For indexes without positions, the posting lists of frequent terms can be served, fully decoded, by an {@link EFPostingCache},
+ * whose budget in bytes is given by the <code>ef.postings.cache.budget</code> property (0, the default, disables the cache).
+ * If the index has select indexes, the posting lists with at least {@link EliasFano#SELECT_THRESHOLD} postings use them for long skips.
  */
 public class EFInvertedIndex implements PostingIndex<BitIndexPointer>
 {
+	/** The property setting the budget, in bytes, of the decoded posting cache. */
+	public static final String CACHE_BUDGET_PROPERTY = "ef.postings.cache.budget";
+	
 	protected final IndexOnDisk index;
 	protected final DocumentIndex doi;
 	
@@ -48,6 +54,18 @@ public class EFInvertedIndex implements PostingIndex<BitIndexPointer>
 	protected final LongBigList freqsList;
 	protected final LongBigList posList;
 	
+	/** The select indexes and their offsets, or null if the index has no select indexes. */
+	protected final LongBigList selectList;
+	protected final LongBigList selectOffsetsList;
+	/** The minimum number of postings of a posting list with a select index, or 0 if the index has no select indexes. */
+	protected final int selectThreshold;
+	
+	/** True if docids are encoded with partitioned Elias-Fano. */
+	protected final boolean partitioned;
+	
+	/** The cache of decoded posting lists, or null if disabled. */
+	protected EFPostingCache cache = null;
+	
 	/**
 	 * Constructor
 	 * @param index the index containing the inverted index
@@ -59,28 +77,55 @@ public class EFInvertedIndex implements PostingIndex<BitIndexPointer>
 		this(index, index.getDocumentIndex());
 	}
 
-	@SuppressWarnings("resource")
 	public EFInvertedIndex(final IndexOnDisk index, final DocumentIndex _doi) throws IOException
 	{
 		this.index = index;
 		this.doi = _doi;
 
-		String byteOrderString = index.getIndexProperty(EliasFano.BYTEORDER, "");
-		ByteOrder byteOrder;
-		if (byteOrderString.equals("LITTLE_ENDIAN"))
-			byteOrder = ByteOrder.LITTLE_ENDIAN;
-		else if (byteOrderString.equals("BIG_ENDIAN"))
-			byteOrder = ByteOrder.BIG_ENDIAN;
-		else
-			throw new RuntimeException();
+		final ByteOrder byteOrder = IndexUtil.byteOrder(index);
 
-		docidsList  = ByteBufferLongBigList.map( new FileInputStream( index.getPath() + File.separator + index.getPrefix() + EliasFano.DOCID_EXTENSION ).getChannel(), byteOrder, MapMode.READ_ONLY );
-		freqsList   = ByteBufferLongBigList.map( new FileInputStream( index.getPath() + File.separator + index.getPrefix() + EliasFano.FREQ_EXTENSION  ).getChannel(), byteOrder, MapMode.READ_ONLY );
+		docidsList  = LongStorage.map( index.getPath() + File.separator + index.getPrefix() + EliasFano.DOCID_EXTENSION, byteOrder );
+		freqsList   = LongStorage.map( index.getPath() + File.separator + index.getPrefix() + EliasFano.FREQ_EXTENSION, byteOrder );
+		
+		partitioned = EliasFano.PEF_CODEC.equals(index.getIndexProperty(EliasFano.DOCID_CODEC, EliasFano.EF_CODEC));
 		
 		if (hasPositions())
-			posList = ByteBufferLongBigList.map( new FileInputStream( index.getPath() + File.separator + index.getPrefix() + EliasFano.POS_EXTENSION   ).getChannel(), byteOrder, MapMode.READ_ONLY );
+			posList = LongStorage.map( index.getPath() + File.separator + index.getPrefix() + EliasFano.POS_EXTENSION, byteOrder );
 		else
 			posList = null;
+		
+		selectThreshold = index.getIntIndexProperty(EliasFano.SELECT_THRESHOLD, 0);
+		if (selectThreshold > 0) {
+			selectList        = LongStorage.map( index.getPath() + File.separator + index.getPrefix() + EliasFano.SELECT_EXTENSION, byteOrder );
+			selectOffsetsList = LongStorage.map( index.getPath() + File.separator + index.getPrefix() + EliasFano.SELECT_OFFSETS_EXTENSION, byteOrder );
+		} else {
+			selectList = null;
+			selectOffsetsList = null;
+		}
+		
+		final long cacheBudget = Long.parseLong(ApplicationSetup.getProperty(CACHE_BUDGET_PROPERTY, "0"));
+		if (cacheBudget > 0 && !hasPositions())
+			cache = new EFPostingCache(cacheBudget);
+	}
+	
+	/**
+	 * Return the cache of decoded posting lists.
+	 * 
+	 * @return the cache of decoded posting lists, or null if disabled
+	 */
+	public EFPostingCache getPostingCache()
+	{
+		return cache;
+	}
+	
+	/**
+	 * Set the cache of decoded posting lists. Since the cache does not store positions, it is used only if the index has no positions.
+	 * 
+	 * @param cache the cache of decoded posting lists, or null to disable it
+	 */
+	public void setPostingCache(final EFPostingCache cache)
+	{
+		this.cache = cache;
 	}
 	
 	/** {@inheritDoc} */
@@ -91,6 +136,7 @@ public class EFInvertedIndex implements PostingIndex<BitIndexPointer>
 		long docidOffset = ((EFLexiconEntry)pointer).getDocidOffset();
 		long freqOffset  = ((EFLexiconEntry)pointer).getFreqOffset();
 		int F 			 = ((EFLexiconEntry)pointer).getFrequency();
+		boolean bitmap	 = ((EFLexiconEntry)pointer).isBitmap();
 		
 		int N 			 = index.getCollectionStatistics().getNumberOfDocuments();
 		int log2Quantum  = index.getIntIndexProperty(EliasFano.LOG2QUANTUM, 0);
@@ -103,17 +149,44 @@ public class EFInvertedIndex implements PostingIndex<BitIndexPointer>
 		if (hasPositions()) {
 			long posOffset  = ((EFBlockLexiconEntry)pointer).getPosOffset();
 			long sumsMaxPos = ((EFBlockLexiconEntry)pointer).getSumsMaxPos();
-			rtr = new EFBlockIterablePosting(docidsList, freqsList, posList, doi, df, N, F, sumsMaxPos, log2Quantum, docidOffset, freqOffset, posOffset);
+			rtr = new EFBlockIterablePosting(docidsList, freqsList, posList, doi, df, N, F, sumsMaxPos, log2Quantum, docidOffset, freqOffset, posOffset, partitioned, bitmap);
+			useSelectIndex((EFBasicIterablePosting) rtr, (EFLexiconEntry) pointer);
+		} else if (cache != null && df > 0) {
+			// lists are identified by their docid offset
+			final EFPostingCache.Entry entry = cache.get(docidOffset);
+			if (entry != null)
+				return new EFArrayIterablePosting(entry.docids, entry.freqs, doi);
+			rtr = new EFBasicIterablePosting(docidsList, freqsList, doi, df, N, F, log2Quantum, docidOffset, freqOffset, partitioned, bitmap);
+			useSelectIndex((EFBasicIterablePosting) rtr, (EFLexiconEntry) pointer);
+			if (cache.shouldAdmit(docidOffset, df)) {
+				final int[] docids = new int[df];
+				final int[] freqs = new int[df];
+				((EFBasicIterablePosting) rtr).nextBlock(docids, freqs);
+				cache.put(docidOffset, docids, freqs);
+				rtr = new EFArrayIterablePosting(docids, freqs, doi);
+			}
 		} else {
-			rtr = new EFBasicIterablePosting(docidsList, freqsList, doi, df, N, F, log2Quantum, docidOffset, freqOffset);
+			rtr = new EFBasicIterablePosting(docidsList, freqsList, doi, df, N, F, log2Quantum, docidOffset, freqOffset, partitioned, bitmap);
+			useSelectIndex((EFBasicIterablePosting) rtr, (EFLexiconEntry) pointer);
 		}
 		return rtr;
 	}
 	
+	private void useSelectIndex(final EFBasicIterablePosting postings, final EFLexiconEntry le)
+	{
+		if (selectThreshold > 0 && le.getDocumentFrequency() >= selectThreshold)
+			postings.useSelectIndex(selectList, selectOffsetsList.getLong(le.getTermId()));
+	}
+	
 	/** {@inheritDoc} */
 	@Override
 	public void close()
 	{
+		LongStorage.unmap(docidsList);
+		LongStorage.unmap(freqsList);
+		LongStorage.unmap(posList);
+		LongStorage.unmap(selectList);
+		LongStorage.unmap(selectOffsetsList);
 	}
 
 	/**
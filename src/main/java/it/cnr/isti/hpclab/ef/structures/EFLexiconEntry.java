@@ -51,6 +51,12 @@ public class EFLexiconEntry extends LexiconEntry implements BitIndexPointer
 	public long docidOffset;
 	public long freqOffset;
 	
+	/** true if the docids are encoded as a bitmap instead of Elias-Fano */
+	public boolean bitmap;
+	
+	/** the bit recording {@link #bitmap} in the serialized frequency offset, which is never so large, so that the entries keep their size */
+	private static final long BITMAP_FLAG = 1L << 63;
+	
 	/** 
 	 * Factory for creating EFLexiconEntry objects
 	 */
@@ -130,6 +136,14 @@ public class EFLexiconEntry extends LexiconEntry implements BitIndexPointer
 		return this.freqOffset;
 	}
 
+	/** 
+	 * Return true if the docids are encoded as a bitmap instead of Elias-Fano 
+	 */
+	public boolean isBitmap() 
+	{
+		return this.bitmap;
+	}
+
 	/** {@inheritDoc} */
 	@Override
 	public void readFields(DataInput in) throws IOException 
@@ -139,7 +153,9 @@ public class EFLexiconEntry extends LexiconEntry implements BitIndexPointer
 		this.n_t         = in.readInt();
 		this.maxtf		 = in.readInt();
 		this.docidOffset = in.readLong();
-		this.freqOffset  = in.readLong();
+		final long freqOffset = in.readLong();
+		this.freqOffset  = freqOffset & ~BITMAP_FLAG;
+		this.bitmap      = (freqOffset & BITMAP_FLAG) != 0;
 	}
 	
 	/** {@inheritDoc} */
@@ -151,14 +167,14 @@ public class EFLexiconEntry extends LexiconEntry implements BitIndexPointer
 		out.writeInt (n_t);
 		out.writeInt (maxtf);
 		out.writeLong(docidOffset);
-		out.writeLong(freqOffset);
+		out.writeLong(bitmap ? freqOffset | BITMAP_FLAG : freqOffset);
 	}
 
 	/** {@inheritDoc} */
 	@Override
 	public String toString()
 	{
-		return "term "+ termId + " Nt = " + n_t + " TF = " + TF  + "max tf = " + maxtf + " [docid @ " + this.docidOffset + " freq @ " + this.freqOffset + "]";
+		return "term "+ termId + " Nt = " + n_t + " TF = " + TF  + "max tf = " + maxtf + " [docid @ " + this.docidOffset + " freq @ " + this.freqOffset + "]" + (bitmap ? " bitmap" : "");
 	}
 
 	/** {@inheritDoc} */
@@ -0,0 +1,220 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.structures;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.Map;
+
+import org.terrier.structures.Lexicon;
+import org.terrier.structures.LexiconEntry;
+
+import it.cnr.isti.hpclab.ef.util.LongStorage;
+import it.cnr.isti.hpclab.ef.util.LongWordBitWriter;
+import it.cnr.isti.hpclab.ef.util.PrefixSumReader;
+import it.cnr.isti.hpclab.ef.util.SequenceEncoder;
+import it.cnr.isti.hpclab.ef.util.Utils;
+import it.unimi.dsi.fastutil.longs.LongBigList;
+
+/**
+ * The entries of a lexicon, by term id, encoded with Elias-Fano.
+ * <p>
+ * Every field of the entries is a sequence encoded by a {@link SequenceEncoder} and read by a {@link PrefixSumReader}: 
+ * the docid, frequency and position offsets, which are monotone in the term id, are stored directly, while the document frequencies, 
+ * the frequencies, the maximum in-document frequencies and the sums of the maximum positions are stored as prefix sums, 
+ * i.e., with about 2 plus the logarithm of their average bits per entry. The bitmap flags are stored one bit per entry.
+ * <p>
+ * The file starts with the number of entries, whether the entries have positions, the logarithm of the quantum, the number of fields 
+ * and, for every field, the sum of its elements and its bit position, followed by the bit position of the bitmap flags.
+ */
+public class EFLexiconValueStore 
+{
+	/** The logarithm of the quantum of the forward pointers, i.e., the maximum number of ones scanned by an access. */
+	public static final int LOG2_QUANTUM = 6;
+	
+	private static final int DEFAULT_CACHE_SIZE = 64 * 1024 * 1024;
+	
+	private static final int DOCID_OFFSET = 0;
+	private static final int FREQ_OFFSET  = 1;
+	private static final int N_T          = 2;
+	private static final int TF           = 3;
+	private static final int MAX_TF       = 4;
+	private static final int POS_OFFSET   = 5;
+	private static final int SUMS_MAX_POS = 6;
+	
+	/** The number of fields of the entries without, and with, positions. */
+	private static final int FIELDS = 5, BLOCK_FIELDS = 7;
+	/** Whether a field is monotone, and stored directly, or stored as prefix sums. */
+	private static final boolean[] MONOTONE = { true, true, false, false, false, true, false };
+	
+	/** The list containing the entries. */
+	private final LongBigList list;
+	/** The number of entries. */
+	private final int numEntries;
+	/** True if the entries have positions. */
+	private final boolean blocks;
+	/** The readers of the fields. */
+	private final PrefixSumReader[] fields;
+	/** The bit position of the bitmap flags. */
+	private final long bitmapStart;
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param path the path of the file of the entries
+	 * @param byteOrder the byte order of the file
+	 * @throws IOException if something goes wrong in mapping the file
+	 */
+	public EFLexiconValueStore(final String path, final ByteOrder byteOrder) throws IOException
+	{
+		list = LongStorage.map(path, byteOrder);
+		numEntries = (int) list.getLong(0);
+		blocks = list.getLong(1) != 0;
+		final int log2Quantum = (int) list.getLong(2);
+		fields = new PrefixSumReader[(int) list.getLong(3)];
+		for (int f = 0; f < fields.length; f++)
+			fields[f] = new PrefixSumReader(list, list.getLong(5 + 2 * f), numEntries, list.getLong(4 + 2 * f), log2Quantum);
+		bitmapStart = list.getLong(4 + 2 * fields.length);
+	}
+	
+	/**
+	 * Return the number of entries.
+	 * @return the number of entries
+	 */
+	public int size()
+	{
+		return numEntries;
+	}
+	
+	private long get(final int field, final int termId)
+	{
+		return MONOTONE[field] ? fields[field].getPrefixSum(termId) : fields[field].getLong(termId);
+	}
+	
+	/**
+	 * Return the entry of a term id.
+	 * 
+	 * @param termId the term id
+	 * @return the entry of the term id
+	 */
+	public EFLexiconEntry get(final int termId)
+	{
+		final EFLexiconEntry le = blocks 
+				? new EFBlockLexiconEntry(termId, (int) get(N_T, termId), (int) get(TF, termId), (int) get(MAX_TF, termId), get(DOCID_OFFSET, termId), get(FREQ_OFFSET, termId), get(POS_OFFSET, termId), get(SUMS_MAX_POS, termId))
+				: new EFLexiconEntry(termId, (int) get(N_T, termId), (int) get(TF, termId), (int) get(MAX_TF, termId), get(DOCID_OFFSET, termId), get(FREQ_OFFSET, termId));
+		final long position = bitmapStart + termId;
+		le.bitmap = (list.getLong(position / Long.SIZE) & 1L << position) != 0;
+		return le;
+	}
+	
+	/**
+	 * Unmap the entries.
+	 */
+	public void close()
+	{
+		LongStorage.unmap(list);
+	}
+	
+	private static void fields(final EFLexiconEntry le, final long[] values)
+	{
+		values[DOCID_OFFSET] = le.getDocidOffset();
+		values[FREQ_OFFSET] = le.getFreqOffset();
+		values[N_T] = le.getDocumentFrequency();
+		values[TF] = le.getFrequency();
+		values[MAX_TF] = le.getMaxFrequencyInDocuments();
+		if (values.length > POS_OFFSET) {
+			values[POS_OFFSET] = ((EFBlockLexiconEntry) le).getPosOffset();
+			values[SUMS_MAX_POS] = ((EFBlockLexiconEntry) le).getSumsMaxPos();
+		}
+	}
+	
+	/**
+	 * Write the entries of a lexicon, whose term ids must be aligned. The lexicon is scanned twice.
+	 * 
+	 * @param lexicon the lexicon
+	 * @param blocks true if the entries have positions
+	 * @param path the path of the file of the entries
+	 * @param byteOrder the byte order of the file, i.e., the one of the index
+	 * @throws IOException if something goes wrong while reading the lexicon or writing the entries
+	 * @throws IllegalStateException if the term ids are not aligned, or the offsets are not monotone
+	 */
+	@SuppressWarnings("resource")
+	public static void write(final Lexicon<String> lexicon, final boolean blocks, final String path, final ByteOrder byteOrder) throws IOException
+	{
+		final int n = lexicon.numberOfEntries();
+		final long[] values = new long[blocks ? BLOCK_FIELDS : FIELDS];
+		
+		// the sum of every field, i.e., the last offset or the sum of the statistics
+		final long[] sums = new long[values.length];
+		int termId = 0;
+		for (Map.Entry<String, LexiconEntry> e : lexicon) {
+			if (e.getValue().getTermId() != termId++)
+				throw new IllegalStateException("Term ids of the lexicon are not aligned at term " + e.getKey());
+			fields((EFLexiconEntry) e.getValue(), values);
+			for (int f = 0; f < values.length; f++) {
+				if (MONOTONE[f] && values[f] < sums[f])
+					throw new IllegalStateException("Offsets of the lexicon are not monotone at term " + e.getKey());
+				sums[f] = MONOTONE[f] ? values[f] : sums[f] + values[f];
+			}
+		}
+		
+		final SequenceEncoder[] encoders = new SequenceEncoder[values.length];
+		for (int f = 0; f < values.length; f++) {
+			encoders[f] = new SequenceEncoder(DEFAULT_CACHE_SIZE, LOG2_QUANTUM);
+			encoders[f].init(n, sums[f], false, false, LOG2_QUANTUM);
+		}
+		final long[] bitmap = new long[(n + Long.SIZE - 1) / Long.SIZE];
+		final long[] last = new long[values.length];
+		termId = 0;
+		for (Map.Entry<String, LexiconEntry> e : lexicon) {
+			final EFLexiconEntry le = (EFLexiconEntry) e.getValue();
+			fields(le, values);
+			for (int f = 0; f < values.length; f++) {
+				encoders[f].add(MONOTONE[f] ? values[f] - last[f] : values[f]);
+				last[f] = values[f];
+			}
+			if (le.isBitmap())
+				bitmap[termId / Long.SIZE] |= 1L << termId;
+			termId++;
+		}
+		
+		final LongWordBitWriter out = new LongWordBitWriter(new FileOutputStream(path).getChannel(), byteOrder);
+		out.append(n, Long.SIZE);
+		out.append(blocks ? 1 : 0, Long.SIZE);
+		out.append(LOG2_QUANTUM, Long.SIZE);
+		out.append(values.length, Long.SIZE);
+		long position = (5 + 2 * values.length) * Long.SIZE;
+		for (int f = 0; f < values.length; f++) {
+			out.append(sums[f], Long.SIZE);
+			out.append(position, Long.SIZE);
+			position += Utils.sequenceBits(n, sums[f], LOG2_QUANTUM);
+		}
+		out.append(position, Long.SIZE);
+		for (int f = 0; f < values.length; f++) {
+			if (encoders[f].dump(out) != Utils.sequenceBits(n, sums[f], LOG2_QUANTUM))
+				throw new IllegalStateException();
+			encoders[f].close();
+		}
+		for (long word : bitmap)
+			out.append(word, Long.SIZE);
+		out.close();
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.structures;
+
+import it.cnr.isti.hpclab.ef.EliasFano;
+import it.cnr.isti.hpclab.ef.util.IndexUtil;
+import it.cnr.isti.hpclab.ef.util.LongStorage;
+import it.cnr.isti.hpclab.ef.util.LongWordBitWriter;
+import it.unimi.dsi.fastutil.longs.LongBigList;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+
+import org.terrier.structures.DocumentIndex;
+import org.terrier.structures.DocumentIndexEntry;
+import org.terrier.structures.IndexOnDisk;
+
+/**
+ * Memory-mapped implementation of the document index, storing document lengths only.
+ * Lengths are stored in the <code>.lengths</code> file with a fixed bit width, so that they are accessed in constant time
+ * without decoding anything at construction time, and without using the heap.
+ * The file starts with three longs, i.e., the bit width, the minimum and the maximum document length, followed by the bit-packed lengths.
+ * This document index is automatically generated by the Elias-Fano index conversion processes, and it is used instead of {@link EFDocumentIndex}
+ * if the index property <code>index.document.class</code> is set to this class.
+ */
+public class EFMappedDocumentIndex implements DocumentIndex, Closeable
+{
+	private static final int HEADER_SIZE = 3 * Long.SIZE;
+	
+	private final LongBigList lengths;
+	private final int numDocs;
+	private final int width;
+	private final long mask;
+	private final int minDocLength;
+	private final int maxDocLength;
+	
+	/**
+	 * Constructor.
+	 * @param index the Elias-Fano index containing the document index
+	 * @throws IOException is something goes wrong in opening/accessing/closing the document index file
+	 */
+	public EFMappedDocumentIndex(final IndexOnDisk index) throws IOException
+	{
+		this(index.getPath() + File.separator + index.getPrefix() + EliasFano.LENGTHS_EXTENSION, index.getCollectionStatistics().getNumberOfDocuments(),
+			 IndexUtil.byteOrder(index));
+	}
+	
+	/**
+	 * Constructor.
+	 * @param path the file path of the Elias-Fano index containing the document index
+	 * @param size the number of documents
+	 * @param byteOrder the byte order of the document index file
+	 * @throws IOException is something goes wrong in opening/accessing/closing the document index file
+	 */
+	public EFMappedDocumentIndex(final String path, final int size, final ByteOrder byteOrder) throws IOException
+	{
+		lengths = LongStorage.map( path, byteOrder );
+		numDocs = size;
+		width = (int) lengths.getLong(0);
+		mask = (1L << width) - 1;
+		minDocLength = (int) lengths.getLong(1);
+		maxDocLength = (int) lengths.getLong(2);
+	}
+	
+	@Override
+	public DocumentIndexEntry getDocumentEntry(final int docid) throws IOException 
+	{
+		throw new RuntimeException("Should not be invoked");
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getDocumentLength(final int docid) throws IOException 
+	{
+		// no state is kept, as the document index is shared among threads
+		final long position = HEADER_SIZE + (long) docid * width;
+		final int bitPosition = (int) (position % Long.SIZE);
+		final long word = position / Long.SIZE;
+		long result = lengths.getLong(word) >>> bitPosition;
+		if (bitPosition + width > Long.SIZE)
+			result |= lengths.getLong(word + 1) << -bitPosition;
+		return (int) (result & mask);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getNumberOfDocuments() 
+	{
+		return numDocs;
+	}
+	
+	/**
+	 * Return the length of the shortest document in the index.
+	 * @return the minimum document length
+	 */
+	public int getMinimumDocumentLength()
+	{
+		return minDocLength;
+	}
+
+	/**
+	 * Return the length of the longest document in the index.
+	 * @return the maximum document length
+	 */
+	public int getMaximumDocumentLength()
+	{
+		return maxDocLength;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close()
+	{
+		LongStorage.unmap(lengths);
+	}
+
+	/**
+	 * Static method to store the document lengths of a document index in a fixed-width, bit-packed file.
+	 * @param index the document index containing the lengths to write
+	 * @param path the destination file
+	 * @throws IOException is something goes wrong in opening/accessing/closing the document index file 
+	 */
+	@SuppressWarnings("resource")
+	public static void write(final DocumentIndex index, final String path) throws IOException
+	{
+		int min = index.getNumberOfDocuments() == 0 ? 0 : Integer.MAX_VALUE, max = 0;
+		for (int i = 0; i < index.getNumberOfDocuments(); i++) {
+			final int length = index.getDocumentLength(i);
+			min = Math.min(min, length);
+			max = Math.max(max, length);
+		}
+		final int width = Math.max(1, Integer.SIZE - Integer.numberOfLeadingZeros(max));
+		
+		final LongWordBitWriter out = new LongWordBitWriter(new FileOutputStream(path).getChannel(), ByteOrder.nativeOrder());
+		out.append(width, Long.SIZE);
+		out.append(min, Long.SIZE);
+		out.append(max, Long.SIZE);
+		for (int i = 0; i < index.getNumberOfDocuments(); i++)
+			out.append(index.getDocumentLength(i), width);
+		out.close();
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.structures;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.terrier.structures.IndexOnDisk;
+
+/**
+ * Phrase operator: a match is an occurrence of all the terms at consecutive positions, in query order.
+ * Every position of the first term starting the phrase is a match, so the matches of a phrase with repeated terms may overlap.
+ */
+public class EFPhraseIterablePosting extends EFANDIterablePosting
+{
+	/** The index of the next position to check, for every term. */
+	private final int[] next;
+	
+	/**
+	 * Constructor.
+	 * @param postings the term cursors, in phrase order, not yet advanced 
+	 */
+	public EFPhraseIterablePosting(final EFBlockIterablePosting[] postings)
+	{
+		super(postings);
+		this.next = new int[postings.length];
+	}
+	
+	/**
+	 * Create a phrase operator over the given terms.
+	 * @param index the index, with positions
+	 * @param terms the terms of the phrase
+	 * @return the phrase operator, or null if a term is not in the lexicon
+	 * @throws IOException if something goes wrong
+	 */
+	public static EFPhraseIterablePosting create(final IndexOnDisk index, final String... terms) throws IOException
+	{
+		EFBlockIterablePosting[] postings = postings(index, terms);
+		return (postings == null) ? null : new EFPhraseIterablePosting(postings);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected int countMatches() 
+	{
+		final int[] first = positions[0];
+		Arrays.fill(next, 0);
+		int matches = 0;
+	outer:
+		for (int j = 0; j < counts[0]; j++) {
+			final int start = first[j];
+			for (int i = 1; i < postings.length; i++) {
+				final int[] p = positions[i];
+				while (next[i] < counts[i] && p[next[i]] < start + i)
+					next[i]++;
+				if (next[i] == counts[i])
+					break outer;
+				if (p[next[i]] != start + i)
+					continue outer;
+			}
+			matches++;
+		}
+		return matches;
+	}
+}
@@ -0,0 +1,345 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.structures;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+import java.util.ArrayList;
+
+/**
+ * A cache of fully decoded posting lists, i.e., docids and frequencies stored in primitive arrays, bounded by a budget in bytes.
+ * Lists are identified by a key, e.g., their docid offset, and admitted and evicted according to their access frequency:
+ * the accesses are counted, approximately, in a count-min sketch of 4-bit counters halved periodically (TinyLFU),
+ * a list is decoded and admitted only when it has been requested at least a given number of times, and,
+ * when the budget is exhausted, it replaces the victims chosen by a CLOCK policy only if it is more frequent than them.
+ * Lists less frequent than the first victim are rejected before being decoded.
+ * The cache is thread safe.
+ */
+public class EFPostingCache 
+{
+	/** The estimated size, in bytes, of the entry of a list besides its arrays. */
+	public static final int ENTRY_OVERHEAD = 64;
+	/** The maximum number of references of a cached list, i.e., the number of CLOCK sweeps it survives without being requested. */
+	private static final int MAX_REFERENCES = 3;
+	/** The number of rows of the frequency sketch. */
+	private static final int SKETCH_DEPTH = 4;
+	/** The hash seeds of the rows of the frequency sketch. */
+	private static final long[] SEEDS = { 0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L };
+	
+	/**
+	 * A decoded posting list.
+	 */
+	public static final class Entry
+	{
+		/** The docids of the list. */
+		public final int[] docids;
+		/** The frequencies of the list. */
+		public final int[] freqs;
+		
+		private final long key;
+		private int references;
+		private int slot;
+		
+		private Entry(final long key, final int[] docids, final int[] freqs)
+		{
+			this.key = key;
+			this.docids = docids;
+			this.freqs = freqs;
+		}
+	}
+	
+	private final long budget;
+	private final int minFrequency;
+	
+	private final Long2ObjectOpenHashMap<Entry> entries = new Long2ObjectOpenHashMap<Entry>();
+	private final ArrayList<Entry> clock = new ArrayList<Entry>();
+	private int hand = 0;
+	private long usedBytes = 0;
+	
+	private final byte[][] sketch;
+	private final int sketchMask;
+	private final int sampleSize;
+	private int samples = 0;
+	
+	private long hits = 0;
+	private long misses = 0;
+	private long admissions = 0;
+	private long rejections = 0;
+	private long evictions = 0;
+	
+	/**
+	 * Create a cache admitting the lists requested at least twice.
+	 * 
+	 * @param budget the maximum number of bytes used by the cached lists
+	 */
+	public EFPostingCache(final long budget)
+	{
+		this(budget, 2);
+	}
+	
+	/**
+	 * Create a cache.
+	 * 
+	 * @param budget the maximum number of bytes used by the cached lists
+	 * @param minFrequency the minimum number of requests, counted by the sketch, before a list is admitted
+	 */
+	public EFPostingCache(final long budget, final int minFrequency)
+	{
+		if (budget <= 0)
+			throw new IllegalArgumentException("The budget of the posting cache must be positive");
+		if (minFrequency < 1 || minFrequency > 15)
+			throw new IllegalArgumentException("The minimum frequency of the posting cache must be between 1 and 15");
+		this.budget = budget;
+		this.minFrequency = minFrequency;
+		
+		// about one counter per 256 bytes of budget, i.e., several counters per cached list
+		final int width = Integer.highestOneBit((int) Math.max(1 << 10, Math.min(1 << 18, budget >>> 8)));
+		this.sketch = new byte[SKETCH_DEPTH][width];
+		this.sketchMask = width - 1;
+		this.sampleSize = 10 * width;
+	}
+	
+	/**
+	 * Return the number of bytes occupied by a cached list of given length.
+	 * 
+	 * @param length the number of postings in the list
+	 * @return the number of bytes occupied by a cached list of given length
+	 */
+	public static long bytes(final int length)
+	{
+		return 2L * Integer.BYTES * length + ENTRY_OVERHEAD;
+	}
+	
+	/**
+	 * Return the cached list with the given key, if any, and record the request.
+	 * 
+	 * @param key the key of the list
+	 * @return the cached list, or null if not cached
+	 */
+	public synchronized Entry get(final long key)
+	{
+		increment(key);
+		final Entry entry = entries.get(key);
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		if (entry.references < MAX_REFERENCES)
+			entry.references++;
+		return entry;
+	}
+	
+	/**
+	 * Return true if a list not in cache is requested often enough to be decoded and offered to the cache with {@link #put(long, int[], int[])}.
+	 * If the budget is exhausted, the list is compared with the first victim chosen by the CLOCK policy, as in {@link #put(long, int[], int[])},
+	 * and rejected, without being decoded, if it is not more frequent than it.
+	 * 
+	 * @param key the key of the list
+	 * @param length the number of postings in the list
+	 * @return true if the list should be decoded and offered to the cache
+	 */
+	public synchronized boolean shouldAdmit(final long key, final int length)
+	{
+		final long size = bytes(length);
+		if (size > budget)
+			return false;
+		final int frequency = frequency(key);
+		if (frequency < minFrequency)
+			return false;
+		if (usedBytes + size > budget && frequency(victim().key) >= frequency) {
+			rejections++;
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Offer a decoded list to the cache. If the budget is exhausted, the victims chosen by the CLOCK policy are evicted
+	 * as long as they are less frequent than the offered list, otherwise the list is rejected.
+	 * 
+	 * @param key the key of the list
+	 * @param docids the docids of the list
+	 * @param freqs the frequencies of the list
+	 * @return true if the list has been cached, false otherwise
+	 */
+	public synchronized boolean put(final long key, final int[] docids, final int[] freqs)
+	{
+		if (entries.containsKey(key))
+			return true;
+		
+		final long size = bytes(docids.length);
+		if (size > budget) {
+			rejections++;
+			return false;
+		}
+		
+		final int frequency = frequency(key);
+		while (usedBytes + size > budget) {
+			final Entry victim = victim();
+			if (frequency(victim.key) >= frequency) {
+				rejections++;
+				return false;
+			}
+			remove(victim);
+			evictions++;
+		}
+		
+		final Entry entry = new Entry(key, docids, freqs);
+		entry.slot = clock.size();
+		clock.add(entry);
+		entries.put(key, entry);
+		usedBytes += size;
+		admissions++;
+		return true;
+	}
+	
+	/**
+	 * Remove all the cached lists, keeping the frequency sketch and the statistics.
+	 */
+	public synchronized void clear()
+	{
+		entries.clear();
+		clock.clear();
+		hand = 0;
+		usedBytes = 0;
+	}
+	
+	/** Return the number of requests served by the cache. */
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+	/** Return the number of requests not served by the cache. */
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+	
+	/** Return the fraction of requests served by the cache, 0 if no request has been made. */
+	public synchronized double getHitRatio()
+	{
+		final long requests = hits + misses;
+		return (requests == 0) ? 0.0 : (double) hits / requests;
+	}
+
+	/** Return the number of lists admitted in the cache. */
+	public synchronized long getAdmissions()
+	{
+		return admissions;
+	}
+
+	/** Return the number of lists offered to the cache and rejected. */
+	public synchronized long getRejections()
+	{
+		return rejections;
+	}
+
+	/** Return the number of lists evicted from the cache. */
+	public synchronized long getEvictions()
+	{
+		return evictions;
+	}
+	
+	/** Return the number of cached lists. */
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+	/** Return the number of bytes occupied by the cached lists. */
+	public synchronized long getUsedBytes()
+	{
+		return usedBytes;
+	}
+
+	/** Return the maximum number of bytes occupied by the cached lists. */
+	public long getBudget()
+	{
+		return budget;
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public synchronized String toString()
+	{
+		return String.format("lists=%d bytes=%d/%d hits=%d misses=%d hitRatio=%.4f admissions=%d rejections=%d evictions=%d", 
+				entries.size(), usedBytes, budget, hits, misses, getHitRatio(), admissions, rejections, evictions);
+	}
+	
+	/** Advance the CLOCK hand up to the first list not referenced since the last sweep, clearing one reference from every list passed. */
+	private Entry victim()
+	{
+		while (true) {
+			if (hand >= clock.size())
+				hand = 0;
+			final Entry entry = clock.get(hand);
+			if (entry.references == 0)
+				return entry;
+			entry.references--;
+			hand++;
+		}
+	}
+	
+	private void remove(final Entry entry)
+	{
+		final Entry last = clock.remove(clock.size() - 1);
+		if (last != entry) {
+			last.slot = entry.slot;
+			clock.set(entry.slot, last);
+		}
+		entries.remove(entry.key);
+		usedBytes -= bytes(entry.docids.length);
+	}
+	
+	private void increment(final long key)
+	{
+		for (int i = 0; i < SKETCH_DEPTH; i++) {
+			final int j = index(key, i);
+			if (sketch[i][j] < 15)
+				sketch[i][j]++;
+		}
+		if (++samples == sampleSize) {
+			// halve all the counters, so that the sketch follows the recent history of requests
+			for (byte[] row : sketch)
+				for (int j = 0; j < row.length; j++)
+					row[j] >>>= 1;
+			samples /= 2;
+		}
+	}
+	
+	private int frequency(final long key)
+	{
+		int min = Integer.MAX_VALUE;
+		for (int i = 0; i < SKETCH_DEPTH; i++)
+			min = Math.min(min, sketch[i][index(key, i)]);
+		return min;
+	}
+	
+	private int index(final long key, final int row)
+	{
+		long h = (key + SEEDS[row]) * SEEDS[(row + 1) % SKETCH_DEPTH];
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		return (int) h & sketchMask;
+	}
+}
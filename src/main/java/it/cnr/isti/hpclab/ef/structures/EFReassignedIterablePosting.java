@@ -0,0 +1,356 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.structures;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.terrier.structures.postings.BasicPostingImpl;
+import org.terrier.structures.postings.BlockPosting;
+import org.terrier.structures.postings.BlockPostingImpl;
+import org.terrier.structures.postings.IterablePosting;
+import org.terrier.structures.postings.WritablePosting;
+
+import it.cnr.isti.hpclab.ef.EliasFano;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+/**
+ * An iterable posting over a posting list whose docids are reassigned by a permutation, as used when recompressing an index with a new docid order.
+ * The source posting list is read, and closed, when this object is created: its docids are mapped, and its postings, with their frequencies,
+ * document lengths and, if any, positions, are sorted by new docid.
+ * <p>
+ * At most a given number of postings, by default {@link #DEFAULT_BUFFER_POSTINGS}, are sorted in memory. Longer posting lists are sorted in runs 
+ * of that many postings, written to temporary files, which are merged while iterating and deleted when this object is closed.
+ */
+public class EFReassignedIterablePosting implements IterablePosting, BlockPosting
+{
+	/** The maximum number of postings sorted in memory, from the {@link EliasFano#REORDER_BUFFER_POSTINGS} system property. */
+	public static final int DEFAULT_BUFFER_POSTINGS = Integer.parseInt(System.getProperty(EliasFano.REORDER_BUFFER_POSTINGS, Integer.toString(1 << 22)));
+	
+	private final boolean with_pos;
+	/** The new docid in the high bits, and the index in the source list in the low bits, of the buffered postings, sorted by new docid. */
+	private final long[] order;
+	private final int[] freqs;
+	private final int[] lengths;
+	/** The positions of buffered posting j are positions[pos_offsets[j]] ... positions[pos_offsets[j + 1] - 1]. */
+	private final IntArrayList positions;
+	private final int[] pos_offsets;
+	/** The sorted runs of a spilled posting list, by docid of their current posting, or null if the list is buffered. */
+	private final PriorityQueue<Run> runs;
+	private final List<Run> all_runs;
+	private final int size;
+	/** The index of the current posting. */
+	private int current = -1;
+	
+	private int id = -1;
+	private int freq;
+	private int length;
+	private int[] pos;
+	
+	/**
+	 * Create an iterable posting over a posting list with reassigned docids, sorting at most {@link #DEFAULT_BUFFER_POSTINGS} postings in memory.
+	 * 
+	 * @param p the source posting list, positioned before its first posting
+	 * @param df the number of postings of the source posting list
+	 * @param map the new docid of every source docid
+	 * @throws IOException if something goes wrong while reading the source posting list
+	 */
+	public EFReassignedIterablePosting(final IterablePosting p, final int df, final int[] map) throws IOException
+	{
+		this(p, df, map, DEFAULT_BUFFER_POSTINGS);
+	}
+	
+	/**
+	 * Create an iterable posting over a posting list with reassigned docids.
+	 * 
+	 * @param p the source posting list, positioned before its first posting
+	 * @param df the number of postings of the source posting list
+	 * @param map the new docid of every source docid
+	 * @param buffer_postings the maximum number of postings sorted in memory
+	 * @throws IOException if something goes wrong while reading the source posting list or writing the sorted runs
+	 */
+	public EFReassignedIterablePosting(final IterablePosting p, final int df, final int[] map, final int buffer_postings) throws IOException
+	{
+		if (buffer_postings < 1)
+			throw new IllegalArgumentException("At least one posting must be buffered");
+		this.with_pos = p instanceof BlockPosting;
+		final int capacity = Math.min(df, buffer_postings);
+		this.order = new long[capacity];
+		this.freqs = new int[capacity];
+		this.lengths = new int[capacity];
+		this.positions = with_pos ? new IntArrayList() : null;
+		this.pos_offsets = with_pos ? new int[capacity + 1] : null;
+		this.all_runs = new ArrayList<>();
+		
+		int total = 0, n = 0;
+		try {
+			while (p.next() != END_OF_LIST) {
+				if (total++ == df)
+					throw new IllegalStateException("Posting list longer than its document frequency " + df);
+				if (n == capacity || (with_pos && positions.size() > Integer.MAX_VALUE - 8 - p.getFrequency())) {
+					spill(n);
+					n = 0;
+				}
+				order[n] = ((long) map[p.getId()] << 32) | n;
+				freqs[n] = p.getFrequency();
+				lengths[n] = p.getDocumentLength();
+				if (with_pos) {
+					positions.addElements(positions.size(), ((BlockPosting) p).getPositions());
+					pos_offsets[n + 1] = positions.size();
+				}
+				n++;
+			}
+			if (!all_runs.isEmpty() && n > 0) {
+				spill(n);
+				n = 0;
+			}
+		} catch (IOException | RuntimeException e) {
+			close();
+			throw e;
+		} finally {
+			p.close();
+		}
+		
+		this.size = total;
+		if (all_runs.isEmpty()) {
+			Arrays.sort(order, 0, n);
+			this.runs = null;
+		} else {
+			this.runs = new PriorityQueue<>(all_runs.size(), (a, b) -> Integer.compare(a.id, b.id));
+			for (Run run : all_runs)
+				if (run.advance())
+					runs.add(run);
+		}
+	}
+	
+	/**
+	 * Sort the buffered postings by new docid, write them to a new run and clear the buffer.
+	 */
+	private void spill(final int n) throws IOException
+	{
+		Arrays.sort(order, 0, n);
+		final Run run = new Run(File.createTempFile(EFReassignedIterablePosting.class.getName(), ".run"), with_pos);
+		all_runs.add(run);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run.file)))) {
+			for (int i = 0; i < n; i++) {
+				final int j = (int) order[i];
+				out.writeInt((int) (order[i] >>> 32));
+				out.writeInt(freqs[j]);
+				out.writeInt(lengths[j]);
+				if (with_pos) {
+					out.writeInt(pos_offsets[j + 1] - pos_offsets[j]);
+					for (int k = pos_offsets[j]; k < pos_offsets[j + 1]; k++)
+						out.writeInt(positions.getInt(k));
+				}
+			}
+		}
+		run.open(n);
+		if (with_pos)
+			positions.clear();
+	}
+	
+	/**
+	 * Make the i-th posting the current one.
+	 */
+	private int load(final int i) throws IOException
+	{
+		current = i;
+		if (current >= size)
+			return id = END_OF_LIST;
+		if (runs == null) {
+			final int j = (int) order[current];
+			id = (int) (order[current] >>> 32);
+			freq = freqs[j];
+			length = lengths[j];
+			pos = null;
+		} else {
+			final Run run = runs.poll();
+			id = run.id;
+			freq = run.freq;
+			length = run.length;
+			pos = run.positions;
+			if (run.advance())
+				runs.add(run);
+		}
+		return id;
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public int next() throws IOException 
+	{
+		if (current >= size)
+			return END_OF_LIST;
+		return load(current + 1);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int next(final int targetId) throws IOException 
+	{
+		if (current >= 0 && current < size && id >= targetId)
+			return id;
+		if (runs == null) {
+			final int i = Arrays.binarySearch(order, Math.max(current, 0), size, (long) targetId << 32);
+			return load(i < 0 ? -i - 1 : i);
+		}
+		while (next() != END_OF_LIST && id < targetId)
+			;
+		return getId();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean endOfPostings() 
+	{
+		return current >= size;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getId() 
+	{
+		return current < size ? id : END_OF_LIST;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getFrequency() 
+	{
+		return freq;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getDocumentLength() 
+	{
+		return length;
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public int[] getPositions() 
+	{
+		if (!with_pos)
+			throw new UnsupportedOperationException("The source posting list has no positions");
+		if (pos == null) {
+			final int j = (int) order[current];
+			pos = new int[pos_offsets[j + 1] - pos_offsets[j]];
+			positions.getElements(pos_offsets[j], pos, 0, pos.length);
+		}
+		return pos;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setId(final int id) 
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public WritablePosting asWritablePosting() 
+	{
+		return (!with_pos) ? new BasicPostingImpl(getId(), getFrequency()) : new BlockPostingImpl(getId(), getFrequency(), getPositions());
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close() throws IOException 
+	{
+		for (Run run : all_runs)
+			run.close();
+		all_runs.clear();
+		if (runs != null)
+			runs.clear();
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public String toString()
+	{
+		return "(" + getId() + "," + getFrequency() + ")";
+	}
+	
+	/**
+	 * A run of postings sorted by docid, in a temporary file, and its current posting.
+	 */
+	private static final class Run implements Closeable
+	{
+		private final File file;
+		private final boolean with_pos;
+		private DataInputStream in;
+		private int remaining;
+		
+		private int id, freq, length;
+		private int[] positions;
+		
+		Run(final File file, final boolean with_pos)
+		{
+			this.file = file;
+			this.with_pos = with_pos;
+		}
+		
+		void open(final int size) throws IOException
+		{
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			this.remaining = size;
+		}
+		
+		/**
+		 * Read the next posting of this run, if any.
+		 */
+		boolean advance() throws IOException
+		{
+			if (remaining == 0)
+				return false;
+			remaining--;
+			id = in.readInt();
+			freq = in.readInt();
+			length = in.readInt();
+			if (with_pos) {
+				positions = new int[in.readInt()];
+				for (int k = 0; k < positions.length; k++)
+					positions[k] = in.readInt();
+			}
+			return true;
+		}
+		
+		@Override
+		public void close() throws IOException
+		{
+			if (in != null)
+				in.close();
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.structures;
+
+import java.io.IOException;
+
+import org.terrier.structures.postings.BasicPostingImpl;
+import org.terrier.structures.postings.IterablePosting;
+import org.terrier.structures.postings.WritablePosting;
+
+/**
+ * An iterable posting over the posting lists of a term in several segments, i.e., indexes of consecutive ranges of documents.
+ * The docids of every segment are rebased by the number of documents in the previous segments, so the union of the posting lists
+ * is their concatenation, and skips move directly to the segment containing the target docid.
+ */
+public class EFSegmentedIterablePosting implements IterablePosting
+{
+	private final IterablePosting[] postings;
+	private final int[] offsets;
+	/** The current segment. */
+	private int segment = -1;
+	private int currentDocument = -1;
+	
+	/**
+	 * Create an iterable posting over the posting lists of a term in several segments.
+	 * 
+	 * @param postings the posting lists of the segments, null if the term does not appear in a segment
+	 * @param offsets the first docid of every segment, followed by the total number of documents
+	 */
+	public EFSegmentedIterablePosting(final IterablePosting[] postings, final int[] offsets)
+	{
+		if (offsets.length != postings.length + 1)
+			throw new IllegalArgumentException("Expected " + (postings.length + 1) + " offsets, found " + offsets.length);
+		this.postings = postings;
+		this.offsets = offsets;
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public int next() throws IOException 
+	{
+		if (currentDocument == END_OF_LIST)
+			return END_OF_LIST;
+		
+		if (segment >= 0 && postings[segment].next() != END_OF_LIST)
+			return currentDocument = offsets[segment] + postings[segment].getId();
+		return nextSegment();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int next(final int targetId) throws IOException 
+	{
+		if (currentDocument >= targetId)
+			return currentDocument;
+		if (targetId >= offsets[postings.length])
+			return currentDocument = END_OF_LIST;
+		
+		// move to the segment containing the target, if its posting list has not been exhausted
+		while (segment < postings.length - 1 && offsets[segment + 1] <= targetId)
+			segment++;
+		if (postings[segment] != null && postings[segment].next(targetId - offsets[segment]) != END_OF_LIST)
+			return currentDocument = offsets[segment] + postings[segment].getId();
+		return nextSegment();
+	}
+	
+	/**
+	 * Move to the first posting of the following segments.
+	 */
+	private int nextSegment() throws IOException
+	{
+		while (++segment < postings.length)
+			if (postings[segment] != null && postings[segment].next() != END_OF_LIST)
+				return currentDocument = offsets[segment] + postings[segment].getId();
+		segment = postings.length - 1;
+		return currentDocument = END_OF_LIST;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean endOfPostings() 
+	{
+		return currentDocument == END_OF_LIST;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getId() 
+	{
+		return currentDocument;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getFrequency() 
+	{
+		return postings[segment].getFrequency();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getDocumentLength() 
+	{
+		return postings[segment].getDocumentLength();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void setId(final int id) 
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public WritablePosting asWritablePosting() 
+	{
+		return new BasicPostingImpl(currentDocument, getFrequency());
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close() throws IOException 
+	{
+		for (IterablePosting p : postings)
+			if (p != null)
+				p.close();
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public String toString()
+	{
+		return "(" + currentDocument + "," + getFrequency() + ")";
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.structures;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.terrier.structures.IndexOnDisk;
+
+/**
+ * Proximity operator: a match is an occurrence of all the terms within a window of at most <code>window</code> consecutive positions.
+ * In an ordered window the terms must occur in query order, at increasing positions, otherwise in any order.
+ * Matches are counted from left to right, taking every time the window ending first, and do not overlap.
+ * Different terms are assumed to never share a position, i.e., one term per block.
+ */
+public class EFWindowIterablePosting extends EFANDIterablePosting
+{
+	/** The maximum number of positions spanned by a match. */
+	protected final int window;
+	/** True if the terms must occur in query order. */
+	protected final boolean ordered;
+	/** The index of the next position to check, for every term. */
+	private final int[] next;
+	
+	/**
+	 * Constructor.
+	 * @param postings the term cursors, in query order, not yet advanced 
+	 * @param window the maximum number of positions spanned by a match, not smaller than the number of terms
+	 * @param ordered true if the terms must occur in query order
+	 */
+	public EFWindowIterablePosting(final EFBlockIterablePosting[] postings, final int window, final boolean ordered)
+	{
+		super(postings);
+		if (window < postings.length)
+			throw new IllegalArgumentException("Window of size " + window + " cannot contain " + postings.length + " terms");
+		this.window = window;
+		this.ordered = ordered;
+		this.next = new int[postings.length];
+	}
+	
+	/**
+	 * Create a window operator over the given terms.
+	 * @param index the index, with positions
+	 * @param window the maximum number of positions spanned by a match
+	 * @param ordered true if the terms must occur in query order
+	 * @param terms the terms
+	 * @return the window operator, or null if a term is not in the lexicon
+	 * @throws IOException if something goes wrong
+	 */
+	public static EFWindowIterablePosting create(final IndexOnDisk index, final int window, final boolean ordered, final String... terms) throws IOException
+	{
+		EFBlockIterablePosting[] postings = postings(index, terms);
+		return (postings == null) ? null : new EFWindowIterablePosting(postings, window, ordered);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected int countMatches() 
+	{
+		Arrays.fill(next, 0);
+		return (ordered) ? countOrdered() : countUnordered();
+	}
+	
+	/** 
+	 * For every start position of the first term, the following terms are matched at their first position after the previous term, 
+	 * which gives the shortest ordered window with that start.
+	 */
+	private int countOrdered()
+	{
+		int matches = 0;
+	outer:
+		for (int j = 0; j < counts[0]; j++) {
+			final int start = positions[0][j];
+			int last = start;
+			for (int i = 1; i < postings.length; i++) {
+				final int[] p = positions[i];
+				while (next[i] < counts[i] && p[next[i]] <= last)
+					next[i]++;
+				if (next[i] == counts[i])
+					break outer;
+				last = p[next[i]];
+				if (last - start >= window)
+					continue outer;
+			}
+			matches++;
+			// matches do not overlap
+			while (j + 1 < counts[0] && positions[0][j + 1] <= last)
+				j++;
+		}
+		return matches;
+	}
+	
+	/** 
+	 * The current positions of all the terms form a candidate window, which is shrunk by advancing the term at the smallest position.
+	 */
+	private int countUnordered()
+	{
+		int matches = 0;
+	outer:
+		for (;;) {
+			// a term repeated in the query must match distinct positions 
+			for (int i = 1; i < postings.length; i++)
+				for (int j = 0; j < i; j++)
+					if (positions[i][next[i]] == positions[j][next[j]]) {
+						if (++next[i] == counts[i])
+							return matches;
+						continue outer;
+					}
+			
+			int min = 0;
+			int max = positions[0][next[0]];
+			for (int i = 1; i < postings.length; i++) {
+				final int p = positions[i][next[i]];
+				if (p < positions[min][next[min]])
+					min = i;
+				if (p > max)
+					max = p;
+			}
+			if (max - positions[min][next[min]] < window) {
+				matches++;
+				// matches do not overlap
+				for (int i = 0; i < postings.length; i++) {
+					while (next[i] < counts[i] && positions[i][next[i]] <= max)
+						next[i]++;
+					if (next[i] == counts[i])
+						return matches;
+				}
+			} else if (++next[min] == counts[min]) {
+				return matches;
+			}
+		}
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.util;
+
+import it.unimi.dsi.fastutil.longs.LongBigList;
+
+/**
+ * In-word bit operations used by the Elias-Fano readers to decode upper bits.
+ * <p>
+ * This is the portable version, delegating to {@link Broadword}. The multi-release jar also contains a version for JDK 21 or later, 
+ * in <code>src/main/java21</code>, that selects by <code>Long.expand</code> and, if the <code>jdk.incubator.vector</code> module is added, 
+ * decodes all the ones of a word, and counts the ones of several words, at once with the Vector API. The kernels can be chosen with the {@link it.cnr.isti.hpclab.ef.EliasFano#BIT_KERNELS}
+ * system property, ignored by this version.
+ */
+public final class BitKernels 
+{
+	/** The number of words counted at once by {@link #bitCount(LongBigList, long, long)} when skipping upper bits. */
+	public static final int WORDS = 8;
+	
+	private static final boolean BULK_DECODE = false;
+	
+	private BitKernels()
+	{
+	}
+	
+	/**
+	 * Return true if readers should decode whole words of upper bits with {@link #ones(long, int[])}, false if one bit at a time.
+	 * @return true if readers should decode whole words of upper bits
+	 */
+	public static boolean bulkDecode()
+	{
+		return BULK_DECODE;
+	}
+	
+	/**
+	 * Return true if readers should skip upper bits {@link #WORDS} words at a time with {@link #bitCount(LongBigList, long, long)}, false if one word at a time.
+	 * @return true if readers should skip upper bits several words at a time
+	 */
+	public static boolean bulkCount()
+	{
+		return BULK_DECODE;
+	}
+	
+	/**
+	 * Return the position of the one of given rank in a word.
+	 * 
+	 * @param word the word
+	 * @param rank the rank of the one, smaller than the number of ones of the word, starting from 0
+	 * @return the position of the one
+	 */
+	public static int select(final long word, final int rank)
+	{
+		return Broadword.select(word, rank);
+	}
+	
+	/**
+	 * Store the positions of the ones of a word, in increasing order.
+	 * 
+	 * @param word the word
+	 * @param positions the array where to store the positions, at least {@link Long#SIZE} long
+	 * @return the number of ones of the word
+	 */
+	public static int ones(final long word, final int[] positions)
+	{
+		return Broadword.ones(word, positions);
+	}
+	
+	/**
+	 * Return the number of ones of consecutive words of a list.
+	 * 
+	 * @param list the list
+	 * @param from the index of the first word
+	 * @param to the index following the last word
+	 * @return the number of ones of the words
+	 */
+	public static long bitCount(final LongBigList list, final long from, final long to)
+	{
+		long count = 0;
+		for (long i = from; i < to; i++)
+			count += Long.bitCount(list.getLong(i));
+		return count;
+	}
+	
+	/**
+	 * Return the name of the kernels in use.
+	 * @return the name of the kernels in use
+	 */
+	public static String implementation()
+	{
+		return "broadword";
+	}
+}
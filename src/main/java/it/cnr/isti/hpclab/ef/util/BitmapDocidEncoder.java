@@ -0,0 +1,169 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.util;
+
+import java.io.IOException;
+
+/**
+ * This class implements an encoder of docid lists as bitmaps over the docid space.
+ * <p>
+ * A list of <var>m</var> docids, whose last one is <var>u</var> - 1, is written as the ranks of every 2<sup>{@value #RANK_LOG2}</sup> bits 
+ * but the first, i.e., the number of docids smaller than the sample position, in fixed width, followed by a bitmap of <var>u</var> bits.
+ * A whole docid list is closed by the fictional docid equal to the number of documents, so it is encoded with <var>m</var> = <var>n</var> + 1 and 
+ * <var>u</var> = <var>N</var> + 1. Bitmaps are smaller than Elias-Fano lists when the docids are a large fraction of their universe.
+ * 
+ * @see BitmapDocidReader
+ */
+public class BitmapDocidEncoder 
+{
+	/** The base 2 logarithm of the distance, in bits, between the rank samples of a bitmap. */
+	public static final int RANK_LOG2 = 9;
+	
+	/** The docids of the current list, closed by the number of documents. */
+	private int[] values = new int[1024];
+	/** The number of docids of the current list. */
+	private int length;
+	/** The number of docids added so far. */
+	private int currentLength;
+	/** The number of documents. */
+	private int upperBound;
+	/** The current prefix sum. */
+	private long currentPrefixSum;
+	
+	/**
+	 * Initialization of the encoder. Must be called before actual encoding begins.
+	 * @param length the number of docids to encode
+	 * @param upperBound the number of documents
+	 */
+	public void init(final int length, final int upperBound)
+	{
+		this.length = length;
+		this.upperBound = upperBound;
+		this.currentLength = 0;
+		this.currentPrefixSum = 0;
+		if (values.length < length + 1)
+			values = new int[Math.max(length + 1, values.length * 2)];
+	}
+	
+	/**
+	 * Add the next docid to encode, as a gap from the previous one (or from zero).
+	 * @param x the gap
+	 */
+	public void add(final long x)
+	{
+		currentPrefixSum += x;
+		if (currentLength == length || currentPrefixSum >= upperBound)
+			throw new IllegalArgumentException("Too large prefix sum: " + currentPrefixSum + " >= " + upperBound);
+		values[currentLength++] = (int) currentPrefixSum;
+	}
+	
+	/**
+	 * Dump the complete encoded list to a bit output stream.
+	 * 
+	 * @param lwobs the output bit stream where to dump
+	 * @return the number of dumped bits
+	 * @throws IOException if something goes wrong
+	 */
+	public long dump(final LongWordBitWriter lwobs) throws IOException 
+	{
+		if (currentLength != length)
+			throw new IllegalStateException();
+		values[length] = upperBound;
+		return dump(lwobs, values, 0, length + 1, 0);
+	}
+	
+	/**
+	 * Return the width in bits of the rank samples of a bitmap with <code>m</code> docids.
+	 * @param m the number of docids
+	 * @return the width in bits of the rank samples
+	 */
+	public static int rankWidth(final long m)
+	{
+		return Long.SIZE - Long.numberOfLeadingZeros(m);
+	}
+	
+	/**
+	 * Return the number of bits of a bitmap of <code>m</code> docids whose last one is <code>u</code> - 1.
+	 * @param m the number of docids
+	 * @param u the universe
+	 * @return the number of bits of the bitmap, including the rank samples
+	 */
+	public static long bits(final long m, final long u)
+	{
+		return ((u - 1) >>> RANK_LOG2) * rankWidth(m) + u;
+	}
+	
+	/**
+	 * Return the number of bits of a whole docid list encoded as a bitmap.
+	 * @param length the number of postings of the list
+	 * @param numDocs the number of documents
+	 * @return the number of bits of the bitmap
+	 */
+	public static long docidsBits(final long length, final long numDocs)
+	{
+		return bits(length + 1, numDocs + 1);
+	}
+	
+	/**
+	 * Return true if a whole docid list is smaller when encoded as a bitmap than with Elias-Fano.
+	 * @param length the number of postings of the list
+	 * @param numDocs the number of documents
+	 * @param log2Quantum the logarithm of the quantum size of Elias-Fano
+	 * @return true if the list must be encoded as a bitmap
+	 */
+	public static boolean isSmaller(final long length, final long numDocs, final int log2Quantum)
+	{
+		return docidsBits(length, numDocs) < Utils.docidsBits(length, numDocs, log2Quantum);
+	}
+	
+	/**
+	 * Dump the docids <code>values[begin..end)</code> minus <code>base</code> as a bitmap.
+	 * @param lwobs the output bit stream where to dump
+	 * @param values the docids
+	 * @param begin the index of the first docid
+	 * @param end the index after the last docid
+	 * @param base the first docid of the universe
+	 * @return the number of dumped bits
+	 * @throws IOException if something goes wrong
+	 */
+	static long dump(final LongWordBitWriter lwobs, final int[] values, final int begin, final int end, final long base) throws IOException
+	{
+		final long u = values[end - 1] - base + 1;
+		long bits = 0;
+		final int rankWidth = rankWidth(end - begin);
+		// rank samples, i.e., the number of ones before every 2^RANK_LOG2 bits but the first
+		int rank = 0;
+		for (long sample = 1, numSamples = (u - 1) >>> RANK_LOG2; sample <= numSamples; sample++) {
+			while (values[begin + rank] - base < sample << RANK_LOG2)
+				rank++;
+			bits += lwobs.append(rank, rankWidth);
+		}
+		// bitmap
+		long last = -1;
+		for (int i = begin; i < end; i++) {
+			long zeroes = values[i] - base - last - 1;
+			for (; zeroes >= Long.SIZE; zeroes -= Long.SIZE)
+				bits += lwobs.append(0, Long.SIZE);
+			bits += lwobs.append(1L << zeroes, (int) zeroes + 1);
+			last = values[i] - base;
+		}
+		return bits;
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.util;
+
+import it.unimi.dsi.fastutil.longs.LongBigList;
+
+/**
+ * A cursor over a docid list encoded as a bitmap by {@link BitmapDocidEncoder}. 
+ * Docids are decoded by scanning the set bits, and long skips start from the closest rank sample, so that the index of the 
+ * current docid is always known.
+ */
+public class BitmapDocidReader implements DocidCursor
+{
+	/** The distance in bits below which {@link #skipTo(long)} scans the bitmap instead of using the rank samples. */
+	private static final int SKIPPING_THRESHOLD = Long.SIZE * 2;
+	
+	/** The underlying list. */
+	private final LongBigList list;
+	/** The reader of the rank samples, and their width. */
+	private LongWordBitReader ranks;
+	private int rankWidth = -1;
+	/** The starting position of the rank samples. */
+	private long ranksStart;
+	/** The starting position of the bitmap. */
+	private long bitsStart;
+	/** The 64-bit window. */
+	private long window;
+	/** The current word position in the bitmap. */
+	private long curr;
+	/** The number of docids returned so far. */
+	private long currentIndex;
+	/** The last docid returned. */
+	private long last;
+	
+	/**
+	 * Constructor, the bitmap must be set with {@link #reset(long, long, long)}.
+	 * @param list the underlying list
+	 */
+	public BitmapDocidReader(final LongBigList list)
+	{
+		this.list = list;
+	}
+	
+	/**
+	 * Constructor for a whole docid list.
+	 * @param list the underlying list
+	 * @param position the bit offset of the docid list
+	 * @param frequency the number of docids in the list
+	 * @param upperBound the number of documents
+	 */
+	public BitmapDocidReader(final LongBigList list, final long position, final long frequency, final long upperBound)
+	{
+		this(list);
+		reset(position, frequency + 1, upperBound + 1);
+	}
+	
+	/**
+	 * Move the cursor to the beginning of a bitmap.
+	 * @param position the bit offset of the bitmap, including rank samples
+	 * @param m the number of docids of the bitmap
+	 * @param u the universe of the bitmap
+	 */
+	public void reset(final long position, final long m, final long u)
+	{
+		final int width = BitmapDocidEncoder.rankWidth(m);
+		if (width != rankWidth) {
+			rankWidth = width;
+			ranks = new LongWordBitReader(list, width);
+		}
+		ranksStart = position;
+		bitsStart = position + ((u - 1) >>> BitmapDocidEncoder.RANK_LOG2) * rankWidth;
+		currentIndex = 0;
+		last = -1;
+		position(bitsStart);
+	}
+	
+	private void position(final long position)
+	{
+		window = list.getLong(curr = position / Long.SIZE) & -1L << (int) position;
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public long getNextPrefixSum() 
+	{
+		while (window == 0)
+			window = list.getLong(++curr);
+		last = curr * Long.SIZE + Long.numberOfTrailingZeros(window) - bitsStart;
+		window &= window - 1;
+		currentIndex++;
+		return last;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void getNextPrefixSums(final int[] buffer, final int offset, final int count) 
+	{
+		for (int i = offset, end = offset + count; i < end; i++)
+			buffer[i] = (int) getNextPrefixSum();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long skipTo(final long lowerBound) 
+	{
+		if (lowerBound - last > SKIPPING_THRESHOLD) {
+			final long sample = lowerBound >>> BitmapDocidEncoder.RANK_LOG2;
+			long rank = (sample == 0) ? 0 : ranks.extract(ranksStart + (sample - 1) * rankWidth);
+			
+			// we count the ones from the sample to the lower bound
+			final long from = bitsStart + (sample << BitmapDocidEncoder.RANK_LOG2);
+			final long to = bitsStart + lowerBound;
+			long w = from / Long.SIZE;
+			long word = list.getLong(w) & -1L << (int) from;
+			for (final long wordTo = to / Long.SIZE; w < wordTo; ) {
+				rank += Long.bitCount(word);
+				word = list.getLong(++w);
+			}
+			rank += Long.bitCount(word & (1L << (int) to) - 1);
+			
+			currentIndex = rank;
+			position(to);
+		}
+		long docid;
+		while ((docid = getNextPrefixSum()) < lowerBound)
+			;
+		return docid;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getCurrentPos() 
+	{
+		return currentIndex;
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.util;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+
+import it.cnr.isti.hpclab.ef.EliasFano;
+
+/**
+ * This class writes the block-max side structure of a sequence of posting lists.
+ * Every posting list is split into blocks of <code>2^log2Quantum</code> postings, i.e., aligned with the Elias-Fano quantum, 
+ * and every block is summarized by four 32-bit fields, i.e., two longs: 
+ * <ul>
+ * <li>the last docid and the maximum term frequency in the block (low and high bits of the first long);</li>
+ * <li>the minimum and maximum document length in the block (low and high bits of the second long).</li>
+ * </ul>
+ * The <code>.blockmax</code> file contains the blocks of all posting lists, one after the other, while 
+ * the <code>.blockmax-offsets</code> file contains, for every posting list in termid order, the (long) index of its first block.
+ * Both files are closed by an additional long, as any file written by {@link LongWordBitWriter}.
+ */
+public class BlockMaxWriter implements Closeable
+{
+	private final LongWordBitWriter blocks;
+	private final LongWordBitWriter offsets;
+	private final int quantum;
+	
+	/** The index of the next long written in the blocks file. */
+	private long blocksOffset = 0;
+	
+	/** The number of postings in the current block. */
+	private int count;
+	private int lastDocid;
+	private int maxFreq;
+	private int minLength;
+	private int maxLength;
+	
+	/**
+	 * Constructor.
+	 * @param prefix the path and prefix of the files to write
+	 * @param log2Quantum the base 2 logarithm of the number of postings in a block
+	 * @throws IOException if something goes wrong in opening the files
+	 */
+	@SuppressWarnings("resource")
+	public BlockMaxWriter(final String prefix, final int log2Quantum) throws IOException
+	{
+		this.blocks  = new LongWordBitWriter(new FileOutputStream(prefix + EliasFano.BLOCKMAX_EXTENSION).getChannel(), ByteOrder.nativeOrder());
+		this.offsets = new LongWordBitWriter(new FileOutputStream(prefix + EliasFano.BLOCKMAX_OFFSETS_EXTENSION).getChannel(), ByteOrder.nativeOrder());
+		this.quantum = 1 << log2Quantum;
+	}
+	
+	/**
+	 * Start a new posting list.
+	 * @throws IOException if something goes wrong in writing
+	 */
+	public void init() throws IOException
+	{
+		offsets.append(blocksOffset, Long.SIZE);
+		reset();
+	}
+	
+	/**
+	 * Add a posting to the current posting list.
+	 * @param docid the docid of the posting
+	 * @param freq the term frequency of the posting
+	 * @param length the length of the document
+	 * @throws IOException if something goes wrong in writing
+	 */
+	public void add(final int docid, final int freq, final int length) throws IOException
+	{
+		lastDocid = docid;
+		maxFreq   = Math.max(maxFreq, freq);
+		minLength = Math.min(minLength, length);
+		maxLength = Math.max(maxLength, length);
+		if (++count == quantum)
+			flush();
+	}
+	
+	/**
+	 * Complete the current posting list, writing its last (partial) block, if any.
+	 * @throws IOException if something goes wrong in writing
+	 */
+	public void finish() throws IOException
+	{
+		if (count > 0)
+			flush();
+	}
+	
+	private void flush() throws IOException
+	{
+		blocks.append(lastDocid, Integer.SIZE);
+		blocks.append(maxFreq,   Integer.SIZE);
+		blocks.append(minLength, Integer.SIZE);
+		blocks.append(maxLength, Integer.SIZE);
+		blocksOffset += 2;
+		reset();
+	}
+	
+	private void reset()
+	{
+		count = 0;
+		maxFreq = 0;
+		minLength = Integer.MAX_VALUE;
+		maxLength = 0;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close() throws IOException 
+	{
+		blocks.close();
+		offsets.close();
+	}
+}
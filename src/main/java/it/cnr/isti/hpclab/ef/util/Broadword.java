@@ -0,0 +1,76 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.util;
+
+import static it.unimi.dsi.bits.Fast.MSBS_STEP_8;
+import static it.unimi.dsi.bits.Fast.ONES_STEP_4;
+import static it.unimi.dsi.bits.Fast.ONES_STEP_8;
+
+import it.unimi.dsi.bits.Fast;
+
+/**
+ * Portable in-word bit operations on the upper bits of Elias-Fano sequences, i.e., the fallback of {@link BitKernels}.
+ */
+public final class Broadword 
+{
+	private Broadword()
+	{
+	}
+	
+	/**
+	 * Return the position of the one of given rank in a word, by broadword byte sums and the in-byte select table.
+	 * 
+	 * @param word the word
+	 * @param rank the rank of the one, smaller than the number of ones of the word, starting from 0
+	 * @return the position of the one
+	 */
+	public static int select(final long word, final int rank)
+	{
+		// Phase 1: sums by byte
+		long byteSums = word - ( ( word & 0xa * ONES_STEP_4 ) >>> 1 );
+		byteSums = ( byteSums & 3 * ONES_STEP_4 ) + ( ( byteSums >>> 2 ) & 3 * ONES_STEP_4 );
+		byteSums = ( byteSums + ( byteSums >>> 4 ) ) & 0x0f * ONES_STEP_8;
+		byteSums *= ONES_STEP_8;
+		// Phase 2: compare each byte sum with rank to obtain the relevant byte
+		final long rankStep8 = rank * ONES_STEP_8;
+		final long byteOffset = ( ( ( ( ( rankStep8 | MSBS_STEP_8 ) - byteSums ) & MSBS_STEP_8 ) >>> 7 ) * ONES_STEP_8 >>> 53 ) & ~0x7;
+		
+		final int byteRank = (int)( rank - ( ( ( byteSums << 8 ) >>> byteOffset ) & 0xFF ) );
+		
+		return (int)( byteOffset + Fast.selectInByte[ (int)( word >>> byteOffset & 0xFF ) | byteRank << 8 ] );
+	}
+	
+	/**
+	 * Store the positions of the ones of a word, in increasing order.
+	 * 
+	 * @param word the word
+	 * @param positions the array where to store the positions, at least {@link Long#SIZE} long
+	 * @return the number of ones of the word
+	 */
+	public static int ones(long word, final int[] positions)
+	{
+		int count = 0;
+		while (word != 0) {
+			positions[count++] = Long.numberOfTrailingZeros(word);
+			word &= word - 1;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import it.cnr.isti.hpclab.ef.EliasFano;
+
+/**
+ * This class keeps track of the direct memory used by all the {@link LongWordCache} objects of the running JVM, across threads.
+ * Every cache starts with a small buffer and asks this budget for more memory when its buffer is full: if the budget is exhausted,
+ * the cache spills to disk instead of growing, so the memory used to compress does not depend on the number of threads.
+ * The budget, in bytes, is read from the {@link EliasFano#CACHE_BUDGET} system property, and defaults to half the maximum heap size,
+ * i.e., half the default maximum direct memory.
+ */
+public final class CacheBudget 
+{
+	/** The total number of bytes that can be reserved. */
+	private static volatile long budget = Long.parseLong(System.getProperty(EliasFano.CACHE_BUDGET, Long.toString(Runtime.getRuntime().maxMemory() / 2)));
+	/** The number of bytes currently reserved. */
+	private static final AtomicLong used = new AtomicLong();
+	
+	private CacheBudget()
+	{
+	}
+	
+	/**
+	 * Set the total number of bytes that can be reserved.
+	 * @param bytes the total number of bytes
+	 */
+	public static void set(final long bytes)
+	{
+		budget = bytes;
+	}
+
+	/**
+	 * Return the total number of bytes that can be reserved.
+	 * @return the total number of bytes that can be reserved
+	 */
+	public static long get()
+	{
+		return budget;
+	}
+	
+	/**
+	 * Return the number of bytes currently reserved.
+	 * @return the number of bytes currently reserved
+	 */
+	public static long used()
+	{
+		return used.get();
+	}
+	
+	/**
+	 * Reserve the given number of bytes, if available.
+	 * @param bytes the number of bytes to reserve
+	 * @return true if the bytes have been reserved, false if the budget is exhausted
+	 */
+	public static boolean tryReserve(final long bytes)
+	{
+		for (long current = used.get(); current + bytes <= budget; current = used.get())
+			if (used.compareAndSet(current, current + bytes))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Reserve the given number of bytes, even if the budget is exhausted. 
+	 * Used for the minimal buffers every cache needs to work at all.
+	 * @param bytes the number of bytes to reserve
+	 */
+	public static void reserve(final long bytes)
+	{
+		used.addAndGet(bytes);
+	}
+	
+	/**
+	 * Give back the given number of bytes to the budget.
+	 * @param bytes the number of bytes to release
+	 */
+	public static void release(final long bytes)
+	{
+		used.addAndGet(-bytes);
+	}
+}
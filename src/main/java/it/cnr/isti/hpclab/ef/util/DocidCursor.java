@@ -0,0 +1,59 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.util;
+
+/**
+ * A cursor over an encoded docid list, i.e., an increasing sequence of docids closed by the fictional docid equal to the number of documents.
+ * 
+ * @see DocidReader
+ * @see PartitionedDocidReader
+ */
+public interface DocidCursor 
+{
+	/**
+	 * Return the next docid of the list.
+	 * @return the next docid of the list
+	 */
+	long getNextPrefixSum();
+
+	/**
+	 * Decodes the next <code>count</code> docids in <code>buffer</code>, starting at <code>offset</code>.
+	 * The caller must guarantee that at least <code>count</code> elements are left in the list.
+	 * 
+	 * @param buffer the array where to store the docids
+	 * @param offset the position in <code>buffer</code> of the first decoded docid
+	 * @param count the number of docids to decode
+	 */
+	void getNextPrefixSums(final int[] buffer, final int offset, final int count);
+
+	/**
+	 * Return the first docid of the list greater than or equal to <code>lowerBound</code>, 
+	 * which must be greater than the last returned docid.
+	 * @param lowerBound the docid to skip to
+	 * @return the first docid greater than or equal to <code>lowerBound</code>
+	 */
+	long skipTo(final long lowerBound);
+
+	/**
+	 * Returns the index of the next docid, i.e., the position of the last returned docid w.r.t. the beginning of the list plus one. 
+	 * @return The index of the next docid. 
+	 */
+	long getCurrentPos();
+}
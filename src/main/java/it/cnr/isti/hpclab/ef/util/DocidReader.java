@@ -32,14 +32,9 @@
 
 package it.cnr.isti.hpclab.ef.util;
 
-import static it.unimi.dsi.bits.Fast.MSBS_STEP_8;
-import static it.unimi.dsi.bits.Fast.ONES_STEP_4;
-import static it.unimi.dsi.bits.Fast.ONES_STEP_8;
-
-import it.unimi.dsi.bits.Fast;
 import it.unimi.dsi.fastutil.longs.LongBigList;
 
-public class DocidReader 
+public class DocidReader implements DocidCursor
 {
 	/** The underlying list. */
 	protected final LongBigList list;
@@ -75,6 +70,10 @@ public class DocidReader
 	private final long lowerBitsStart;
 	/** The last value returned by {@link #getNextUpperBits()}. */ 
 	private long lastUpperBits;
+	/** The positions of the ones of a word of upper bits, if decoded by {@link BitKernels#ones(long, int[])}. */
+	private int[] ones;
+	/** The select index over the zeroes of the upper bits, or null if not available. */
+	private SelectIndexReader select;
 		
 	public DocidReader(final LongBigList list, final LongWordBitReader lowerBits, final long lowerBitsStart, final int l, final LongWordBitReader skipPointers, final long skipPointersStart, final long numberOfPointers, final int pointerSize, final long frequency, final int log2Quantum) 
 	{
@@ -95,6 +94,17 @@ public class DocidReader
 		position( upperBitsStart );
 	}
 
+	/**
+	 * Use, for long skips, the select index over the zeroes of the upper bits of this list, rather than its skip pointers.
+	 * 
+	 * @param list the list containing the select index, written by {@link SequenceEncoder#dumpSelectIndex(LongWordBitWriter)}
+	 * @param position the bit position of the select index
+	 */
+	public void useSelectIndex(final LongBigList list, final long position)
+	{
+		select = new SelectIndexReader(list, position, this.list, upperBitsStart, true);
+	}
+
 	private void position(final long position) 
 	{
 		window = list.getLong(curr = position / Long.SIZE) & -1L << (int)(position);
@@ -110,11 +120,59 @@ public class DocidReader
 		return lastUpperBits;
 	}
 
+	@Override
 	public long getNextPrefixSum() 
 	{
 		return getNextUpperBits() << l | lowerBits.extract();
 	}
 
+	/**
+	 * Decodes the next <code>count</code> prefix sums in <code>buffer</code>, starting at <code>offset</code>.
+	 * The upper bits are scanned one word at a time, and all the ones of the current word are consumed before loading the next one.
+	 * The caller must guarantee that at least <code>count</code> elements are left in the list.
+	 * 
+	 * @param buffer the array where to store the prefix sums
+	 * @param offset the position in <code>buffer</code> of the first decoded prefix sum
+	 * @param count the number of prefix sums to decode
+	 */
+	@Override
+	public void getNextPrefixSums(final int[] buffer, final int offset, final int count)
+	{
+		long window = this.window;
+		long curr = this.curr;
+		long currentIndex = this.currentIndex;
+		long upperBits = lastUpperBits;
+		
+		for (int i = offset, end = offset + count; i < end; ) {
+			while (window == 0)
+				window = list.getLong( ++curr );
+			final long wordStart = curr * Long.SIZE - upperBitsStart;
+			if (BitKernels.bulkDecode()) {
+				// all the ones of the word are located at once, and only the decoded ones are cancelled
+				final int[] ones = (this.ones != null) ? this.ones : (this.ones = new int[Long.SIZE]);
+				final int n = BitKernels.ones(window, ones);
+				final int m = Math.min(n, end - i);
+				for (int j = 0; j < m; j++) {
+					upperBits = wordStart + ones[j] - currentIndex++;
+					buffer[i++] = (int) (upperBits << l | lowerBits.extract());
+				}
+				window = (m == n) ? 0 : window & -1L << ones[m];
+			} else {
+				do {
+					upperBits = wordStart + Long.numberOfTrailingZeros(window) - currentIndex++;
+					buffer[i++] = (int) (upperBits << l | lowerBits.extract());
+					window &= window - 1;
+				} while (window != 0 && i < end);
+			}
+		}
+		
+		this.window = window;
+		this.curr = curr;
+		this.currentIndex = currentIndex;
+		this.lastUpperBits = upperBits;
+	}
+
+	@Override
 	public long skipTo(final long lowerBound) 
 	{
 		final long zeroesToSkip = lowerBound >>> l;
@@ -126,7 +184,12 @@ public class DocidReader
 			return prefixSum;
 		}
 			
-		if (zeroesToSkip - lastUpperBits > quantum) {
+		if (select != null && zeroesToSkip - lastUpperBits > 1 << SelectIndexEncoder.LOG2_SUBBLOCK && zeroesToSkip <= select.count()) {
+			// the select index locates the last zero to skip
+			final long skip = select.select(zeroesToSkip - 1) + 1;
+			position(upperBitsStart + skip);
+			currentIndex = skip - zeroesToSkip;
+		} else if (zeroesToSkip - lastUpperBits > quantum) {
 			final long block = zeroesToSkip >>> log2Quantum;
 			assert block > 0;
 			assert block <= numberOfPointers;
@@ -140,6 +203,13 @@ public class DocidReader
 		long delta = zeroesToSkip - curr * Long.SIZE + currentIndex + upperBitsStart;			
 		assert delta >= 0 : delta;
 
+		if (BitKernels.bulkCount())
+			// whole blocks of words before the target zero are skipped at once
+			for (long zeroes; delta > Long.SIZE && curr + 1 + BitKernels.WORDS < list.size64() && (zeroes = Long.bitCount(~window) + (long) BitKernels.WORDS * Long.SIZE - BitKernels.bitCount(list, curr + 1, curr + 1 + BitKernels.WORDS)) < delta; ) {
+				window = list.getLong(curr += BitKernels.WORDS + 1);
+				delta -= zeroes;
+				currentIndex += (BitKernels.WORDS + 1) * Long.SIZE - zeroes;
+			}
 		for (int bitCount; (bitCount = Long.bitCount( ~window )) < delta; ) {
 			window = list.getLong(++curr);
 			delta -= bitCount;
@@ -152,20 +222,9 @@ public class DocidReader
 		 * Pre-decrementing won't work as delta might be zero.
 		 */
 		if (delta-- != 0) { 
-			// Phase 1: sums by byte
 			final long word = ~window;
 			assert delta < Long.bitCount( word ) : delta + " >= " + Long.bitCount( word );
-			long byteSums = word - ( ( word & 0xa * ONES_STEP_4 ) >>> 1 );
-			byteSums = ( byteSums & 3 * ONES_STEP_4 ) + ( ( byteSums >>> 2 ) & 3 * ONES_STEP_4 );
-			byteSums = ( byteSums + ( byteSums >>> 4 ) ) & 0x0f * ONES_STEP_8;
-			byteSums *= ONES_STEP_8;
-			// Phase 2: compare each byte sum with delta to obtain the relevant byte
-			final long rankStep8 = delta * ONES_STEP_8;
-			final long byteOffset = ( ( ( ( ( rankStep8 | MSBS_STEP_8 ) - byteSums ) & MSBS_STEP_8 ) >>> 7 ) * ONES_STEP_8 >>> 53 ) & ~0x7;
-			
-			final int byteRank = (int)( delta - ( ( ( byteSums << 8 ) >>> byteOffset ) & 0xFF ) );
-			
-			final int select = (int)( byteOffset + Fast.selectInByte[ (int)( word >>> byteOffset & 0xFF ) | byteRank << 8 ] );
+			final int select = BitKernels.select(word, (int) delta);
 
 			// We cancel up to, but not including, the target one.
 			window &= -1L << select;
@@ -192,6 +251,7 @@ public class DocidReader
 	 * Returns the index of the current prefix sum, i.e., the position of the current docid w.r.t. the beginning of the list. 
 	 * @return The index of the current prefix sum. 
 	 */
+	@Override
 	public long getCurrentPos()
 	{
 		return currentIndex;
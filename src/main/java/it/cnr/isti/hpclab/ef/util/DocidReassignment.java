@@ -0,0 +1,365 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terrier.structures.BitIndexPointer;
+import org.terrier.structures.Index;
+import org.terrier.structures.LexiconEntry;
+import org.terrier.structures.MetaIndex;
+import org.terrier.structures.postings.IterablePosting;
+
+import it.cnr.isti.hpclab.ef.EliasFano;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+
+/**
+ * This class computes docid permutations to be applied when recompressing an index, so that similar documents get close docids,
+ * reducing the gaps encoded by Elias-Fano and clustering the postings skipped during query processing.
+ * <p>
+ * The permutations are returned as arrays mapping every docid of the source index to its new docid, and are computed either by
+ * recursive graph bisection (Dhulipala et al., <i>Compressing Graphs and Indexes with Recursive Graph Bisection</i>, KDD 2016)
+ * or, more cheaply, by sorting the documents by a meta index key, e.g., their URL.
+ */
+public final class DocidReassignment 
+{
+	protected static final Logger LOGGER = LoggerFactory.getLogger(DocidReassignment.class);
+	
+	/** The name of the recursive graph bisection reassignment, as opposed to a meta index key. */
+	public static final String BISECTION = "bp";
+	
+	public static final int DEFAULT_ITERATIONS = 20;
+	public static final int DEFAULT_MIN_PARTITION_SIZE = 16;
+	/** The maximum number of postings of the forward index held in memory by a bisection, at most the largest Java array. */
+	public static final long DEFAULT_MAX_POSTINGS = Math.min(Integer.MAX_VALUE - 8, Long.parseLong(System.getProperty(EliasFano.REORDER_MAX_POSTINGS, Long.toString(Integer.MAX_VALUE - 8))));
+	
+	private static final double[] LOG2 = new double[1 << 16];
+	static {
+		for (int i = 1; i < LOG2.length; i++)
+			LOG2[i] = Math.log(i) / Math.log(2);
+	}
+	
+	private DocidReassignment()
+	{
+	}
+	
+	/**
+	 * Compute the docid permutation of the given index with the given strategy.
+	 * 
+	 * @param index the source index
+	 * @param strategy {@link #BISECTION} or the meta index key to sort the documents by
+	 * @param num_threads the number of threads computing the recursive graph bisection
+	 * @return the new docid of every docid of the index
+	 * @throws IOException if something goes wrong while reading the index
+	 */
+	public static int[] compute(final Index index, final String strategy, final int num_threads) throws IOException
+	{
+		return BISECTION.equals(strategy) 
+				? bisection(index, DEFAULT_ITERATIONS, DEFAULT_MIN_PARTITION_SIZE, DEFAULT_MAX_POSTINGS, num_threads) 
+				: sortByMeta(index, strategy);
+	}
+	
+	/**
+	 * Compute the docid permutation of the given index sorting its documents by the value of a meta index key, breaking ties by docid.
+	 * Documents without a value come last.
+	 * 
+	 * @param index the source index
+	 * @param key the meta index key
+	 * @return the new docid of every docid of the index
+	 * @throws IOException if something goes wrong while reading the meta index
+	 */
+	public static int[] sortByMeta(final Index index, final String key) throws IOException
+	{
+		final int num_docs = index.getCollectionStatistics().getNumberOfDocuments();
+		final MetaIndex meta = index.getMetaIndex();
+		final String[] values = new String[num_docs];
+		for (int docid = 0; docid < num_docs; docid++)
+			values[docid] = meta.getItem(key, docid);
+		
+		final Comparator<String> order = Comparator.nullsLast(Comparator.naturalOrder());
+		final int[] docs = identity(num_docs);
+		IntArrays.quickSort(docs, (a, b) -> {
+			final int c = order.compare(values[a], values[b]);
+			return c != 0 ? c : Integer.compare(a, b);
+		});
+		return inverse(docs);
+	}
+	
+	/**
+	 * Compute the docid permutation of the given index by recursive graph bisection.
+	 * <p>
+	 * The documents are split in two halves, and documents are swapped between the halves to minimize the estimated number of bits 
+	 * of the gaps of the posting lists in the halves, <i>d</i> log(<i>n</i> / (<i>d</i> + 1)) for a term appearing in <i>d</i> documents 
+	 * out of <i>n</i>, for a number of iterations or until no swap improves. Then every half is bisected recursively, in parallel, 
+	 * until the partitions are smaller than twice the given size. Terms appearing in a single document are ignored.
+	 * <p>
+	 * The forward index of the documents being bisected is held in memory, in an array of at most the given number of postings.
+	 * If the index has more postings, its documents are split into consecutive docid ranges with at most that number of postings, 
+	 * which are read from the inverted index and bisected one at a time, so that documents are reassigned only within their range.
+	 * 
+	 * @param index the source index
+	 * @param iterations the maximum number of swapping iterations of every bisection
+	 * @param min_partition_size the minimum size of the partitions
+	 * @param max_postings the maximum number of postings of a docid range, at most {@link #DEFAULT_MAX_POSTINGS}
+	 * @param num_threads the number of threads
+	 * @return the new docid of every docid of the index
+	 * @throws IOException if something goes wrong while reading the inverted index
+	 */
+	public static int[] bisection(final Index index, final int iterations, final int min_partition_size, final long max_postings, final int num_threads) throws IOException
+	{
+		if (max_postings > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("Too many postings (" + max_postings + ") for the forward index");
+		final long starttime = System.currentTimeMillis();
+		final Bisection bp = new Bisection(index, iterations, Math.max(1, min_partition_size));
+		final IntArrayList ranges = bp.ranges(max_postings);
+		if (ranges.size() > 2)
+			LOGGER.info("Recursive graph bisection of " + (ranges.size() - 1) + " docid ranges of at most " + max_postings + " postings");
+		final ForkJoinPool pool = new ForkJoinPool(Math.max(1, num_threads));
+		try {
+			for (int r = 1; r < ranges.size(); r++) {
+				bp.load(index, ranges.getInt(r - 1), ranges.getInt(r));
+				pool.invoke(bp.new Bisect(ranges.getInt(r - 1), ranges.getInt(r)));
+			}
+		} finally {
+			pool.shutdown();
+		}
+		LOGGER.info("Recursive graph bisection of " + bp.docs.length + " documents completed after " + (System.currentTimeMillis() - starttime)/1000 + " seconds");
+		return inverse(bp.docs);
+	}
+
+	/**
+	 * Return the inverse of a permutation.
+	 * 
+	 * @param map a permutation
+	 * @return the inverse permutation
+	 */
+	public static int[] inverse(final int[] map)
+	{
+		final int[] inverse = new int[map.length];
+		for (int i = 0; i < map.length; i++)
+			inverse[map[i]] = i;
+		return inverse;
+	}
+	
+	private static int[] identity(final int n)
+	{
+		final int[] a = new int[n];
+		for (int i = 0; i < n; i++)
+			a[i] = i;
+		return a;
+	}
+	
+	private static double log2(final int x)
+	{
+		return x < LOG2.length ? LOG2[x] : Math.log(x) / Math.log(2);
+	}
+	
+	/**
+	 * The state of a recursive graph bisection: the forward index of the documents of the current docid range, restricted to the terms 
+	 * appearing in more than one document, and the current order of the documents.
+	 */
+	private static final class Bisection
+	{
+		private final int iterations;
+		private final int min_partition_size;
+		
+		/** The documents, in their current order. */
+		private final int[] docs;
+		/** The move gain of every document in the current bisection. */
+		private final double[] gains;
+		/** The terms of document d of the current range are terms[offsets[d] - base] ... terms[offsets[d + 1] - base - 1]. */
+		private final long[] offsets;
+		private int[] terms;
+		private long base;
+		
+		/** The degrees of the terms in the two halves of the current bisection of every thread, always cleared after a bisection. */
+		private final ThreadLocal<int[][]> degrees;
+		
+		Bisection(final Index index, final int iterations, final int min_partition_size) throws IOException
+		{
+			this.iterations = iterations;
+			this.min_partition_size = min_partition_size;
+			
+			final int num_docs = index.getCollectionStatistics().getNumberOfDocuments();
+			this.docs = identity(num_docs);
+			this.gains = new double[num_docs];
+			this.offsets = new long[num_docs + 1];
+			
+			// the number of terms of every document
+			int num_terms = 0;
+			final Iterator<Entry<String, LexiconEntry>> lex_iter = index.getLexicon().iterator();
+			while (lex_iter.hasNext()) {
+				final LexiconEntry le = lex_iter.next().getValue();
+				if (le.getDocumentFrequency() < 2)
+					continue;
+				final IterablePosting p = index.getInvertedIndex().getPostings((BitIndexPointer) le);
+				while (p.next() != IterablePosting.END_OF_LIST)
+					offsets[p.getId() + 1]++;
+				p.close();
+				num_terms++;
+			}
+			for (int d = 0; d < num_docs; d++)
+				offsets[d + 1] += offsets[d];
+			
+			final int size = num_terms;
+			this.degrees = ThreadLocal.withInitial(() -> new int[][] { new int[size], new int[size] });
+		}
+		
+		/**
+		 * Split the documents into consecutive docid ranges of at most the given number of postings, or of a single document.
+		 * 
+		 * @return the first docid of every range, followed by the number of documents
+		 */
+		private IntArrayList ranges(final long max_postings)
+		{
+			final IntArrayList ranges = new IntArrayList();
+			ranges.add(0);
+			for (int from = 0, to = 1; from < docs.length; from = to++) {
+				while (to < docs.length && offsets[to + 1] - offsets[from] <= max_postings)
+					to++;
+				ranges.add(to);
+			}
+			return ranges;
+		}
+		
+		/**
+		 * Read the forward index of the documents between from (inclusive) and to (exclusive) from the inverted index.
+		 */
+		private void load(final Index index, final int from, final int to) throws IOException
+		{
+			// release the forward index of the previous range first
+			this.terms = null;
+			this.terms = new int[(int) (offsets[to] - offsets[from])];
+			this.base = offsets[from];
+			final long[] next = Arrays.copyOfRange(offsets, from, to);
+			int termid = 0;
+			final Iterator<Entry<String, LexiconEntry>> lex_iter = index.getLexicon().iterator();
+			while (lex_iter.hasNext()) {
+				final LexiconEntry le = lex_iter.next().getValue();
+				if (le.getDocumentFrequency() < 2)
+					continue;
+				final IterablePosting p = index.getInvertedIndex().getPostings((BitIndexPointer) le);
+				for (int docid = p.next(from); docid != IterablePosting.END_OF_LIST && docid < to; docid = p.next())
+					terms[(int) (next[docid - from]++ - base)] = termid;
+				p.close();
+				termid++;
+			}
+		}
+		
+		/**
+		 * Bisect the documents between from (inclusive) and to (exclusive).
+		 */
+		private void bisect(final int from, final int to)
+		{
+			final int mid = (from + to) >>> 1;
+			final int[][] deg = degrees.get();
+			final int[] left = deg[0], right = deg[1];
+			
+			for (int i = from; i < mid; i++)
+				add(docs[i], left, 1);
+			for (int i = mid; i < to; i++)
+				add(docs[i], right, 1);
+			
+			final double log_left = log2(mid - from), log_right = log2(to - mid);
+			for (int iter = 0; iter < iterations; iter++) {
+				for (int i = from; i < mid; i++)
+					gains[docs[i]] = gain(docs[i], left, right, log_left, log_right);
+				for (int i = mid; i < to; i++)
+					gains[docs[i]] = gain(docs[i], right, left, log_right, log_left);
+				
+				IntArrays.quickSort(docs, from, mid, (a, b) -> Double.compare(gains[b], gains[a]));
+				IntArrays.quickSort(docs, mid, to,   (a, b) -> Double.compare(gains[b], gains[a]));
+				
+				int swaps = 0;
+				for (int i = from, j = mid; i < mid && j < to && gains[docs[i]] + gains[docs[j]] > 0; i++, j++) {
+					add(docs[i], left, -1);
+					add(docs[i], right, 1);
+					add(docs[j], right, -1);
+					add(docs[j], left, 1);
+					final int t = docs[i];
+					docs[i] = docs[j];
+					docs[j] = t;
+					swaps++;
+				}
+				if (swaps == 0)
+					break;
+			}
+			
+			for (int i = from; i < to; i++)
+				for (long k = offsets[docs[i]]; k < offsets[docs[i] + 1]; k++)
+					left[terms[(int) (k - base)]] = right[terms[(int) (k - base)]] = 0;
+		}
+		
+		private void add(final int doc, final int[] degree, final int delta)
+		{
+			for (long k = offsets[doc]; k < offsets[doc + 1]; k++)
+				degree[terms[(int) (k - base)]] += delta;
+		}
+		
+		/**
+		 * The decrease of the estimated cost when the given document moves from its half to the other one.
+		 */
+		private double gain(final int doc, final int[] from, final int[] to, final double log_from, final double log_to)
+		{
+			double gain = 0;
+			for (long k = offsets[doc]; k < offsets[doc + 1]; k++) {
+				final int df = from[terms[(int) (k - base)]], dt = to[terms[(int) (k - base)]];
+				gain += cost(df, log_from) + cost(dt, log_to) - cost(df - 1, log_from) - cost(dt + 1, log_to);
+			}
+			return gain;
+		}
+		
+		private double cost(final int degree, final double log_n)
+		{
+			return degree * (log_n - log2(degree + 1));
+		}
+		
+		private final class Bisect extends RecursiveAction
+		{
+			private static final long serialVersionUID = 1L;
+			private final int from, to;
+			
+			Bisect(final int from, final int to)
+			{
+				this.from = from;
+				this.to = to;
+			}
+			
+			@Override
+			protected void compute() 
+			{
+				if (to - from < 2 * min_partition_size)
+					return;
+				bisect(from, to);
+				final int mid = (from + to) >>> 1;
+				invokeAll(new Bisect(from, mid), new Bisect(mid, to));
+			}
+		}
+	}
+}
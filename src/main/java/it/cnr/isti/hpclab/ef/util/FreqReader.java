@@ -31,11 +31,6 @@
  */
 package it.cnr.isti.hpclab.ef.util;
 
-import static it.unimi.dsi.bits.Fast.MSBS_STEP_8;
-import static it.unimi.dsi.bits.Fast.ONES_STEP_4;
-import static it.unimi.dsi.bits.Fast.ONES_STEP_8;
-
-import it.unimi.dsi.bits.Fast;
 import it.unimi.dsi.fastutil.longs.LongBigList;
 
 public class FreqReader 
@@ -77,6 +72,14 @@ public class FreqReader
 	/** The index of the current prefix sum. */
 	protected long currentIndex;
 
+	/** The positions of the ones of a word of upper bits, if decoded by {@link BitKernels#ones(long, int[])}. */
+	private int[] ones;
+	/** The select index over the ones of the upper bits, or null if not available. */
+	private SelectIndexReader select;
+
+	/** Below this distance, {@link #getLong(long)} catches up by dropping ones from the window rather than selecting in a word. */
+	private final static int CATCH_UP_THRESHOLD = 8;
+
 	public FreqReader(final LongBigList list, final long position, final long frequency, final long occurrency, final int log2Quantum) 
 	{
 		this.l = Utils.lowerBits(frequency, occurrency, true);
@@ -99,6 +102,17 @@ public class FreqReader
 		position(upperBitsStart);
 	}
 
+	/**
+	 * Use, for long skips, the select index over the ones of the upper bits of this list, rather than its forward pointers.
+	 * 
+	 * @param list the list containing the select index, written by {@link SequenceEncoder#dumpSelectIndex(LongWordBitWriter)}
+	 * @param position the bit position of the select index
+	 */
+	public void useSelectIndex(final LongBigList list, final long position)
+	{
+		select = new SelectIndexReader(list, position, this.list, upperBitsStart, false);
+	}
+
 	private void position(final long position) 
 	{
 		window = list.getLong(curr = position / Long.SIZE) & -1L << (int) (position);
@@ -118,38 +132,46 @@ public class FreqReader
 			return prefixSum - prevPrefixSum + 1;
 		}
 
-		if (delta >= quantum) {
-			final long block = index >>> log2Quantum;
-			assert block > 0;
-			assert block <= numberOfPointers;
-			final long skip = skipPointers.extract(skipPointersStart + (block - 1) * pointerSize);
-			position(upperBitsStart + skip - 1);
-			final long blockOnes = block << log2Quantum;
-			delta = index - blockOnes + 1;
+		if (delta < CATCH_UP_THRESHOLD) {
+			// We are just a few elements behind: we cancel the ones up to, but not including, the target one.
+			while (--delta > 0) {
+				while (window == 0)
+					window = list.getLong(++curr);
+				window &= window - 1;
+			}
+			while (window == 0)
+				window = list.getLong(++curr);
+		} else {
+			if (select != null && delta > 1 << SelectIndexEncoder.LOG2_SUBBLOCK) {
+				// the select index locates the one of the previous element
+				position(upperBitsStart + select.select(index - 1));
+				delta = 1;
+			} else if (delta >= quantum) {
+				final long block = index >>> log2Quantum;
+				assert block > 0;
+				assert block <= numberOfPointers;
+				final long skip = skipPointers.extract(skipPointersStart + (block - 1) * pointerSize);
+				position(upperBitsStart + skip - 1);
+				final long blockOnes = block << log2Quantum;
+				delta = index - blockOnes + 1;
+			}
+	
+			if (BitKernels.bulkCount())
+				// whole blocks of words before the target one are skipped at once
+				for (long ones; delta > Long.SIZE && curr + 1 + BitKernels.WORDS < list.size64() && (ones = Long.bitCount(window) + BitKernels.bitCount(list, curr + 1, curr + 1 + BitKernels.WORDS)) < delta; delta -= ones)
+					window = list.getLong(curr += BitKernels.WORDS + 1);
+			for (int bitCount; (bitCount = Long.bitCount(window)) < delta; delta -= bitCount)
+				window = list.getLong(++curr);
 		}
 
-		for (int bitCount; (bitCount = Long.bitCount(window)) < delta; delta -= bitCount)
-			window = list.getLong(++curr);
-
 		/*
 		 * This appears to be faster than != 0.
 		 * Note that for delta == 1 the following code is a NOP.
 		 */
 		if (--delta > 0) {
-			// Phase 1: sums by byte
 			final long word = window;
 			assert delta < Long.bitCount(word) : delta + " >= "	+ Long.bitCount(word);
-			long byteSums = word - ((word & 0xa * ONES_STEP_4) >>> 1);
-			byteSums = (byteSums & 3 * ONES_STEP_4) + ((byteSums >>> 2) & 3 * ONES_STEP_4);
-			byteSums = (byteSums + (byteSums >>> 4)) & 0x0f * ONES_STEP_8;
-			byteSums *= ONES_STEP_8;
-			// Phase 2: compare each byte sum with delta to obtain the relevant byte
-			final long rankStep8 = delta * ONES_STEP_8;
-			final long byteOffset = (((((rankStep8 | MSBS_STEP_8) - byteSums) & MSBS_STEP_8) >>> 7)	* ONES_STEP_8 >>> 53) & ~0x7;
-
-			final int byteRank = (int) (delta - (((byteSums << 8) >>> byteOffset) & 0xFF));
-
-			final int select = (int) (byteOffset + Fast.selectInByte[(int) (word >>> byteOffset & 0xFF)	| byteRank << 8]);
+			final int select = BitKernels.select(word, (int) delta);
 
 			// We cancel up to, but not including, the target one.
 			window &= -1L << select;
@@ -166,6 +188,58 @@ public class FreqReader
 		return prefixSum - prevPrefixSum + 1;
 	}
 
+	/**
+	 * Decodes <code>count</code> consecutive elements, starting from the one of given <code>index</code>, in <code>buffer</code>.
+	 * Only the first element is located with {@link #getLong(long)}, the following ones are decoded sequentially 
+	 * consuming all the ones of the current upper bits word before loading the next one.
+	 * 
+	 * @param index the index of the first element to decode
+	 * @param buffer the array where to store the elements
+	 * @param offset the position in <code>buffer</code> of the first decoded element
+	 * @param count the number of elements to decode, at least one
+	 */
+	public void getLongs(final long index, final int[] buffer, final int offset, final int count)
+	{
+		buffer[offset] = (int) getLong(index);
+
+		long window = this.window;
+		long curr = this.curr;
+		long currentIndex = this.currentIndex;
+		long prefixSum = this.prefixSum;
+		long prevPrefixSum = this.prevPrefixSum;
+		
+		for (int i = offset + 1, end = offset + count; i < end; ) {
+			while (window == 0)
+				window = list.getLong(++curr);
+			final long wordStart = curr * Long.SIZE - upperBitsStart;
+			if (BitKernels.bulkDecode()) {
+				// all the ones of the word are located at once, and only the decoded ones are cancelled
+				final int[] ones = (this.ones != null) ? this.ones : (this.ones = new int[Long.SIZE]);
+				final int n = BitKernels.ones(window, ones);
+				final int m = Math.min(n, end - i);
+				for (int j = 0; j < m; j++) {
+					prevPrefixSum = prefixSum;
+					prefixSum = wordStart + ones[j] - currentIndex++ << l | lowerBits.extract();
+					buffer[i++] = (int) (prefixSum - prevPrefixSum + 1);
+				}
+				window = (m == n) ? 0 : window & -1L << ones[m];
+			} else {
+				do {
+					prevPrefixSum = prefixSum;
+					prefixSum = wordStart + Long.numberOfTrailingZeros(window) - currentIndex++ << l | lowerBits.extract();
+					buffer[i++] = (int) (prefixSum - prevPrefixSum + 1);
+					window &= window - 1;
+				} while (window != 0 && i < end);
+			}
+		}
+		
+		this.window = window;
+		this.curr = curr;
+		this.currentIndex = currentIndex;
+		this.prefixSum = prefixSum;
+		this.prevPrefixSum = prevPrefixSum;
+	}
+
 	@Override
 	public String toString() 
 	{
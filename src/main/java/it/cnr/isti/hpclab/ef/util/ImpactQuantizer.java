@@ -0,0 +1,213 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.util;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map.Entry;
+
+import org.terrier.matching.models.WeightingModel;
+import org.terrier.matching.models.WeightingModelFactory;
+import org.terrier.structures.BitIndexPointer;
+import org.terrier.structures.CollectionStatistics;
+import org.terrier.structures.Index;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.LexiconEntry;
+import org.terrier.structures.postings.IterablePosting;
+
+import it.cnr.isti.hpclab.ef.EliasFano;
+
+/**
+ * This class maps the scores of a weighting model to impacts, i.e., integers in <code>[1, 2^bits - 1]</code>, linearly w.r.t. the maximum score 
+ * of any posting of the index. Scores are rounded up, so that the score of an impact is never smaller than the scores mapped to it, 
+ * and non-positive scores are mapped to the smallest impact.
+ * The weighting model, the number of bits and the maximum score are stored in the index properties.
+ */
+public class ImpactQuantizer 
+{
+	public static final int DEFAULT_BITS = 8;
+	
+	private final String model;
+	private final int bits;
+	private final double maxScore;
+	/** The largest impact. */
+	private final int levels;
+	
+	/**
+	 * Constructor.
+	 * @param model the name of the weighting model
+	 * @param bits the number of bits of an impact
+	 * @param maxScore the maximum score of any posting
+	 */
+	public ImpactQuantizer(final String model, final int bits, final double maxScore)
+	{
+		if (bits < 1 || bits > 30)
+			throw new IllegalArgumentException("Impacts must have between 1 and 30 bits, not " + bits);
+		this.model = model;
+		this.bits = bits;
+		this.maxScore = maxScore;
+		this.levels = (1 << bits) - 1;
+	}
+	
+	/**
+	 * Create the quantizer of the given weighting model on an index, scoring all its postings to find the maximum score.
+	 * 
+	 * @param index the index
+	 * @param model the name of the weighting model
+	 * @param bits the number of bits of an impact
+	 * @return the quantizer
+	 * @throws IOException if something goes wrong while reading the postings
+	 */
+	public static ImpactQuantizer create(final Index index, final String model, final int bits) throws IOException
+	{
+		final WeightingModel wm = newModel(model, index.getCollectionStatistics());
+		double max = 0;
+		Iterator<Entry<String, LexiconEntry>> lex_iter = index.getLexicon().iterator();
+		while (lex_iter.hasNext()) {
+			final LexiconEntry le = lex_iter.next().getValue();
+			prepare(wm, le);
+			final IterablePosting p = index.getInvertedIndex().getPostings((BitIndexPointer) le);
+			while (p.next() != IterablePosting.END_OF_LIST)
+				max = Math.max(max, wm.score(p.getFrequency(), p.getDocumentLength()));
+			p.close();
+		}
+		return new ImpactQuantizer(model, bits, max);
+	}
+	
+	/**
+	 * Load the quantizer of an index with impacts.
+	 * 
+	 * @param index the index
+	 * @return the quantizer, or null if the index has no impacts
+	 */
+	public static ImpactQuantizer load(final IndexOnDisk index)
+	{
+		if (!"true".equals(index.getIndexProperty(EliasFano.HAS_IMPACTS, "false")))
+			return null;
+		return new ImpactQuantizer(index.getIndexProperty(EliasFano.IMPACT_MODEL, null), 
+								   index.getIntIndexProperty(EliasFano.IMPACT_BITS, DEFAULT_BITS), 
+								   Double.parseDouble(index.getIndexProperty(EliasFano.IMPACT_MAX_SCORE, "0")));
+	}
+	
+	/**
+	 * Store the quantizer, and the impacts index structure, in the properties of an index.
+	 * 
+	 * @param index the index
+	 * @throws IOException if something goes wrong while writing the properties
+	 */
+	public void writeProperties(final IndexOnDisk index) throws IOException
+	{
+		index.setIndexProperty(EliasFano.HAS_IMPACTS,      "true");
+		index.setIndexProperty(EliasFano.IMPACT_MODEL,     model);
+		index.setIndexProperty(EliasFano.IMPACT_BITS,      Integer.toString(bits));
+		index.setIndexProperty(EliasFano.IMPACT_MAX_SCORE, Double.toString(maxScore));
+		index.setIndexProperty("index.impacts.class",            "it.cnr.isti.hpclab.ef.structures.EFImpactIndex");
+		index.setIndexProperty("index.impacts.parameter_types",  "org.terrier.structures.IndexOnDisk");
+		index.setIndexProperty("index.impacts.parameter_values", "index");
+		index.flush();
+	}
+	
+	/**
+	 * Create a new instance of the weighting model, with the given collection statistics.
+	 * 
+	 * @param cs the collection statistics
+	 * @return the weighting model
+	 */
+	public WeightingModel newModel(final CollectionStatistics cs)
+	{
+		return newModel(model, cs);
+	}
+	
+	private static WeightingModel newModel(final String model, final CollectionStatistics cs)
+	{
+		final WeightingModel wm = WeightingModelFactory.newInstance(model).clone();
+		wm.setCollectionStatistics(cs);
+		return wm;
+	}
+	
+	/**
+	 * Prepare a weighting model to score the postings of a term.
+	 * 
+	 * @param wm the weighting model
+	 * @param le the lexicon entry of the term
+	 */
+	public static void prepare(final WeightingModel wm, final LexiconEntry le)
+	{
+		wm.setEntryStatistics(le);
+		wm.setKeyFrequency(1);
+		wm.prepare();
+	}
+	
+	/**
+	 * Return the impact of a score.
+	 * @param score the score
+	 * @return the impact
+	 */
+	public int quantize(final double score)
+	{
+		if (score <= 0 || maxScore <= 0)
+			return 1;
+		return (int) Math.max(1, Math.min(levels, Math.ceil(score / maxScore * levels)));
+	}
+	
+	/**
+	 * Return the score of an impact, never smaller than the scores mapped to it.
+	 * @param impact the impact
+	 * @return the score
+	 */
+	public double dequantize(final int impact)
+	{
+		return impact * maxScore / levels;
+	}
+	
+	/**
+	 * Return the name of the weighting model.
+	 * @return the name of the weighting model
+	 */
+	public String getModel()
+	{
+		return model;
+	}
+	
+	/**
+	 * Return the number of bits of an impact.
+	 * @return the number of bits of an impact
+	 */
+	public int getBits()
+	{
+		return bits;
+	}
+	
+	/**
+	 * Return the maximum score of any posting.
+	 * @return the maximum score of any posting
+	 */
+	public double getMaxScore()
+	{
+		return maxScore;
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public String toString()
+	{
+		return model + " in " + bits + " bits, up to " + maxScore;
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.util;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import org.terrier.matching.models.WeightingModel;
+import org.terrier.structures.CollectionStatistics;
+import org.terrier.structures.LexiconEntry;
+
+import it.cnr.isti.hpclab.ef.EliasFano;
+
+/**
+ * This class writes the impacts of a sequence of posting lists, i.e., the quantized scores of their postings, see {@link ImpactQuantizer}.
+ * The impacts of every posting list are encoded with Elias-Fano as its frequencies, preceded by the gamma codes of the largest impact minus one 
+ * and of the sum of the impacts minus the number of postings. 
+ * The <code>.impacts</code> file contains the impacts of all posting lists, one after the other, while 
+ * the <code>.impacts-offsets</code> file contains, for every posting list in termid order, the (long) bit offset of its impacts.
+ * Both files are closed by an additional long, as any file written by {@link LongWordBitWriter}.
+ */
+public class ImpactWriter implements Closeable
+{
+	protected static final int DEFAULT_CACHE_SIZE = 64 * 1024 * 1024;
+
+	private final LongWordBitWriter impacts;
+	private final LongWordBitWriter offsets;
+	private final SequenceEncoder accumulator;
+	private final int log2Quantum;
+	
+	private final ImpactQuantizer quantizer;
+	private final WeightingModel model;
+	
+	/** The bit offset of the next posting list in the impacts file. */
+	private long impactsOffset = 0;
+	
+	/** The impacts of the current posting list. */
+	private int[] buffer = new int[1024];
+	private int count;
+	
+	/**
+	 * Constructor.
+	 * @param prefix the path and prefix of the files to write
+	 * @param log2Quantum the base 2 logarithm of the quantum used to compute skip (or forward) pointers
+	 * @param quantizer the quantizer of the scores
+	 * @param cs the collection statistics used to compute the scores
+	 * @throws IOException if something goes wrong in opening the files
+	 */
+	@SuppressWarnings("resource")
+	public ImpactWriter(final String prefix, final int log2Quantum, final ImpactQuantizer quantizer, final CollectionStatistics cs) throws IOException
+	{
+		this.impacts = new LongWordBitWriter(new FileOutputStream(prefix + EliasFano.IMPACTS_EXTENSION).getChannel(), ByteOrder.nativeOrder());
+		this.offsets = new LongWordBitWriter(new FileOutputStream(prefix + EliasFano.IMPACTS_OFFSETS_EXTENSION).getChannel(), ByteOrder.nativeOrder());
+		this.accumulator = new SequenceEncoder(DEFAULT_CACHE_SIZE, log2Quantum);
+		this.log2Quantum = log2Quantum;
+		this.quantizer = quantizer;
+		this.model = quantizer.newModel(cs);
+	}
+	
+	/**
+	 * Start a new posting list.
+	 * @param le the lexicon entry of the term of the posting list
+	 * @throws IOException if something goes wrong in writing
+	 */
+	public void init(final LexiconEntry le) throws IOException
+	{
+		offsets.append(impactsOffset, Long.SIZE);
+		ImpactQuantizer.prepare(model, le);
+		count = 0;
+	}
+	
+	/**
+	 * Add a posting to the current posting list.
+	 * @param freq the term frequency of the posting
+	 * @param length the length of the document
+	 */
+	public void add(final int freq, final int length)
+	{
+		if (count == buffer.length)
+			buffer = Arrays.copyOf(buffer, 2 * count);
+		buffer[count++] = quantizer.quantize(model.score(freq, length));
+	}
+	
+	/**
+	 * Complete the current posting list, writing its impacts.
+	 * @throws IOException if something goes wrong in writing
+	 */
+	public void finish() throws IOException
+	{
+		long sum = 0;
+		int max = 1;
+		for (int i = 0; i < count; i++) {
+			sum += buffer[i];
+			max = Math.max(max, buffer[i]);
+		}
+		
+		impactsOffset += impacts.writeGamma(max - 1);
+		impactsOffset += impacts.writeGamma(sum - count);
+		accumulator.init(count, sum, true, false, log2Quantum);
+		for (int i = 0; i < count; i++)
+			accumulator.add(buffer[i]);
+		impactsOffset += accumulator.dump(impacts);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close() throws IOException 
+	{
+		accumulator.close();
+		impacts.close();
+		offsets.close();
+	}
+}
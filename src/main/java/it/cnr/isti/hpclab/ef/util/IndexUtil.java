@@ -24,6 +24,7 @@ import java.io.IOException;
 import java.nio.ByteOrder;
 import java.util.Properties;
 
+import org.terrier.structures.IndexOnDisk;
 import org.terrier.utility.ApplicationSetup;
 import org.terrier.utility.Files;
 
@@ -33,6 +34,24 @@ public class IndexUtil
 {
 	public static int DEFAULT_MAX_TERM_LENGTH = ApplicationSetup.MAX_TERM_LENGTH;
 	
+	/**
+	 * Return the byte order of the files of an Elias-Fano index, as recorded in its properties.
+	 * 
+	 * @param index the Elias-Fano index
+	 * @return the byte order of the index files
+	 * @throws IllegalStateException if the index properties do not record a byte order
+	 */
+	public static ByteOrder byteOrder(final IndexOnDisk index)
+	{
+		final String byteOrderString = index.getIndexProperty(EliasFano.BYTEORDER, "");
+		if (byteOrderString.equals("LITTLE_ENDIAN"))
+			return ByteOrder.LITTLE_ENDIAN;
+		else if (byteOrderString.equals("BIG_ENDIAN"))
+			return ByteOrder.BIG_ENDIAN;
+		else
+			throw new IllegalStateException("Unknown byte order \"" + byteOrderString + "\" of index " + index.getPath() + File.separator + index.getPrefix());
+	}
+	
 	/**
 	 * This static method is used to generate a properties file for a Elias-Fano Terrier index including only "default" data structures.
 	 * <p>
@@ -0,0 +1,86 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.util;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import it.unimi.dsi.fastutil.longs.LongBigList;
+import it.unimi.dsi.util.ByteBufferLongBigList;
+
+/**
+ * Memory-mapping of the files of an Elias-Fano index as lists of longs.
+ * <p>
+ * This is the portable version, mapping files with {@link ByteBufferLongBigList}, i.e., as a sequence of byte buffers of at most 1 GB. 
+ * The multi-release jar also contains a version for JDK 21 or later, in <code>src/main/java21</code>, that can map a whole file as a single
+ * memory segment. The storage can be chosen with the {@link it.cnr.isti.hpclab.ef.EliasFano#STORAGE} system property, ignored by this version.
+ */
+public final class LongStorage 
+{
+	private LongStorage()
+	{
+	}
+	
+	/**
+	 * Map a file, read-only, as a list of longs.
+	 * 
+	 * @param path the path of the file
+	 * @param byteOrder the byte order of the file
+	 * @return the list of the longs of the file
+	 * @throws IOException if something goes wrong in mapping the file
+	 */
+	public static LongBigList map(final String path, final ByteOrder byteOrder) throws IOException
+	{
+		try (FileChannel channel = new FileInputStream(path).getChannel()) {
+			return ByteBufferLongBigList.map(channel, byteOrder, MapMode.READ_ONLY);
+		}
+	}
+	
+	/**
+	 * Unmap a list returned by {@link #map(String, ByteOrder)}, if the storage supports it; otherwise, the list is unmapped when garbage collected.
+	 * The list, and any reader over it, must not be used afterwards.
+	 * 
+	 * @param list the list, or null
+	 */
+	public static void unmap(final LongBigList list)
+	{
+		if (list instanceof Closeable) {
+			try {
+				((Closeable) list).close();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+	
+	/**
+	 * Return the name of the storage in use.
+	 * @return the name of the storage in use
+	 */
+	public static String implementation()
+	{
+		return "buffer";
+	}
+}
@@ -36,6 +36,9 @@ import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -47,6 +50,10 @@ import java.nio.channels.FileChannel;
  * the cache must be populated first, then "rewinded", then accessed sequentially.
  * It is backed by a file {@link #spill_file} on disk accessed via Java NIO {@link #spill_channel}. 
  * Up to {@link #cache_bit_length} bits are held in memory, everything else on disk.
+ * The memory buffer starts small and doubles, up to the size given at construction, as long as the 
+ * shared {@link CacheBudget} allows it; otherwise the cache spills to disk. When the cache is cleared after holding
+ * less than a quarter of its buffer, the buffer shrinks back to its initial size and its memory is returned to the budget.
+ * Replaced buffers are freed at once, rather than when garbage collected.
  */
 public final class LongWordCache implements Closeable 
 {
@@ -57,8 +64,17 @@ public final class LongWordCache implements Closeable
 	/** Whether {@link #spill_channel} should be repositioned at 0 <b>before usage</b>. */
 	private boolean spill_must_be_rewind;
 	
+	/** Whether {@link #spill_channel} has been written since the last {@link #clear()}. */
+	private boolean spilled;
+	
+	/** The initial size in bytes of {@link #cache}. */
+	private static final int INITIAL_CACHE_SIZE = 64 * 1024;
+	
 	/** A cache for longwords. Will be spilled to {@link #spill_channel} in case more than {@link #cache_bit_length} bits are added. */
-	private final ByteBuffer cache;
+	private ByteBuffer cache;
+	
+	/** The maximum size in bytes of {@link #cache}. */
+	private final int max_cache_size;
 	
 	/** The current bit buffer. */
 	private long buffer;
@@ -66,6 +82,28 @@ public final class LongWordCache implements Closeable
 	/** The current number of free bits in {@link #buffer}. */
 	private int free;
 	
+	/** The <code>invokeCleaner</code> method of <code>sun.misc.Unsafe</code> on Java 9 or later, or null. */
+	private static final Method INVOKE_CLEANER;
+	/** The instance of <code>sun.misc.Unsafe</code> on Java 9 or later, or null. */
+	private static final Object UNSAFE;
+	
+	static {
+		Method invokeCleaner = null;
+		Object unsafe = null;
+		try {
+			final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			unsafe = theUnsafe.get(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// Java 8, the cleaner of the buffer is used
+			invokeCleaner = null;
+		}
+		INVOKE_CLEANER = invokeCleaner;
+		UNSAFE = unsafe;
+	}
+	
 	/** The length of the cache, in <b>bits</b>. */
 	private long cache_bit_length;
 	
@@ -77,7 +115,7 @@ public final class LongWordCache implements Closeable
 	 * The <code>suffix</code> is the suffix of the temporary file created to back up
 	 * the cache on disk. It is deleted on exit.
 	 * 
-	 * @param cache_bit_size the length of the cache memory buffer in bits
+	 * @param cache_bit_size the maximum length of the cache memory buffer in bytes
 	 * @param tmp_suffix the suffix of the temporary file backing up the cache on disk
 	 * @throws IOException if something goes wrong
 	 */
@@ -87,10 +125,18 @@ public final class LongWordCache implements Closeable
 		spill_file = File.createTempFile(LongWordCache.class.getName(), tmp_suffix);
 		spill_file.deleteOnExit();
 		spill_channel = new RandomAccessFile(spill_file, "rw").getChannel();
-		cache = ByteBuffer.allocateDirect(cache_bit_size).order(ByteOrder.nativeOrder());
-		cache_bit_length = cache_bit_size * 8L; // in bits
+		max_cache_size = cache_bit_size;
+		final int cache_size = initialSize();
+		CacheBudget.reserve(cache_size);
+		cache = ByteBuffer.allocateDirect(cache_size).order(ByteOrder.nativeOrder());
+		cache_bit_length = cache_size * 8L; // in bits
 		free = Long.SIZE;
 	}
+	
+	private int initialSize()
+	{
+		return Math.min(max_cache_size, INITIAL_CACHE_SIZE);
+	}
 
 	/**
 	 * Insert in cache a long <code>value</code> on <code>bit_width</code> bits (lower positions).
@@ -122,14 +168,22 @@ public final class LongWordCache implements Closeable
 	}
 
 	/**
-	 * Empty the cache
+	 * Empty the cache. If it held less than a quarter of its memory buffer, the buffer shrinks back to its initial size.
 	 */
 	public void clear() 
 	{
+		final int initial_size = initialSize();
+		if (cache.capacity() > initial_size && length < cache.capacity() * 2L) {
+			CacheBudget.release(cache.capacity() - initial_size);
+			free(cache);
+			cache = ByteBuffer.allocateDirect(initial_size).order(ByteOrder.nativeOrder());
+			cache_bit_length = initial_size * 8L;
+		}
 		length = buffer = 0;
 		free = Long.SIZE;
 		((Buffer)cache).clear();
 		spill_must_be_rewind = true;
+		spilled = false;
 	}
 
 	/**
@@ -140,6 +194,8 @@ public final class LongWordCache implements Closeable
 	{
 		spill_channel.close();
 		spill_file.delete();
+		CacheBudget.release(cache.capacity());
+		free(cache);
 	}
 
 	/**
@@ -201,7 +257,7 @@ public final class LongWordCache implements Closeable
 		if (free != Long.SIZE)
 			cache.putLong(buffer);
 
-		if (length > cache_bit_length) {
+		if (spilled) {
 			((Buffer)cache).flip();
 			spill_channel.write(cache);
 			spill_channel.position(0);
@@ -216,6 +272,13 @@ public final class LongWordCache implements Closeable
 	{
 		cache.putLong(buffer);
 		if (!cache.hasRemaining()) {
+			// the buffer doubles up to the largest multiple of a long not exceeding the maximum size
+			final int larger = (int) Math.min(2L * cache.capacity(), max_cache_size & -Long.BYTES);
+			if (!spilled && larger > cache.capacity() && CacheBudget.tryReserve(larger - cache.capacity())) {
+				grow(larger);
+				return;
+			}
+			spilled = true;
 			if (spill_must_be_rewind) {
 				spill_must_be_rewind = false;
 				spill_channel.position(0);
@@ -226,6 +289,41 @@ public final class LongWordCache implements Closeable
 		}
 	}
 	
+	/**
+	 * Replace the (full) memory buffer with a larger one, whose additional memory has already been reserved, and free it.
+	 * @param size the size in bytes of the larger buffer
+	 */
+	private void grow(final int size)
+	{
+		final ByteBuffer larger = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+		((Buffer)cache).flip();
+		larger.put(cache);
+		free(cache);
+		cache = larger;
+		cache_bit_length = cache.capacity() * 8L;
+	}
+	
+	/**
+	 * Free the memory of a direct buffer, which must not be used afterwards; if not possible, the memory is freed when the buffer is garbage collected.
+	 * @param buffer the direct buffer
+	 */
+	private static void free(final ByteBuffer buffer)
+	{
+		try {
+			if (INVOKE_CLEANER != null) {
+				INVOKE_CLEANER.invoke(UNSAFE, buffer);
+			} else {
+				final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				final Object cleaner = cleanerMethod.invoke(buffer);
+				if (cleaner != null)
+					cleaner.getClass().getMethod("clean").invoke(cleaner);
+			}
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// the buffer is freed when garbage collected
+		}
+	}
+	
 	public static void main(String[] args) throws IOException
 	{
 		LongWordCache cache = new LongWordCache(8, "tmp");
@@ -0,0 +1,242 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.util;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongBigList;
+
+/**
+ * A minimal perfect hash function on strings, i.e., a bijection between a set of <i>n</i> strings and [0, <i>n</i>), 
+ * built by the fingerprinting technique of BBHash.
+ * <p>
+ * Every string is hashed once to a 128-bit signature. At every level, the remaining strings are hashed to a bit array of
+ * {@link #GAMMA} bits per string: the bits hit by exactly one string are set, and the strings colliding with others go to the next level.
+ * The value of a string is the rank of its bit in the concatenation of the bit arrays, computed with a sample of the number of ones
+ * every {@link #WORDS_PER_SAMPLE} words. Lookups visit less than two levels on average, and use about 3.7 bits per string.
+ * <p>
+ * The function is written with {@link #write(Iterator, long, LongWordBitWriter)}, as the number of strings and of levels, 
+ * the starting bit and size of every level, the bit arrays and the rank samples, and read from a memory-mapped list of longs, 
+ * without allocating anything. Strings out of the set are mapped to -1 or to an arbitrary value.
+ */
+public final class MinimalPerfectHash 
+{
+	/** The number of bits per string of every level. */
+	public static final int GAMMA = 2;
+	/** The number of words between two rank samples. */
+	public static final int WORDS_PER_SAMPLE = 8;
+	/** The maximum number of levels, reached only if two strings have the same signature. */
+	private static final int MAX_LEVELS = 64;
+	
+	/** The list containing the function. */
+	private final LongBigList list;
+	/** The number of strings. */
+	private final long n;
+	/** The number of levels. */
+	private final int levels;
+	/** The starting bit and the size of every level. */
+	private final long[] start, size;
+	/** The position of the first word of the bit arrays. */
+	private final long bits;
+	/** The position of the first rank sample. */
+	private final long samples;
+	/** The position following the function. */
+	private final long end;
+	
+	/**
+	 * Constructor.
+	 * @param list the list containing the function
+	 * @param position the position, in longs, of the function
+	 */
+	public MinimalPerfectHash(final LongBigList list, final long position)
+	{
+		this.list = list;
+		n = list.getLong(position);
+		levels = (int) list.getLong(position + 1);
+		start = new long[levels];
+		size = new long[levels];
+		for (int l = 0; l < levels; l++) {
+			start[l] = list.getLong(position + 2 + 2 * l);
+			size[l] = list.getLong(position + 3 + 2 * l);
+		}
+		final long words = levels == 0 ? 0 : (start[levels - 1] + size[levels - 1]) / Long.SIZE;
+		bits = position + 2 + 2 * levels;
+		samples = bits + words;
+		end = samples + (words + WORDS_PER_SAMPLE - 1) / WORDS_PER_SAMPLE;
+	}
+	
+	/**
+	 * Return the number of strings.
+	 * @return the number of strings
+	 */
+	public long size()
+	{
+		return n;
+	}
+	
+	/**
+	 * Return the position, in longs, following the function.
+	 * @return the position following the function
+	 */
+	public long end()
+	{
+		return end;
+	}
+	
+	/**
+	 * Return the value of a string.
+	 * 
+	 * @param key the string
+	 * @return the value of the string, in [0, {@link #size()}), if the string is in the set; otherwise, -1 or an arbitrary value
+	 */
+	public long getLong(final CharSequence key)
+	{
+		final long h0 = hash(key, SEED0), h1 = hash(key, SEED1);
+		for (int l = 0; l < levels; l++) {
+			final long bit = start[l] + position(h0, h1, l, size[l]);
+			final long word = bit >>> 6;
+			final long w = list.getLong(bits + word);
+			if ((w & 1L << bit) != 0) {
+				final long rank = list.getLong(samples + word / WORDS_PER_SAMPLE) + BitKernels.bitCount(list, bits + word - word % WORDS_PER_SAMPLE, bits + word);
+				return rank + Long.bitCount(w & (1L << bit) - 1);
+			}
+		}
+		return -1;
+	}
+	
+	private static final long SEED0 = 0x9E3779B97F4A7C15L;
+	private static final long SEED1 = 0xC2B2AE3D27D4EB4FL;
+	
+	/** The finalizer of MurmurHash3. */
+	private static long mix(long h)
+	{
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		return h ^ h >>> 33;
+	}
+	
+	private static long hash(final CharSequence key, final long seed)
+	{
+		long h = seed ^ key.length();
+		for (int i = 0; i < key.length(); i++)
+			h = (h ^ key.charAt(i)) * 0x100000001B3L + (h >>> 29);
+		return mix(h ^ seed);
+	}
+	
+	/** Return the position of a signature at a level of the given size, by double hashing; the size must not exceed 2<sup>32</sup>, so that the product does not overflow. */
+	private static long position(final long h0, final long h1, final int level, final long size)
+	{
+		final long h = mix(h0 + level * h1);
+		return ((h >>> 32) * size) >>> 32;
+	}
+	
+	/**
+	 * Build a minimal perfect hash function and write it.
+	 * 
+	 * @param keys the strings, all distinct
+	 * @param n the number of strings, smaller than 2<sup>31</sup>
+	 * @param out the writer where to write the function
+	 * @return the value of every string, in the order of <code>keys</code>
+	 * @throws IOException if something goes wrong while writing the function
+	 * @throws IllegalArgumentException if <code>n</code> is negative or not smaller than 2<sup>31</sup>, or if two strings have the same signature, e.g., they are equal
+	 */
+	public static int[] write(final Iterator<? extends CharSequence> keys, final long n, final LongWordBitWriter out) throws IOException
+	{
+		// the first level has at most GAMMA * 2^31 = 2^32 bits
+		if (n < 0 || n > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("The number of strings must be in [0, 2^31): " + n);
+		final long[] h0 = new long[(int) n], h1 = new long[(int) n];
+		for (int i = 0; i < n; i++) {
+			final CharSequence key = keys.next();
+			h0[i] = hash(key, SEED0);
+			h1[i] = hash(key, SEED1);
+		}
+		
+		// the indexes of the remaining strings, the starting bit and size of every level and the bit arrays
+		int[] remaining = new int[(int) n];
+		for (int i = 0; i < n; i++)
+			remaining[i] = i;
+		int count = (int) n;
+		final LongArrayList starts = new LongArrayList(), sizes = new LongArrayList();
+		final LongArrayList words = new LongArrayList();
+		final int[] level = new int[(int) n];
+		while (count > 0) {
+			if (starts.size() == MAX_LEVELS)
+				throw new IllegalArgumentException("Duplicate signatures among " + count + " strings");
+			final int l = starts.size();
+			final long size = Math.max(Long.SIZE, ((long) GAMMA * count + Long.SIZE - 1) / Long.SIZE * Long.SIZE);
+			final long[] hit = new long[(int) (size / Long.SIZE)], collision = new long[hit.length];
+			for (int i = 0; i < count; i++) {
+				final long p = position(h0[remaining[i]], h1[remaining[i]], l, size);
+				if ((hit[(int) (p >>> 6)] & 1L << p) != 0)
+					collision[(int) (p >>> 6)] |= 1L << p;
+				hit[(int) (p >>> 6)] |= 1L << p;
+			}
+			int next = 0;
+			for (int i = 0; i < count; i++) {
+				final long p = position(h0[remaining[i]], h1[remaining[i]], l, size);
+				if ((collision[(int) (p >>> 6)] & 1L << p) != 0)
+					remaining[next++] = remaining[i];
+				else
+					level[remaining[i]] = l;
+			}
+			for (int i = 0; i < hit.length; i++)
+				words.add(hit[i] & ~collision[i]);
+			starts.add(l == 0 ? 0 : starts.getLong(l - 1) + sizes.getLong(l - 1));
+			sizes.add(size);
+			count = next;
+		}
+		
+		final long[] samples = new long[(words.size() + WORDS_PER_SAMPLE - 1) / WORDS_PER_SAMPLE];
+		long ones = 0;
+		for (int i = 0; i < words.size(); i++) {
+			if (i % WORDS_PER_SAMPLE == 0)
+				samples[i / WORDS_PER_SAMPLE] = ones;
+			ones += Long.bitCount(words.getLong(i));
+		}
+		
+		// the value of every string is the rank of its bit
+		final int[] values = new int[(int) n];
+		for (int i = 0; i < n; i++) {
+			final long bit = starts.getLong(level[i]) + position(h0[i], h1[i], level[i], sizes.getLong(level[i]));
+			final int word = (int) (bit >>> 6);
+			long rank = samples[word / WORDS_PER_SAMPLE];
+			for (int j = word - word % WORDS_PER_SAMPLE; j < word; j++)
+				rank += Long.bitCount(words.getLong(j));
+			values[i] = (int) (rank + Long.bitCount(words.getLong(word) & (1L << bit) - 1));
+		}
+		
+		out.append(n, Long.SIZE);
+		out.append(starts.size(), Long.SIZE);
+		for (int l = 0; l < starts.size(); l++) {
+			out.append(starts.getLong(l), Long.SIZE);
+			out.append(sizes.getLong(l), Long.SIZE);
+		}
+		for (int i = 0; i < words.size(); i++)
+			out.append(words.getLong(i), Long.SIZE);
+		for (long sample : samples)
+			out.append(sample, Long.SIZE);
+		return values;
+	}
+}
@@ -0,0 +1,288 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This class implements an encoder of docid lists according to partitioned Elias-Fano, as described in
+ * G. Ottaviano and R. Venturini, "Partitioned Elias-Fano indexes", SIGIR 2014.
+ * <p>
+ * A docid list, closed by the fictional docid equal to the number of documents, is split into chunks by the 
+ * approximate optimal partitioning algorithm of the paper, and every chunk is encoded relatively to the upper bound 
+ * of the previous chunk plus one (or zero, for the first chunk), with the cheapest of three encodings, which 
+ * depends only on the chunk size <var>m</var> and universe <var>u</var>, so it is not stored:
+ * <ul>
+ * <li>a run, if <var>m</var> = <var>u</var>, i.e., the chunk contains all the docids of its universe, and nothing is written;</li>
+ * <li>a bitmap of <var>u</var> bits, preceded by rank samples, as written by {@link BitmapDocidEncoder};</li>
+ * <li>Elias-Fano, exactly as a whole docid list of <var>m</var> - 1 postings with upper bound <var>u</var> - 1.</li>
+ * </ul>
+ * The list starts with the number of chunks minus one, in gamma code. If there is more than one chunk, it follows the width of the 
+ * chunk offsets in gamma code, and three fixed-width arrays, one element per chunk but the last one: the index of the first 
+ * docid of the next chunk, the upper bound of the chunk, the bit offset of the next chunk w.r.t. the first one.
+ * Then all chunks follow.
+ * 
+ * @see PartitionedDocidReader
+ */
+public class PartitionedDocidEncoder implements Closeable 
+{
+	/** Chunk types. */
+	public static final int EF = 0, BITMAP = 1, RUN = 2;
+	
+	/** The approximate cost, in bits, of the metadata of a chunk, used by the partitioning algorithm. */
+	private static final long FIX_COST = 64;
+	/** The approximation parameters of the partitioning algorithm. */
+	private static final double EPS1 = 0.03, EPS2 = 0.3;
+	
+	/** The encoder of Elias-Fano chunks. */
+	private final SequenceEncoder chunkEncoder;
+	/** The logarithm of the indexing quantum of Elias-Fano chunks. */
+	private final int log2Quantum;
+
+	/** The docids of the current list, closed by the number of documents. */
+	private int[] values = new int[1024];
+	/** The number of docids of the current list. */
+	private int length;
+	/** The number of docids added so far. */
+	private int currentLength;
+	/** The number of documents. */
+	private int upperBound;
+	/** The current prefix sum. */
+	private long currentPrefixSum;
+	
+	/** The partitioning algorithm state: minimum cost of every prefix of the list and the corresponding last chunk start. */
+	private long[] minCost = new long[1025];
+	private int[] path = new int[1025];
+	
+	/**
+	 * Constructor.
+	 * @param bufferSize the size of the buffer in the file-backed caches used to encode Elias-Fano chunks
+	 * @param log2Quantum the base 2 logarithm of the quantum used to compute skip pointers of Elias-Fano chunks
+	 * @throws IOException if something goes wrong
+	 */
+	public PartitionedDocidEncoder(final int bufferSize, final int log2Quantum) throws IOException
+	{
+		this.chunkEncoder = new SequenceEncoder(bufferSize, log2Quantum);
+		this.log2Quantum = log2Quantum;
+	}
+	
+	/**
+	 * Initialization of the encoder. Must be called before actual encoding begins.
+	 * @param length the number of docids to encode
+	 * @param upperBound the number of documents
+	 */
+	public void init(final int length, final int upperBound)
+	{
+		this.length = length;
+		this.upperBound = upperBound;
+		this.currentLength = 0;
+		this.currentPrefixSum = 0;
+		if (values.length < length + 1)
+			values = new int[Math.max(length + 1, values.length * 2)];
+	}
+	
+	/**
+	 * Add the next docid to encode, as a gap from the previous one (or from zero).
+	 * @param x the gap
+	 */
+	public void add(final long x)
+	{
+		currentPrefixSum += x;
+		if (currentLength == length || currentPrefixSum >= upperBound)
+			throw new IllegalArgumentException("Too large prefix sum: " + currentPrefixSum + " >= " + upperBound);
+		values[currentLength++] = (int) currentPrefixSum;
+	}
+	
+	/**
+	 * Return the number of bits needed by a chunk of given size and universe.
+	 * @param m the number of docids in the chunk
+	 * @param u the universe of the chunk
+	 * @param log2Quantum the logarithm of the quantum size of Elias-Fano chunks
+	 * @return the number of bits of the chunk
+	 */
+	public static long cost(final long m, final long u, final int log2Quantum)
+	{
+		if (m == u)
+			return 0;
+		return Math.min(Utils.docidsBits(m - 1, u - 1, log2Quantum), BitmapDocidEncoder.bits(m, u));
+	}
+
+	/**
+	 * Return the encoding type of a chunk of given size and universe.
+	 * @param m the number of docids in the chunk
+	 * @param u the universe of the chunk
+	 * @param log2Quantum the logarithm of the quantum size of Elias-Fano chunks
+	 * @return the encoding type of the chunk, one of {@link #EF}, {@link #BITMAP} or {@link #RUN}
+	 */
+	public static int type(final long m, final long u, final int log2Quantum)
+	{
+		if (m == u)
+			return RUN;
+		return (BitmapDocidEncoder.bits(m, u) < Utils.docidsBits(m - 1, u - 1, log2Quantum)) ? BITMAP : EF;
+	}
+	
+	/**
+	 * Return the number of bits needed to write the natural number <code>x</code>.
+	 */
+	static int width(final long x)
+	{
+		return Long.SIZE - Long.numberOfLeadingZeros(x);
+	}
+	
+	/**
+	 * Compute the approximate optimal partition of the current list, returning the number of chunks; 
+	 * the chunks ends are in {@link #minCost}, in reverse order.
+	 */
+	private int partition(final int size)
+	{
+		if (minCost.length < size + 1) {
+			minCost = new long[Math.max(size + 1, minCost.length * 2)];
+			path = new int[minCost.length];
+		}
+		final long singleCost = cost(size, upperBound + 1L, log2Quantum) + FIX_COST;
+		Arrays.fill(minCost, 1, size + 1, singleCost);
+		Arrays.fill(path, 0, size + 1, 0);
+		minCost[0] = 0;
+		
+		// One sliding window for every power of (1 + EPS2) of the chunk cost 
+		final int maxWindows = (int) Math.ceil(Math.log(1 / EPS1) / Math.log(1 + EPS2)) + 2;
+		final long[] bound = new long[maxWindows];
+		int numWindows = 0;
+		for (double costBound = FIX_COST; costBound < FIX_COST / EPS1 && numWindows < maxWindows; costBound *= 1 + EPS2) {
+			bound[numWindows++] = (long) costBound;
+			if (costBound >= singleCost)
+				break;
+		}
+		final int[] start = new int[numWindows], end = new int[numWindows];
+		final long[] min = new long[numWindows], max = new long[numWindows];
+		
+		for (int i = 0; i < size; i++) {
+			int lastEnd = i + 1;
+			for (int w = 0; w < numWindows; w++) {
+				while (end[w] < lastEnd)
+					max[w] = values[end[w]++];
+				for (;;) {
+					final long windowCost = cost(end[w] - start[w], max[w] - min[w] + 1, log2Quantum) + FIX_COST;
+					if (minCost[i] + windowCost < minCost[end[w]]) {
+						minCost[end[w]] = minCost[i] + windowCost;
+						path[end[w]] = i;
+					}
+					lastEnd = end[w];
+					if (end[w] == size || windowCost >= bound[w])
+						break;
+					max[w] = values[end[w]++];
+				}
+				min[w] = values[start[w]++] + 1L;
+			}
+		}
+		
+		// we store the chunk ends in reverse order in the minimum costs array, which is not needed anymore
+		int numChunks = 0;
+		for (int curr = size; curr != 0; curr = path[curr])
+			minCost[numChunks++] = curr;
+		return numChunks;
+	}
+	
+	/**
+	 * Dump the complete encoded list to a bit output stream.
+	 * 
+	 * @param lwobs the output bit stream where to dump
+	 * @return the number of dumped bits
+	 * @throws IOException if something goes wrong
+	 */
+	public long dump(final LongWordBitWriter lwobs) throws IOException 
+	{
+		if (currentLength != length)
+			throw new IllegalStateException();
+		
+		final int size = length + 1;
+		values[length] = upperBound;
+		
+		final int numChunks = partition(size);
+		// chunk ends, in order, are in minCost[numChunks - 1], ..., minCost[0]
+		long bits = lwobs.writeGamma(numChunks - 1);
+		
+		if (numChunks > 1) {
+			// chunk offsets
+			final long[] offsets = new long[numChunks];
+			int begin = 0;
+			long base = 0;
+			for (int c = 0; c < numChunks; c++) {
+				final int end = (int) minCost[numChunks - 1 - c];
+				if (c < numChunks - 1)
+					offsets[c + 1] = offsets[c] + cost(end - begin, values[end - 1] - base + 1, log2Quantum);
+				base = values[end - 1] + 1L;
+				begin = end;
+			}
+			final int offsetWidth = width(offsets[numChunks - 1]);
+			final int endWidth = width(size);
+			final int upperBoundWidth = width(upperBound);
+			bits += lwobs.writeGamma(offsetWidth);
+			for (int c = 0; c < numChunks - 1; c++)
+				bits += lwobs.append(minCost[numChunks - 1 - c], endWidth);
+			for (int c = 0; c < numChunks - 1; c++)
+				bits += lwobs.append(values[(int) minCost[numChunks - 1 - c] - 1], upperBoundWidth);
+			for (int c = 0; c < numChunks - 1; c++)
+				bits += lwobs.append(offsets[c + 1], offsetWidth);
+		}
+		
+		int begin = 0;
+		long base = 0;
+		for (int c = 0; c < numChunks; c++) {
+			final int end = (int) minCost[numChunks - 1 - c];
+			bits += dumpChunk(lwobs, begin, end, base);
+			base = values[end - 1] + 1L;
+			begin = end;
+		}
+		return bits;
+	}
+	
+	private long dumpChunk(final LongWordBitWriter lwobs, final int begin, final int end, final long base) throws IOException
+	{
+		final int m = end - begin;
+		final long u = values[end - 1] - base + 1;
+		
+		switch (type(m, u, log2Quantum)) {
+		case RUN:
+			return 0;
+		case BITMAP:
+			return BitmapDocidEncoder.dump(lwobs, values, begin, end, base);
+		default: {
+			// the last docid of the chunk is added by the encoder as the fictional docid 
+			chunkEncoder.init(m - 1, u - 1, false, true, log2Quantum);
+			long last = base;
+			for (int i = begin; i < end - 1; i++) {
+				chunkEncoder.add(values[i] - last);
+				last = values[i];
+			}
+			return chunkEncoder.dump(lwobs);
+		}
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close() throws IOException 
+	{
+		chunkEncoder.close();
+	}
+}
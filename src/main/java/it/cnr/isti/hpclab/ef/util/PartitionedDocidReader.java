@@ -0,0 +1,232 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.util;
+
+import it.unimi.dsi.fastutil.longs.LongBigList;
+
+/**
+ * A cursor over a docid list encoded by {@link PartitionedDocidEncoder}. 
+ * The chunk metadata are read only when moving to a new chunk, and skips across chunks use a binary search on the chunk upper bounds.
+ */
+public class PartitionedDocidReader implements DocidCursor
+{
+	/** The underlying list. */
+	private final LongBigList list;
+	/** The logarithm of the quantum of Elias-Fano chunks. */
+	private final int log2Quantum;
+	/** The number of docids in the list, including the closing fictional docid. */
+	private final long size;
+	/** The number of documents, i.e., the closing fictional docid. */
+	private final long upperBound;
+	/** The number of chunks. */
+	private final int numChunks;
+	
+	/** The readers of the chunk metadata, and their starting positions. */
+	private final LongWordBitReader ends, upperBounds, offsets;
+	private final long endsStart, upperBoundsStart, offsetsStart;
+	private final int endWidth, upperBoundWidth, offsetWidth;
+	/** The starting position of the first chunk. */
+	private final long chunksStart;
+	
+	/** The index of the current chunk. */
+	private int chunk;
+	/** The index of the first docid of the current chunk. */
+	private long chunkStart;
+	/** The first docid of the universe of the current chunk. */
+	private long chunkBase;
+	/** The last docid of the current chunk. */
+	private long chunkUpperBound;
+	/** The number of docids in the current chunk. */
+	private long chunkSize;
+	/** The cursor over the current chunk, returning docids relative to {@link #chunkBase}. */
+	private DocidCursor cursor;
+	
+	private final RunCursor runCursor = new RunCursor();
+	private final BitmapDocidReader bitmapCursor;
+	
+	/**
+	 * Constructor.
+	 * @param list the underlying list
+	 * @param position the bit offset of the docid list
+	 * @param frequency the number of docids in the list
+	 * @param upperBound the number of documents
+	 * @param log2Quantum the logarithm of the quantum of Elias-Fano chunks
+	 */
+	public PartitionedDocidReader(final LongBigList list, final long position, final long frequency, final long upperBound, final int log2Quantum)
+	{
+		this.list = list;
+		this.log2Quantum = log2Quantum;
+		this.size = frequency + 1;
+		this.upperBound = upperBound;
+		this.bitmapCursor = new BitmapDocidReader(list);
+		
+		LongWordBitReader header = new LongWordBitReader(list, 0);
+		header.position(position);
+		this.numChunks = (int) header.readGamma() + 1;
+		if (numChunks > 1) {
+			offsetWidth = (int) header.readGamma();
+			endWidth = PartitionedDocidEncoder.width(size);
+			upperBoundWidth = PartitionedDocidEncoder.width(upperBound);
+			endsStart = header.position();
+			upperBoundsStart = endsStart + (long) endWidth * (numChunks - 1);
+			offsetsStart = upperBoundsStart + (long) upperBoundWidth * (numChunks - 1);
+			chunksStart = offsetsStart + (long) offsetWidth * (numChunks - 1);
+		} else {
+			offsetWidth = endWidth = upperBoundWidth = 0;
+			endsStart = upperBoundsStart = offsetsStart = chunksStart = header.position();
+		}
+		this.ends        = new LongWordBitReader(list, endWidth);
+		this.upperBounds = new LongWordBitReader(list, upperBoundWidth);
+		this.offsets     = new LongWordBitReader(list, offsetWidth);
+		
+		load(0);
+	}
+	
+	/** The index of the first docid of the next chunk. */
+	private long end(final int c)
+	{
+		return (c == numChunks - 1) ? size : ends.extract(endsStart + (long) endWidth * c);
+	}
+
+	/** The last docid of a chunk. */
+	private long upperBound(final int c)
+	{
+		return (c == numChunks - 1) ? upperBound : upperBounds.extract(upperBoundsStart + (long) upperBoundWidth * c);
+	}
+
+	/** The position of a chunk. */
+	private long offset(final int c)
+	{
+		return chunksStart + ((c == 0) ? 0 : offsets.extract(offsetsStart + (long) offsetWidth * (c - 1)));
+	}
+	
+	private void load(final int c)
+	{
+		chunk = c;
+		chunkStart = (c == 0) ? 0 : end(c - 1);
+		chunkBase = (c == 0) ? 0 : upperBound(c - 1) + 1;
+		chunkSize = end(c) - chunkStart;
+		chunkUpperBound = upperBound(c);
+		
+		final long u = chunkUpperBound - chunkBase + 1;
+		final long position = offset(c);
+		switch (PartitionedDocidEncoder.type(chunkSize, u, log2Quantum)) {
+		case PartitionedDocidEncoder.RUN:
+			runCursor.reset();
+			cursor = runCursor;
+			break;
+		case PartitionedDocidEncoder.BITMAP:
+			bitmapCursor.reset(position, chunkSize, u);
+			cursor = bitmapCursor;
+			break;
+		default:
+			final int l = Utils.lowerBits(chunkSize, u - 1, false);
+			final int pointerSize = Utils.pointerSize(chunkSize, u - 1, false, true);
+			final long numberOfPointers = Utils.numberOfPointers(chunkSize, u - 1, log2Quantum, false, true);
+			final LongWordBitReader lowerBits = new LongWordBitReader(list, l);
+			final long lowerBitsStart = position + pointerSize * numberOfPointers;
+			lowerBits.position(lowerBitsStart);
+			cursor = new DocidReader(list, lowerBits, lowerBitsStart, l, new LongWordBitReader(list, pointerSize), position, numberOfPointers, pointerSize, chunkSize - 1, log2Quantum);
+		}
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public long getNextPrefixSum() 
+	{
+		if (cursor.getCurrentPos() == chunkSize)
+			load(chunk + 1);
+		return chunkBase + cursor.getNextPrefixSum();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void getNextPrefixSums(final int[] buffer, final int offset, final int count) 
+	{
+		for (int i = offset, end = offset + count; i < end; i++)
+			buffer[i] = (int) getNextPrefixSum();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long skipTo(long lowerBound) 
+	{
+		// the closing fictional docid is returned for any lower bound beyond the last docid
+		lowerBound = Math.min(lowerBound, upperBound);
+		if (lowerBound > chunkUpperBound) {
+			// binary search of the first chunk whose upper bound is not smaller than lowerBound
+			int lo = chunk + 1, hi = numChunks - 1;
+			while (lo < hi) {
+				final int mid = (lo + hi) >>> 1;
+				if (upperBound(mid) < lowerBound)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			load(lo);
+		}
+		return chunkBase + cursor.skipTo(lowerBound - chunkBase);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getCurrentPos() 
+	{
+		return chunkStart + cursor.getCurrentPos();
+	}
+	
+	/**
+	 * A cursor over a chunk containing all the docids of its universe.
+	 */
+	private static final class RunCursor implements DocidCursor
+	{
+		private long last;
+		
+		void reset()
+		{
+			last = -1;
+		}
+		
+		@Override
+		public long getNextPrefixSum() 
+		{
+			return ++last;
+		}
+
+		@Override
+		public void getNextPrefixSums(final int[] buffer, final int offset, final int count) 
+		{
+			for (int i = offset, end = offset + count; i < end; i++)
+				buffer[i] = (int) ++last;
+		}
+
+		@Override
+		public long skipTo(final long lowerBound) 
+		{
+			return last = Math.max(lowerBound, last + 1);
+		}
+
+		@Override
+		public long getCurrentPos() 
+		{
+			return last + 1;
+		}
+	}
+}
@@ -32,11 +32,6 @@
 
 package it.cnr.isti.hpclab.ef.util;
 
-import static it.unimi.dsi.bits.Fast.MSBS_STEP_8;
-import static it.unimi.dsi.bits.Fast.ONES_STEP_4;
-import static it.unimi.dsi.bits.Fast.ONES_STEP_8;
-
-import it.unimi.dsi.bits.Fast;
 import it.unimi.dsi.fastutil.longs.LongBigList;
 
 public class PositionReader 
@@ -106,6 +101,13 @@ public class PositionReader
 
 	public int getFirstPosition(long index) 
 	{
+		if (index < currentIndex) {
+			// going back, e.g., to decode again the positions of the current posting, we restart from the beginning of the list
+			currentIndex = prefixSum = 0;
+			lowerBits.position( lowerBitsStart );
+			position( upperBitsStart );
+		}
+		
 		long delta = index - currentIndex;
 
 		if (delta == 0) {	// shortcut
@@ -132,6 +134,10 @@ public class PositionReader
 			delta = index - blockOnes + 1;
 		}
 
+		if (BitKernels.bulkCount())
+			// whole blocks of words before the target one are skipped at once
+			for (long ones; delta > Long.SIZE && curr + 1 + BitKernels.WORDS < list.size64() && ( ones = Long.bitCount( window ) + BitKernels.bitCount( list, curr + 1, curr + 1 + BitKernels.WORDS ) ) < delta; delta -= ones)
+				window = list.getLong( curr += BitKernels.WORDS + 1 );
 		for (int bitCount; ( bitCount = Long.bitCount( window ) ) < delta; delta -= bitCount)
 			window = list.getLong( ++curr );
 
@@ -140,20 +146,9 @@ public class PositionReader
 		 * Note that for delta == 1 the following code is a NOP. 
 		 */
 		if ( --delta > 0 ) {
-			// Phase 1: sums by byte
 			final long word = window;
 			assert delta < Long.bitCount( word ) : delta + " >= " + Long.bitCount( word );
-			long byteSums = word - ( ( word & 0xa * ONES_STEP_4 ) >>> 1 );
-			byteSums = ( byteSums & 3 * ONES_STEP_4 ) + ( ( byteSums >>> 2 ) & 3 * ONES_STEP_4 );
-			byteSums = ( byteSums + ( byteSums >>> 4 ) ) & 0x0f * ONES_STEP_8;
-			byteSums *= ONES_STEP_8;
-			// Phase 2: compare each byte sum with k + 1 to obtain the relevant byte
-			final long residualPlusOneStep8 = ( delta + 1 ) * ONES_STEP_8;
-			final long byteOffset = Long.numberOfTrailingZeros( ( ( ( byteSums | MSBS_STEP_8 ) - residualPlusOneStep8 ) & MSBS_STEP_8 ) >>> 7 );
-
-			final int byteRank = (int)( delta - ( ( ( byteSums << 8 ) >>> byteOffset ) & 0xFF ) );
-
-			final int select = (int)( byteOffset + Fast.selectInByte[ (int)( word >>> byteOffset & 0xFF ) | byteRank << 8 ] );
+			final int select = BitKernels.select(word, (int) delta);
 
 			// We cancel up to, but not including, the target one.
 			window &= -1L << select;
@@ -0,0 +1,129 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.util;
+
+import it.unimi.dsi.fastutil.longs.LongBigList;
+
+/**
+ * Random access to the prefix sums of a sequence of natural numbers encoded by a {@link SequenceEncoder} as a non-strict
+ * sequence indexing ones, i.e., with a forward pointer to the one of every element of index multiple of the quantum, minus one.
+ * <p>
+ * Differently from {@link FreqReader}, no state is kept, so that the same reader can be shared among threads: the one of an element 
+ * is found by scanning the upper bits from the closest forward pointer, and selecting in the last word.
+ */
+public final class PrefixSumReader 
+{
+	/** The underlying list. */
+	private final LongBigList list;
+	/** The number of elements. */
+	private final long length;
+	/** The number of lower bits. */
+	private final int l;
+	/** The size of a pointer. */
+	private final int pointerSize;
+	/** The logarithm of the quantum. */
+	private final int log2Quantum;
+	/** The starting position of the pointers. */
+	private final long skipPointersStart;
+	/** The starting position of the lower bits. */
+	private final long lowerBitsStart;
+	/** The starting position of the upper bits. */
+	private final long upperBitsStart;
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param list the list containing the sequence
+	 * @param position the bit position of the sequence
+	 * @param length the number of elements of the sequence
+	 * @param sum the sum of the elements of the sequence
+	 * @param log2Quantum the base 2 logarithm of the quantum used to compute forward pointers
+	 */
+	public PrefixSumReader(final LongBigList list, final long position, final long length, final long sum, final int log2Quantum)
+	{
+		this.list = list;
+		this.length = length;
+		this.log2Quantum = log2Quantum;
+		l = Utils.lowerBits(length, sum, false);
+		pointerSize = Utils.pointerSize(length, sum, false, false);
+		
+		skipPointersStart = position;
+		lowerBitsStart = skipPointersStart + pointerSize * Utils.numberOfPointers(length, sum, log2Quantum, false, false);
+		upperBitsStart = lowerBitsStart + l * length;
+	}
+	
+	/**
+	 * Return the number of elements.
+	 * @return the number of elements
+	 */
+	public long size()
+	{
+		return length;
+	}
+	
+	/** Return the <code>width</code> bits at a bit position. */
+	private long extract(final long position, final int width)
+	{
+		if (width == 0)
+			return 0;
+		final int bitPosition = (int) (position % Long.SIZE);
+		final long word = position / Long.SIZE;
+		long result = list.getLong(word) >>> bitPosition;
+		if (bitPosition + width > Long.SIZE)
+			result |= list.getLong(word + 1) << -bitPosition;
+		return result & -1L >>> Long.SIZE - width;
+	}
+	
+	/**
+	 * Return the sum of the elements up to the one of given index, included.
+	 * 
+	 * @param index the index of the element
+	 * @return the sum of the elements up to <code>index</code>, included
+	 */
+	public long getPrefixSum(final long index)
+	{
+		final long block = index >>> log2Quantum;
+		long position = upperBitsStart;
+		long rank = index;
+		if (block > 0) {
+			// the pointer is the position following the one of the last element of the previous block
+			position += extract(skipPointersStart + (block - 1) * pointerSize, pointerSize);
+			rank -= block << log2Quantum;
+		}
+		
+		long curr = position / Long.SIZE;
+		long window = list.getLong(curr) & -1L << position;
+		for (int bitCount; (bitCount = Long.bitCount(window)) <= rank; rank -= bitCount)
+			window = list.getLong(++curr);
+		final long onePosition = curr * Long.SIZE + BitKernels.select(window, (int) rank) - upperBitsStart;
+		return onePosition - index << l | extract(lowerBitsStart + l * index, l);
+	}
+	
+	/**
+	 * Return the element of given index.
+	 * 
+	 * @param index the index of the element
+	 * @return the element
+	 */
+	public long getLong(final long index)
+	{
+		return index == 0 ? getPrefixSum(0) : getPrefixSum(index) - getPrefixSum(index - 1);
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import it.unimi.dsi.bits.Fast;
+
+/**
+ * This class encodes a select index (darray) over the ones, or the zeroes, of the upper bits of an Elias-Fano sequence, given the positions of such bits in increasing order.
+ * The positions are split into blocks of 2<sup>{@value #LOG2_BLOCK}</sup> positions. 
+ * A block spanning less than 2<sup>{@value #SUBBLOCK_BITS}</sup> bits is dense, and the position of every 2<sup>{@value #LOG2_SUBBLOCK}</sup>-th bit 
+ * is stored as a {@value #SUBBLOCK_BITS}-bit offset from the first position of the block. All the positions of a sparse block are stored explicitly.
+ * The encoding is made of:
+ * <ul>
+ * <li>the gamma codes of the number of positions, of the width <var>w</var> of a position and of the number of explicit positions (only the first if there are no positions);</li>
+ * <li>the inventory, storing in <var>w</var> + 1 bits the first position of every dense block, or the index of the first explicit position of every sparse block with the highest bit set;</li>
+ * <li>the sub-inventory, storing 2<sup>{@value #LOG2_BLOCK} - {@value #LOG2_SUBBLOCK}</sup> offsets for every block, zero for sparse blocks;</li>
+ * <li>the explicit positions, in <var>w</var> bits.</li>
+ * </ul>
+ * Selecting a position requires at most two lookups and the scan of the upper bits spanned by a sub-block, see {@link SelectIndexReader}.
+ */
+public class SelectIndexEncoder implements Closeable
+{
+	/** The base 2 logarithm of the number of positions in a block. */
+	public static final int LOG2_BLOCK = 10;
+	/** The base 2 logarithm of the number of positions in a sub-block. */
+	public static final int LOG2_SUBBLOCK = 5;
+	/** The size of an offset in the sub-inventory, i.e., the base 2 logarithm of the span of a dense block. */
+	public static final int SUBBLOCK_BITS = 16;
+
+	/** The minimum size in bytes of a {@link LongWordCache}. */
+	private static final int MIN_CACHE_SIZE = 16;
+
+	/** The accumulator for the inventory. */
+	private final LongWordCache inventory;
+	/** The accumulator for the sub-inventory. */
+	private final LongWordCache subinventory;
+	/** The accumulator for the explicit positions. */
+	private final LongWordCache explicit;
+	
+	/** The positions of the current block. */
+	private final long[] block = new long[1 << LOG2_BLOCK];
+	/** The number of positions of the current block. */
+	private int filled;
+	
+	/** The width of a position. */
+	private int width;
+	/** The number of positions. */
+	private long count;
+	/** The number of explicit positions. */
+	private long explicitCount;
+	
+	/**
+	 * Constructor.
+	 * @param bufferSize the size of the buffer in the file-backed caches used to perform encoding
+	 * @throws IOException if something goes wrong
+	 */
+	public SelectIndexEncoder(int bufferSize) throws IOException
+	{
+		bufferSize = bufferSize & -bufferSize; // Ensure power of 2.
+		inventory    = new LongWordCache(Math.max(MIN_CACHE_SIZE, bufferSize >>> LOG2_BLOCK), "inventory");
+		subinventory = new LongWordCache(Math.max(MIN_CACHE_SIZE, bufferSize >>> LOG2_SUBBLOCK), "subinventory");
+		explicit     = new LongWordCache(Math.max(MIN_CACHE_SIZE, bufferSize / 2), "explicit");
+	}
+	
+	/**
+	 * Initialization of the encoder. Must be called before actual encoding begins.
+	 * @param bits an upper bound on the number of upper bits, i.e., on the positions to encode
+	 */
+	public void init(final long bits)
+	{
+		width = Math.max(1, Fast.ceilLog2(bits));
+		assert width < Long.SIZE - 1;
+		inventory.clear();
+		subinventory.clear();
+		explicit.clear();
+		filled = 0;
+		count = 0;
+		explicitCount = 0;
+	}
+	
+	/**
+	 * Add the next position.
+	 * @param position the position, larger than the previous one
+	 * @throws IOException if something goes wrong
+	 */
+	public void add(final long position) throws IOException
+	{
+		block[filled++] = position;
+		count++;
+		if (filled == block.length)
+			flush();
+	}
+	
+	private void flush() throws IOException
+	{
+		if (filled == 0)
+			return;
+		final long first = block[0];
+		if (block[filled - 1] - first < 1L << SUBBLOCK_BITS) {
+			inventory.append(first, width + 1);
+			for (int i = 0; i < block.length; i += 1 << LOG2_SUBBLOCK)
+				subinventory.append(i < filled ? block[i] - first : 0, SUBBLOCK_BITS);
+		} else {
+			inventory.append(1L << width | explicitCount, width + 1);
+			for (int i = 0; i < block.length; i += 1 << LOG2_SUBBLOCK)
+				subinventory.append(0, SUBBLOCK_BITS);
+			for (int i = 0; i < filled; i++)
+				explicit.append(block[i], width);
+			explicitCount += filled;
+		}
+		filled = 0;
+	}
+	
+	/**
+	 * Dump the complete select index to a bit output stream.
+	 * 
+	 * @param lwobs the output bit stream where to dump
+	 * @return the number of dumped bits
+	 * @throws IOException if something goes wrong
+	 */
+	public long dump(final LongWordBitWriter lwobs) throws IOException
+	{
+		flush();
+		long bits = lwobs.writeGamma(count);
+		if (count == 0)
+			return bits;
+		bits += lwobs.writeGamma(width);
+		bits += lwobs.writeGamma(explicitCount);
+		bits += lwobs.append(inventory);
+		bits += lwobs.append(subinventory);
+		bits += lwobs.append(explicit);
+		return bits;
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public void close() throws IOException
+	{
+		inventory.close();
+		subinventory.close();
+		explicit.close();
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.util;
+
+import static it.cnr.isti.hpclab.ef.util.SelectIndexEncoder.LOG2_BLOCK;
+import static it.cnr.isti.hpclab.ef.util.SelectIndexEncoder.LOG2_SUBBLOCK;
+import static it.cnr.isti.hpclab.ef.util.SelectIndexEncoder.SUBBLOCK_BITS;
+
+import it.unimi.dsi.fastutil.longs.LongBigList;
+
+/**
+ * This class selects the ones, or the zeroes, of the upper bits of an Elias-Fano sequence by rank, 
+ * with a select index written by {@link SelectIndexEncoder}.
+ */
+public final class SelectIndexReader 
+{
+	/** The list containing the upper bits. */
+	private final LongBigList upperBits;
+	/** The starting position of the upper bits. */
+	private final long upperBitsStart;
+	/** Whether zeroes, rather than ones, are selected. */
+	private final boolean zeroes;
+	
+	/** The number of positions. */
+	private final long count;
+	/** The width of a position. */
+	private final int width;
+	/** The longword bit reader for the inventory. */
+	private final LongWordBitReader inventory;
+	/** The longword bit reader for the sub-inventory. */
+	private final LongWordBitReader subinventory;
+	/** The longword bit reader for the explicit positions. */
+	private final LongWordBitReader explicit;
+	/** The starting position of the inventory. */
+	private final long inventoryStart;
+	/** The starting position of the sub-inventory. */
+	private final long subinventoryStart;
+	/** The starting position of the explicit positions. */
+	private final long explicitStart;
+
+	/**
+	 * Constructor.
+	 * @param list the list containing the select index
+	 * @param position the bit position of the select index
+	 * @param upperBits the list containing the upper bits
+	 * @param upperBitsStart the bit position of the upper bits
+	 * @param zeroes true if the select index is over zeroes, false if over ones
+	 */
+	public SelectIndexReader(final LongBigList list, final long position, final LongBigList upperBits, final long upperBitsStart, final boolean zeroes) 
+	{
+		this.upperBits = upperBits;
+		this.upperBitsStart = upperBitsStart;
+		this.zeroes = zeroes;
+		
+		final LongWordBitReader header = new LongWordBitReader(list, 0).position(position);
+		count = header.readGamma();
+		width = (count == 0) ? 0 : (int) header.readGamma();
+		final long blocks = (count + (1L << LOG2_BLOCK) - 1) >>> LOG2_BLOCK;
+		if (count != 0)
+			header.readGamma();
+		
+		inventoryStart = header.position();
+		subinventoryStart = inventoryStart + blocks * (width + 1);
+		explicitStart = subinventoryStart + (blocks << LOG2_BLOCK - LOG2_SUBBLOCK) * SUBBLOCK_BITS;
+		inventory = new LongWordBitReader(list, width + 1);
+		subinventory = new LongWordBitReader(list, SUBBLOCK_BITS);
+		explicit = new LongWordBitReader(list, width);
+	}
+	
+	/**
+	 * Return the bit position following the select index at the given position, i.e., its end.
+	 * @param list the list containing the select index
+	 * @param position the bit position of the select index
+	 * @return the bit position following the select index
+	 */
+	public static long end(final LongBigList list, final long position)
+	{
+		final LongWordBitReader header = new LongWordBitReader(list, 0).position(position);
+		final long count = header.readGamma();
+		if (count == 0)
+			return header.position();
+		final int width = (int) header.readGamma();
+		final long explicitCount = header.readGamma();
+		final long blocks = (count + (1L << LOG2_BLOCK) - 1) >>> LOG2_BLOCK;
+		return header.position() + blocks * (width + 1) + (blocks << LOG2_BLOCK - LOG2_SUBBLOCK) * SUBBLOCK_BITS + explicitCount * width;
+	}
+	
+	/**
+	 * Return the number of positions, i.e., of ones or zeroes, that can be selected.
+	 * @return the number of positions
+	 */
+	public long count()
+	{
+		return count;
+	}
+	
+	/**
+	 * Return the position, relative to the beginning of the upper bits, of the one (or zero) of given rank.
+	 * @param rank the rank of the one (or zero), smaller than {@link #count()}, starting from 0
+	 * @return the position of the one (or zero)
+	 */
+	public long select(final long rank)
+	{
+		assert rank < count : rank + " >= " + count;
+		final long entry = inventory.extract(inventoryStart + (rank >>> LOG2_BLOCK) * (width + 1));
+		if (entry >>> width != 0)
+			return explicit.extract(explicitStart + ((entry & (1L << width) - 1) + (rank & (1 << LOG2_BLOCK) - 1)) * width);
+		
+		final long position = upperBitsStart + entry + subinventory.extract(subinventoryStart + (rank >>> LOG2_SUBBLOCK) * SUBBLOCK_BITS);
+		int residual = (int) (rank & (1 << LOG2_SUBBLOCK) - 1);
+		long curr = position / Long.SIZE;
+		long word = (zeroes ? ~upperBits.getLong(curr) : upperBits.getLong(curr)) & -1L << (int) position;
+		for (int bitCount; (bitCount = Long.bitCount(word)) <= residual; residual -= bitCount)
+			word = zeroes ? ~upperBits.getLong(++curr) : upperBits.getLong(++curr);
+		return curr * Long.SIZE + BitKernels.select(word, residual) - upperBitsStart;
+	}
+}
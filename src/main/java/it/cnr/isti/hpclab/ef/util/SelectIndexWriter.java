@@ -0,0 +1,96 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.util;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+
+import it.cnr.isti.hpclab.ef.EliasFano;
+
+/**
+ * This class writes the select indexes of a sequence of posting lists, built by {@link SequenceEncoder} for the posting lists 
+ * with at least a given number of postings.
+ * The select index of a posting list is made of the select index over the zeroes of the upper bits of its docids, 
+ * empty if docids are not encoded as a plain Elias-Fano sequence, and of the select index over the ones of the upper bits of its frequencies, 
+ * see {@link SelectIndexEncoder}.
+ * The <code>.select</code> file contains the select indexes of all posting lists, one after the other, while 
+ * the <code>.select-offsets</code> file contains, for every posting list in termid order, the (long) bit offset of its select index,
+ * meaningful only for the posting lists with at least the given number of postings.
+ * Both files are closed by an additional long, as any file written by {@link LongWordBitWriter}.
+ */
+public class SelectIndexWriter implements Closeable
+{
+	private final LongWordBitWriter select;
+	private final LongWordBitWriter offsets;
+	private final int threshold;
+	
+	/** The bit offset of the next select index in the select file. */
+	private long selectOffset = 0;
+	
+	/**
+	 * Constructor.
+	 * @param prefix the path and prefix of the files to write
+	 * @param threshold the minimum number of postings of a posting list with a select index
+	 * @throws IOException if something goes wrong in opening the files
+	 */
+	@SuppressWarnings("resource")
+	public SelectIndexWriter(final String prefix, final int threshold) throws IOException
+	{
+		this.select  = new LongWordBitWriter(new FileOutputStream(prefix + EliasFano.SELECT_EXTENSION).getChannel(), ByteOrder.nativeOrder());
+		this.offsets = new LongWordBitWriter(new FileOutputStream(prefix + EliasFano.SELECT_OFFSETS_EXTENSION).getChannel(), ByteOrder.nativeOrder());
+		this.threshold = threshold;
+	}
+	
+	/**
+	 * Return true if a posting list of given length has a select index.
+	 * @param length the number of postings of the posting list
+	 * @return true if the posting list has a select index
+	 */
+	public boolean accepts(final int length)
+	{
+		return length >= threshold;
+	}
+	
+	/**
+	 * Write the select index of the current posting list, after it has been dumped.
+	 * @param docids the encoder of the docids, or null if they are not encoded as a plain Elias-Fano sequence
+	 * @param freqs the encoder of the frequencies
+	 * @param length the number of postings of the posting list
+	 * @throws IOException if something goes wrong in writing
+	 */
+	public void write(final SequenceEncoder docids, final SequenceEncoder freqs, final int length) throws IOException
+	{
+		offsets.append(selectOffset, Long.SIZE);
+		if (!accepts(length))
+			return;
+		selectOffset += (docids != null) ? docids.dumpSelectIndex(select) : select.writeGamma(0);
+		selectOffset += freqs.dumpSelectIndex(select);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void close() throws IOException 
+	{
+		select.close();
+		offsets.close();
+	}
+}
@@ -49,6 +49,10 @@ public class SequenceEncoder implements Closeable
 	private final LongWordCache upperBits;
 	/** The accumulator for low bits. */
 	private final LongWordCache lowerBits;
+	/** The encoder of the select index over the indexed upper bits, created on first use. */
+	private SelectIndexEncoder select;
+	/** The size of the buffer in the file-backed caches. */
+	private final int bufferSize;
 
 	/** If true, {@link #add(long)} does not accept zeroes. */
 	private boolean strict;
@@ -79,6 +83,8 @@ public class SequenceEncoder implements Closeable
 	private long lastOnePosition;
 	/** The expected number of points. */
 	private long expectedNumberOfPointers;
+	/** Whether a select index is built over the indexed upper bits. */
+	private boolean withSelectIndex;
 	/** The number of bits used for the upper-bits array. */
 	public long bitsForUpperBits;
 	/** The number of bits used for the lower-bits array. */
@@ -103,6 +109,7 @@ public class SequenceEncoder implements Closeable
 		pointers  = new LongWordCache(Math.max(MIN_CACHE_SIZE, bufferSize >>> Math.max(3, log2Quantum - 3)), "pointers");
 		lowerBits = new LongWordCache(Math.max(MIN_CACHE_SIZE, bufferSize / 2), "lower");
 		upperBits = new LongWordCache(Math.max(MIN_CACHE_SIZE, bufferSize / 2), "upper");
+		this.bufferSize = bufferSize;
 	}
 
 	/**
@@ -166,6 +173,28 @@ public class SequenceEncoder implements Closeable
 
 		pointerSize = Utils.pointerSize(correctedLength, upperBound, strict, indexZeroes);
 		expectedNumberOfPointers = Utils.numberOfPointers(correctedLength, upperBound, log2Quantum, strict, indexZeroes);
+		withSelectIndex = false;
+	}
+	
+	/**
+	 * Initialization of the encoder. Must be called before actual encoding begins.
+	 * @param length the number of elements to encode
+	 * @param upperBound the upper bound on the last element to encode
+	 * @param strict if <code>true</code>  {@link #add(long)} does not accept zeroes.
+	 * @param indexZeroes whether we should index ones or zeroes. if true, skip pointers are used; otherwise, forward pointers are used.
+	 * @param log2Quantum the base 2 logarithm of the quantum used to compute skip (or forward) pointer
+	 * @param selectIndex if <code>true</code>, a select index over the indexed upper bits (zeroes or ones) is built too, see {@link #dumpSelectIndex(LongWordBitWriter)}
+	 * @throws IOException if something goes wrong in creating the select index encoder
+	 */
+	public void init(final long length, final long upperBound, final boolean strict, final boolean indexZeroes, final int log2Quantum, final boolean selectIndex) throws IOException 
+	{
+		init(length, upperBound, strict, indexZeroes, log2Quantum);
+		withSelectIndex = selectIndex;
+		if (selectIndex) {
+			if (select == null)
+				select = new SelectIndexEncoder(bufferSize);
+			select.init(length + (!strict && indexZeroes ? 1 : 0) + (correctedUpperBound >>> l));
+		}
 	}
 
 	/**
@@ -186,6 +215,14 @@ public class SequenceEncoder implements Closeable
 
 		upperBits.writeUnary((int) (onePosition - lastOnePosition - 1));
 
+		if (withSelectIndex) {
+			if (indexZeroes)
+				for (long position = lastOnePosition + 1; position < onePosition; position++)
+					select.add(position);
+			else
+				select.add(onePosition);
+		}
+
 		if (indexZeroes) {
 			long zeroesBefore = lastOnePosition - currentLength + 1;
 			for (long position = lastOnePosition + (zeroesBefore & -1L << log2Quantum) + quantum - zeroesBefore; position < onePosition; position += quantum, zeroesBefore += quantum)
@@ -223,6 +260,19 @@ public class SequenceEncoder implements Closeable
 
 		return bitsForLowerBits + bitsForUpperBits + bitsForPointers;
 	}
+	
+	/**
+	 * Dump the select index over the indexed upper bits of the complete encoded sequence to a bit output stream, 
+	 * after {@link #dump(LongWordBitWriter)}. If the select index has not been built, an empty one is dumped.
+	 * 
+	 * @param lwobs the output bit stream where to dump
+	 * @return the number of dumped bits
+	 * @throws IOException if something goes wrong
+	 */
+	public long dumpSelectIndex(final LongWordBitWriter lwobs) throws IOException 
+	{
+		return (withSelectIndex) ? select.dump(lwobs) : lwobs.writeGamma(0);
+	}
 
 	/** @inherited */
 	@Override
@@ -231,5 +281,7 @@ public class SequenceEncoder implements Closeable
 		pointers.close();
 		upperBits.close();
 		lowerBits.close();
+		if (select != null)
+			select.close();
 	}
 }
\ No newline at end of file
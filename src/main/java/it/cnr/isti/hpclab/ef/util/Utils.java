@@ -89,4 +89,56 @@ public class Utils
 			return ( ( upperBound - ( strict ? length : 0 ) ) >>> lowerBits( length, upperBound, strict ) ) >>> log2Quantum;
 		return length >>> log2Quantum;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Returns the exact number of bits written by a {@link SequenceEncoder} for the docids of a posting list, i.e., 
+	 * encoded as a non-strict sequence indexing zeroes, closed by the fictional docid equal to the number of documents.
+	 * 
+	 * @param length the number of postings of the list.
+	 * @param numDocs the number of documents in the collection.
+	 * @param log2Quantum the logarithm of the quantum size.
+	 * @return the number of bits of the encoded docids.
+	 */
+	public static long docidsBits(final long length, final long numDocs, final int log2Quantum)
+	{
+		final long correctedLength = length + 1;
+		final int l = lowerBits(correctedLength, numDocs, false);
+		return numberOfPointers(correctedLength, numDocs, log2Quantum, false, true) * pointerSize(correctedLength, numDocs, false, true) 
+				+ correctedLength * l 
+				+ (numDocs >>> l) + correctedLength;
+	}
+
+	/**
+	 * Returns the exact number of bits written by a {@link SequenceEncoder} for the frequencies of a posting list, i.e., 
+	 * encoded as a strict sequence indexing ones.
+	 * 
+	 * @param length the number of postings of the list.
+	 * @param sum the sum of the frequencies of the list.
+	 * @param log2Quantum the logarithm of the quantum size.
+	 * @return the number of bits of the encoded frequencies.
+	 */
+	public static long freqsBits(final long length, final long sum, final int log2Quantum)
+	{
+		final int l = lowerBits(length, sum, true);
+		return numberOfPointers(length, sum, log2Quantum, true, false) * pointerSize(length, sum, true, false) 
+				+ length * l 
+				+ ((sum - length) >>> l) + length;
+	}
+
+	/**
+	 * Returns the exact number of bits written by a {@link SequenceEncoder} for a sequence of natural numbers 
+	 * encoded as a non-strict sequence indexing ones, e.g., read by {@link PrefixSumReader}.
+	 * 
+	 * @param length the number of elements of the sequence.
+	 * @param sum the sum of the elements of the sequence.
+	 * @param log2Quantum the logarithm of the quantum size.
+	 * @return the number of bits of the encoded sequence.
+	 */
+	public static long sequenceBits(final long length, final long sum, final int log2Quantum)
+	{
+		final int l = lowerBits(length, sum, false);
+		return numberOfPointers(length, sum, log2Quantum, false, false) * pointerSize(length, sum, false, false) 
+				+ length * l 
+				+ (sum >>> l) + length;
+	}
+}
@@ -0,0 +1,211 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import it.cnr.isti.hpclab.ef.EliasFano;
+import it.unimi.dsi.fastutil.longs.LongBigList;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * In-word bit operations used by the Elias-Fano readers to decode upper bits.
+ * <p>
+ * This is the version for JDK 21 or later of the multi-release jar. The kernels are chosen with the {@link EliasFano#BIT_KERNELS} system property:
+ * <ul>
+ * <li><code>broadword</code>: the portable kernels of {@link Broadword};</li>
+ * <li><code>expand</code>: select by <code>Long.expand</code>, i.e., the PDEP instruction on x86;</li>
+ * <li><code>vector</code>: as <code>expand</code>, and all the ones of a word are decoded at once by compressing the lanes of a 512-bit vector,
+ * and the ones of {@link #WORDS} words of a memory segment are counted at once by the readers skipping upper bits, 
+ * which requires the <code>jdk.incubator.vector</code> module and 512-bit preferred vectors, e.g., AVX-512, otherwise it falls back to <code>expand</code>,
+ * as smaller vectors run the 512-bit kernels as scalar code;</li>
+ * <li><code>auto</code> (default): <code>expand</code> on the x86 CPUs where PDEP is fast, i.e., by Intel with BMI2, or by AMD from Zen 3 on,
+ * as read from <code>/proc/cpuinfo</code>; <code>broadword</code> otherwise, e.g., on AMD Zen 1 and Zen 2, where PDEP is microcoded, 
+ * or on CPUs where <code>Long.expand</code> is not an intrinsic.</li>
+ * </ul>
+ */
+public final class BitKernels 
+{
+	/** The number of words counted at once by {@link #bitCount(LongBigList, long, long)} when skipping upper bits. */
+	public static final int WORDS = 8;
+	
+	private static final String KERNELS = kernels();
+	private static final boolean EXPAND = !"broadword".equals(KERNELS);
+	private static final boolean BULK_DECODE = "vector".equals(KERNELS);
+	
+	private BitKernels()
+	{
+	}
+	
+	private static String kernels()
+	{
+		final String kernels = System.getProperty(EliasFano.BIT_KERNELS, "auto");
+		switch (kernels) {
+		case "broadword":
+		case "expand":
+			return kernels;
+		case "vector":
+			return ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent() && Vectorized.supported() ? kernels : "expand";
+		default:
+			return fastExpand() ? "expand" : "broadword";
+		}
+	}
+	
+	/**
+	 * Return true if the CPU has a fast PDEP instruction, according to the first processor of <code>/proc/cpuinfo</code>.
+	 */
+	private static boolean fastExpand()
+	{
+		final String arch = System.getProperty("os.arch");
+		if (!"amd64".equals(arch) && !"x86_64".equals(arch))
+			return false;
+		try (BufferedReader reader = Files.newBufferedReader(Paths.get("/proc/cpuinfo"))) {
+			String vendor = null;
+			int family = -1;
+			boolean bmi2 = false;
+			for (String line; (line = reader.readLine()) != null && !line.trim().isEmpty(); ) {
+				final int colon = line.indexOf(':');
+				if (colon < 0)
+					continue;
+				final String value = line.substring(colon + 1).trim();
+				switch (line.substring(0, colon).trim()) {
+				case "vendor_id": vendor = value; break;
+				case "cpu family": family = Integer.parseInt(value); break;
+				case "flags": bmi2 = Arrays.asList(value.split("\\s+")).contains("bmi2"); break;
+				default:
+				}
+			}
+			// PDEP is microcoded on AMD before Zen 3, i.e., family 19h
+			return bmi2 && ("GenuineIntel".equals(vendor) || "AuthenticAMD".equals(vendor) && family >= 0x19);
+		} catch (IOException | RuntimeException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Return true if readers should decode whole words of upper bits with {@link #ones(long, int[])}, false if one bit at a time.
+	 * @return true if readers should decode whole words of upper bits
+	 */
+	public static boolean bulkDecode()
+	{
+		return BULK_DECODE;
+	}
+	
+	/**
+	 * Return true if readers should skip upper bits {@link #WORDS} words at a time with {@link #bitCount(LongBigList, long, long)}, false if one word at a time.
+	 * @return true if readers should skip upper bits several words at a time
+	 */
+	public static boolean bulkCount()
+	{
+		return BULK_DECODE;
+	}
+	
+	/**
+	 * Return the position of the one of given rank in a word.
+	 * 
+	 * @param word the word
+	 * @param rank the rank of the one, smaller than the number of ones of the word, starting from 0
+	 * @return the position of the one
+	 */
+	public static int select(final long word, final int rank)
+	{
+		return EXPAND ? Long.numberOfTrailingZeros(Long.expand(1L << rank, word)) : Broadword.select(word, rank);
+	}
+	
+	/**
+	 * Store the positions of the ones of a word, in increasing order.
+	 * 
+	 * @param word the word
+	 * @param positions the array where to store the positions, at least {@link Long#SIZE} long
+	 * @return the number of ones of the word
+	 */
+	public static int ones(final long word, final int[] positions)
+	{
+		return BULK_DECODE ? Vectorized.ones(word, positions) : Broadword.ones(word, positions);
+	}
+	
+	/**
+	 * Return the number of ones of consecutive words of a list. The words of a memory segment are counted with the Vector API, 
+	 * if the <code>vector</code> kernels are in use.
+	 * 
+	 * @param list the list
+	 * @param from the index of the first word
+	 * @param to the index following the last word
+	 * @return the number of ones of the words
+	 */
+	public static long bitCount(final LongBigList list, final long from, final long to)
+	{
+		if (list instanceof WordBitCount)
+			return ((WordBitCount) list).bitCount(from, to);
+		long count = 0;
+		for (long i = from; i < to; i++)
+			count += Long.bitCount(list.getLong(i));
+		return count;
+	}
+	
+	/**
+	 * Return the name of the kernels in use.
+	 * @return the name of the kernels in use
+	 */
+	public static String implementation()
+	{
+		return KERNELS;
+	}
+	
+	/**
+	 * The Vector API kernels, loaded only if the <code>jdk.incubator.vector</code> module is available.
+	 */
+	private static final class Vectorized
+	{
+		private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_512;
+		private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_512;
+		/** The bit positions, one per byte lane. */
+		private static final ByteVector IOTA = ByteVector.zero(BYTES).addIndex(1);
+		
+		/**
+		 * Return true if the preferred vectors of the CPU are at least as large as the ones of the kernels, i.e., the kernels are compiled to vector instructions.
+		 */
+		static boolean supported()
+		{
+			return VectorShape.preferredShape().vectorBitSize() >= BYTES.vectorBitSize();
+		}
+		
+		/**
+		 * Compress the bit positions on the lanes of the ones of the word, and widen them to integers, 16 at a time.
+		 */
+		static int ones(final long word, final int[] positions)
+		{
+			final int count = Long.bitCount(word);
+			final ByteVector packed = IOTA.compress(VectorMask.fromLong(BYTES, word));
+			for (int part = 0; part * INTS.length() < count; part++)
+				((IntVector) packed.convertShape(VectorOperators.B2I, INTS, part)).intoArray(positions, part * INTS.length());
+			return count;
+		}
+	}
+}
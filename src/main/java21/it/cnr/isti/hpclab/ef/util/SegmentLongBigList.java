@@ -0,0 +1,131 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import it.unimi.dsi.fastutil.longs.AbstractLongBigList;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A read-only list of longs backed by a file mapped as a single memory segment, so that every access is a single bounds check and load,
+ * without choosing the byte buffer of the position as {@link it.unimi.dsi.util.ByteBufferLongBigList} does.
+ * The file is unmapped by {@link #close()}; since the segment belongs to a shared arena, closing it while other threads read it 
+ * fails with an {@link IllegalStateException} instead of crashing the JVM.
+ * <p>
+ * If the <code>vector</code> bit kernels are in use, consecutive words are counted by loading them in vectors from the segment.
+ */
+final class SegmentLongBigList extends AbstractLongBigList implements Closeable, WordBitCount
+{
+	/** The layout of the longs, in a static final field so that accesses are compiled to plain loads. */
+	private static final ValueLayout.OfLong LAYOUT = ValueLayout.JAVA_LONG;
+	
+	private final Arena arena;
+	private final MemorySegment segment;
+	/** True if the byte order of the file is not the native one. */
+	private final boolean swap;
+	private final long size;
+	
+	private SegmentLongBigList(final Arena arena, final MemorySegment segment, final ByteOrder byteOrder)
+	{
+		this.arena = arena;
+		this.segment = segment;
+		this.swap = byteOrder != ByteOrder.nativeOrder();
+		this.size = segment.byteSize() / Long.BYTES;
+	}
+	
+	/**
+	 * Map a file channel, read-only, as a list of longs.
+	 * 
+	 * @param channel the file channel
+	 * @param byteOrder the byte order of the file
+	 * @return the list of the longs of the file
+	 * @throws IOException if something goes wrong in mapping the file
+	 */
+	static SegmentLongBigList map(final FileChannel channel, final ByteOrder byteOrder) throws IOException
+	{
+		final Arena arena = Arena.ofShared();
+		try {
+			return new SegmentLongBigList(arena, channel.map(MapMode.READ_ONLY, 0, channel.size(), arena), byteOrder);
+		} catch (IOException | RuntimeException e) {
+			arena.close();
+			throw e;
+		}
+	}
+	
+	@Override
+	public long getLong(final long index) 
+	{
+		final long word = segment.getAtIndex(LAYOUT, index);
+		return swap ? Long.reverseBytes(word) : word;
+	}
+
+	@Override
+	public long bitCount(final long from, final long to)
+	{
+		if (BitKernels.bulkCount())
+			return Vectorized.bitCount(segment, from, to);
+		// the byte order does not change the number of ones
+		long count = 0;
+		for (long i = from; i < to; i++)
+			count += Long.bitCount(segment.getAtIndex(LAYOUT, i));
+		return count;
+	}
+
+	@Override
+	public long size64() 
+	{
+		return size;
+	}
+	
+	@Override
+	public void close()
+	{
+		arena.close();
+	}
+	
+	/**
+	 * The Vector API kernels, loaded only if the <code>jdk.incubator.vector</code> module is available.
+	 */
+	private static final class Vectorized
+	{
+		private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+		
+		static long bitCount(final MemorySegment segment, final long from, final long to)
+		{
+			long count = 0;
+			long i = from;
+			for (final long last = to - LONGS.length(); i <= last; i += LONGS.length())
+				count += LongVector.fromMemorySegment(LONGS, segment, i * Long.BYTES, ByteOrder.nativeOrder()).lanewise(VectorOperators.BIT_COUNT).reduceLanes(VectorOperators.ADD);
+			for (; i < to; i++)
+				count += Long.bitCount(segment.getAtIndex(LAYOUT, i));
+			return count;
+		}
+	}
+}
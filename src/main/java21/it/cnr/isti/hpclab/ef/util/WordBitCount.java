@@ -0,0 +1,35 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef.util;
+
+/**
+ * A list of longs counting the ones of consecutive words by itself, e.g., with vector loads from its storage.
+ */
+interface WordBitCount 
+{
+	/**
+	 * Return the number of ones of consecutive words.
+	 * 
+	 * @param from the index of the first word
+	 * @param to the index following the last word
+	 * @return the number of ones of the words
+	 */
+	long bitCount(long from, long to);
+}
@@ -0,0 +1,131 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import it.cnr.isti.hpclab.ef.util.BitKernels;
+import it.cnr.isti.hpclab.ef.util.Broadword;
+import it.cnr.isti.hpclab.ef.util.LongStorage;
+import it.cnr.isti.hpclab.ef.util.LongWordBitWriter;
+import it.unimi.dsi.fastutil.longs.LongBigList;
+
+/**
+ * Checks the bit kernels in use, i.e., the portable ones or, when run from the multi-release jar on JDK 21 or later, 
+ * the ones chosen by the {@link EliasFano#BIT_KERNELS} property, against a bit-by-bit scan.
+ * On JDK 21 or later, the <code>java21</code> profile runs the tests again in the package phase against the multi-release jar, with the <code>auto</code> and the <code>vector</code> kernels.
+ */
+public class BitKernelsTest 
+{
+	@Rule
+	public TemporaryFolder tmpFolder = new TemporaryFolder();
+	
+	private static final int WORDS = 100000;
+	
+	private static long[] words()
+	{
+		final Random random = new Random(42);
+		final long[] words = new long[WORDS];
+		for (int i = 0; i < WORDS; i++) {
+			// sparse, dense and uniform words
+			switch (i % 3) {
+			case 0: words[i] = random.nextLong() & random.nextLong() & random.nextLong(); break;
+			case 1: words[i] = random.nextLong() | random.nextLong() | random.nextLong(); break;
+			default: words[i] = random.nextLong();
+			}
+		}
+		words[0] = -1L;
+		words[1] = 1L;
+		words[2] = Long.MIN_VALUE;
+		return words;
+	}
+	
+	private static int[] scan(final long word)
+	{
+		final int[] positions = new int[Long.bitCount(word)];
+		for (int p = 0, k = 0; p < Long.SIZE; p++)
+			if ((word >>> p & 1) != 0)
+				positions[k++] = p;
+		return positions;
+	}
+	
+	@Test
+	public void select()
+	{
+		for (long word : words()) {
+			final int[] positions = scan(word);
+			for (int rank = 0; rank < positions.length; rank++) {
+				assertEquals(positions[rank], BitKernels.select(word, rank));
+				assertEquals(positions[rank], Broadword.select(word, rank));
+			}
+		}
+	}
+	
+	@Test
+	public void ones()
+	{
+		final int[] ones = new int[Long.SIZE];
+		final int[] broadword = new int[Long.SIZE];
+		for (long word : words()) {
+			final int[] positions = scan(word);
+			assertEquals(positions.length, BitKernels.ones(word, ones));
+			assertEquals(positions.length, Broadword.ones(word, broadword));
+			for (int k = 0; k < positions.length; k++) {
+				assertEquals(positions[k], ones[k]);
+				assertEquals(positions[k], broadword[k]);
+			}
+		}
+		assertEquals(0, BitKernels.ones(0, ones));
+	}
+	
+	@SuppressWarnings("resource")
+	@Test
+	public void bitCount() throws IOException
+	{
+		final long[] words = words();
+		final File file = tmpFolder.newFile();
+		final LongWordBitWriter writer = new LongWordBitWriter(new FileOutputStream(file).getChannel(), ByteOrder.nativeOrder());
+		writer.append(words, (long) words.length * Long.SIZE);
+		writer.close();
+		
+		// the list mapped with the storage in use, i.e., a memory segment if enabled
+		final LongBigList list = LongStorage.map(file.getPath(), ByteOrder.nativeOrder());
+		final Random random = new Random(42);
+		for (int i = 0; i < 10000; i++) {
+			final int from = random.nextInt(words.length), to = Math.min(words.length, from + random.nextInt(4 * BitKernels.WORDS));
+			long count = 0;
+			for (int j = from; j < to; j++)
+				count += Long.bitCount(words[j]);
+			assertEquals(count, BitKernels.bitCount(list, from, to));
+		}
+		assertEquals(0, BitKernels.bitCount(list, 0, 0));
+		LongStorage.unmap(list);
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import it.cnr.isti.hpclab.ef.structures.EFBlockLexiconEntry;
+import it.cnr.isti.hpclab.ef.structures.EFLexiconEntry;
+import it.cnr.isti.hpclab.ef.util.BitmapDocidEncoder;
+import it.cnr.isti.hpclab.ef.util.BitmapDocidReader;
+import it.cnr.isti.hpclab.ef.util.LongWordBitWriter;
+import it.unimi.dsi.fastutil.longs.LongBigList;
+import it.unimi.dsi.util.ByteBufferLongBigList;
+
+public class BitmapDocidTest 
+{
+	private static final int NUM_DOCS = 100000;
+	
+	@Rule
+	public TemporaryFolder tmpFolder = new TemporaryFolder();
+	
+	private static int[][] lists()
+	{
+		Random random = new Random(42);
+		int[] all = new int[NUM_DOCS];
+		for (int i = 0; i < NUM_DOCS; i++)
+			all[i] = i;
+		return new int[][] { 
+			all,
+			random.ints(0, NUM_DOCS).distinct().limit(NUM_DOCS / 2).sorted().toArray(),
+			random.ints(0, NUM_DOCS).distinct().limit(NUM_DOCS / 10).sorted().toArray(),
+			{ 0 },
+			{ NUM_DOCS - 1 }
+		};
+	}
+	
+	private LongBigList write(final int[][] lists, final long[] positions) throws IOException
+	{
+		File file = tmpFolder.newFile();
+		FileOutputStream fos = new FileOutputStream(file);
+		LongWordBitWriter writer = new LongWordBitWriter(fos.getChannel(), ByteOrder.nativeOrder());
+		BitmapDocidEncoder encoder = new BitmapDocidEncoder();
+		long position = 0;
+		for (int l = 0; l < lists.length; l++) {
+			positions[l] = position;
+			encoder.init(lists[l].length, NUM_DOCS);
+			int last = 0;
+			for (int docid : lists[l]) {
+				encoder.add(docid - last);
+				last = docid;
+			}
+			final long bits = encoder.dump(writer);
+			assertEquals(BitmapDocidEncoder.docidsBits(lists[l].length, NUM_DOCS), bits);
+			position += bits;
+		}
+		writer.close();
+		fos.close();
+		return ByteBufferLongBigList.map(new FileInputStream(file).getChannel(), ByteOrder.nativeOrder(), MapMode.READ_ONLY);
+	}
+	
+	@Test
+	public void smallerForDenseLists()
+	{
+		assertTrue(BitmapDocidEncoder.isSmaller(NUM_DOCS / 2, NUM_DOCS, 8));
+		assertFalse(BitmapDocidEncoder.isSmaller(NUM_DOCS / 100, NUM_DOCS, 8));
+	}
+	
+	@Test
+	public void sequentialDecoding() throws IOException
+	{
+		int[][] lists = lists();
+		long[] positions = new long[lists.length];
+		LongBigList data = write(lists, positions);
+		
+		for (int l = 0; l < lists.length; l++) {
+			BitmapDocidReader reader = new BitmapDocidReader(data, positions[l], lists[l].length, NUM_DOCS);
+			for (int i = 0; i < lists[l].length; i++) {
+				assertEquals(lists[l][i], reader.getNextPrefixSum());
+				assertEquals(i + 1, reader.getCurrentPos());
+			}
+			assertEquals(NUM_DOCS, reader.getNextPrefixSum());
+		}
+	}
+	
+	@Test
+	public void skipping() throws IOException
+	{
+		int[][] lists = lists();
+		long[] positions = new long[lists.length];
+		LongBigList data = write(lists, positions);
+		Random random = new Random(7);
+		
+		for (int l = 0; l < lists.length; l++) {
+			int[] list = lists[l];
+			for (int step : new int[] { 1, 100, 5000 }) {
+				BitmapDocidReader reader = new BitmapDocidReader(data, positions[l], list.length, NUM_DOCS);
+				for (long target = random.nextInt(step) + 1; target < NUM_DOCS; target += random.nextInt(step) + 1) {
+					int pos = Arrays.binarySearch(list, (int) target);
+					if (pos < 0)
+						pos = -pos - 1;
+					long docid = reader.skipTo(target);
+					if (pos == list.length) {
+						assertEquals(NUM_DOCS, docid);
+						break;
+					}
+					assertEquals(list[pos], docid);
+					assertEquals(pos + 1, reader.getCurrentPos());
+					target = docid;
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void lexiconEntryLayout() throws IOException
+	{
+		// the bitmap flag does not change the size of the entries, so existing indexes are read as before
+		assertEquals(32, new EFLexiconEntry.Factory().getSize());
+		assertEquals(48, new EFBlockLexiconEntry.Factory().getSize());
+		for (boolean bitmap : new boolean[] { false, true }) {
+			final EFLexiconEntry le = new EFLexiconEntry(1, 2, 3, 4, 5L, (1L << 40) + 6);
+			le.bitmap = bitmap;
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			le.write(new DataOutputStream(bytes));
+			assertEquals(32, bytes.size());
+			final EFLexiconEntry read = new EFLexiconEntry();
+			read.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+			assertEquals(bitmap, read.isBitmap());
+			assertEquals(5L, read.getDocidOffset());
+			assertEquals((1L << 40) + 6, read.getFreqOffset());
+			assertEquals(4, read.getMaxFrequencyInDocuments());
+		}
+	}
+}
@@ -55,8 +55,8 @@ public class BlockIndexReadingTest extends EFSetupTest
 	protected IndexOnDisk originalIndex = null;
 	protected IndexOnDisk efIndex = null;
 	
-	private int parallelism;
-	private int skipSize;
+	protected int parallelism;
+	protected int skipSize;
 	
 	public BlockIndexReadingTest(int parallelism, int skipSize)
 	{
@@ -199,6 +199,53 @@ public class BlockIndexReadingTest extends EFSetupTest
 		}
 	}
 
+	@Test 
+	public void testPostingListsPositionCursor() throws IOException
+	{
+		Map.Entry<String, LexiconEntry> originalEntry;
+		Map.Entry<String, LexiconEntry> efEntry;
+		
+		BasicLexiconEntry ble;
+		EFLexiconEntry sle;
+		
+		int[] buffer = new int[1];
+		for (int i = 0; i < originalIndex.getCollectionStatistics().getNumberOfUniqueTerms(); i++) {
+			originalEntry = originalIndex.getLexicon().getIthLexiconEntry(i);
+			efEntry = efIndex.getLexicon().getIthLexiconEntry(i);
+			
+			ble = (BasicLexiconEntry) originalEntry.getValue();
+			sle = (EFLexiconEntry) efEntry.getValue();
+			
+			BlockIterablePosting op = (BlockIterablePosting) originalIndex.getInvertedIndex().getPostings(ble);
+			EFBlockIterablePosting sp = (EFBlockIterablePosting) efIndex.getInvertedIndex().getPostings(sle);
+			
+			int cnt = 0;
+			while (op.next() != IterablePosting.EOL && sp.next() != IterablePosting.EOL) {
+				assertEquals(op.getId(), sp.getId());
+				int[] positions = op.getPositions();
+				assertEquals(positions.length, sp.positionCount());
+				switch (cnt++ % 3) {
+				case 0:
+					for (int position : positions)
+						assertEquals(position, sp.nextPosition());
+					assertEquals(EFBlockIterablePosting.END_OF_POSITIONS, sp.nextPosition());
+					break;
+				case 1:
+					if (buffer.length < sp.positionCount())
+						buffer = new int[sp.positionCount()];
+					assertEquals(positions.length, sp.getPositions(buffer));
+					for (int j = 0; j < positions.length; j++)
+						assertEquals(positions[j], buffer[j]);
+					break;
+				default:
+					// partially consumed positions, then decoded again
+					assertEquals(positions[0], sp.nextPosition());
+					assertArrayEquals(positions, sp.getPositions());
+				}
+			}
+		}
+	}
+
 	@Test
 	public void nextIntoEverySkip() throws IOException
 	{
@@ -0,0 +1,254 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+import org.terrier.structures.BitIndexPointer;
+import org.terrier.structures.Index;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.LexiconEntry;
+import org.terrier.structures.postings.BlockPosting;
+import org.terrier.structures.postings.IterablePosting;
+import org.terrier.utility.ApplicationSetup;
+
+import it.cnr.isti.hpclab.ef.structures.EFReassignedIterablePosting;
+import it.cnr.isti.hpclab.ef.util.DocidReassignment;
+
+public class DocidReassignmentTest extends EFSetupTest
+{
+	protected IndexOnDisk originalIndex = null;
+	protected IndexOnDisk efIndex = null;
+	
+	private void createIndex(final boolean with_pos, final String... options) throws Exception
+	{
+		ApplicationSetup.BLOCK_INDEXING = with_pos;
+		super.doShakespeareIndexing();
+		originalIndex = Index.createIndex();
+		
+		String args[] = {"-path", originalIndex.getPath(), "-prefix", originalIndex.getPrefix() + ".ef", "-index", originalIndex.getPath() + File.separator + originalIndex.getPrefix() + ".properties"};
+		args = Arrays.copyOf(args, args.length + options.length);
+		System.arraycopy(options, 0, args, args.length - options.length, options.length);
+
+		System.setProperty(EliasFano.LOG2QUANTUM, "3");
+
+		Generator.main(args);
+		
+		efIndex = Index.createIndex(args[1], args[3]);
+	}
+	
+	@After
+	public void deleteIndex() throws IOException
+	{
+		if (efIndex != null)
+			efIndex.close();
+		if (originalIndex != null)
+			originalIndex.close();
+		ApplicationSetup.BLOCK_INDEXING = false;
+	}
+	
+	@Test
+	public void bisectionIsPermutation() throws Exception
+	{
+		super.doShakespeareIndexing();
+		originalIndex = Index.createIndex();
+		
+		final int num_docs = originalIndex.getCollectionStatistics().getNumberOfDocuments();
+		final int[] map = DocidReassignment.bisection(originalIndex, DocidReassignment.DEFAULT_ITERATIONS, 2, DocidReassignment.DEFAULT_MAX_POSTINGS, 3);
+		assertEquals(num_docs, map.length);
+		assertPermutation(map);
+		// the permutation does not depend on the number of threads
+		assertArrayEquals(map, DocidReassignment.bisection(originalIndex, DocidReassignment.DEFAULT_ITERATIONS, 2, DocidReassignment.DEFAULT_MAX_POSTINGS, 1));
+		assertArrayEquals(DocidReassignment.inverse(DocidReassignment.inverse(map)), map);
+	}
+	
+	@Test
+	public void bisectionOfDocidRanges() throws Exception
+	{
+		super.doShakespeareIndexing();
+		originalIndex = Index.createIndex();
+		
+		// the postings of the terms appearing in more than one document, in three docid ranges
+		long num_postings = 0;
+		for (Map.Entry<String, LexiconEntry> e : originalIndex.getLexicon())
+			if (e.getValue().getDocumentFrequency() > 1)
+				num_postings += e.getValue().getDocumentFrequency();
+		final long max_postings = num_postings / 3 + 1;
+		
+		final int[] map = DocidReassignment.bisection(originalIndex, DocidReassignment.DEFAULT_ITERATIONS, 2, max_postings, 2);
+		assertPermutation(map);
+		assertFalse(isIdentity(map));
+		assertFalse(Arrays.equals(map, DocidReassignment.bisection(originalIndex, DocidReassignment.DEFAULT_ITERATIONS, 2, DocidReassignment.DEFAULT_MAX_POSTINGS, 2)));
+		assertArrayEquals(map, DocidReassignment.bisection(originalIndex, DocidReassignment.DEFAULT_ITERATIONS, 2, max_postings, 1));
+		// every range of a single document, or of documents without terms, is left as it is
+		assertTrue(isIdentity(DocidReassignment.bisection(originalIndex, DocidReassignment.DEFAULT_ITERATIONS, 2, 0, 2)));
+	}
+	
+	@Test
+	public void spilledPostings() throws Exception
+	{
+		ApplicationSetup.BLOCK_INDEXING = true;
+		super.doShakespeareIndexing();
+		originalIndex = Index.createIndex();
+		
+		final int[] map = DocidReassignment.sortByMeta(originalIndex, "docno");
+		for (Map.Entry<String, LexiconEntry> e : originalIndex.getLexicon()) {
+			final LexiconEntry le = e.getValue();
+			final IterablePosting buffered = new EFReassignedIterablePosting(originalIndex.getInvertedIndex().getPostings((BitIndexPointer) le), le.getDocumentFrequency(), map);
+			final IterablePosting spilled  = new EFReassignedIterablePosting(originalIndex.getInvertedIndex().getPostings((BitIndexPointer) le), le.getDocumentFrequency(), map, 3);
+			while (buffered.next() != IterablePosting.END_OF_LIST) {
+				assertEquals(buffered.getId(), spilled.next());
+				assertEquals(buffered.getFrequency(), spilled.getFrequency());
+				assertEquals(buffered.getDocumentLength(), spilled.getDocumentLength());
+				assertArrayEquals(((BlockPosting) buffered).getPositions(), ((BlockPosting) spilled).getPositions());
+			}
+			assertEquals(IterablePosting.END_OF_LIST, spilled.next());
+			assertTrue(spilled.endOfPostings());
+			buffered.close();
+			spilled.close();
+		}
+	}
+	
+	@Test
+	public void sortByMeta() throws Exception
+	{
+		super.doShakespeareIndexing();
+		originalIndex = Index.createIndex();
+		
+		final int[] map = DocidReassignment.sortByMeta(originalIndex, "docno");
+		assertPermutation(map);
+		final int[] inverse = DocidReassignment.inverse(map);
+		for (int docid = 1; docid < inverse.length; docid++)
+			assertTrue(originalIndex.getMetaIndex().getItem("docno", inverse[docid - 1]).compareTo(originalIndex.getMetaIndex().getItem("docno", inverse[docid])) < 0);
+	}
+	
+	@Test
+	public void reorderByMeta() throws Exception
+	{
+		createIndex(false, "-reorder", "docno", "-p", "2", "-blockmax");
+		final int[] map = DocidReassignment.sortByMeta(originalIndex, "docno");
+		assertFalse(isIdentity(map));
+		checkIndex(map, false);
+	}
+	
+	@Test
+	public void reorderByMetaPartitioned() throws Exception
+	{
+		createIndex(false, "-reorder", "docno", "-p", "3", "-pef");
+		checkIndex(DocidReassignment.sortByMeta(originalIndex, "docno"), false);
+	}
+	
+	@Test
+	public void reorderByMetaWithPositions() throws Exception
+	{
+		createIndex(true, "-reorder", "docno", "-p", "2", "-b");
+		checkIndex(DocidReassignment.sortByMeta(originalIndex, "docno"), true);
+	}
+	
+	@Test
+	public void reorderByBisection() throws Exception
+	{
+		createIndex(false, "-reorder", DocidReassignment.BISECTION, "-p", "2");
+		checkIndex(DocidReassignment.bisection(originalIndex, DocidReassignment.DEFAULT_ITERATIONS, DocidReassignment.DEFAULT_MIN_PARTITION_SIZE, DocidReassignment.DEFAULT_MAX_POSTINGS, 2), false);
+	}
+	
+	/**
+	 * Check that the postings, document lengths and meta data of the Elias-Fano index are the ones of the original index with the given docid permutation.
+	 */
+	private void checkIndex(final int[] map, final boolean with_pos) throws IOException
+	{
+		final int num_docs = originalIndex.getCollectionStatistics().getNumberOfDocuments();
+		assertEquals(num_docs, efIndex.getCollectionStatistics().getNumberOfDocuments());
+		assertEquals(originalIndex.getCollectionStatistics().getNumberOfUniqueTerms(), efIndex.getCollectionStatistics().getNumberOfUniqueTerms());
+		
+		for (int docid = 0; docid < num_docs; docid++) {
+			assertEquals(originalIndex.getDocumentIndex().getDocumentLength(docid), efIndex.getDocumentIndex().getDocumentLength(map[docid]));
+			assertEquals(originalIndex.getMetaIndex().getItem("docno", docid), efIndex.getMetaIndex().getItem("docno", map[docid]));
+		}
+		
+		for (Map.Entry<String, LexiconEntry> e : originalIndex.getLexicon()) {
+			final LexiconEntry le = e.getValue();
+			final LexiconEntry efle = efIndex.getLexicon().getLexiconEntry(e.getKey());
+			assertEquals(le.getDocumentFrequency(), efle.getDocumentFrequency());
+			assertEquals(le.getFrequency(), efle.getFrequency());
+			
+			// the original postings, by new docid
+			final int df = le.getDocumentFrequency();
+			final int[] docids = new int[df], freqs = new int[df], lengths = new int[df];
+			final int[][] positions = new int[df][];
+			final IterablePosting p = originalIndex.getInvertedIndex().getPostings((BitIndexPointer) le);
+			final Integer[] order = new Integer[df];
+			for (int i = 0; p.next() != IterablePosting.END_OF_LIST; i++) {
+				order[i] = i;
+				docids[i] = map[p.getId()];
+				freqs[i] = p.getFrequency();
+				lengths[i] = p.getDocumentLength();
+				if (with_pos)
+					positions[i] = ((BlockPosting) p).getPositions().clone();
+			}
+			p.close();
+			Arrays.sort(order, (a, b) -> Integer.compare(docids[a], docids[b]));
+			
+			final IterablePosting efp = efIndex.getInvertedIndex().getPostings(efle);
+			for (int i : order) {
+				assertEquals(docids[i], efp.next());
+				assertEquals(freqs[i], efp.getFrequency());
+				assertEquals(lengths[i], efp.getDocumentLength());
+				if (with_pos)
+					assertArrayEquals(positions[i], ((BlockPosting) efp).getPositions());
+			}
+			assertEquals(IterablePosting.END_OF_LIST, efp.next());
+			efp.close();
+			
+			// skipping to every new docid
+			final IterablePosting skp = efIndex.getInvertedIndex().getPostings(efle);
+			for (int i : order)
+				assertEquals(docids[i], skp.next(docids[i]));
+			skp.close();
+		}
+	}
+	
+	private static void assertPermutation(final int[] map)
+	{
+		final boolean[] seen = new boolean[map.length];
+		for (int docid : map) {
+			assertFalse(seen[docid]);
+			seen[docid] = true;
+		}
+	}
+	
+	private static boolean isIdentity(final int[] map)
+	{
+		for (int i = 0; i < map.length; i++)
+			if (map[i] != i)
+				return false;
+		return true;
+	}
+}
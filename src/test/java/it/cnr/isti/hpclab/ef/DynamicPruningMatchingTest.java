@@ -0,0 +1,235 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+import org.terrier.matching.BaseMatching;
+import org.terrier.matching.Matching;
+import org.terrier.matching.MatchingQueryTerms;
+import org.terrier.matching.ResultSet;
+import org.terrier.matching.daat.Full;
+import org.terrier.matching.models.BM25;
+import org.terrier.matching.models.TF_IDF;
+import org.terrier.matching.models.WeightingModel;
+import org.terrier.structures.Index;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.LexiconEntry;
+
+import it.cnr.isti.hpclab.ef.matching.BlockMaxWandMatching;
+import it.cnr.isti.hpclab.ef.matching.DynamicPruningMatching;
+import it.cnr.isti.hpclab.ef.matching.MaxScoreMatching;
+import it.cnr.isti.hpclab.ef.matching.WandMatching;
+
+@RunWith(value = Parameterized.class)
+public class DynamicPruningMatchingTest extends EFSetupTest
+{
+	private static final int NUM_QUERIES = 200;
+	private static final double DELTA = 1e-9;
+	
+	protected IndexOnDisk originalIndex = null;
+	protected IndexOnDisk efIndex = null;
+	
+	private String model;
+	private int k;
+	private int oldK;
+	
+	private List<String[]> queries;
+	
+	public DynamicPruningMatchingTest(String model, int k)
+	{
+		this.model = model;
+		this.k = k;
+	}
+	
+	@Parameters
+	public static Collection<Object[]> getParameters()
+	{
+		return Arrays.asList(new Object[][] { {"BM25", 1}, {"BM25", 5}, {"BM25", 10}, {"TF_IDF", 1}, {"TF_IDF", 5}, {"TF_IDF", 10} });
+	}
+	
+	/** Access to the (static) number of documents retrieved by Terrier matching strategies. */
+	private static abstract class RetrievedSetSize extends BaseMatching
+	{
+		static int get()
+		{
+			return RETRIEVED_SET_SIZE;
+		}
+		
+		static void set(int k)
+		{
+			RETRIEVED_SET_SIZE = k;
+		}
+	}
+	
+	@Before 
+	public void createIndex() throws Exception
+	{
+		super.doShakespeareIndexing();
+		originalIndex = Index.createIndex();
+		
+		String args[] = {"-path", originalIndex.getPath(), "-prefix", originalIndex.getPrefix() + ".ef", "-index", originalIndex.getPath() + File.separator + originalIndex.getPrefix() + ".properties", "-p", "1", "-blockmax"};
+
+		System.setProperty(EliasFano.LOG2QUANTUM, "3");
+
+		Generator.main(args);
+		
+		efIndex = Index.createIndex(args[1], args[3]);
+		
+		oldK = RetrievedSetSize.get();
+		RetrievedSetSize.set(k);
+		
+		// random queries of 1 to 5 terms
+		Random rnd = new Random(42);
+		int numTerms = originalIndex.getCollectionStatistics().getNumberOfUniqueTerms();
+		queries = new ArrayList<String[]>();
+		for (int q = 0; q < NUM_QUERIES; q++) {
+			String[] terms = new String[1 + rnd.nextInt(5)];
+			for (int i = 0; i < terms.length; i++)
+				terms[i] = originalIndex.getLexicon().getIthLexiconEntry(rnd.nextInt(numTerms)).getKey();
+			queries.add(terms);
+		}
+		// frequent terms make for long posting lists and ties
+		List<String> frequent = new ArrayList<String>();
+		for (int i = 0; i < numTerms; i++) {
+			Map.Entry<String, LexiconEntry> e = originalIndex.getLexicon().getIthLexiconEntry(i);
+			if (e.getValue().getDocumentFrequency() > originalIndex.getCollectionStatistics().getNumberOfDocuments() / 10)
+				frequent.add(e.getKey());
+		}
+		for (int q = 0; q < NUM_QUERIES && !frequent.isEmpty(); q++) {
+			String[] terms = new String[1 + rnd.nextInt(5)];
+			for (int i = 0; i < terms.length; i++)
+				terms[i] = frequent.get(rnd.nextInt(frequent.size()));
+			queries.add(terms);
+		}
+	}
+	
+	private WeightingModel newModel()
+	{
+		return "BM25".equals(model) ? new BM25() : new TF_IDF();
+	}
+	
+	private ResultSet run(Matching matching, String[] terms, int qid) throws IOException
+	{
+		MatchingQueryTerms mqt = new MatchingQueryTerms(Integer.toString(qid));
+		for (String term : terms)
+			mqt.setTermProperty(term, 1.0d);
+		mqt.setDefaultTermWeightingModel(newModel());
+		return matching.match(Integer.toString(qid), mqt);
+	}
+	
+	private void compare(Matching pruning) throws IOException
+	{
+		Matching full = new Full(originalIndex);
+		
+		for (int q = 0; q < queries.size(); q++) {
+			ResultSet expected = run(full, queries.get(q), q);
+			ResultSet actual = run(pruning, queries.get(q), q);
+			
+			assertEquals(expected.getResultSize(), actual.getResultSize());
+			double[] expectedScores = expected.getScores();
+			double[] actualScores = actual.getScores();
+			for (int i = 0; i < expected.getResultSize(); i++)
+				assertEquals(expectedScores[i], actualScores[i], DELTA);
+			
+			// same documents, up to ties on the last score
+			assertEquals(above(expected), above(actual));
+		}
+	}
+	
+	private static Set<Integer> above(ResultSet rs)
+	{
+		Set<Integer> docids = new HashSet<Integer>();
+		if (rs.getResultSize() == 0)
+			return docids;
+		double last = rs.getScores()[rs.getResultSize() - 1];
+		for (int i = 0; i < rs.getResultSize(); i++)
+			if (rs.getScores()[i] > last + DELTA)
+				docids.add(rs.getDocids()[i]);
+		return docids;
+	}
+	
+	@Test
+	public void maxScore() throws IOException
+	{
+		compare(new MaxScoreMatching(efIndex));
+	}
+
+	@Test
+	public void wand() throws IOException
+	{
+		compare(new WandMatching(efIndex));
+	}
+	
+	@Test
+	public void blockMaxWand() throws IOException
+	{
+		compare(new BlockMaxWandMatching(efIndex));
+	}
+	
+	private static DynamicPruningMatching ranges(DynamicPruningMatching matching)
+	{
+		matching.setNumberOfRanges(3);
+		return matching;
+	}
+	
+	@Test
+	public void maxScoreRanges() throws IOException
+	{
+		compare(ranges(new MaxScoreMatching(efIndex)));
+	}
+
+	@Test
+	public void wandRanges() throws IOException
+	{
+		compare(ranges(new WandMatching(efIndex)));
+	}
+	
+	@Test
+	public void blockMaxWandRanges() throws IOException
+	{
+		compare(ranges(new BlockMaxWandMatching(efIndex)));
+	}
+	
+	@After
+	public void deleteIndex() throws IOException
+	{
+		RetrievedSetSize.set(oldK);
+		originalIndex.close();
+		efIndex.close();
+	}
+}
@@ -0,0 +1,283 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+import org.terrier.structures.FSOMapFileLexicon;
+import org.terrier.structures.Index;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.Lexicon;
+import org.terrier.structures.LexiconEntry;
+import org.terrier.structures.postings.IterablePosting;
+import org.terrier.utility.ApplicationSetup;
+
+import it.cnr.isti.hpclab.ef.structures.EFBlockLexiconEntry;
+import it.cnr.isti.hpclab.ef.structures.EFHashLexicon;
+import it.cnr.isti.hpclab.ef.structures.EFLexiconEntry;
+import it.cnr.isti.hpclab.ef.structures.EFLexiconValueStore;
+import it.cnr.isti.hpclab.ef.util.LongStorage;
+import it.cnr.isti.hpclab.ef.util.LongWordBitWriter;
+import it.cnr.isti.hpclab.ef.util.MinimalPerfectHash;
+import it.cnr.isti.hpclab.ef.util.PrefixSumReader;
+import it.cnr.isti.hpclab.ef.util.SequenceEncoder;
+import it.cnr.isti.hpclab.ef.util.Utils;
+import it.unimi.dsi.fastutil.longs.LongBigList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+
+@RunWith(value = Parameterized.class)
+public class HashLexiconTest extends EFSetupTest
+{
+	protected IndexOnDisk originalIndex = null;
+	protected IndexOnDisk efIndex = null;
+	
+	protected boolean with_pos;
+	
+	public HashLexiconTest(boolean with_pos)
+	{
+		this.with_pos = with_pos;
+	}
+	
+	@Parameters
+	public static Collection<Object[]> getParameters()
+	{
+		return Arrays.asList(new Object[][] { {false}, {true} });
+	}
+	
+	@After
+	public void deleteIndex() throws IOException
+	{
+		if (efIndex != null)
+			efIndex.close();
+		if (originalIndex != null)
+			originalIndex.close();
+		ApplicationSetup.BLOCK_INDEXING = false;
+	}
+	
+	@SuppressWarnings("resource")
+	@Test
+	public void minimalPerfectHash() throws IOException
+	{
+		final Random random = new Random(42);
+		final ObjectOpenHashSet<String> set = new ObjectOpenHashSet<String>();
+		while (set.size() < 100000)
+			set.add(Long.toString(random.nextLong() & 0xFFFFFFFFFL, 36));
+		final ObjectArrayList<String> keys = new ObjectArrayList<String>(set);
+		
+		final File file = tmpFolder.newFile();
+		final LongWordBitWriter writer = new LongWordBitWriter(new FileOutputStream(file).getChannel(), ByteOrder.nativeOrder());
+		final int[] values = MinimalPerfectHash.write(keys.iterator(), keys.size(), writer);
+		writer.close();
+		
+		final LongBigList list = LongStorage.map(file.getPath(), ByteOrder.nativeOrder());
+		final MinimalPerfectHash hash = new MinimalPerfectHash(list, 0);
+		assertEquals(keys.size(), hash.size());
+		// less than 4 bits per key
+		assertTrue(hash.end() * Long.SIZE < 4L * keys.size());
+		final boolean[] seen = new boolean[keys.size()];
+		for (int i = 0; i < keys.size(); i++) {
+			final long value = hash.getLong(keys.get(i));
+			assertEquals(values[i], value);
+			assertFalse(seen[(int) value]);
+			seen[(int) value] = true;
+		}
+		LongStorage.unmap(list);
+	}
+	
+	@SuppressWarnings("resource")
+	@Test(expected = IllegalArgumentException.class)
+	public void duplicateKeys() throws IOException
+	{
+		final LongWordBitWriter writer = new LongWordBitWriter(new FileOutputStream(tmpFolder.newFile()).getChannel(), ByteOrder.nativeOrder());
+		MinimalPerfectHash.write(Arrays.asList("a", "b", "a").iterator(), 3, writer);
+	}
+	
+	@SuppressWarnings("resource")
+	@Test(expected = IllegalArgumentException.class)
+	public void tooManyKeys() throws IOException
+	{
+		final LongWordBitWriter writer = new LongWordBitWriter(new FileOutputStream(tmpFolder.newFile()).getChannel(), ByteOrder.nativeOrder());
+		MinimalPerfectHash.write(Arrays.asList("a").iterator(), 1L << 31, writer);
+	}
+	
+	@SuppressWarnings("resource")
+	@Test
+	public void prefixSums() throws IOException
+	{
+		final Random random = new Random(42);
+		final int length = 10000;
+		// runs of zeroes, small values and large values, as the statistics of the lexicon
+		final long[] values = new long[length];
+		long sum = 0;
+		for (int i = 0; i < length; i++)
+			sum += values[i] = (i >>> 9 & 3) == 0 ? 0 : (i >>> 9 & 3) == 1 ? random.nextInt(4) : random.nextInt(1 << 20);
+		
+		final File file = tmpFolder.newFile();
+		final LongWordBitWriter writer = new LongWordBitWriter(new FileOutputStream(file).getChannel(), ByteOrder.nativeOrder());
+		// a misaligned sequence, as in the entries of the hash lexicon
+		writer.append(0, 13);
+		try (SequenceEncoder encoder = new SequenceEncoder(1024 * 1024, EFLexiconValueStore.LOG2_QUANTUM)) {
+			encoder.init(length, sum, false, false, EFLexiconValueStore.LOG2_QUANTUM);
+			for (long value : values)
+				encoder.add(value);
+			assertEquals(Utils.sequenceBits(length, sum, EFLexiconValueStore.LOG2_QUANTUM), encoder.dump(writer));
+		}
+		writer.close();
+		
+		final LongBigList list = LongStorage.map(file.getPath(), ByteOrder.nativeOrder());
+		final PrefixSumReader reader = new PrefixSumReader(list, 13, length, sum, EFLexiconValueStore.LOG2_QUANTUM);
+		long prefixSum = 0;
+		for (int i = 0; i < length; i++) {
+			prefixSum += values[i];
+			assertEquals(prefixSum, reader.getPrefixSum(i));
+			assertEquals(values[i], reader.getLong(i));
+		}
+		LongStorage.unmap(list);
+	}
+	
+	@Test
+	public void hashLexicon() throws Exception
+	{
+		ApplicationSetup.BLOCK_INDEXING = with_pos;
+		super.doShakespeareIndexing();
+		originalIndex = Index.createIndex();
+		
+		String args[] = {"-path", originalIndex.getPath(), "-prefix", originalIndex.getPrefix() + ".ef", "-index", originalIndex.getPath() + File.separator + originalIndex.getPrefix() + ".properties", "-p", "2", "-hashlexicon"};
+		if (with_pos) {
+			args = Arrays.copyOf(args, args.length + 1);
+			args[args.length - 1] = "-b";
+		}
+		System.setProperty(EliasFano.LOG2QUANTUM, "3");
+		Generator.main(args);
+		efIndex = Index.createIndex(args[1], args[3]);
+		
+		final Lexicon<String> lexicon = efIndex.getLexicon();
+		assertTrue(lexicon instanceof EFHashLexicon);
+		final FSOMapFileLexicon mapLexicon = new FSOMapFileLexicon("lexicon", efIndex);
+		assertEquals(mapLexicon.numberOfEntries(), lexicon.numberOfEntries());
+		assertEquals(originalIndex.getLexicon().numberOfEntries(), lexicon.numberOfEntries());
+		
+		final Iterator<Map.Entry<String, LexiconEntry>> iterator = lexicon.iterator();
+		int termId = 0;
+		for (Map.Entry<String, LexiconEntry> expected : mapLexicon) {
+			assertEntry(expected.getValue(), lexicon.getLexiconEntry(expected.getKey()));
+			assertEquals(termId, ((EFHashLexicon) lexicon).getTermId(expected.getKey()));
+			
+			final Map.Entry<String, LexiconEntry> ith = lexicon.getIthLexiconEntry(termId);
+			assertEquals(expected.getKey(), ith.getKey());
+			assertEntry(expected.getValue(), ith.getValue());
+			assertEquals(expected.getKey(), lexicon.getLexiconEntry(termId).getKey());
+			
+			final Map.Entry<String, LexiconEntry> next = iterator.next();
+			assertEquals(expected.getKey(), next.getKey());
+			assertEntry(expected.getValue(), next.getValue());
+			
+			assertNull(lexicon.getLexiconEntry(expected.getKey() + "\u0000"));
+			termId++;
+		}
+		assertFalse(iterator.hasNext());
+		assertNull(lexicon.getLexiconEntry(""));
+		assertNull(lexicon.getLexiconEntry("zzzzzzzzzzzzzzzzzzzz"));
+		mapLexicon.close();
+		
+		// the postings of the hash lexicon entries
+		for (Map.Entry<String, LexiconEntry> originalEntry : originalIndex.getLexicon()) {
+			final IterablePosting op = originalIndex.getInvertedIndex().getPostings(originalEntry.getValue());
+			final IterablePosting sp = efIndex.getInvertedIndex().getPostings(lexicon.getLexiconEntry(originalEntry.getKey()));
+			while (op.next() != IterablePosting.EOL) {
+				assertEquals(op.getId(), sp.next());
+				assertEquals(op.getFrequency(), sp.getFrequency());
+			}
+			assertEquals(IterablePosting.EOL, sp.next());
+			op.close();
+			sp.close();
+		}
+		
+		// ranges
+		final Map.Entry<String, LexiconEntry> first = lexicon.getIthLexiconEntry(10), last = lexicon.getIthLexiconEntry(20);
+		final Iterator<Map.Entry<String, LexiconEntry>> range = lexicon.getLexiconEntryRange(first.getKey(), last.getKey());
+		for (int i = 10; i < 20; i++)
+			assertEquals(lexicon.getIthLexiconEntry(i).getKey(), range.next().getKey());
+		assertFalse(range.hasNext());
+	}
+	
+	@Test
+	public void byteOrder() throws Exception
+	{
+		ApplicationSetup.BLOCK_INDEXING = with_pos;
+		super.doShakespeareIndexing();
+		originalIndex = Index.createIndex();
+		
+		String args[] = {"-path", originalIndex.getPath(), "-prefix", originalIndex.getPrefix() + ".ef", "-index", originalIndex.getPath() + File.separator + originalIndex.getPrefix() + ".properties", "-p", "2"};
+		if (with_pos) {
+			args = Arrays.copyOf(args, args.length + 1);
+			args[args.length - 1] = "-b";
+		}
+		Generator.main(args);
+		efIndex = Index.createIndex(args[1], args[3]);
+		
+		// the hash lexicon is written and read in the byte order recorded by the index, even if it is not the native one
+		final ByteOrder byteOrder = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+		efIndex.setIndexProperty(EliasFano.BYTEORDER, byteOrder.toString());
+		EFHashLexicon.write(efIndex);
+		final EFHashLexicon lexicon = new EFHashLexicon("lexicon", efIndex);
+		final FSOMapFileLexicon mapLexicon = new FSOMapFileLexicon("lexicon", efIndex);
+		assertEquals(mapLexicon.numberOfEntries(), lexicon.numberOfEntries());
+		for (Map.Entry<String, LexiconEntry> expected : mapLexicon)
+			assertEntry(expected.getValue(), lexicon.getLexiconEntry(expected.getKey()));
+		mapLexicon.close();
+		lexicon.close();
+	}
+	
+	private void assertEntry(final LexiconEntry expected, final LexiconEntry actual)
+	{
+		final EFLexiconEntry e = (EFLexiconEntry) expected, a = (EFLexiconEntry) actual;
+		assertEquals(e.getTermId(), a.getTermId());
+		assertEquals(e.getDocumentFrequency(), a.getDocumentFrequency());
+		assertEquals(e.getFrequency(), a.getFrequency());
+		assertEquals(e.getMaxFrequencyInDocuments(), a.getMaxFrequencyInDocuments());
+		assertEquals(e.getDocidOffset(), a.getDocidOffset());
+		assertEquals(e.getFreqOffset(), a.getFreqOffset());
+		assertEquals(e.isBitmap(), a.isBitmap());
+		if (with_pos) {
+			assertEquals(((EFBlockLexiconEntry) e).getPosOffset(), ((EFBlockLexiconEntry) a).getPosOffset());
+			assertEquals(((EFBlockLexiconEntry) e).getSumsMaxPos(), ((EFBlockLexiconEntry) a).getSumsMaxPos());
+		}
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+import org.terrier.matching.models.BM25;
+import org.terrier.matching.models.WeightingModel;
+import org.terrier.structures.BitIndexPointer;
+import org.terrier.structures.Index;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.LexiconEntry;
+import org.terrier.structures.postings.IterablePosting;
+import org.terrier.utility.ApplicationSetup;
+
+import it.cnr.isti.hpclab.ef.structures.EFImpactIndex;
+import it.cnr.isti.hpclab.ef.structures.EFImpactIterablePosting;
+import it.cnr.isti.hpclab.ef.util.ImpactQuantizer;
+
+@RunWith(value = Parameterized.class)
+public class ImpactIndexTest extends EFSetupTest
+{
+	protected IndexOnDisk originalIndex = null;
+	protected IndexOnDisk efIndex = null;
+	
+	protected int parallelism;
+	protected int bits;
+	
+	public ImpactIndexTest(int parallelism, int bits)
+	{
+		this.parallelism = parallelism;
+		this.bits = bits;
+	}
+	
+	@Parameters
+	public static Collection<Object[]> parallelismValues()
+	{
+		return Arrays.asList(new Object[][] { {1, 8}, {3, 8}, {2, 4} });
+	}
+	
+	private void createIndex(final boolean with_pos, final String... options) throws Exception
+	{
+		ApplicationSetup.BLOCK_INDEXING = with_pos;
+		super.doShakespeareIndexing();
+		originalIndex = Index.createIndex();
+		
+		List<String> args = new ArrayList<String>(Arrays.asList("-path", originalIndex.getPath(), "-prefix", originalIndex.getPrefix() + ".ef", "-index", originalIndex.getPath() + File.separator + originalIndex.getPrefix() + ".properties", 
+																 "-p", Integer.toString(parallelism), "-impacts", "BM25", "-impactbits", Integer.toString(bits)));
+		args.addAll(Arrays.asList(options));
+
+		System.setProperty(EliasFano.LOG2QUANTUM, "3");
+
+		Generator.main(args.toArray(new String[0]));
+		
+		efIndex = Index.createIndex(originalIndex.getPath(), originalIndex.getPrefix() + ".ef");
+	}
+	
+	@After
+	public void deleteIndex() throws IOException
+	{
+		if (efIndex != null)
+			efIndex.close();
+		if (originalIndex != null)
+			originalIndex.close();
+		ApplicationSetup.BLOCK_INDEXING = false;
+	}
+	
+	@Test
+	public void impacts() throws Exception
+	{
+		createIndex(false);
+		checkImpacts();
+	}
+	
+	@Test
+	public void impactsWithPositionsAndBlockMax() throws Exception
+	{
+		createIndex(true, "-b", "-blockmax");
+		checkImpacts();
+	}
+	
+	@Test
+	public void impactsPartitioned() throws Exception
+	{
+		createIndex(false, "-pef");
+		checkImpacts();
+	}
+	
+	/**
+	 * Check the impacts of every posting against the quantized BM25 scores computed on the original index, when scanning and skipping.
+	 */
+	private void checkImpacts() throws IOException
+	{
+		final EFImpactIndex impacts = (EFImpactIndex) efIndex.getIndexStructure("impacts");
+		assertNotNull(impacts);
+		final ImpactQuantizer quantizer = impacts.getQuantizer();
+		assertEquals("BM25", quantizer.getModel());
+		assertEquals(bits, quantizer.getBits());
+		
+		final WeightingModel wm = new BM25();
+		wm.setCollectionStatistics(originalIndex.getCollectionStatistics());
+		double maxScore = 0;
+		
+		for (Map.Entry<String, LexiconEntry> e : originalIndex.getLexicon()) {
+			final LexiconEntry le = e.getValue();
+			final LexiconEntry efle = efIndex.getLexicon().getLexiconEntry(e.getKey());
+			ImpactQuantizer.prepare(wm, le);
+			
+			final int df = le.getDocumentFrequency();
+			final int[] docids = new int[df];
+			final double[] scores = new double[df];
+			final IterablePosting p = originalIndex.getInvertedIndex().getPostings((BitIndexPointer) le);
+			for (int i = 0; p.next() != IterablePosting.END_OF_LIST; i++) {
+				docids[i] = p.getId();
+				scores[i] = wm.score(p.getFrequency(), p.getDocumentLength());
+			}
+			p.close();
+			
+			int maxImpact = 1;
+			final EFImpactIterablePosting ip = impacts.getPostings(efle);
+			for (int i = 0; i < df; i++) {
+				assertEquals(docids[i], ip.next());
+				final int impact = quantizer.quantize(scores[i]);
+				assertEquals(impact, ip.getImpact());
+				assertEquals(impact, ip.getImpact());
+				assertTrue(ip.getScore() >= scores[i] - 1e-9);
+				assertTrue(impact == 1 || ip.getScore() - scores[i] <= quantizer.getMaxScore() / ((1 << bits) - 1) + 1e-9);
+				maxImpact = Math.max(maxImpact, impact);
+				maxScore = Math.max(maxScore, scores[i]);
+			}
+			assertEquals(IterablePosting.END_OF_LIST, ip.next());
+			ip.close();
+			assertEquals(maxImpact, impacts.getMaxImpact(efle));
+			assertEquals(quantizer.dequantize(maxImpact), impacts.getMaxScore(efle), 0.0);
+			
+			// skipping to every other posting, reading its impact only
+			final EFImpactIterablePosting skp = impacts.getPostings(efle);
+			for (int i = 1; i < df; i += 2) {
+				assertEquals(docids[i], skp.next(docids[i]));
+				assertEquals(quantizer.quantize(scores[i]), skp.getImpact());
+			}
+			skp.close();
+		}
+		assertEquals(maxScore, quantizer.getMaxScore(), 1e-9);
+	}
+}
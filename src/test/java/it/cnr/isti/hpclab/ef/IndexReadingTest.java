@@ -20,6 +20,7 @@
 package it.cnr.isti.hpclab.ef;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -42,7 +43,11 @@ import org.terrier.structures.postings.IterablePosting;
 
 import it.cnr.isti.hpclab.ef.EliasFano;
 import it.cnr.isti.hpclab.ef.Generator;
+import it.cnr.isti.hpclab.ef.structures.EFBasicIterablePosting;
+import it.cnr.isti.hpclab.ef.structures.EFBlockMaxIndex;
+import it.cnr.isti.hpclab.ef.structures.EFBlockMaxIterator;
 import it.cnr.isti.hpclab.ef.structures.EFLexiconEntry;
+import it.cnr.isti.hpclab.ef.structures.EFMappedDocumentIndex;
 
 @RunWith(value = Parameterized.class)
 public class IndexReadingTest extends EFSetupTest
@@ -50,8 +55,8 @@ public class IndexReadingTest extends EFSetupTest
 	protected IndexOnDisk originalIndex = null;
 	protected IndexOnDisk efIndex = null;
 	
-	private int parallelism;
-	private int skipSize;
+	protected int parallelism;
+	protected int skipSize;
 	
 	public IndexReadingTest(int parallelism, int skipSize)
 	{
@@ -72,7 +77,7 @@ public class IndexReadingTest extends EFSetupTest
 		super.doShakespeareIndexing();
 		originalIndex = Index.createIndex();
 		
-		String args[] = {"-path", originalIndex.getPath(), "-prefix", originalIndex.getPrefix() + ".ef", "-index", originalIndex.getPath() + File.separator + originalIndex.getPrefix() + ".properties", "-p", Integer.toString(parallelism)};
+		String args[] = {"-path", originalIndex.getPath(), "-prefix", originalIndex.getPrefix() + ".ef", "-index", originalIndex.getPath() + File.separator + originalIndex.getPrefix() + ".properties", "-p", Integer.toString(parallelism), "-blockmax"};
 
 		System.setProperty(EliasFano.LOG2QUANTUM, "3");
 
@@ -216,6 +221,138 @@ public class IndexReadingTest extends EFSetupTest
 		}
 	}
 	
+	@Test
+	public void lazyFrequency() throws IOException
+	{
+		Map.Entry<String, LexiconEntry> originalEntry;
+		Map.Entry<String, LexiconEntry> efEntry;
+
+		for (int i = 0; i < originalIndex.getCollectionStatistics().getNumberOfUniqueTerms(); i++) {
+			originalEntry = originalIndex.getLexicon().getIthLexiconEntry(i);
+			efEntry = efIndex.getLexicon().getIthLexiconEntry(i);
+
+			assertEquals(originalEntry.getKey(), efEntry.getKey());
+
+			IterablePosting op = originalIndex.getInvertedIndex().getPostings(originalEntry.getValue());
+			IterablePosting sp = efIndex.getInvertedIndex().getPostings(efEntry.getValue());
+
+			// read the frequency only now and then, alternating short and long strides
+			int cnt = 0;
+			int stride = skipSize;
+			while (op.next() != IterablePosting.EOL) {
+				assertEquals(op.getId(), sp.next());
+				if (++cnt == stride) {
+					cnt = 0;
+					stride = (stride == skipSize) ? skipSize * skipSize : skipSize;
+					assertEquals(op.getFrequency(), sp.getFrequency());
+					assertEquals(op.getFrequency(), sp.getFrequency());
+				}
+			}
+			assertEquals(IterablePosting.EOL, sp.next());
+		}
+	}
+
+	@Test
+	public void blockMax() throws IOException
+	{
+		final int quantum = 1 << 3;
+		EFBlockMaxIndex blockMaxIndex = (EFBlockMaxIndex) efIndex.getIndexStructure("blockmax");
+		
+		for (int i = 0; i < originalIndex.getCollectionStatistics().getNumberOfUniqueTerms(); i++) {
+			Map.Entry<String, LexiconEntry> originalEntry = originalIndex.getLexicon().getIthLexiconEntry(i);
+			Map.Entry<String, LexiconEntry> efEntry = efIndex.getLexicon().getIthLexiconEntry(i);
+			
+			assertEquals(originalEntry.getKey(), efEntry.getKey());
+			
+			IterablePosting op = originalIndex.getInvertedIndex().getPostings(originalEntry.getValue());
+			EFBlockMaxIterator blocks = blockMaxIndex.getBlocks(efEntry.getValue());
+			
+			assertEquals((efEntry.getValue().getDocumentFrequency() + quantum - 1) / quantum, blocks.numberOfBlocks());
+			
+			int cnt = 0, maxtf = 0, minLength = Integer.MAX_VALUE, maxLength = 0;
+			while (op.next() != IterablePosting.EOL) {
+				maxtf = Math.max(maxtf, op.getFrequency());
+				minLength = Math.min(minLength, op.getDocumentLength());
+				maxLength = Math.max(maxLength, op.getDocumentLength());
+				
+				assertEquals(cnt / quantum, blocks.getBlock());
+				if (++cnt % quantum == 0 || cnt == efEntry.getValue().getDocumentFrequency()) {
+					assertEquals(op.getId(), blocks.getLastDocid());
+					assertEquals(maxtf, blocks.getMaxFrequency());
+					assertEquals(minLength, blocks.getMinDocumentLength());
+					assertEquals(maxLength, blocks.getMaxDocumentLength());
+					blocks.move(op.getId() + 1);
+					maxtf = 0; minLength = Integer.MAX_VALUE; maxLength = 0;
+				} else {
+					assertEquals(blocks.getLastDocid(), blocks.move(op.getId()));
+				}
+			}
+			assertEquals(IterablePosting.END_OF_LIST, blocks.getLastDocid());
+		}
+	}
+	
+	@Test
+	public void mappedDocumentIndex() throws IOException
+	{
+		org.terrier.structures.DocumentIndex originalDoi = originalIndex.getDocumentIndex();
+		EFMappedDocumentIndex mappedDoi = new EFMappedDocumentIndex(efIndex);
+		
+		assertEquals(originalDoi.getNumberOfDocuments(), mappedDoi.getNumberOfDocuments());
+		int min = Integer.MAX_VALUE, max = 0;
+		for (int docid = 0; docid < originalDoi.getNumberOfDocuments(); docid++) {
+			final int length = originalDoi.getDocumentLength(docid);
+			assertEquals(length, mappedDoi.getDocumentLength(docid));
+			min = Math.min(min, length);
+			max = Math.max(max, length);
+		}
+		assertEquals(min, mappedDoi.getMinimumDocumentLength());
+		assertEquals(max, mappedDoi.getMaximumDocumentLength());
+	}
+	
+	@Test
+	public void nextBlock() throws IOException
+	{
+		Map.Entry<String, LexiconEntry> originalEntry;
+		Map.Entry<String, LexiconEntry> efEntry;
+		
+		int[] docids = new int[skipSize];
+		int[] freqs = new int[skipSize];
+		
+		for (int i = 0; i < originalIndex.getCollectionStatistics().getNumberOfUniqueTerms(); i++) {
+			originalEntry = originalIndex.getLexicon().getIthLexiconEntry(i);
+			efEntry = efIndex.getLexicon().getIthLexiconEntry(i);
+			
+			assertEquals(originalEntry.getKey(), efEntry.getKey());
+			
+			IterablePosting op = originalIndex.getInvertedIndex().getPostings(originalEntry.getValue());
+			EFBasicIterablePosting sp = (EFBasicIterablePosting) efIndex.getInvertedIndex().getPostings(efEntry.getValue());
+			
+			// an empty buffer does not move the cursor
+			assertEquals(0, sp.nextBlock(new int[0], null));
+			assertFalse(sp.endOfPostings());
+			
+			// alternate a block of postings with a single posting
+			int n;
+			while ((n = sp.nextBlock(docids, freqs)) > 0) {
+				for (int j = 0; j < n; j++) {
+					assertTrue(op.next() != IterablePosting.EOL);
+					assertEquals(op.getId(), docids[j]);
+					assertEquals(op.getFrequency(), freqs[j]);
+				}
+				assertEquals(op.getId(), sp.getId());
+				assertEquals(op.getFrequency(), sp.getFrequency());
+				
+				assertEquals(op.next(), sp.next());
+				if (sp.endOfPostings())
+					break;
+				assertEquals(op.getFrequency(), sp.getFrequency());
+				assertEquals(op.getDocumentLength(), sp.getDocumentLength());
+			}
+			assertTrue(sp.endOfPostings());
+			assertEquals(0, sp.nextBlock(docids, freqs));
+		}
+	}
+	
 	@After 
 	public void deleteIndex() throws IOException
 	{
@@ -0,0 +1,84 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import it.cnr.isti.hpclab.ef.util.LongStorage;
+import it.cnr.isti.hpclab.ef.util.LongWordBitWriter;
+import it.unimi.dsi.fastutil.longs.LongBigList;
+
+/**
+ * Checks the storage in use, i.e., byte buffers or, when run from the multi-release jar on JDK 21 or later, 
+ * the one chosen by the {@link EliasFano#STORAGE} property, in both byte orders.
+ * On JDK 21 or later, the <code>java21</code> profile runs the tests again in the package phase against the multi-release jar, with memory segments.
+ */
+public class LongStorageTest 
+{
+	private static final int LONGS = 100000;
+	
+	@Rule
+	public TemporaryFolder tmpFolder = new TemporaryFolder();
+	
+	@SuppressWarnings("resource")
+	private void check(final ByteOrder byteOrder) throws IOException
+	{
+		final Random random = new Random(42);
+		final long[] longs = new long[LONGS];
+		final File file = tmpFolder.newFile();
+		final LongWordBitWriter writer = new LongWordBitWriter(new FileOutputStream(file).getChannel(), byteOrder);
+		for (int i = 0; i < LONGS; i++)
+			writer.append(longs[i] = random.nextLong(), Long.SIZE);
+		writer.close();
+		
+		final LongBigList list = LongStorage.map(file.getPath(), byteOrder);
+		// the writer ends the file with a further long
+		assertEquals(LONGS + 1, list.size64());
+		for (int i = 0; i < LONGS; i++)
+			assertEquals(longs[i], list.getLong(i));
+		for (int i = 0; i < LONGS; i++) {
+			final int index = random.nextInt(LONGS);
+			assertEquals(longs[index], list.getLong(index));
+		}
+		LongStorage.unmap(list);
+	}
+	
+	@Test
+	public void nativeOrder() throws IOException
+	{
+		check(ByteOrder.nativeOrder());
+	}
+	
+	@Test
+	public void reverseOrder() throws IOException
+	{
+		check(ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+	}
+}
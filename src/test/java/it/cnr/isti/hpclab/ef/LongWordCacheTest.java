@@ -0,0 +1,143 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import it.cnr.isti.hpclab.ef.util.CacheBudget;
+import it.cnr.isti.hpclab.ef.util.LongWordCache;
+
+public class LongWordCacheTest 
+{
+	private static final int NUM_LONGS = 100000;
+	
+	private long budget;
+	
+	@Before
+	public void saveBudget()
+	{
+		budget = CacheBudget.get();
+	}
+	
+	@After
+	public void restoreBudget()
+	{
+		CacheBudget.set(budget);
+	}
+	
+	private static void checkRoundTrip(final LongWordCache cache, final long seed) throws IOException
+	{
+		Random random = new Random(seed);
+		cache.clear();
+		for (int i = 0; i < NUM_LONGS; i++)
+			cache.append(random.nextLong(), Long.SIZE);
+		assertEquals((long) NUM_LONGS * Long.SIZE, cache.length());
+		
+		cache.rewind();
+		random = new Random(seed);
+		for (int i = 0; i < NUM_LONGS; i++)
+			assertEquals(random.nextLong(), cache.readLong());
+	}
+	
+	@Test
+	public void spillWithoutBudget() throws IOException
+	{
+		CacheBudget.set(0);
+		final long used = CacheBudget.used();
+		LongWordCache cache = new LongWordCache(64 * 1024 * 1024, "test");
+		for (long seed = 0; seed < 3; seed++)
+			checkRoundTrip(cache, seed);
+		cache.close();
+		assertEquals(used, CacheBudget.used());
+	}
+
+	@Test
+	public void growWithinBudget() throws IOException
+	{
+		CacheBudget.set(Long.MAX_VALUE);
+		final long used = CacheBudget.used();
+		LongWordCache cache = new LongWordCache(64 * 1024 * 1024, "test");
+		for (long seed = 0; seed < 3; seed++)
+			checkRoundTrip(cache, seed);
+		cache.close();
+		assertEquals(used, CacheBudget.used());
+	}
+	
+	@Test
+	public void growThenSpill() throws IOException
+	{
+		// enough budget to double the initial buffer a couple of times only
+		CacheBudget.set(CacheBudget.used() + 3 * 64 * 1024);
+		final long used = CacheBudget.used();
+		LongWordCache cache = new LongWordCache(64 * 1024 * 1024, "test");
+		for (long seed = 0; seed < 3; seed++)
+			checkRoundTrip(cache, seed);
+		cache.close();
+		assertEquals(used, CacheBudget.used());
+	}
+	
+	@Test
+	public void growUpToMaximumSize() throws IOException
+	{
+		CacheBudget.set(Long.MAX_VALUE);
+		final long used = CacheBudget.used();
+		// not the initial size times a power of two
+		final int max = 3 * 64 * 1024 + 100;
+		LongWordCache cache = new LongWordCache(max, "test");
+		checkRoundTrip(cache, 0);
+		assertEquals(max / Long.BYTES * Long.BYTES, CacheBudget.used() - used);
+		cache.close();
+		assertEquals(used, CacheBudget.used());
+	}
+	
+	@Test
+	public void shrinkAfterClear() throws IOException
+	{
+		CacheBudget.set(Long.MAX_VALUE);
+		final long used = CacheBudget.used();
+		LongWordCache cache = new LongWordCache(64 * 1024 * 1024, "test");
+		checkRoundTrip(cache, 0);
+		final long grown = CacheBudget.used() - used;
+		assertTrue(grown > 64 * 1024);
+		
+		// a large sequence keeps the buffer, a small one gives it back
+		cache.clear();
+		assertEquals(grown, CacheBudget.used() - used);
+		for (int i = 0; i < 10; i++)
+			cache.append(i, Long.SIZE);
+		cache.rewind();
+		for (int i = 0; i < 10; i++)
+			assertEquals(i, cache.readLong());
+		cache.clear();
+		assertEquals(64 * 1024, CacheBudget.used() - used);
+		
+		checkRoundTrip(cache, 1);
+		cache.close();
+		assertEquals(used, CacheBudget.used());
+	}
+}
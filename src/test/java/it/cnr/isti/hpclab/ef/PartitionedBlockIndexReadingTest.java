@@ -0,0 +1,54 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.terrier.structures.Index;
+import org.terrier.utility.ApplicationSetup;
+
+/**
+ * Runs the {@link BlockIndexReadingTest} checks on an index whose docids are encoded with partitioned Elias-Fano.
+ */
+public class PartitionedBlockIndexReadingTest extends BlockIndexReadingTest
+{
+	public PartitionedBlockIndexReadingTest(int parallelism, int skipSize)
+	{
+		super(parallelism, skipSize);
+	}
+	
+	@Before 
+	@Override
+	public void createIndex() throws Exception
+	{
+		ApplicationSetup.BLOCK_INDEXING = true;
+		super.doShakespeareIndexing();
+		originalIndex = Index.createIndex();
+		
+		String args[] = {"-path", originalIndex.getPath(), "-prefix", originalIndex.getPrefix() + ".ef", "-index", originalIndex.getPath() + File.separator + originalIndex.getPrefix() + ".properties", "-p", Integer.toString(parallelism), "-b", "-pef"};
+
+		System.setProperty(EliasFano.LOG2QUANTUM, "3");
+
+		Generator.main(args);
+		
+		efIndex = Index.createIndex(args[1], args[3]);
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import it.cnr.isti.hpclab.ef.util.LongWordBitWriter;
+import it.cnr.isti.hpclab.ef.util.PartitionedDocidEncoder;
+import it.cnr.isti.hpclab.ef.util.PartitionedDocidReader;
+import it.unimi.dsi.fastutil.longs.LongBigList;
+import it.unimi.dsi.util.ByteBufferLongBigList;
+
+public class PartitionedDocidTest 
+{
+	private static final int NUM_DOCS = 200000;
+	private static final int LOG2QUANTUM = 3;
+	
+	@Rule
+	public TemporaryFolder tmpFolder = new TemporaryFolder();
+	
+	/** A list alternating dense runs, dense clusters and sparse gaps, as in reordered collections. */
+	private static int[] clustered(final Random random)
+	{
+		int[] list = new int[NUM_DOCS];
+		int n = 0;
+		for (int docid = random.nextInt(100); docid < NUM_DOCS; ) {
+			switch (random.nextInt(3)) {
+			case 0:
+				for (int i = random.nextInt(2000); i > 0 && docid < NUM_DOCS; i--)
+					list[n++] = docid++;
+				break;
+			case 1:
+				for (int i = random.nextInt(2000); i > 0 && docid < NUM_DOCS; i--, docid += 1 + random.nextInt(3))
+					list[n++] = docid;
+				break;
+			default:
+				for (int i = random.nextInt(200); i > 0 && docid < NUM_DOCS; i--, docid += 1 + random.nextInt(5000))
+					list[n++] = docid;
+			}
+			docid += random.nextInt(1000);
+		}
+		return Arrays.copyOf(list, n);
+	}
+	
+	private static int[] sparse(final Random random, final int n)
+	{
+		return random.ints(0, NUM_DOCS).distinct().limit(n).sorted().toArray();
+	}
+	
+	private LongBigList write(final List<int[]> lists, final long[] positions) throws IOException
+	{
+		File file = tmpFolder.newFile();
+		FileOutputStream fos = new FileOutputStream(file);
+		LongWordBitWriter writer = new LongWordBitWriter(fos.getChannel(), ByteOrder.nativeOrder());
+		PartitionedDocidEncoder encoder = new PartitionedDocidEncoder(1024, LOG2QUANTUM);
+		long position = 0;
+		for (int l = 0; l < lists.size(); l++) {
+			positions[l] = position;
+			int[] list = lists.get(l);
+			encoder.init(list.length, NUM_DOCS);
+			int last = 0;
+			for (int docid : list) {
+				encoder.add(docid - last);
+				last = docid;
+			}
+			position += encoder.dump(writer);
+		}
+		encoder.close();
+		writer.close();
+		fos.close();
+		return ByteBufferLongBigList.map(new FileInputStream(file).getChannel(), ByteOrder.nativeOrder(), MapMode.READ_ONLY);
+	}
+	
+	private static List<int[]> lists()
+	{
+		Random random = new Random(42);
+		List<int[]> lists = new ArrayList<int[]>();
+		lists.add(new int[] { 0 });
+		lists.add(new int[] { NUM_DOCS - 1 });
+		lists.add(new int[] { 0, 1, 2, 3, 4, 5, 6, 7 });
+		lists.add(sparse(random, 10));
+		lists.add(sparse(random, 5000));
+		lists.add(sparse(random, NUM_DOCS / 2));
+		for (int i = 0; i < 5; i++)
+			lists.add(clustered(random));
+		return lists;
+	}
+	
+	@Test
+	public void sequentialDecoding() throws IOException
+	{
+		List<int[]> lists = lists();
+		long[] positions = new long[lists.size()];
+		LongBigList data = write(lists, positions);
+		
+		for (int l = 0; l < lists.size(); l++) {
+			int[] list = lists.get(l);
+			PartitionedDocidReader reader = new PartitionedDocidReader(data, positions[l], list.length, NUM_DOCS, LOG2QUANTUM);
+			for (int i = 0; i < list.length; i++) {
+				assertEquals(list[i], reader.getNextPrefixSum());
+				assertEquals(i + 1, reader.getCurrentPos());
+			}
+			assertEquals(NUM_DOCS, reader.getNextPrefixSum());
+		}
+	}
+	
+	@Test
+	public void blockDecoding() throws IOException
+	{
+		List<int[]> lists = lists();
+		long[] positions = new long[lists.size()];
+		LongBigList data = write(lists, positions);
+		
+		for (int l = 0; l < lists.size(); l++) {
+			int[] list = lists.get(l);
+			PartitionedDocidReader reader = new PartitionedDocidReader(data, positions[l], list.length, NUM_DOCS, LOG2QUANTUM);
+			int[] buffer = new int[list.length];
+			for (int i = 0; i < list.length; i += 100)
+				reader.getNextPrefixSums(buffer, i, Math.min(100, list.length - i));
+			assertEquals(list.length, reader.getCurrentPos());
+			for (int i = 0; i < list.length; i++)
+				assertEquals(list[i], buffer[i]);
+		}
+	}
+	
+	@Test
+	public void skipping() throws IOException
+	{
+		List<int[]> lists = lists();
+		long[] positions = new long[lists.size()];
+		LongBigList data = write(lists, positions);
+		Random random = new Random(7);
+		
+		for (int l = 0; l < lists.size(); l++) {
+			int[] list = lists.get(l);
+			for (int step : new int[] { 1, 7, 100, 5000 }) {
+				PartitionedDocidReader reader = new PartitionedDocidReader(data, positions[l], list.length, NUM_DOCS, LOG2QUANTUM);
+				long target = 0;
+				while (true) {
+					target += random.nextInt(step) + 1;
+					int pos = Arrays.binarySearch(list, (int) Math.min(target, Integer.MAX_VALUE));
+					if (pos < 0)
+						pos = -pos - 1;
+					long docid = reader.skipTo(target);
+					if (pos == list.length) {
+						assertEquals(NUM_DOCS, docid);
+						break;
+					}
+					assertEquals(list[pos], docid);
+					assertEquals(pos + 1, reader.getCurrentPos());
+					target = docid;
+				}
+			}
+		}
+	}
+}
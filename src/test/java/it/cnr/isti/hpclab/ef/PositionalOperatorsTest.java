@@ -0,0 +1,231 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.terrier.structures.Index;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.LexiconEntry;
+import org.terrier.structures.postings.BlockPosting;
+import org.terrier.structures.postings.IterablePosting;
+import org.terrier.utility.ApplicationSetup;
+
+import it.cnr.isti.hpclab.ef.structures.EFANDIterablePosting;
+import it.cnr.isti.hpclab.ef.structures.EFPhraseIterablePosting;
+import it.cnr.isti.hpclab.ef.structures.EFWindowIterablePosting;
+
+public class PositionalOperatorsTest extends EFSetupTest
+{
+	private static final int NUM_TERMS = 12;
+	
+	protected IndexOnDisk originalIndex = null;
+	protected IndexOnDisk efIndex = null;
+	
+	/** The most frequent terms, and their positions in every document, from the original index. */
+	private List<String> terms;
+	private Map<String, Map<Integer, int[]>> positions;
+	
+	@Before 
+	public void createIndex() throws Exception
+	{
+		ApplicationSetup.BLOCK_INDEXING = true;
+		super.doShakespeareIndexing();
+		originalIndex = Index.createIndex();
+		
+		String args[] = {"-path", originalIndex.getPath(), "-prefix", originalIndex.getPrefix() + ".ef", "-index", originalIndex.getPath() + File.separator + originalIndex.getPrefix() + ".properties", "-p", "2", "-b"};
+
+		System.setProperty(EliasFano.LOG2QUANTUM, "3");
+
+		Generator.main(args);
+		
+		efIndex = Index.createIndex(args[1], args[3]);
+		
+		List<Map.Entry<String, LexiconEntry>> entries = new ArrayList<>();
+		for (Map.Entry<String, LexiconEntry> e : originalIndex.getLexicon())
+			entries.add(e);
+		entries.sort((a, b) -> Integer.compare(b.getValue().getFrequency(), a.getValue().getFrequency()));
+		
+		terms = new ArrayList<>();
+		positions = new HashMap<>();
+		for (Map.Entry<String, LexiconEntry> e : entries.subList(0, NUM_TERMS)) {
+			terms.add(e.getKey());
+			Map<Integer, int[]> docs = new TreeMap<>();
+			IterablePosting p = originalIndex.getInvertedIndex().getPostings(e.getValue());
+			while (p.next() != IterablePosting.EOL)
+				docs.put(p.getId(), ((BlockPosting) p).getPositions().clone());
+			positions.put(e.getKey(), docs);
+		}
+	}
+	
+	/** Earliest-ending, non-overlapping matches, by brute force over the positions in the window of every possible end. */
+	private static int countMatches(final int[][] pos, final int window, final boolean ordered, final boolean phrase)
+	{
+		if (phrase)
+			return countPhrases(pos);
+		TreeSet<Integer> ends = new TreeSet<>();
+		for (int[] p : pos)
+			for (int q : p)
+				ends.add(q);
+		int matches = 0;
+		int lastEnd = -1;
+		for (int end : ends) {
+			if (end <= lastEnd)
+				continue;
+			if (exists(pos, 0, new int[pos.length], Math.max(lastEnd + 1, end - window + 1), end, ordered)) {
+				matches++;
+				lastEnd = end;
+			}
+		}
+		return matches;
+	}
+	
+	/** Every start position of a phrase is a match. */
+	private static int countPhrases(final int[][] pos)
+	{
+		int matches = 0;
+	outer:
+		for (int start : pos[0]) {
+			for (int i = 1; i < pos.length; i++)
+				if (Arrays.binarySearch(pos[i], start + i) < 0)
+					continue outer;
+			matches++;
+		}
+		return matches;
+	}
+	
+	private static boolean exists(final int[][] pos, final int i, final int[] chosen, final int from, final int end, final boolean ordered)
+	{
+		if (i == pos.length) {
+			for (int c : chosen)
+				if (c == end)
+					return true;
+			return false;
+		}
+		for (int q : pos[i]) {
+			if (q < from || q > end)
+				continue;
+			boolean ok = true;
+			for (int j = 0; j < i; j++)
+				if (chosen[j] == q)
+					ok = false;
+			if (i > 0 && ordered && q <= chosen[i - 1])
+				ok = false;
+			if (!ok)
+				continue;
+			chosen[i] = q;
+			if (exists(pos, i + 1, chosen, from, end, ordered))
+				return true;
+		}
+		return false;
+	}
+	
+	private Map<Integer, Integer> expected(final String[] query, final int window, final boolean ordered, final boolean phrase)
+	{
+		Map<Integer, Integer> result = new TreeMap<>();
+		for (int docid : positions.get(query[0]).keySet()) {
+			int[][] pos = new int[query.length][];
+			for (int i = 0; i < query.length; i++)
+				if ((pos[i] = positions.get(query[i]).get(docid)) == null)
+					break;
+			if (pos[query.length - 1] == null)
+				continue;
+			int matches = countMatches(pos, window, ordered, phrase);
+			if (matches > 0)
+				result.put(docid, matches);
+		}
+		return result;
+	}
+	
+	private static void check(final Map<Integer, Integer> expected, final EFANDIterablePosting op, final EFANDIterablePosting skipping) throws IOException
+	{
+		for (Map.Entry<Integer, Integer> e : expected.entrySet()) {
+			assertEquals((int) e.getKey(), op.next());
+			assertEquals((int) e.getValue(), op.getFrequency());
+		}
+		assertEquals(IterablePosting.EOL, op.next());
+		assertTrue(op.endOfPostings());
+		
+		int cnt = 0;
+		for (Map.Entry<Integer, Integer> e : expected.entrySet()) {
+			if (cnt++ % 2 == 0)
+				continue;
+			assertEquals((int) e.getKey(), skipping.next(e.getKey()));
+			assertEquals((int) e.getValue(), skipping.getFrequency());
+		}
+		op.close();
+		skipping.close();
+	}
+	
+	private List<String[]> queries()
+	{
+		List<String[]> queries = new ArrayList<>();
+		for (String a : terms)
+			for (String b : terms)
+				queries.add(new String[] { a, b });
+		for (int i = 0; i + 2 < NUM_TERMS; i++)
+			queries.add(new String[] { terms.get(i), terms.get(i + 1), terms.get(i + 2) });
+		return queries;
+	}
+	
+	@Test
+	public void phrase() throws IOException
+	{
+		for (String[] query : queries())
+			check(expected(query, query.length, true, true), EFPhraseIterablePosting.create(efIndex, query), EFPhraseIterablePosting.create(efIndex, query));
+	}
+
+	@Test
+	public void orderedWindow() throws IOException
+	{
+		for (int window : new int[] { 3, 8 })
+			for (String[] query : queries())
+				check(expected(query, window, true, false), EFWindowIterablePosting.create(efIndex, window, true, query), EFWindowIterablePosting.create(efIndex, window, true, query));
+	}
+
+	@Test
+	public void unorderedWindow() throws IOException
+	{
+		for (int window : new int[] { 3, 8 })
+			for (String[] query : queries())
+				check(expected(query, window, false, false), EFWindowIterablePosting.create(efIndex, window, false, query), EFWindowIterablePosting.create(efIndex, window, false, query));
+	}
+	
+	@After 
+	public void deleteIndex() throws IOException
+	{
+		originalIndex.close();
+		efIndex.close();
+	} 
+}
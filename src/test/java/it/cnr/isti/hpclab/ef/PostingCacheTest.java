@@ -0,0 +1,188 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.terrier.structures.Index;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.LexiconEntry;
+import org.terrier.structures.postings.IterablePosting;
+
+import it.cnr.isti.hpclab.ef.structures.EFArrayIterablePosting;
+import it.cnr.isti.hpclab.ef.structures.EFInvertedIndex;
+import it.cnr.isti.hpclab.ef.structures.EFPostingCache;
+
+public class PostingCacheTest extends EFSetupTest
+{
+	protected IndexOnDisk efIndex = null;
+	
+	@Before 
+	public void createIndex() throws Exception
+	{
+		super.doShakespeareIndexing();
+		IndexOnDisk originalIndex = Index.createIndex();
+		
+		String args[] = {"-path", originalIndex.getPath(), "-prefix", originalIndex.getPrefix() + ".ef", "-index", originalIndex.getPath() + File.separator + originalIndex.getPrefix() + ".properties", "-p", "2"};
+
+		System.setProperty(EliasFano.LOG2QUANTUM, "3");
+
+		Generator.main(args);
+		originalIndex.close();
+		
+		efIndex = Index.createIndex(args[1], args[3]);
+	}
+	
+	private static int[] list(final int length)
+	{
+		int[] list = new int[length];
+		for (int i = 0; i < length; i++)
+			list[i] = 2 * i;
+		return list;
+	}
+	
+	@Test
+	public void admission()
+	{
+		EFPostingCache cache = new EFPostingCache(EFPostingCache.bytes(10));
+		
+		assertNull(cache.get(1));
+		assertFalse(cache.shouldAdmit(1, 10));
+		assertNull(cache.get(1));
+		assertTrue(cache.shouldAdmit(1, 10));
+		assertFalse(cache.shouldAdmit(1, 11));
+		assertTrue(cache.put(1, list(10), list(10)));
+		
+		assertNotNull(cache.get(1));
+		assertEquals(1, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		assertEquals(1.0 / 3, cache.getHitRatio(), 1e-9);
+		assertEquals(EFPostingCache.bytes(10), cache.getUsedBytes());
+	}
+	
+	@Test
+	public void eviction()
+	{
+		EFPostingCache cache = new EFPostingCache(2 * EFPostingCache.bytes(10));
+		for (long key = 1; key <= 2; key++) {
+			cache.get(key);
+			cache.get(key);
+			assertTrue(cache.put(key, list(10), list(10)));
+		}
+		
+		// a list less frequent than the victim is rejected
+		cache.get(3);
+		cache.get(3);
+		cache.get(1);
+		cache.get(2);
+		assertFalse(cache.put(3, list(10), list(10)));
+		assertEquals(1, cache.getRejections());
+		assertEquals(2, cache.size());
+		
+		// a list more frequent than the victim replaces it, the most recently referenced list survives
+		for (int i = 0; i < 3; i++)
+			cache.get(3);
+		cache.get(2);
+		assertTrue(cache.put(3, list(10), list(10)));
+		assertEquals(1, cache.getEvictions());
+		assertEquals(2, cache.size());
+		assertTrue(cache.getUsedBytes() <= cache.getBudget());
+		assertNotNull(cache.get(3));
+	}
+	
+	@Test
+	public void rejectionBeforeDecoding()
+	{
+		EFPostingCache cache = new EFPostingCache(EFPostingCache.bytes(10));
+		for (int i = 0; i < 3; i++)
+			cache.get(1);
+		assertTrue(cache.put(1, list(10), list(10)));
+		
+		// a list requested often enough, but less frequent than the victim, is not decoded
+		cache.get(2);
+		cache.get(2);
+		assertFalse(cache.shouldAdmit(2, 10));
+		assertEquals(1, cache.getRejections());
+		assertEquals(1, cache.size());
+		
+		// once more frequent than the victim, it is decoded and replaces it
+		cache.get(2);
+		cache.get(2);
+		assertTrue(cache.shouldAdmit(2, 10));
+		assertTrue(cache.put(2, list(10), list(10)));
+		assertEquals(1, cache.getEvictions());
+		assertNull(cache.get(1));
+	}
+	
+	@Test
+	public void cachedPostingLists() throws IOException
+	{
+		EFInvertedIndex invertedIndex = (EFInvertedIndex) efIndex.getInvertedIndex();
+		EFPostingCache cache = new EFPostingCache(1 << 20, 1);
+		invertedIndex.setPostingCache(cache);
+		
+		for (int i = 0; i < efIndex.getCollectionStatistics().getNumberOfUniqueTerms(); i++) {
+			Map.Entry<String, LexiconEntry> efEntry = efIndex.getLexicon().getIthLexiconEntry(i);
+			
+			invertedIndex.setPostingCache(null);
+			IterablePosting op = invertedIndex.getPostings(efEntry.getValue());
+			invertedIndex.setPostingCache(cache);
+			IterablePosting sp = invertedIndex.getPostings(efEntry.getValue());
+			assertTrue(sp instanceof EFArrayIterablePosting);
+			
+			while (op.next() != IterablePosting.EOL) {
+				assertEquals(op.getId(), sp.next());
+				assertEquals(op.getFrequency(), sp.getFrequency());
+				assertEquals(op.getDocumentLength(), sp.getDocumentLength());
+			}
+			assertEquals(IterablePosting.EOL, sp.next());
+			
+			// skips on the cached list
+			op = invertedIndex.getPostings(efEntry.getValue());
+			invertedIndex.setPostingCache(null);
+			sp = invertedIndex.getPostings(efEntry.getValue());
+			invertedIndex.setPostingCache(cache);
+			for (int target = 0; sp.next(target) != IterablePosting.EOL; target = sp.getId() + 1 + (sp.getId() % 7) * 11) {
+				assertEquals(sp.getId(), op.next(target));
+				assertEquals(sp.getFrequency(), op.getFrequency());
+			}
+			assertEquals(IterablePosting.EOL, op.next(Integer.MAX_VALUE - 1));
+		}
+		assertEquals(efIndex.getCollectionStatistics().getNumberOfUniqueTerms(), cache.getHits());
+		assertTrue(cache.getUsedBytes() <= cache.getBudget());
+	}
+	
+	@After 
+	public void deleteIndex() throws IOException
+	{
+		efIndex.close();
+	} 
+}
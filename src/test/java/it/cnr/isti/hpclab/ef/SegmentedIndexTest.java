@@ -0,0 +1,221 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.terrier.applications.TRECIndexingSinglePass;
+import org.terrier.matching.Matching;
+import org.terrier.matching.MatchingQueryTerms;
+import org.terrier.matching.ResultSet;
+import org.terrier.matching.daat.Full;
+import org.terrier.matching.models.BM25;
+import org.terrier.structures.Index;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.LexiconEntry;
+import org.terrier.structures.postings.IterablePosting;
+import org.terrier.utility.ApplicationSetup;
+
+import it.cnr.isti.hpclab.ef.matching.BlockMaxWandMatching;
+import it.cnr.isti.hpclab.ef.matching.ShardedMatching;
+
+public class SegmentedIndexTest extends EFSetupTest
+{
+	private static final int BATCH_SIZE = 6;
+	private static final double DELTA = 1e-9;
+	
+	protected IndexOnDisk originalIndex = null;
+	protected List<String> batches = new ArrayList<String>();
+	protected String segmentsPath;
+	
+	@Before 
+	public void createIndex() throws Exception
+	{
+		super.doShakespeareIndexing();
+		originalIndex = Index.createIndex();
+		System.setProperty(EliasFano.LOG2QUANTUM, "3");
+		
+		// the documents of the collection, in order, split in batches
+		List<String> docs = new ArrayList<String>();
+		Pattern doc = Pattern.compile("<DOC>.*?</DOC>", Pattern.DOTALL);
+		for (String file : new String[] { "shakespeare-merchant.trec.1", "shakespeare-merchant.trec.2" }) {
+			Matcher m = doc.matcher(new String(Files.readAllBytes(Paths.get(System.getProperty("user.dir"), "src/test/resources/shakespeare", file)), StandardCharsets.UTF_8));
+			while (m.find())
+				docs.add(m.group());
+		}
+		for (int b = 0; b * BATCH_SIZE < docs.size(); b++) {
+			File batch = tmpFolder.newFile("batch" + b + ".trec");
+			Files.write(batch.toPath(), String.join("\n", docs.subList(b * BATCH_SIZE, Math.min(docs.size(), (b + 1) * BATCH_SIZE))).getBytes(StandardCharsets.UTF_8));
+			
+			PrintWriter p = new PrintWriter(org.terrier.utility.Files.writeFileWriter(ApplicationSetup.TERRIER_ETC +  "/collection.spec"));
+			p.println(batch.getAbsolutePath());
+			p.close();
+			new TRECIndexingSinglePass(originalIndex.getPath(), "batch" + b).index();
+			batches.add(originalIndex.getPath() + File.separator + "batch" + b + ".properties");
+		}
+		segmentsPath = tmpFolder.newFolder("segments").getAbsolutePath();
+	}
+	
+	private void comparePostings(SegmentedIndex index) throws IOException
+	{
+		try (SegmentedIndex.Snapshot snapshot = index.acquire()) {
+			assertEquals(originalIndex.getCollectionStatistics().getNumberOfDocuments(), snapshot.getNumberOfDocuments());
+			for (int i = 0; i < originalIndex.getCollectionStatistics().getNumberOfUniqueTerms(); i++) {
+				Map.Entry<String, LexiconEntry> entry = originalIndex.getLexicon().getIthLexiconEntry(i);
+				IterablePosting op = originalIndex.getInvertedIndex().getPostings(entry.getValue());
+				IterablePosting sp = snapshot.getPostings(entry.getKey());
+				assertNotNull(sp);
+				while (op.next() != IterablePosting.EOL) {
+					assertEquals(op.getId(), sp.next());
+					assertEquals(op.getFrequency(), sp.getFrequency());
+					assertEquals(op.getDocumentLength(), sp.getDocumentLength());
+				}
+				assertEquals(IterablePosting.EOL, sp.next());
+				
+				op = originalIndex.getInvertedIndex().getPostings(entry.getValue());
+				sp = snapshot.getPostings(entry.getKey());
+				for (int target = 0; op.next(target) != IterablePosting.EOL; target = op.getId() + 1 + op.getId() % 5) {
+					assertEquals(op.getId(), sp.next(target));
+					assertEquals(op.getFrequency(), sp.getFrequency());
+				}
+				assertEquals(IterablePosting.EOL, sp.next(Integer.MAX_VALUE - 1));
+			}
+		}
+	}
+	
+	private void compareMatching(SegmentedIndex index) throws IOException
+	{
+		Matching full = new Full(originalIndex);
+		try (SegmentedIndex.Snapshot snapshot = index.acquire()) {
+			ShardedMatching sharded = snapshot.getMatching();
+			for (int i = 0; i < originalIndex.getCollectionStatistics().getNumberOfUniqueTerms(); i += 7) {
+				String[] terms = { originalIndex.getLexicon().getIthLexiconEntry(i).getKey(), originalIndex.getLexicon().getIthLexiconEntry((i * 31) % originalIndex.getCollectionStatistics().getNumberOfUniqueTerms()).getKey() };
+				ResultSet expected = run(full, terms, i);
+				ResultSet actual = run(sharded, terms, i);
+				assertEquals(expected.getResultSize(), actual.getResultSize());
+				for (int r = 0; r < expected.getResultSize(); r++)
+					assertEquals(expected.getScores()[r], actual.getScores()[r], DELTA);
+			}
+		}
+	}
+	
+	private static ResultSet run(Matching matching, String[] terms, int qid) throws IOException
+	{
+		MatchingQueryTerms mqt = new MatchingQueryTerms(Integer.toString(qid));
+		for (String term : terms)
+			mqt.setTermProperty(term, 1.0d);
+		mqt.setDefaultTermWeightingModel(new BM25());
+		return matching.match(Integer.toString(qid), mqt);
+	}
+	
+	@Test
+	public void segments() throws IOException
+	{
+		try (SegmentedIndex index = new SegmentedIndex(segmentsPath)) {
+			index.setMergeFactor(100);
+			for (String batch : batches)
+				index.addSegment(batch);
+			index.waitForMerges();
+			assertEquals(batches.size(), index.getNumberOfSegments());
+			comparePostings(index);
+			compareMatching(index);
+		}
+	}
+	
+	@Test
+	public void tieredMerges() throws IOException
+	{
+		try (SegmentedIndex index = new SegmentedIndex(segmentsPath)) {
+			index.setMergeFactor(2);
+			for (String batch : batches)
+				index.addSegment(batch);
+			index.waitForMerges();
+			assertEquals(1, index.getNumberOfSegments());
+			comparePostings(index);
+			compareMatching(index);
+		}
+		
+		// the merged segments have been deleted, and the merged one is reopened
+		assertFalse(new File(segmentsPath, SegmentedIndex.SEGMENT_PREFIX + "0.properties").exists());
+		try (SegmentedIndex index = new SegmentedIndex(segmentsPath)) {
+			assertEquals(1, index.getNumberOfSegments());
+			comparePostings(index);
+		}
+	}
+	
+	@Test
+	public void segmentsWithBlockMax() throws IOException
+	{
+		ApplicationSetup.setProperty(ShardedMatching.MATCHING_PROPERTY, BlockMaxWandMatching.class.getName());
+		try (SegmentedIndex index = new SegmentedIndex(segmentsPath, true, false)) {
+			index.setMergeFactor(100);
+			for (String batch : batches)
+				index.addSegment(batch);
+			index.waitForMerges();
+			// Block-Max WAND on every live segment, with the statistics of all the segments
+			assertEquals(batches.size(), index.getNumberOfSegments());
+			compareMatching(index);
+		}
+	}
+	
+	@Test
+	public void mergeAllWithBlockMax() throws IOException
+	{
+		ApplicationSetup.setProperty(ShardedMatching.MATCHING_PROPERTY, BlockMaxWandMatching.class.getName());
+		try (SegmentedIndex index = new SegmentedIndex(segmentsPath, true, false)) {
+			index.setMergeFactor(100);
+			for (String batch : batches)
+				index.addSegment(batch);
+			try (SegmentedIndex.Snapshot snapshot = index.acquire()) {
+				index.mergeAll();
+				assertEquals(1, index.getNumberOfSegments());
+				// the old snapshot still works on the merged segments
+				assertEquals(batches.size(), snapshot.getSegments().length);
+				assertNotNull(snapshot.getPostings(originalIndex.getLexicon().getIthLexiconEntry(0).getKey()).next());
+			}
+			assertFalse(new File(segmentsPath, SegmentedIndex.SEGMENT_PREFIX + "0.properties").exists());
+			comparePostings(index);
+			compareMatching(index);
+		}
+	}
+	
+	@After
+	public void deleteIndex() throws IOException
+	{
+		originalIndex.close();
+	}
+}
@@ -0,0 +1,244 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+import org.terrier.structures.Index;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.structures.LexiconEntry;
+import org.terrier.structures.postings.IterablePosting;
+
+import it.cnr.isti.hpclab.ef.util.DocidReader;
+import it.cnr.isti.hpclab.ef.util.FreqReader;
+import it.cnr.isti.hpclab.ef.util.LongWordBitReader;
+import it.cnr.isti.hpclab.ef.util.LongWordBitWriter;
+import it.cnr.isti.hpclab.ef.util.SelectIndexEncoder;
+import it.cnr.isti.hpclab.ef.util.SelectIndexReader;
+import it.cnr.isti.hpclab.ef.util.SequenceEncoder;
+import it.cnr.isti.hpclab.ef.util.Utils;
+import it.unimi.dsi.fastutil.longs.LongBigList;
+import it.unimi.dsi.util.ByteBufferLongBigList;
+
+public class SelectIndexTest extends EFSetupTest
+{
+	private static final int CACHE_SIZE = 1024 * 1024;
+	private static final int LOG2QUANTUM = 8;
+	
+	protected IndexOnDisk originalIndex = null;
+	protected IndexOnDisk efIndex = null;
+	
+	@After
+	public void deleteIndex() throws IOException
+	{
+		if (efIndex != null)
+			efIndex.close();
+		if (originalIndex != null)
+			originalIndex.close();
+	}
+	
+	@SuppressWarnings("resource")
+	private static LongBigList map(final File file) throws IOException
+	{
+		return ByteBufferLongBigList.map(new FileInputStream(file).getChannel(), ByteOrder.nativeOrder(), MapMode.READ_ONLY);
+	}
+	
+	/**
+	 * Positions alternating dense runs and runs of large gaps, so that both dense and sparse blocks are encoded.
+	 */
+	private static long[] positions(final Random random, final int count)
+	{
+		final long[] positions = new long[count];
+		long position = -1;
+		for (int i = 0; i < count; i++) {
+			position += ((i >>> 11 & 1) == 0) ? 1 + random.nextInt(4) : 1 + random.nextInt(200);
+			positions[i] = position;
+		}
+		return positions;
+	}
+	
+	@SuppressWarnings("resource")
+	@Test
+	public void selectOnesAndZeroes() throws IOException
+	{
+		final Random random = new Random(42);
+		final long[] ones = positions(random, 10000);
+		final long bits = ones[ones.length - 1] + 1;
+		
+		// the upper bits, with the given ones, followed by the select index over ones and by the select index over zeroes
+		final File file = tmpFolder.newFile("select");
+		final LongWordBitWriter writer = new LongWordBitWriter(new FileOutputStream(file).getChannel(), ByteOrder.nativeOrder());
+		long last = -1;
+		for (long one : ones) {
+			for (long zero = last + 1; zero < one; zero++)
+				writer.append(0, 1);
+			writer.append(1, 1);
+			last = one;
+		}
+		long zeroes = 0;
+		try (SelectIndexEncoder encoder = new SelectIndexEncoder(CACHE_SIZE)) {
+			encoder.init(bits);
+			for (long one : ones)
+				encoder.add(one);
+			encoder.dump(writer);
+			
+			encoder.init(bits);
+			for (int i = 0, j = 0; i < bits; i++) 
+				if (j < ones.length && ones[j] == i)
+					j++;
+				else {
+					encoder.add(i);
+					zeroes++;
+				}
+			encoder.dump(writer);
+		}
+		writer.close();
+		
+		final LongBigList list = map(file);
+		final SelectIndexReader onesReader = new SelectIndexReader(list, bits, list, 0, false);
+		final SelectIndexReader zeroesReader = new SelectIndexReader(list, SelectIndexReader.end(list, bits), list, 0, true);
+		assertEquals(ones.length, onesReader.count());
+		assertEquals(zeroes, zeroesReader.count());
+		for (int i = 0; i < ones.length; i++)
+			assertEquals(ones[i], onesReader.select(i));
+		for (int i = 0, j = 0, rank = 0; i < bits; i++)
+			if (j < ones.length && ones[j] == i)
+				j++;
+			else
+				assertEquals(i, zeroesReader.select(rank++));
+	}
+	
+	@SuppressWarnings("resource")
+	@Test
+	public void readersWithSelectIndex() throws IOException
+	{
+		final Random random = new Random(42);
+		final int length = 20000;
+		final long[] docids = positions(random, length);
+		final int[] freqs = new int[length];
+		long occurrencies = 0;
+		for (int i = 0; i < length; i++)
+			occurrencies += freqs[i] = 1 + ((i >>> 10 & 1) == 0 ? 0 : random.nextInt(1000));
+		final int numDocs = (int) docids[length - 1] + 1 + random.nextInt(10000);
+		
+		final File docidFile = tmpFolder.newFile("docids");
+		final File freqFile = tmpFolder.newFile("freqs");
+		final File selectFile = tmpFolder.newFile("select");
+		final LongWordBitWriter docidWriter = new LongWordBitWriter(new FileOutputStream(docidFile).getChannel(), ByteOrder.nativeOrder());
+		final LongWordBitWriter freqWriter = new LongWordBitWriter(new FileOutputStream(freqFile).getChannel(), ByteOrder.nativeOrder());
+		final LongWordBitWriter selectWriter = new LongWordBitWriter(new FileOutputStream(selectFile).getChannel(), ByteOrder.nativeOrder());
+		try (SequenceEncoder docidsAccumulator = new SequenceEncoder(CACHE_SIZE, LOG2QUANTUM); SequenceEncoder freqsAccumulator = new SequenceEncoder(CACHE_SIZE, LOG2QUANTUM)) {
+			docidsAccumulator.init(length, numDocs, false, true, LOG2QUANTUM, true);
+			freqsAccumulator.init(length, occurrencies, true, false, LOG2QUANTUM, true);
+			long lastDocid = 0;
+			for (int i = 0; i < length; i++) {
+				docidsAccumulator.add(docids[i] - lastDocid);
+				lastDocid = docids[i];
+				freqsAccumulator.add(freqs[i]);
+			}
+			docidsAccumulator.dump(docidWriter);
+			freqsAccumulator.dump(freqWriter);
+			docidsAccumulator.dumpSelectIndex(selectWriter);
+			freqsAccumulator.dumpSelectIndex(selectWriter);
+		}
+		docidWriter.close();
+		freqWriter.close();
+		selectWriter.close();
+		
+		final LongBigList docidList = map(docidFile);
+		final LongBigList freqList = map(freqFile);
+		final LongBigList selectList = map(selectFile);
+		
+		for (int step : new int[] { 1, 7, 33, 100, 1000, 5000 }) {
+			final DocidReader docidReader = docidReader(docidList, length, numDocs);
+			final DocidReader selectDocidReader = docidReader(docidList, length, numDocs);
+			selectDocidReader.useSelectIndex(selectList, 0);
+			final FreqReader freqReader = new FreqReader(freqList, 0, length, occurrencies, LOG2QUANTUM);
+			final FreqReader selectFreqReader = new FreqReader(freqList, 0, length, occurrencies, LOG2QUANTUM);
+			selectFreqReader.useSelectIndex(selectList, SelectIndexReader.end(selectList, 0));
+			
+			for (int i = random.nextInt(step); i < length; i += 1 + random.nextInt(2 * step)) {
+				final long target = docids[i] - random.nextInt(2);
+				final long docid = selectDocidReader.skipTo(target);
+				assertEquals(docidReader.skipTo(target), docid);
+				assertTrue(docid >= target);
+				final long index = selectDocidReader.getCurrentPos() - 1;
+				assertEquals(docidReader.getCurrentPos() - 1, index);
+				assertEquals(docids[(int) index], docid);
+				assertEquals(freqs[(int) index], selectFreqReader.getLong(index));
+				assertEquals(freqReader.getLong(index), freqs[(int) index]);
+			}
+			assertEquals(numDocs, selectDocidReader.skipTo(numDocs));
+		}
+	}
+	
+	private static DocidReader docidReader(final LongBigList docidList, final int length, final int numDocs)
+	{
+		final int l = Utils.lowerBits(length + 1, numDocs, false);
+		final int pointerSize = Utils.pointerSize(length + 1, numDocs, false, true);
+		final long numberOfPointers = Utils.numberOfPointers(length + 1, numDocs, LOG2QUANTUM, false, true);
+		final LongWordBitReader lowerBits = new LongWordBitReader(docidList, l);
+		lowerBits.position(pointerSize * numberOfPointers);
+		return new DocidReader(docidList, lowerBits, pointerSize * numberOfPointers, l, new LongWordBitReader(docidList, pointerSize), 0, numberOfPointers, pointerSize, length, LOG2QUANTUM);
+	}
+	
+	@Test
+	public void indexWithSelectIndex() throws Exception
+	{
+		super.doShakespeareIndexing();
+		originalIndex = Index.createIndex();
+		
+		String args[] = {"-path", originalIndex.getPath(), "-prefix", originalIndex.getPrefix() + ".ef", "-index", originalIndex.getPath() + File.separator + originalIndex.getPrefix() + ".properties", "-p", "3", "-select", "4"};
+		System.setProperty(EliasFano.LOG2QUANTUM, "3");
+		Generator.main(args);
+		efIndex = Index.createIndex(args[1], args[3]);
+		assertEquals(4, efIndex.getIntIndexProperty(EliasFano.SELECT_THRESHOLD, 0));
+		
+		for (int skipSize : new int[] { 2, 40, 100 }) {
+			for (Map.Entry<String, LexiconEntry> originalEntry : originalIndex.getLexicon()) {
+				final LexiconEntry sle = efIndex.getLexicon().getLexiconEntry(originalEntry.getKey());
+				final IterablePosting op = originalIndex.getInvertedIndex().getPostings(originalEntry.getValue());
+				final IterablePosting sp = efIndex.getInvertedIndex().getPostings(sle);
+				int cnt = 0;
+				while (op.next() != IterablePosting.EOL) {
+					if (++cnt == skipSize) {
+						cnt = 0;
+						assertEquals(op.getId(), sp.next(op.getId()));
+						assertEquals(op.getFrequency(), sp.getFrequency());
+					}
+				}
+				op.close();
+				sp.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.terrier.applications.TRECIndexingSinglePass;
+import org.terrier.matching.Matching;
+import org.terrier.matching.MatchingQueryTerms;
+import org.terrier.matching.ResultSet;
+import org.terrier.matching.daat.Full;
+import org.terrier.matching.models.BM25;
+import org.terrier.structures.Index;
+import org.terrier.structures.IndexOnDisk;
+import org.terrier.utility.ApplicationSetup;
+import org.terrier.utility.Files;
+
+import it.cnr.isti.hpclab.ef.matching.BlockMaxWandMatching;
+import it.cnr.isti.hpclab.ef.matching.ShardedMatching;
+import it.cnr.isti.hpclab.ef.matching.WandMatching;
+
+public class ShardedMatchingTest extends EFSetupTest
+{
+	private static final int NUM_QUERIES = 200;
+	private static final double DELTA = 1e-9;
+	private static final String[] FILES = { "shakespeare-merchant.trec.1", "shakespeare-merchant.trec.2" };
+	
+	protected IndexOnDisk originalIndex = null;
+	protected String[] shards = new String[FILES.length];
+	
+	private List<String[]> queries;
+	
+	@Before 
+	public void createIndex() throws Exception
+	{
+		super.doShakespeareIndexing();
+		originalIndex = Index.createIndex();
+		
+		System.setProperty(EliasFano.LOG2QUANTUM, "3");
+		
+		// one index per file, converted to Elias-Fano
+		for (int s = 0; s < FILES.length; s++) {
+			PrintWriter p = new PrintWriter(Files.writeFileWriter(ApplicationSetup.TERRIER_ETC +  "/collection.spec"));
+			p.println(System.getProperty("user.dir") + "/src/test/resources/shakespeare/" + FILES[s]);
+			p.close();
+			String prefix = "shard" + s;
+			new TRECIndexingSinglePass(originalIndex.getPath(), prefix).index();
+			
+			String args[] = {"-path", originalIndex.getPath(), "-prefix", prefix + ".ef", "-index", originalIndex.getPath() + File.separator + prefix + ".properties", "-p", "1", "-blockmax"};
+			Generator.main(args);
+			shards[s] = originalIndex.getPath() + File.separator + prefix + ".ef.properties";
+		}
+		
+		Random rnd = new Random(42);
+		int numTerms = originalIndex.getCollectionStatistics().getNumberOfUniqueTerms();
+		queries = new ArrayList<String[]>();
+		for (int q = 0; q < NUM_QUERIES; q++) {
+			String[] terms = new String[1 + rnd.nextInt(5)];
+			for (int i = 0; i < terms.length; i++)
+				terms[i] = originalIndex.getLexicon().getIthLexiconEntry(rnd.nextInt(numTerms)).getKey();
+			queries.add(terms);
+		}
+	}
+	
+	private static ResultSet run(Matching matching, String[] terms, int qid) throws IOException
+	{
+		MatchingQueryTerms mqt = new MatchingQueryTerms(Integer.toString(qid));
+		for (String term : terms)
+			mqt.setTermProperty(term, 1.0d);
+		mqt.setDefaultTermWeightingModel(new BM25());
+		return matching.match(Integer.toString(qid), mqt);
+	}
+	
+	private void compare(ShardedMatching sharded) throws IOException
+	{
+		Matching full = new Full(originalIndex);
+		assertEquals(originalIndex.getCollectionStatistics().getNumberOfDocuments(), sharded.getCollectionStatistics().getNumberOfDocuments());
+		assertEquals(originalIndex.getCollectionStatistics().getNumberOfTokens(), sharded.getCollectionStatistics().getNumberOfTokens());
+		
+		for (int q = 0; q < queries.size(); q++) {
+			ResultSet expected = run(full, queries.get(q), q);
+			ResultSet actual = run(sharded, queries.get(q), q);
+			
+			assertEquals(expected.getResultSize(), actual.getResultSize());
+			for (int i = 0; i < expected.getResultSize(); i++) {
+				assertEquals(expected.getScores()[i], actual.getScores()[i], DELTA);
+				assertEquals(originalIndex.getMetaIndex().getItem("docno", actual.getDocids()[i]), actual.getMetaItem("docno", i));
+			}
+			assertEquals(above(expected), above(actual));
+		}
+	}
+	
+	private static Set<Integer> above(ResultSet rs)
+	{
+		Set<Integer> docids = new HashSet<Integer>();
+		if (rs.getResultSize() == 0)
+			return docids;
+		double last = rs.getScores()[rs.getResultSize() - 1];
+		for (int i = 0; i < rs.getResultSize(); i++)
+			if (rs.getScores()[i] > last + DELTA)
+				docids.add(rs.getDocids()[i]);
+		return docids;
+	}
+	
+	@Test
+	public void maxScore() throws IOException
+	{
+		try (ShardedMatching sharded = ShardedMatching.open(shards)) {
+			compare(sharded);
+		}
+	}
+	
+	@Test
+	public void wandSingleThread() throws IOException
+	{
+		IndexOnDisk[] indexes = new IndexOnDisk[shards.length];
+		for (int s = 0; s < shards.length; s++)
+			indexes[s] = Index.createIndex(originalIndex.getPath(), "shard" + s + ".ef");
+		try (ShardedMatching sharded = new ShardedMatching(indexes, WandMatching.class.getName(), 1)) {
+			compare(sharded);
+			assertEquals(0, sharded.getShardOf(0));
+			assertEquals(1, sharded.getShardOf(indexes[0].getCollectionStatistics().getNumberOfDocuments()));
+			assertEquals(0, sharded.getLocalDocid(indexes[0].getCollectionStatistics().getNumberOfDocuments()));
+		} finally {
+			for (IndexOnDisk index : indexes)
+				index.close();
+		}
+	}
+	
+	@Test
+	public void blockMaxWand() throws IOException
+	{
+		// in reverse order too, so that the term ids of the first shard with a term are not the ones of the other shard
+		for (boolean reverse : new boolean[] { false, true }) {
+			IndexOnDisk[] indexes = new IndexOnDisk[shards.length];
+			for (int s = 0; s < shards.length; s++)
+				indexes[s] = Index.createIndex(originalIndex.getPath(), "shard" + (reverse ? shards.length - 1 - s : s) + ".ef");
+			try (ShardedMatching bmw = new ShardedMatching(indexes, BlockMaxWandMatching.class.getName(), shards.length);
+					ShardedMatching wand = new ShardedMatching(indexes, WandMatching.class.getName(), shards.length)) {
+				if (!reverse)
+					compare(bmw);
+				for (int q = 0; q < queries.size(); q++) {
+					ResultSet expected = run(wand, queries.get(q), q);
+					ResultSet actual = run(bmw, queries.get(q), q);
+					assertEquals(expected.getResultSize(), actual.getResultSize());
+					for (int i = 0; i < expected.getResultSize(); i++)
+						assertEquals(expected.getScores()[i], actual.getScores()[i], DELTA);
+					assertEquals(above(expected), above(actual));
+				}
+			} finally {
+				for (IndexOnDisk index : indexes)
+					index.close();
+			}
+		}
+	}
+	
+	@After
+	public void deleteIndex() throws IOException
+	{
+		originalIndex.close();
+	}
+}
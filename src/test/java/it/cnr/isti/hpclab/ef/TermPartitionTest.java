@@ -0,0 +1,106 @@
+/*
+ * Elias-Fano compression for Terrier 5
+ *
+ * Copyright (C) 2018-2018 Nicola Tonellotto 
+ *
+ *  This library is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as published by the Free
+ *  Software Foundation; either version 3 of the License, or (at your option)
+ *  any later version.
+ *
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ *  or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package it.cnr.isti.hpclab.ef;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.junit.Test;
+import org.terrier.structures.BasicLexiconEntry;
+import org.terrier.structures.LexiconEntry;
+
+public class TermPartitionTest 
+{
+	private static List<Entry<String, LexiconEntry>> lexicon(final int[] dfs)
+	{
+		List<Entry<String, LexiconEntry>> lex = new ArrayList<>();
+		for (int i = 0; i < dfs.length; i++)
+			lex.add(new AbstractMap.SimpleEntry<String, LexiconEntry>("t" + i, new BasicLexiconEntry(i, dfs[i], dfs[i])));
+		return lex;
+	}
+	
+	private static long total(final int[] dfs)
+	{
+		long total = 0;
+		for (int df: dfs)
+			total += df;
+		return total;
+	}
+	
+	private static void checkCoverage(final TermPartition[] partitions, final int max)
+	{
+		int begin = 0;
+		for (int i = 0; i < partitions.length; i++) {
+			assertEquals(i, partitions[i].id());
+			assertEquals(begin, partitions[i].begin);
+			assertTrue(partitions[i].begin < partitions[i].end);
+			begin = partitions[i].end;
+		}
+		assertEquals(max, begin);
+	}
+	
+	@Test
+	public void zipfian()
+	{
+		final int max = 1000;
+		int[] dfs = new int[max];
+		for (int i = 0; i < max; i++)
+			dfs[i] = 100000 / (i + 1);
+		
+		for (int bins = 1; bins <= 8; bins++) {
+			TermPartition[] partitions = TermPartition.split(lexicon(dfs).iterator(), max, total(dfs), bins, LexiconEntry::getDocumentFrequency);
+			assertEquals(bins, partitions.length);
+			checkCoverage(partitions, max);
+			
+			// every partition but the last one has at most its share plus one term 
+			for (int i = 0; i < bins - 1; i++) {
+				long volume = 0;
+				for (int t = partitions[i].begin; t < partitions[i].end; t++)
+					volume += dfs[t];
+				assertTrue(volume <= total(dfs) / bins + dfs[partitions[i].begin] + dfs[partitions[i].end - 1]);
+			}
+		}
+	}
+	
+	@Test
+	public void heavyHead()
+	{
+		// a single term holding almost all the postings must not leave empty partitions 
+		int[] dfs = {1000000, 1, 1, 1, 1};
+		TermPartition[] partitions = TermPartition.split(lexicon(dfs).iterator(), dfs.length, total(dfs), 4, LexiconEntry::getDocumentFrequency);
+		assertEquals(4, partitions.length);
+		checkCoverage(partitions, dfs.length);
+		assertEquals(1, partitions[0].end);
+	}
+	
+	@Test
+	public void moreBinsThanTerms()
+	{
+		int[] dfs = {3, 2, 1};
+		TermPartition[] partitions = TermPartition.split(lexicon(dfs).iterator(), dfs.length, total(dfs), 8, LexiconEntry::getDocumentFrequency);
+		assertEquals(dfs.length, partitions.length);
+		checkCoverage(partitions, dfs.length);
+	}
+}